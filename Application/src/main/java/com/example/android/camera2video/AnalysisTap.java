@@ -0,0 +1,219 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Feeds camera images to {@link FrameAnalyzer}s on a pool of workers without ever holding the
+ * camera up.
+ * <p>
+ * Images wait in a queue of at most maxPending; when a new one arrives at a full queue the
+ * oldest is closed unanalyzed, so an ImageReader never runs out of images and analysis always
+ * works on the freshest frames.  Each worker wraps an image's planes in a pooled
+ * {@link YuvFrame} without copying, runs every analyzer on it and closes the image.  Images
+ * stay open only while queued or being analyzed: at most maxPending + workers, which is what
+ * the ImageReader's maxImages has to cover.
+ * <p>
+ * Pure Java, parameterized on the image type; the platform side is behind {@link Host}.
+ * {@link #offer} may be called from any thread.
+ */
+public class AnalysisTap<I> {
+
+    /**
+     * The image side.
+     */
+    public interface Host<I> {
+        /**
+         * Points frame at the image's planes and sets its size and timestamp.
+         */
+        void wrap(I image, YuvFrame frame);
+
+        /**
+         * Gives the image back to its producer.
+         */
+        void close(I image);
+    }
+
+    private final Host<I> _Host;
+    private final Executor _Workers;
+    private final int _WorkerCount;
+    private final int _MaxPending;
+    private final List<FrameAnalyzer> _Analyzers = new CopyOnWriteArrayList<>();
+
+    // guarded by this
+    private final ArrayDeque<I> _Pending;
+    private final ArrayDeque<YuvFrame> _FramePool = new ArrayDeque<>();
+    private int _Running;
+    private boolean _Closed;
+
+    // written under this, read from anywhere
+    private volatile long _OfferedCount;
+    private volatile long _AnalyzedCount;
+    private volatile long _DroppedCount;
+    private final LatencyHistogram _AnalysisTime = new LatencyHistogram();
+
+    private final Runnable _Drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param workers     runs the analysis; needs workerCount threads to run them in parallel
+     * @param workerCount analyses running at once
+     * @param maxPending  images queued behind them before the oldest is dropped
+     */
+    public AnalysisTap(Host<I> host, Executor workers, int workerCount, int maxPending) {
+        _Host = host;
+        _Workers = workers;
+        _WorkerCount = Math.max(1, workerCount);
+        _MaxPending = Math.max(1, maxPending);
+        _Pending = new ArrayDeque<>(_MaxPending);
+        for (int i = 0; i < _WorkerCount; i++) {
+            _FramePool.add(new YuvFrame());
+        }
+    }
+
+    public void addAnalyzer(FrameAnalyzer analyzer) {
+        _Analyzers.add(analyzer);
+    }
+
+    public void removeAnalyzer(FrameAnalyzer analyzer) {
+        _Analyzers.remove(analyzer);
+    }
+
+    /**
+     * Images open at once at most: what an ImageReader feeding this needs as maxImages, not
+     * counting the one it is about to hand over.
+     */
+    public int getMaxOpenImages() {
+        return _MaxPending + _WorkerCount;
+    }
+
+    /**
+     * Queues an image for analysis and takes ownership of it.
+     */
+    public void offer(I image) {
+        I dropped = null;
+        boolean start = false;
+        synchronized (this) {
+            _OfferedCount++;
+            if (_Closed) {
+                dropped = image;
+                _DroppedCount++;
+            } else {
+                if (_Pending.size() == _MaxPending) {
+                    dropped = _Pending.poll();
+                    _DroppedCount++;
+                }
+                _Pending.add(image);
+                if (_Running < _WorkerCount) {
+                    _Running++;
+                    start = true;
+                }
+            }
+        }
+        if (dropped != null) {
+            _Host.close(dropped);
+        }
+        if (start) {
+            _Workers.execute(_Drain);
+        }
+    }
+
+    private void drain() {
+        YuvFrame frame;
+        synchronized (this) {
+            frame = _FramePool.poll();
+        }
+        boolean analyzed = false;
+        boolean idle = false;
+        try {
+            while (true) {
+                I image;
+                synchronized (this) {
+                    if (analyzed) {
+                        _AnalyzedCount++;
+                    }
+                    image = _Pending.poll();
+                    if (image == null) {
+                        // in the same lock as the poll, or an offer could see every worker busy
+                        _Running--;
+                        idle = true;
+                        return;
+                    }
+                }
+                long startNs = System.nanoTime();
+                try {
+                    _Host.wrap(image, frame);
+                    for (FrameAnalyzer analyzer : _Analyzers) {
+                        analyzer.analyze(frame);
+                    }
+                } finally {
+                    frame.clear();
+                    _Host.close(image);
+                }
+                _AnalysisTime.record((System.nanoTime() - startNs) / 1000);
+                analyzed = true;
+            }
+        } finally {
+            synchronized (this) {
+                if (!idle) {
+                    // an analyzer threw; the worker is gone
+                    _Running--;
+                }
+                _FramePool.add(frame);
+            }
+        }
+    }
+
+    /**
+     * Closes the queued images; images offered afterwards are closed right away.  Analyses
+     * already running finish.
+     */
+    public void close() {
+        I[] pending;
+        synchronized (this) {
+            _Closed = true;
+            @SuppressWarnings("unchecked")
+            I[] array = (I[]) _Pending.toArray();
+            pending = array;
+            _Pending.clear();
+            _DroppedCount += pending.length;
+        }
+        for (I image : pending) {
+            _Host.close(image);
+        }
+    }
+
+    public long getOfferedCount() {
+        return _OfferedCount;
+    }
+
+    public long getAnalyzedCount() {
+        return _AnalyzedCount;
+    }
+
+    /**
+     * Images closed unanalyzed because analysis fell behind, or at close().
+     */
+    public long getDroppedCount() {
+        return _DroppedCount;
+    }
+
+    /**
+     * Time per image for all analyzers together, in microseconds.
+     */
+    public LatencyHistogram getAnalysisTime() {
+        return _AnalysisTime;
+    }
+
+    public String summary() {
+        LatencyHistogram.Snapshot time = _AnalysisTime.snapshot();
+        return String.format("%d offered, %d analyzed, %d dropped, analysis p50 %d us p99 %d us",
+                _OfferedCount, _AnalyzedCount, _DroppedCount, time.getPercentile(50), time.getPercentile(99));
+    }
+}
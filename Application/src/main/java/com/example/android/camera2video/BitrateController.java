@@ -0,0 +1,172 @@
+package com.example.android.camera2video;
+
+/**
+ * Closed-loop bitrate control for the encoder.
+ * <p>
+ * Fed with every encoded sample plus the writer backlog, and once per evaluation interval it
+ * applies an AIMD law: back off multiplicatively when the writer falls behind, samples get
+ * dropped or the encoder puts out fewer frames than it is given (thermal throttling), and
+ * probe upwards additively while the backlog stays low.  The result is always clamped to the
+ * configured bounds.
+ * <p>
+ * A camera that slows down on its own (low light) isn't the encoder's fault, so the output rate
+ * is judged against the measured input rate; only without an input count does the configured
+ * rate stand in.  A pause in the samples of more than half an interval is idle time, not a slow
+ * stream, and starts a new window, as does {@link #reset}.
+ * <p>
+ * Pure Java and driven only by the values passed in, so recorded traces can be replayed on the
+ * JVM.  Not thread safe; call it from the codec callback thread.
+ */
+public class BitrateController {
+    public static final long DEFAULT_INTERVAL_US = 1000000L;
+
+    private static final float HIGH_BACKLOG = 0.5f;
+    private static final float LOW_BACKLOG = 0.1f;
+    private static final float BACKLOG_DECREASE = 0.7f;
+    private static final float FRAME_RATE_DECREASE = 0.85f;
+    private static final float MIN_FRAME_RATE_RATIO = 0.8f;
+    private static final float INCREASE_STEP = 0.05f;
+    private static final float MIN_CHANGE = 0.02f;
+
+    private final int _MinBitrate;
+    private final int _MaxBitrate;
+    private final int _FrameRate;
+    private long _IntervalUs = DEFAULT_INTERVAL_US;
+
+    private int _Bitrate;
+    private long _WindowStartUs = -1;
+    private long _LastPtsUs;
+    private long _WindowStartInput;
+    private long _WindowBytes;
+    private int _WindowFrames;
+    private int _WindowMaxBacklog;
+    private long _LastDropped;
+    private boolean _Dropped;
+
+    private int _MeasuredBitrate;
+    private float _MeasuredFrameRate;
+    private float _MeasuredInputFrameRate;
+    private int _AdjustCount;
+
+    public BitrateController(int minBitrate, int maxBitrate, int initialBitrate, int frameRate) {
+        if (minBitrate <= 0 || minBitrate > maxBitrate) {
+            throw new IllegalArgumentException("bad bitrate bounds " + minBitrate + ".." + maxBitrate);
+        }
+        _MinBitrate = minBitrate;
+        _MaxBitrate = maxBitrate;
+        _FrameRate = frameRate;
+        _Bitrate = clamp(initialBitrate);
+    }
+
+    public void setIntervalUs(long intervalUs) {
+        _IntervalUs = intervalUs;
+    }
+
+    public int getBitrate() {
+        return _Bitrate;
+    }
+
+    public int getMeasuredBitrate() {
+        return _MeasuredBitrate;
+    }
+
+    public float getMeasuredFrameRate() {
+        return _MeasuredFrameRate;
+    }
+
+    /**
+     * Rate of the input over the last window, or 0 if the input isn't counted.
+     */
+    public float getMeasuredInputFrameRate() {
+        return _MeasuredInputFrameRate;
+    }
+
+    public int getAdjustCount() {
+        return _AdjustCount;
+    }
+
+    /**
+     * Drops the current window, keeping the target; the next sample starts a new one.  Call it
+     * when the stream starts over, for a new recording or a new file.
+     */
+    public void reset() {
+        _WindowStartUs = -1;
+    }
+
+    /**
+     * Accounts one encoded sample and re-evaluates the target once per interval.
+     *
+     * @param backlog samples waiting in the writer queue
+     * @param backlogCapacity size of that queue
+     * @param droppedTotal running count of samples dropped by the writer queue
+     * @param inputTotal running count of frames given to the encoder, or -1 if not counted
+     * @return the new target bitrate, or -1 if it should stay as it is
+     */
+    public int onSample(int sizeBytes, long presentationTimeUs, int backlog, int backlogCapacity,
+                        long droppedTotal, long inputTotal) {
+        long step = presentationTimeUs - _LastPtsUs;
+        _LastPtsUs = presentationTimeUs;
+        if (_WindowStartUs < 0 || step < 0 || step > _IntervalUs / 2) {
+            // the first sample only marks the start of the window
+            startWindow(presentationTimeUs, droppedTotal, inputTotal);
+            return -1;
+        }
+        _WindowBytes += sizeBytes;
+        _WindowFrames++;
+        if (backlog * 1000 / Math.max(1, backlogCapacity) > _WindowMaxBacklog) {
+            _WindowMaxBacklog = backlog * 1000 / Math.max(1, backlogCapacity);
+        }
+        if (droppedTotal != _LastDropped) {
+            _Dropped = true;
+        }
+
+        long span = presentationTimeUs - _WindowStartUs;
+        if (span < _IntervalUs) {
+            return -1;
+        }
+        _MeasuredBitrate = (int) (_WindowBytes * 8L * 1000000L / span);
+        _MeasuredFrameRate = _WindowFrames * 1000000f / span;
+        // counted from the start of the window, or not at all
+        boolean counted = inputTotal >= 0 && _WindowStartInput >= 0;
+        _MeasuredInputFrameRate = counted ? (inputTotal - _WindowStartInput) * 1000000f / span : 0;
+        int next = nextBitrate(_WindowMaxBacklog / 1000f, _Dropped, _MeasuredFrameRate,
+                counted ? _MeasuredInputFrameRate : _FrameRate);
+        startWindow(presentationTimeUs, droppedTotal, inputTotal);
+
+        // ignore tiny corrections, but always allow settling onto a bound
+        boolean bound = next == _MinBitrate || next == _MaxBitrate;
+        if (next == _Bitrate || (!bound && Math.abs(next - _Bitrate) < _Bitrate * MIN_CHANGE)) {
+            return -1;
+        }
+        _Bitrate = next;
+        _AdjustCount++;
+        return next;
+    }
+
+    private int nextBitrate(float backlogRatio, boolean dropped, float frameRate, float inputFrameRate) {
+        if (dropped || backlogRatio > HIGH_BACKLOG) {
+            return clamp((int) (_Bitrate * BACKLOG_DECREASE));
+        }
+        if (frameRate < inputFrameRate * MIN_FRAME_RATE_RATIO) {
+            return clamp((int) (_Bitrate * FRAME_RATE_DECREASE));
+        }
+        if (backlogRatio < LOW_BACKLOG) {
+            return clamp(_Bitrate + (int) (_MaxBitrate * INCREASE_STEP));
+        }
+        return _Bitrate;
+    }
+
+    private void startWindow(long presentationTimeUs, long droppedTotal, long inputTotal) {
+        _WindowStartUs = presentationTimeUs;
+        _WindowStartInput = inputTotal;
+        _WindowBytes = 0;
+        _WindowFrames = 0;
+        _WindowMaxBacklog = 0;
+        _LastDropped = droppedTotal;
+        _Dropped = false;
+    }
+
+    private int clamp(int bitrate) {
+        return Math.max(_MinBitrate, Math.min(_MaxBitrate, bitrate));
+    }
+}
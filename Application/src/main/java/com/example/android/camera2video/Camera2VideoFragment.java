@@ -22,10 +22,12 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
 import android.content.DialogInterface;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraDevice;
+import android.media.Image;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.Log;
 import android.util.SparseIntArray;
 import android.view.LayoutInflater;
@@ -36,12 +38,53 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class Camera2VideoFragment extends Fragment implements View.OnClickListener {
 
     private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
 
     private static final String TAG = "Camera2VideoFragment";
 
+    // seconds kept from before Record is pressed; 0 only encodes while recording
+    private static final long PRE_ROLL_US = 0;
+    private static final int PRE_ROLL_MAX_BYTES = 8 * 1024 * 1024;
+
+    // runtime bitrate bounds for a 1440x1080 stream, see BitrateController
+    private static final int BITRATE_INITIAL = 2000000;
+    private static final int BITRATE_MIN = 500000;
+    private static final int BITRATE_MAX = 6000000;
+
+    // requested video; the stream solver settles on what the camera can deliver unscaled
+    private static final String VIDEO_TYPE = "video/avc";
+    private static final int VIDEO_WIDTH = 1440;
+    private static final int VIDEO_HEIGHT = 1080;
+    private static final int VIDEO_FRAME_RATE = 30;
+    // 120 or 240 records in a constrained high-speed session where the device has one
+    private static final int HIGH_SPEED_FRAME_RATE = 0;
+    // how far the delivered rate may be off the configured one before it is reported
+    private static final float FRAME_RATE_TOLERANCE = 0.05f;
+    // one camera stream drawn to preview and encoder by a GL render stage instead of two streams
+    private static final boolean SHARED_RENDER_STAGE = false;
+    // live luma and sharpness analysis on a small YUV stream; 0 workers leaves it out
+    private static final int ANALYSIS_WORKERS = 0;
+    private static final int ANALYSIS_MAX_PENDING = 2;
+    private static final int ANALYSIS_WIDTH = 640;
+    private static final int ANALYSIS_HEIGHT = 480;
+    // motion in the analysis stream starts and stops recording instead of the Record button;
+    // needs analysis workers, and keeps encoding for the pre-roll in front of every event
+    private static final boolean MOTION_TRIGGER = false;
+    private static final long MOTION_PRE_ROLL_US = 2000000;
+    private static final long MOTION_POST_ROLL_NS = 3000000000L;
+    // a recording gap longer than this (a camera reopen) is cut down to one frame in the file
+    private static final long MAX_PTS_GAP_US = 500000;
+    // one startup timeline per line, tagged with the release
+    private static final String STARTUP_LOG = "startup-timeline.txt";
+
     static {
         ORIENTATIONS.append(Surface.ROTATION_0, 90);
         ORIENTATIONS.append(Surface.ROTATION_90, 0);
@@ -63,7 +106,13 @@ public class Camera2VideoFragment extends Fragment implements View.OnClickListen
             _Width = width;
             _Height = height;
             _Camera2.setFitTextureView(mTextureView);
-            _Camera2.openCamera(getActivity(), width, height);
+            if (_SurfaceReady != null && !_SurfaceReady.isDone()) {
+                // first start: the camera is already opening and the encoder preparing
+                _Camera2.configurePreview(getActivity(), width, height);
+                _SurfaceReady.set(surfaceTexture);
+            } else {
+                _Camera2.openCamera(getActivity(), width, height);
+            }
         }
 
         @Override
@@ -80,14 +129,31 @@ public class Camera2VideoFragment extends Fragment implements View.OnClickListen
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+            // UI thread: with high-speed capture this has to stay at the decimated preview rate
+            _PreviewFrames++;
+            if (_Timeline.mark(StartupTimeline.FIRST_PREVIEW_FRAME)) {
+                logStartup();
+            }
         }
 
     };
 
     private boolean mIsRecordingVideo;
-    private HandlerThread mBackgroundThread;
-    private Handler mBackgroundHandler;
-    private Encoder _Encoder;
+    private StartupTimeline _Timeline;
+    private StartupStep<SurfaceTexture> _SurfaceReady;
+    private PipelineThreads _Threads;
+    private HandlerExecutor _RenderThread;
+    private ExecutorService _AnalysisWorkers;
+    private LumaHistogramAnalyzer _Luma;
+    private SharpnessAnalyzer _Sharpness;
+    private MotionDetector _Motion;
+    private EncoderManager _EncoderManager;
+    private int _VideoWidth = VIDEO_WIDTH;
+    private int _VideoHeight = VIDEO_HEIGHT;
+    private int _FrameRate = VIDEO_FRAME_RATE;
+    private final CaptureAnalyzer _CaptureAnalyzer = new CaptureAnalyzer();
+    private int _PreviewFrames;
+    private long _RecordStartNs;
 
     public static Camera2VideoFragment newInstance() {
         Camera2VideoFragment fragment = new Camera2VideoFragment();
@@ -107,17 +173,164 @@ public class Camera2VideoFragment extends Fragment implements View.OnClickListen
         mButtonVideo = (Button) view.findViewById(R.id.video);
         mButtonVideo.setOnClickListener(this);
         view.findViewById(R.id.info).setOnClickListener(this);
+        mButtonVideo.setEnabled(_Motion == null);
         mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        _Encoder = new Encoder();
-        _Encoder.onCreate(getActivity(), "video/avc", 1440, 1080);
+        _Timeline = new StartupTimeline();
+        _Timeline.mark(StartupTimeline.ACTIVITY_CREATE);
+        StartupOrchestrator startup = new StartupOrchestrator(_Timeline);
+        HandlerExecutor cameraThread = new HandlerExecutor("CameraThread");
+        _Threads = new PipelineThreads(cameraThread, new HandlerExecutor("CodecThread"),
+                new ThreadExecutor("IoThread"));
+        _EncoderManager = new EncoderManager(getActivity(), _Threads);
+        // one capture session for preview and recording needs a stable encoder surface
+        _EncoderManager.setKeepSurface(true);
+        Encoder encoder = _EncoderManager.getEncoder();
+        encoder.setPreRoll(MOTION_TRIGGER && ANALYSIS_WORKERS > 0 ? MOTION_PRE_ROLL_US : PRE_ROLL_US,
+                PRE_ROLL_MAX_BYTES);
+        encoder.setBitrate(BITRATE_INITIAL, BITRATE_MIN, BITRATE_MAX);
+        encoder.setOutputFormat(Encoder.OUTPUT_FORMAT_FRAGMENTED_MPEG_4);
+        encoder.setCaptureAnalyzer(_CaptureAnalyzer);
+        encoder.setMaxPtsGap(MAX_PTS_GAP_US);
+        // frames fed as buffers come in sensor orientation; only that path is turned upright
+        int displayRotation = getActivity().getWindowManager().getDefaultDisplay().getRotation();
+        encoder.setInputRotation(ORIENTATIONS.get(displayRotation), null);
+        CapabilityCache capabilities = DeviceCapabilities.get(getActivity());
+        if (capabilities != null) {
+            encoder.setCodecName(VIDEO_TYPE, capabilities.getEncoder(VIDEO_TYPE));
+        }
+        int frameRate = VIDEO_FRAME_RATE;
+        HighSpeedConfig.Result highSpeed = null;
+        if (HIGH_SPEED_FRAME_RATE > 0) {
+            highSpeed = Camera2Wrapper.solveHighSpeedConfig(getActivity(), VIDEO_WIDTH, VIDEO_HEIGHT,
+                    HIGH_SPEED_FRAME_RATE);
+        }
+        if (highSpeed != null) {
+            _VideoWidth = highSpeed.getWidth();
+            _VideoHeight = highSpeed.getHeight();
+            frameRate = highSpeed.getFrameRate();
+            // same quality per frame
+            int scale = frameRate / VIDEO_FRAME_RATE;
+            encoder.setBitrate(BITRATE_INITIAL * scale, BITRATE_MIN * scale, BITRATE_MAX * scale);
+        } else {
+            StreamConfigSolver.Result config = Camera2Wrapper.solveStreamConfig(getActivity(),
+                    VIDEO_WIDTH, VIDEO_HEIGHT, VIDEO_FRAME_RATE);
+            if (config != null) {
+                _VideoWidth = config.getVideoWidth();
+                _VideoHeight = config.getVideoHeight();
+                frameRate = config.getFrameRate();
+            }
+        }
+        _FrameRate = frameRate;
+        encoder.setFrameRate(frameRate);
 
         _Camera2 = new Camera2Wrapper();
-        _Camera2.setRecordSurface(_Encoder.getSurface());
+        _Camera2.setExecutor(cameraThread);
+        _Camera2.setVideoConfig(_VideoWidth, _VideoHeight, frameRate);
+        _Camera2.setHighSpeedConfig(highSpeed);
+        _Camera2.setCaptureAnalyzer(_CaptureAnalyzer);
+        _Camera2.setAlwaysEncode(encoder.isAlwaysEncoding());
+        _Camera2.setPersistentSession(true);
+        if (ANALYSIS_WORKERS > 0 && highSpeed == null) {
+            // a constrained high-speed session takes no YUV output
+            _AnalysisWorkers = Executors.newFixedThreadPool(ANALYSIS_WORKERS);
+            AnalysisTap<Image> tap = Camera2Wrapper.createAnalysisTap(_AnalysisWorkers, ANALYSIS_WORKERS,
+                    ANALYSIS_MAX_PENDING);
+            _Luma = new LumaHistogramAnalyzer(4);
+            _Sharpness = new SharpnessAnalyzer(4);
+            tap.addAnalyzer(_Luma);
+            tap.addAnalyzer(_Sharpness);
+            if (MOTION_TRIGGER) {
+                _Motion = new MotionDetector(new MotionScorer(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, 4, 8),
+                        _MotionListener);
+                _Motion.setPostRollNs(MOTION_POST_ROLL_NS);
+                tap.addAnalyzer(_Motion);
+            }
+            _Camera2.setAnalysisTap(tap, ANALYSIS_WIDTH, ANALYSIS_HEIGHT);
+        }
+        if (SHARED_RENDER_STAGE && highSpeed == null) {
+            _RenderThread = new HandlerExecutor("RenderThread");
+            _Camera2.setRenderThread(_RenderThread);
+        }
+
+        // codec creation, camera open and the preview surface all run at once; the session is
+        // built when the last of them is ready
+        final StartupStep<Surface> encoderReady = startup.submit(StartupTimeline.ENCODER_READY,
+                _Threads.getCodec(), new Callable<Surface>() {
+                    @Override
+                    public Surface call() {
+                        _EncoderManager.prepare(VIDEO_TYPE, _VideoWidth, _VideoHeight);
+                        return _EncoderManager.getEncoder().getSurface();
+                    }
+                });
+        StartupStep<CameraDevice> cameraOpened = _Camera2.openCameraDeferred(getActivity(), startup);
+        _SurfaceReady = startup.expect(StartupTimeline.SURFACE_READY);
+        final StartupStep<Void> session = startup.whenAll(StartupTimeline.SESSION_START, cameraThread, new Runnable() {
+            @Override
+            public void run() {
+                _Camera2.setRecordSurface(encoderReady.getNow());
+                _Camera2.startSession();
+            }
+        }, cameraOpened, _SurfaceReady, encoderReady);
+        session.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (!session.isSucceeded()) {
+                    Log.e(TAG, "startup failed", session.getFailure());
+                }
+            }
+        }, cameraThread);
+    }
+
+    private final MotionDetector.Listener _MotionListener = new MotionDetector.Listener() {
+        @Override
+        public void onMotionStart(long timestampNs) {
+            postRecording(true);
+        }
+
+        @Override
+        public void onMotionStop(long timestampNs) {
+            postRecording(false);
+        }
+    };
+
+    private void postRecording(final boolean record) {
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isAdded()) {
+                    return;
+                }
+                if (record && !mIsRecordingVideo) {
+                    startRecordingVideo();
+                } else if (!record && mIsRecordingVideo) {
+                    stopRecordingVideo();
+                }
+            }
+        });
+    }
+
+    private void logStartup() {
+        Log.d(TAG, "startup: " + _Timeline);
+        Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+        try {
+            PackageInfo info = activity.getPackageManager().getPackageInfo(activity.getPackageName(), 0);
+            _Timeline.appendTo(new File(activity.getExternalFilesDir(null), STARTUP_LOG),
+                    info.versionName + "/" + info.versionCode);
+        } catch (PackageManager.NameNotFoundException | IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -140,7 +353,15 @@ public class Camera2VideoFragment extends Fragment implements View.OnClickListen
     @Override
     public void onDestroy() {
         super.onDestroy();
-        _Encoder.onDestroy();
+        _Camera2.onDestroy();
+        _EncoderManager.release();
+        _Threads.quit();
+        if (_RenderThread != null) {
+            _RenderThread.quit();
+        }
+        if (_AnalysisWorkers != null) {
+            _AnalysisWorkers.shutdown();
+        }
     }
 
     @Override
@@ -167,36 +388,17 @@ public class Camera2VideoFragment extends Fragment implements View.OnClickListen
         }
     }
 
-    /**
-     * Starts a background thread and its {@link Handler}.
-     */
-    private void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
-    }
-
-    /**
-     * Stops the background thread and its {@link Handler}.
-     */
-    private void stopBackgroundThread() {
-        mBackgroundThread.quitSafely();
-        try {
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-    }
-
-
-
     private void startRecordingVideo() {
         try {
             mButtonVideo.setText(R.string.stop);
             mIsRecordingVideo = true;
 
+            // unchanged with a kept surface; a re-armed encoder brings a new one
+            _CaptureAnalyzer.reset();
+            _PreviewFrames = 0;
+            _RecordStartNs = System.nanoTime();
+            Encoder encoder = _EncoderManager.startRecording(VIDEO_TYPE, _VideoWidth, _VideoHeight);
+            _Camera2.setRecordSurface(encoder.getSurface());
             _Camera2.startRecord();
         } catch (IllegalStateException e) {
             e.printStackTrace();
@@ -213,6 +415,25 @@ public class Camera2VideoFragment extends Fragment implements View.OnClickListen
         }
 
         _Camera2.stopRecord();
+        _EncoderManager.stopRecording();
+        Log.d(TAG, "capture: " + _CaptureAnalyzer.summary());
+        Log.d(TAG, "recovery: " + _Camera2.getRecovery().summary());
+        if (_Camera2.getAnalysisTap() != null) {
+            Log.d(TAG, String.format("analysis: %s, luma mean %.1f, sharpness %.1f",
+                    _Camera2.getAnalysisTap().summary(), _Luma.getMean(), _Sharpness.getSharpness()));
+        }
+        if (_Motion != null) {
+            Log.d(TAG, "motion: " + _Motion.summary());
+        }
+        if (_Camera2.getRenderStage() != null) {
+            Log.d(TAG, "render: " + _Camera2.getRenderStage().summary());
+        }
+        float previewRate = _PreviewFrames * 1e9f / (System.nanoTime() - _RecordStartNs);
+        Log.d(TAG, String.format("configured %d fps, delivered %.1f fps, preview %.1f fps", _FrameRate,
+                _CaptureAnalyzer.getAverageFrameRate(), previewRate));
+        if (!_CaptureAnalyzer.deliversFrameRate(_FrameRate, FRAME_RATE_TOLERANCE)) {
+            Log.w(TAG, "delivered frame rate is off the configured " + _FrameRate + " fps");
+        }
     }
 
     public static class ErrorDialog extends DialogFragment {
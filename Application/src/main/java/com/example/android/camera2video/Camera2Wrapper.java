@@ -1,28 +1,36 @@
 package com.example.android.camera2video;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.MediaCodec;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Created by wangt on 6/4/15.
@@ -36,6 +44,10 @@ public class Camera2Wrapper {
     private Size _PreviewSize;
     private Size _VideoSize;
     private CaptureRequest.Builder _RequestBuilder;
+    // set while a deferred open is in flight: the session waits for startSession()
+    private volatile StartupStep<CameraDevice> _Opened;
+    private HandlerExecutor _Executor;
+    private Context _AppContext;
 
 
 
@@ -53,17 +65,285 @@ public class Camera2Wrapper {
     }
 
     public void onDestroy() {
+        if (_RenderStage != null) {
+            _RenderStage.release();
+            _RenderStage = null;
+        }
+        if (_AnalysisTap != null) {
+            _AnalysisTap.close();
+            _AnalysisReader.close();
+            _AnalysisTap = null;
+        }
+    }
 
+    /**
+     * Runs every camera callback and session change on the given thread instead of the UI
+     * looper.  Must be called before openCamera().
+     */
+    public void setExecutor(HandlerExecutor executor) {
+        _Executor = executor;
     }
 
-    public void openCamera(Context context, int width, int height) {
+    private HandlerExecutor _RenderThread;
+    private GlRenderBackend _RenderBackend;
+    private RenderStage<Surface> _RenderStage;
+    // camera thread
+    private Surface _StagePreview;
+    private Surface _StageRecord;
+    private boolean _StageRecording;
+
+    /**
+     * Has the camera produce a single stream, at video size, which a GL render stage on
+     * renderThread draws to both the preview and the encoder.  Halves what the sensor pipeline
+     * writes when the view and the video are both large.  Must be called before openCamera();
+     * not for high-speed sessions, whose outputs must be read at full rate by the consumer.
+     */
+    public void setRenderThread(final HandlerExecutor renderThread) {
+        _RenderThread = renderThread;
+        _RenderBackend = new GlRenderBackend();
+        _RenderStage = new RenderStage<>(_RenderBackend, renderThread);
+        renderThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                _RenderBackend.prepare(renderThread, _RenderStage);
+            }
+        });
+    }
+
+    private AnalysisTap<Image> _AnalysisTap;
+    private ImageReader _AnalysisReader;
+
+    /**
+     * An {@link AnalysisTap} for YUV_420_888 images.  Plane buffers are handed to the analyzers
+     * as they come out of the ImageReader.
+     */
+    public static AnalysisTap<Image> createAnalysisTap(Executor workers, int workerCount, int maxPending) {
+        return new AnalysisTap<>(new AnalysisTap.Host<Image>() {
+            @Override
+            public void wrap(Image image, YuvFrame frame) {
+                Image.Plane[] planes = image.getPlanes();
+                frame.set(image.getWidth(), image.getHeight(), image.getTimestamp());
+                for (int i = 0; i < 3; i++) {
+                    frame.setPlane(i, planes[i].getBuffer(), planes[i].getRowStride(), planes[i].getPixelStride());
+                }
+            }
+
+            @Override
+            public void close(Image image) {
+                image.close();
+            }
+        }, workers, workerCount, maxPending);
+    }
+
+    /**
+     * Adds a YUV output of width x height to the session and hands every frame to tap, recording
+     * or not.  Use a small size: a YUV stream at preview size next to preview and record is a
+     * combination every LIMITED device supports.  Must be called before openCamera().
+     */
+    public void setAnalysisTap(final AnalysisTap<Image> tap, int width, int height) {
+        _AnalysisTap = tap;
+        // one more than the tap holds, for the image being handed over
+        _AnalysisReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, tap.getMaxOpenImages() + 1);
+        _AnalysisReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                try {
+                    Image image = reader.acquireNextImage();
+                    if (image != null) {
+                        tap.offer(image);
+                    }
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "analysis holds too many images", e);
+                }
+            }
+        }, getHandler());
+        _Controller.setAnalysisSurface(_AnalysisReader.getSurface());
+    }
+
+    public AnalysisTap<Image> getAnalysisTap() {
+        return _AnalysisTap;
+    }
+
+    /**
+     * Frame counters of the render stage, or null without one.
+     */
+    public RenderStage<Surface> getRenderStage() {
+        return _RenderStage;
+    }
+
+    private Handler getHandler() {
+        return _Executor != null ? _Executor.getHandler() : null;
+    }
+
+    /**
+     * Session state is owned by the camera thread; calls from other threads are queued there.
+     */
+    private void onCameraThread(Runnable task) {
+        if (_Executor != null && !_Executor.isCurrentThread()) {
+            _Executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    private int _RequestedWidth = 1440;
+    private int _RequestedHeight = 1080;
+    private int _RequestedFrameRate = 30;
+
+    /**
+     * The video configuration to solve the streams for; pass what {@link #solveStreamConfig}
+     * returned for the encoder so camera output and encoder input stay the same size.
+     */
+    public void setVideoConfig(int width, int height, int frameRate) {
+        _RequestedWidth = width;
+        _RequestedHeight = height;
+        _RequestedFrameRate = frameRate;
+    }
+
+    /**
+     * Solves the video size for the first camera before it is opened, so the encoder can be
+     * configured ahead of time.  Works from {@link DeviceCapabilities}, so after the first run
+     * this doesn't wait for the camera service.  The capabilities are logged as a dump that
+     * {@link StreamConfigSolver#fromDump} reads back.
+     */
+    public static StreamConfigSolver.Result solveStreamConfig(Context context, int width, int height,
+                                                              int frameRate) {
+        CapabilityCache capabilities = DeviceCapabilities.get(context);
+        if (capabilities == null || capabilities.getCameraIds().isEmpty()) {
+            return null;
+        }
+        String cameraId = capabilities.getCameraIds().get(0);
+        StreamConfigSolver solver = capabilities.getCamera(cameraId);
+        Log.d(TAG, "camera " + cameraId + " stream capabilities\n" + solver.toDump());
+        return solver.solve(width, height, frameRate, 0, 0);
+    }
+
+    private HighSpeedConfig.Result _HighSpeed;
+
+    /**
+     * Records in a constrained high-speed session with config, as returned by
+     * {@link #solveHighSpeedConfig}; null for a regular session.  Preview and video are then the
+     * same size.  Must be called before openCamera().
+     */
+    public void setHighSpeedConfig(HighSpeedConfig.Result config) {
+        _HighSpeed = config;
+    }
+
+    /**
+     * Chooses a high-speed configuration for the first camera, or returns null if it has none
+     * (or the OS is older than M).  The ranges are logged as a dump that
+     * {@link HighSpeedConfig#fromDump} reads back.
+     */
+    public static HighSpeedConfig.Result solveHighSpeedConfig(Context context, int width, int height,
+                                                              int frameRate) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        CapabilityCache capabilities = DeviceCapabilities.get(context);
+        if (capabilities == null || capabilities.getCameraIds().isEmpty()) {
+            return null;
+        }
         CameraManager manager = (CameraManager) context.getSystemService(Activity.CAMERA_SERVICE);
         try {
-            _CurrentCameraId = manager.getCameraIdList()[0];
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(_CurrentCameraId);
+            String cameraId = capabilities.getCameraIds().get(0);
+            HighSpeedConfig config = createHighSpeedConfig(manager.getCameraCharacteristics(cameraId));
+            if (config.isEmpty()) {
+                return null;
+            }
+            Log.d(TAG, "camera " + cameraId + " high-speed capabilities\n" + config.toDump());
+            return config.choose(width, height, frameRate);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static HighSpeedConfig createHighSpeedConfig(CameraCharacteristics characteristics) {
+        List<HighSpeedConfig.Mode> modes = new ArrayList<>();
+        boolean supported = false;
+        for (int capability : characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES)) {
+            supported |= capability
+                    == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO;
+        }
+        if (supported) {
             StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            _VideoSize = chooseVideoSize(map.getOutputSizes(MediaCodec.class));
-            _PreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), width, height, _VideoSize);
+            for (Size size : map.getHighSpeedVideoSizes()) {
+                for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                    modes.add(new HighSpeedConfig.Mode(size.getWidth(), size.getHeight(),
+                            range.getLower(), range.getUpper()));
+                }
+            }
+        }
+        return new HighSpeedConfig(modes);
+    }
+
+    private String _CameraId;
+
+    /**
+     * The camera to open; the first one listed if never set.  Must be called before
+     * openCamera().
+     */
+    public void setCameraId(String cameraId) {
+        _CameraId = cameraId;
+    }
+
+    public String getCameraId() {
+        return _CurrentCameraId;
+    }
+
+    /**
+     * Opens the camera.  width and height are the preview view's; without a view set by
+     * setFitTextureView() the camera only feeds the record surface.  The session is built as soon
+     * as the device is open.
+     */
+    public void openCamera(Context context, int width, int height) {
+        _Opened = null;
+        if (configurePreview(context, width, height)) {
+            openRecoverable(context);
+        }
+    }
+
+    /**
+     * Opens the device without building a session, for a startup that prepares the preview
+     * surface and the encoder at the same time; call {@link #startSession} once all three are
+     * ready.  The returned step completes on the camera thread when the device is open.
+     */
+    public StartupStep<CameraDevice> openCameraDeferred(Context context, StartupOrchestrator startup) {
+        StartupStep<CameraDevice> opened = startup.expect(StartupTimeline.CAMERA_OPEN);
+        _Opened = opened;
+        if (chooseCamera(context) == null) {
+            opened.fail(new IllegalStateException("no camera"));
+        } else {
+            openRecoverable(context);
+        }
+        return opened;
+    }
+
+    /**
+     * Solves the stream sizes for a view of width x height and fits the view to them.  Must run
+     * on the UI thread.
+     *
+     * @return false if there is no camera to configure for
+     */
+    public boolean configurePreview(Context context, int width, int height) {
+        StreamConfigSolver solver = chooseCamera(context);
+        if (solver == null) {
+            return false;
+        }
+        StreamConfigSolver.Result config = solver.solve(_RequestedWidth, _RequestedHeight, _RequestedFrameRate,
+                width, height);
+        if (_HighSpeed != null) {
+            // both outputs of a high-speed session must be the high-speed size
+            Log.d(TAG, "high-speed config " + _HighSpeed);
+            _VideoSize = new Size(_HighSpeed.getWidth(), _HighSpeed.getHeight());
+            _PreviewSize = _VideoSize;
+        } else {
+            Log.d(TAG, "stream config " + config);
+            _VideoSize = new Size(config.getVideoWidth(), config.getVideoHeight());
+            _PreviewSize = new Size(config.getPreviewWidth(), config.getPreviewHeight());
+        }
+        if (_TextureView != null) {
             int orientation = context.getResources().getConfiguration().orientation;
             if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
                 _TextureView.setAspectRatio(_PreviewSize.getWidth(), _PreviewSize.getHeight());
@@ -71,45 +351,303 @@ public class Camera2Wrapper {
                 _TextureView.setAspectRatio(_PreviewSize.getHeight(), _PreviewSize.getWidth());
             }
             configureTransform(context, width, height);
+        }
+        return true;
+    }
 
-            manager.openCamera(_CurrentCameraId, _DeviceStateCallback, null); //Handler 暂时设为UI主线程
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    /**
+     * Builds the capture session on an open device; see {@link #openCameraDeferred}.
+     */
+    public void startSession() {
+        onCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (_Device != null) {
+                    startPreview();
+                }
+            }
+        });
+    }
+
+    private StreamConfigSolver chooseCamera(Context context) {
+        CapabilityCache capabilities = DeviceCapabilities.get(context);
+        if (capabilities == null || capabilities.getCameraIds().isEmpty()) {
+            Log.e(TAG, "no camera");
+            return null;
+        }
+        _CurrentCameraId = _CameraId != null ? _CameraId : capabilities.getCameraIds().get(0);
+        StreamConfigSolver solver = capabilities.getCamera(_CurrentCameraId);
+        if (solver == null) {
+            Log.e(TAG, "no camera " + _CurrentCameraId);
         }
+        return solver;
     }
 
-    public void closeCamera() {
-        if (_Session != null) {
-            _Session.close();
-            _Session = null;
+    private void openRecoverable(Context context) {
+        _AppContext = context.getApplicationContext();
+        onCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                _Driver.open();
+            }
+        });
+    }
+
+    private void failOpen(Exception e) {
+        StartupStep<CameraDevice> opened = _Opened;
+        if (opened != null) {
+            // a later reopen by recovery builds the session by itself
+            _Opened = null;
+            opened.fail(e);
+        }
+    }
+
+    private VideoCamera.Callback _CameraCallback;
+
+    /**
+     * Camera2 as the driver sees it; every callback arrives on the camera thread.
+     */
+    private final VideoCamera<Surface> _Camera = new VideoCamera<Surface>() {
+        @Override
+        public void open(VideoCamera.Callback callback) {
+            _CameraCallback = callback;
+            CameraManager manager = (CameraManager) _AppContext.getSystemService(Activity.CAMERA_SERVICE);
+            try {
+                manager.openCamera(_CurrentCameraId, _DeviceStateCallback, getHandler());
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+                failOpen(e);
+                callback.onError(e.getReason() != CameraAccessException.CAMERA_DISABLED);
+            } catch (IllegalArgumentException e) {
+                // the cached camera id is gone; query again next time
+                e.printStackTrace();
+                DeviceCapabilities.invalidate(_AppContext);
+                failOpen(e);
+                callback.onError(false);
+            }
         }
 
-        if (_Device != null) {
-            _Device.close();
-            _Device = null;
+        @Override
+        public void createSession(List<Surface> outputs) {
+            try {
+                if (isHighSpeed()) {
+                    createHighSpeedSession(outputs);
+                    return;
+                }
+                _Device.createCaptureSession(outputs, _SessionStateCallBack, getHandler());
+            } catch (CameraAccessException e) {
+                failSession(e);
+            }
         }
+
+        @Override
+        public void setRepeating(List<Surface> targets, boolean recording) {
+            try {
+                if (isHighSpeed()) {
+                    setHighSpeedRepeating(targets, recording);
+                    return;
+                }
+                _RequestBuilder = _Device.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                _RequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+                for (Surface target : targets) {
+                    _RequestBuilder.addTarget(target);
+                }
+                _RequestBuilder.setTag(recording ? RECORD_TAG : null);
+                _Session.setRepeatingRequest(_RequestBuilder.build(), _CaptureCallback, getHandler());
+            } catch (CameraAccessException e) {
+                failSession(e);
+            }
+        }
+
+        @Override
+        public void abortCaptures() {
+            try {
+                _Session.abortCaptures();
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * No session means no frames: hand the failure to recovery, which reopens the device,
+         * or gives up if the camera was disabled.
+         */
+        private void failSession(CameraAccessException e) {
+            Log.e(TAG, "capture session failed", e);
+            if (e.getReason() == CameraAccessException.CAMERA_DISABLED) {
+                _CameraCallback.onError(false);
+            } else {
+                _CameraCallback.onSessionConfigureFailed();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (_Session != null) {
+                _Session.close();
+                _Session = null;
+            }
+            if (_Device != null) {
+                _Device.close();
+                _Device = null;
+            }
+        }
+    };
+
+    /**
+     * Reopens the device after a disconnect, an error or a failed session.  The controller
+     * keeps the record surface, so the rebuilt session feeds the same encoder and a recording
+     * in progress continues; see {@link Encoder#setMaxPtsGap}.
+     */
+    private final CameraDriver<Surface> _Driver = new CameraDriver<>(_Camera, new CameraDriver.Host() {
+        @Override
+        public void onDeviceOpened() {
+            StartupStep<CameraDevice> opened = _Opened;
+            if (opened != null) {
+                _Opened = null;
+                opened.set(_Device);
+            } else {
+                startPreview();
+            }
+        }
+
+        @Override
+        public void onDeviceLost(String reason) {
+            failOpen(new IllegalStateException(reason));
+        }
+
+        @Override
+        public void onRecordStarted(long latencyNs) {
+            Log.d(TAG, "record start latency " + latencyNs / 1000000
+                    + " ms, sessions so far " + _Controller.getSessionCount());
+        }
+
+        @Override
+        public void onRecovered(long recoveryNs, long gapNs) {
+            Log.i(TAG, "camera recovered in " + recoveryNs / 1000000 + " ms, recording gap " + gapNs / 1000000 + " ms");
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            Handler handler = getHandler();
+            if (handler == null) {
+                // no camera thread: callbacks arrive on the looper that opened the camera
+                handler = new Handler();
+            }
+            handler.postDelayed(task, delayMs);
+        }
+    }, PipelineClock.SYSTEM);
+
+    private final CaptureSessionController<Surface> _Controller = _Driver.getSessionController();
+
+    /**
+     * Faults, recoveries and the recording gaps they left; read on the camera thread.
+     */
+    public CameraRecovery getRecovery() {
+        return _Driver.getRecovery();
+    }
+
+    public void closeCamera() {
+        onCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                _Driver.close();
+                if (_StagePreview != null) {
+                    // the view's surface goes away while paused
+                    _RenderStage.removeOutput(_StagePreview);
+                    _StagePreview = null;
+                }
+            }
+        });
     }
 
-    private Surface _RecordSurface;
+    private static final Object RECORD_TAG = new Object();
 
-    public void setRecordSurface(Surface surface) {
-        _RecordSurface = surface;
+    private boolean isHighSpeed() {
+        return _HighSpeed != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
     }
 
-    private ArrayList<Surface> _Surfaces;
+    @TargetApi(Build.VERSION_CODES.M)
+    private void createHighSpeedSession(List<Surface> outputs) throws CameraAccessException {
+        _Device.createConstrainedHighSpeedCaptureSession(outputs, _SessionStateCallBack, getHandler());
+    }
 
-    public void addSurface(Surface surface) {
-        if (_Surfaces == null) {
-            _Surfaces = new ArrayList<>();
+    /**
+     * Repeats bursts of getBurstSize() requests.  createHighSpeedRequestList only targets the
+     * preview from the first request of each burst, which keeps the preview at 30 fps; without
+     * recording the (30, fps) range lets the sensor itself run at 30.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setHighSpeedRepeating(List<Surface> targets, boolean recording) throws CameraAccessException {
+        _RequestBuilder = _Device.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+        for (Surface target : targets) {
+            _RequestBuilder.addTarget(target);
         }
-        _Surfaces.add(surface);
+        Range<Integer> range = recording
+                ? new Range<>(_HighSpeed.getFrameRate(), _HighSpeed.getFrameRate())
+                : new Range<>(_HighSpeed.getPreviewMinFps(), _HighSpeed.getPreviewMaxFps());
+        _RequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+        _RequestBuilder.setTag(recording ? RECORD_TAG : null);
+        CameraConstrainedHighSpeedCaptureSession session = (CameraConstrainedHighSpeedCaptureSession) _Session;
+        session.setRepeatingBurst(session.createHighSpeedRequestList(_RequestBuilder.build()),
+                _CaptureCallback, getHandler());
     }
 
-    public void removeSurface(Surface surface) {
-        if (_Surfaces == null ) {
-            return;
-        }
-        _Surfaces.remove(surface);
+    public void setRecordSurface(final Surface surface) {
+        onCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (_RenderStage == null) {
+                    _Controller.setRecordSurface(surface);
+                } else if (surface != _StageRecord) {
+                    if (_StageRecord != null) {
+                        _RenderStage.removeOutput(_StageRecord);
+                    }
+                    _StageRecord = surface;
+                    if (surface != null) {
+                        _RenderStage.addOutput(surface, 0, _StageRecording || _AlwaysEncode);
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean _AlwaysEncode;
+
+    /**
+     * Keeps the record surface in every session so the encoder runs all the time (pre-roll).
+     * startRecord/stopRecord then leave the session alone.
+     */
+    public void setAlwaysEncode(boolean alwaysEncode) {
+        _AlwaysEncode = alwaysEncode;
+        _Controller.setAlwaysEncode(alwaysEncode);
+    }
+
+    /**
+     * Configures the session once with preview and record surfaces so that starting and
+     * stopping a recording only swaps the repeating request.  The record surface has to stay
+     * the same across recordings, see {@link EncoderManager#setKeepSurface}.
+     */
+    public void setPersistentSession(boolean persistent) {
+        _Controller.setPersistent(persistent);
+    }
+
+    /**
+     * Session count, record-start latency and request counters.
+     */
+    public CaptureSessionController<Surface> getSessionController() {
+        return _Controller;
+    }
+
+    /**
+     * Feeds every capture result to analyzer, on the camera thread.
+     */
+    public void setCaptureAnalyzer(CaptureAnalyzer analyzer) {
+        _Driver.setCaptureAnalyzer(analyzer);
+    }
+
+    private static long valueOf(Long value) {
+        return value != null ? value : 0;
     }
 
     private AutoFitTextureView _TextureView;
@@ -119,68 +657,75 @@ public class Camera2Wrapper {
     }
 
     public void startRecord() {
-        addSurface(_RecordSurface);
-        startPreview();
+        final long requestedNs = System.nanoTime();
+        onCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                setStageRecording(true);
+                _Controller.startRecord(requestedNs);
+            }
+        });
     }
 
     public void stopRecord() {
-        removeSurface(_RecordSurface);
-        startPreview();
+        onCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                setStageRecording(false);
+                _Controller.stopRecord();
+            }
+        });
     }
 
-    private void startPreview() {
-        if (_Session != null) {
-            try {
-                _Session.abortCaptures();
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
-            }
-        }
-
-        try {
-            _RequestBuilder = _Device.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-            _RequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    private void setStageRecording(boolean recording) {
+        _StageRecording = recording;
+        if (_RenderStage != null && _StageRecord != null) {
+            _RenderStage.setEnabled(_StageRecord, recording || _AlwaysEncode);
         }
+    }
 
-        ArrayList<Surface> surfaces = new ArrayList<>();
-        if (_TextureView.isAvailable()) {
+    private void startPreview() {
+        Surface preview = null;
+        if (_TextureView != null && _TextureView.isAvailable()) {
             SurfaceTexture texture = _TextureView.getSurfaceTexture();
             assert texture != null;
             texture.setDefaultBufferSize(_PreviewSize.getWidth(), _PreviewSize.getHeight());
-            Surface surface = new Surface(texture);
-            _RequestBuilder.addTarget(surface);
-            surfaces.add(surface);
+            preview = new Surface(texture);
         }
-
-        if (_Surfaces != null && _Surfaces.size() != 0) {
-            for (Surface s : _Surfaces) {
-                _RequestBuilder.addTarget(s);
-                surfaces.add(s);
+        if (_RenderStage == null) {
+            _Controller.setPreviewSurface(preview);
+        } else {
+            // the camera feeds the stage at video size; the view becomes one of its outputs
+            PipelineThreads.runAndWait(_RenderThread, new Runnable() {
+                @Override
+                public void run() {
+                    _RenderBackend.setInputSize(_VideoSize.getWidth(), _VideoSize.getHeight());
+                }
+            });
+            if (_StagePreview != null) {
+                _RenderStage.removeOutput(_StagePreview);
             }
+            _StagePreview = preview;
+            if (preview != null) {
+                _RenderStage.addOutput(preview, 0, true);
+            }
+            _Controller.setPreviewSurface(_RenderBackend.getInputSurface());
         }
-
-        try {
-            _Device.createCaptureSession(surfaces, _SessionStateCallBack, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
-
+        _Driver.startSession();
     }
 
     private CameraDevice.StateCallback _DeviceStateCallback = new CameraDevice.StateCallback() {
         @Override
         public void onOpened(CameraDevice cameraDevice) {
             _Device = cameraDevice;
-            startPreview();
-
+            _CameraCallback.onOpened();
         }
 
         @Override
         public void onDisconnected(CameraDevice cameraDevice) {
-            _Device.close();
-            _Device = null;
+            _Device = cameraDevice;
+            Log.w(TAG, "camera disconnected");
+            _CameraCallback.onDisconnected();
         }
 
         @Override
@@ -190,9 +735,10 @@ public class Camera2Wrapper {
 
         @Override
         public void onError(CameraDevice cameraDevice, int i) {
-            _Device.close();
-            _Device = null;
+            _Device = cameraDevice;
             Log.e(TAG, "CameraDevice onError code " + i);
+            failOpen(new IllegalStateException("camera error " + i));
+            _CameraCallback.onError(i != ERROR_CAMERA_DISABLED);
         }
     };
 
@@ -201,11 +747,7 @@ public class Camera2Wrapper {
         public void onConfigured(CameraCaptureSession cameraCaptureSession) {
             _Session = cameraCaptureSession;
             assert _Device != null;
-            try {
-                _Session.setRepeatingRequest(_RequestBuilder.build(), null, null);
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
-            }
+            _CameraCallback.onSessionConfigured();
         }
 
         @Override
@@ -220,50 +762,24 @@ public class Camera2Wrapper {
 
         @Override
         public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
-            if (_Session != null) {
-                _Session.close();
-            }
+            Log.e(TAG, "capture session configuration failed");
+            cameraCaptureSession.close();
+            _CameraCallback.onSessionConfigureFailed();
         }
     };
 
-    private static Size chooseVideoSize(Size[] choices) {
-        for (Size size : choices) {
-            if (size.getWidth() == size.getHeight() * 4 / 3 && size.getWidth() <= 1080) {
-                return size;
-            }
-        }
-        Log.e(TAG, "Couldn't find any suitable video size");
-        return choices[choices.length - 1];
-    }
-
-    private static Size chooseOptimalSize(Size[] choices, int width, int height, Size aspectRatio) {
-        List<Size> bigEnough = new ArrayList<Size>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getHeight() == option.getWidth() * h / w &&
-                    option.getWidth() >= width && option.getHeight() >= height) {
-                bigEnough.add(option);
-            }
-        }
-
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
-        }
-    }
-
-    static class CompareSizesByArea implements Comparator<Size> {
-
+    private CameraCaptureSession.CaptureCallback _CaptureCallback = new CameraCaptureSession.CaptureCallback() {
         @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
-                    (long) rhs.getWidth() * rhs.getHeight());
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            // through the render stage the encoder gets every frame while it is enabled
+            boolean record = request.getTag() == RECORD_TAG || (_StageRecording && _StageRecord != null);
+            _CameraCallback.onCaptureCompleted(result.getFrameNumber(),
+                    valueOf(result.get(CaptureResult.SENSOR_TIMESTAMP)),
+                    valueOf(result.get(CaptureResult.SENSOR_FRAME_DURATION)),
+                    valueOf(result.get(CaptureResult.SENSOR_EXPOSURE_TIME)), record);
         }
-    }
+    };
 
     private void configureTransform(Context context, int viewWidth, int viewHeight) {
         if (null == _TextureView || null == _PreviewSize) {
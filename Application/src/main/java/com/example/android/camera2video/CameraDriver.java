@@ -0,0 +1,188 @@
+package com.example.android.camera2video;
+
+import java.util.List;
+
+/**
+ * Runs a {@link VideoCamera}: opens it under {@link CameraRecovery}, builds and updates its
+ * sessions through a {@link CaptureSessionController}, and feeds capture results to the
+ * recovery, the controller and an optional {@link CaptureAnalyzer}.
+ * <p>
+ * This is the part of the camera code that doesn't care whether the device is Camera2 or
+ * {@link FakeCamera}.  Pure Java; times come from a {@link PipelineClock}.  Not thread safe;
+ * drive it from the camera thread, which is where the camera delivers its callbacks.
+ */
+public class CameraDriver<S> implements VideoCamera.Callback {
+
+    /**
+     * The app side.
+     */
+    public interface Host {
+        /**
+         * The device is open.  The session is built by {@link #startSession}, which the host
+         * calls now or, for a deferred startup, once the other outputs are ready.
+         */
+        void onDeviceOpened();
+
+        /**
+         * Opening failed or the open device went away; recovery takes it from here.
+         */
+        void onDeviceLost(String reason);
+
+        /**
+         * The first capture for the encoder after startRecord.
+         */
+        void onRecordStarted(long latencyNs);
+
+        /**
+         * The first capture after a fault.
+         */
+        void onRecovered(long recoveryNs, long gapNs);
+
+        void schedule(Runnable task, long delayMs);
+    }
+
+    private final VideoCamera<S> _Camera;
+    private final Host _Host;
+    private final PipelineClock _Clock;
+    private volatile CaptureAnalyzer _Analyzer;
+
+    private final CaptureSessionController<S> _Controller;
+    private final CameraRecovery _Recovery;
+
+    public CameraDriver(VideoCamera<S> camera, Host host, PipelineClock clock) {
+        _Camera = camera;
+        _Host = host;
+        _Clock = clock;
+        _Controller = new CaptureSessionController<>(new CaptureSessionController.Host<S>() {
+            @Override
+            public void createSession(List<S> outputs) {
+                _Camera.createSession(outputs);
+            }
+
+            @Override
+            public void setRepeating(List<S> targets, boolean recording) {
+                _Camera.setRepeating(targets, recording);
+            }
+
+            @Override
+            public void abortCaptures() {
+                _Camera.abortCaptures();
+            }
+        });
+        _Recovery = new CameraRecovery(new CameraRecovery.Host() {
+            @Override
+            public void openDevice() {
+                _Camera.open(CameraDriver.this);
+            }
+
+            @Override
+            public void closeDevice() {
+                releaseDevice();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                _Host.schedule(task, delayMs);
+            }
+        });
+    }
+
+    /**
+     * Session count, record-start latency and request counters.  Surfaces are set here.
+     */
+    public CaptureSessionController<S> getSessionController() {
+        return _Controller;
+    }
+
+    /**
+     * Faults, recoveries and the recording gaps they left.
+     */
+    public CameraRecovery getRecovery() {
+        return _Recovery;
+    }
+
+    /**
+     * Feeds every capture result to analyzer.
+     */
+    public void setCaptureAnalyzer(CaptureAnalyzer analyzer) {
+        _Analyzer = analyzer;
+    }
+
+    /**
+     * Opens the device, and reopens it after faults until {@link #close}.
+     */
+    public void open() {
+        _Recovery.open();
+    }
+
+    public void close() {
+        _Recovery.close();
+    }
+
+    /**
+     * Builds the first session on the open device.
+     */
+    public void startSession() {
+        _Controller.open();
+    }
+
+    public void startRecord(long requestedNs) {
+        _Controller.startRecord(requestedNs);
+    }
+
+    public void stopRecord() {
+        _Controller.stopRecord();
+    }
+
+    private void releaseDevice() {
+        _Controller.close();
+        _Camera.close();
+    }
+
+    @Override
+    public void onOpened() {
+        _Recovery.onOpened();
+        _Host.onDeviceOpened();
+    }
+
+    @Override
+    public void onDisconnected() {
+        _Host.onDeviceLost("camera disconnected");
+        releaseDevice();
+        _Recovery.onDisconnected(_Clock.nowNs());
+    }
+
+    @Override
+    public void onError(boolean retryable) {
+        _Host.onDeviceLost("camera error");
+        releaseDevice();
+        _Recovery.onError(retryable, _Clock.nowNs());
+    }
+
+    @Override
+    public void onSessionConfigured() {
+        _Controller.onSessionConfigured();
+    }
+
+    @Override
+    public void onSessionConfigureFailed() {
+        _Recovery.onConfigureFailed(_Clock.nowNs());
+    }
+
+    @Override
+    public void onCaptureCompleted(long frameNumber, long timestampNs, long frameDurationNs, long exposureTimeNs,
+                                   boolean recordTarget) {
+        int recoveries = _Recovery.getRecoveryCount();
+        _Recovery.onFrame(timestampNs, _Clock.nowNs());
+        if (_Recovery.getRecoveryCount() != recoveries) {
+            _Host.onRecovered(_Recovery.getLastRecoveryNs(), _Recovery.getLastGapNs());
+        }
+        CaptureAnalyzer analyzer = _Analyzer;
+        if (analyzer != null) {
+            analyzer.onCaptureResult(frameNumber, timestampNs, frameDurationNs, exposureTimeNs, recordTarget);
+        }
+        if (_Controller.onCaptureCompleted(recordTarget, _Clock.nowNs())) {
+            _Host.onRecordStarted(_Controller.getLastRecordStartLatencyNs());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.android.camera2video;
+
+/**
+ * Brings the camera back after a disconnect, a device error or a failed session, without
+ * touching the recording.
+ * <p>
+ * A fault closes the device and schedules a reopen with exponential backoff, bounded both in
+ * delay and in the number of attempts before giving up.  Once the device is open again the
+ * capture session is rebuilt with the same outputs (see {@link CaptureSessionController}), so
+ * the encoder keeps its input surface and the file just continues; {@link PtsContinuity} deals
+ * with the hole in the timestamps.
+ * <p>
+ * Recovery time (fault to the next captured frame) and the recording gap (sensor timestamp of
+ * the last frame before the fault to the first one after) are kept as metrics.  Pure Java; the
+ * device is behind {@link Host} so faults can be injected on the JVM.  Not thread safe; drive it
+ * from the camera thread.
+ */
+public class CameraRecovery {
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPENING = 1;
+    public static final int STATE_OPEN = 2;
+    public static final int STATE_WAITING = 3;
+    public static final int STATE_FAILED = 4;
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 3200;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    /**
+     * The camera device side.
+     */
+    public interface Host {
+        /**
+         * Opens the device; the result comes back through {@link #onOpened} or
+         * {@link #onError}.
+         */
+        void openDevice();
+
+        /**
+         * Closes the device and its session, if any.
+         */
+        void closeDevice();
+
+        void schedule(Runnable task, long delayMs);
+    }
+
+    private final Host _Host;
+    private long _InitialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+    private long _MaxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+    private int _MaxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private int _State = STATE_CLOSED;
+    private int _Attempts;
+    private int _Generation;
+    private long _FaultNs = -1;
+    private long _LastFrameNs = -1;
+    private long _FrameBeforeFaultNs = -1;
+
+    private int _FaultCount;
+    private int _RecoveryCount;
+    private int _RetryCount;
+    private long _LastRecoveryNs = -1;
+    private long _LastGapNs = -1;
+    private long _TotalGapNs;
+    private final LatencyHistogram _RecoveryTime = new LatencyHistogram();
+
+    public CameraRecovery(Host host) {
+        _Host = host;
+    }
+
+    public void setBackoff(long initialMs, long maxMs, int maxAttempts) {
+        _InitialBackoffMs = initialMs;
+        _MaxBackoffMs = maxMs;
+        _MaxAttempts = maxAttempts;
+    }
+
+    public int getState() {
+        return _State;
+    }
+
+    /**
+     * The app wants the camera: opens it.
+     */
+    public void open() {
+        _Generation++;
+        _Attempts = 0;
+        _FaultNs = -1;
+        _State = STATE_OPENING;
+        _Host.openDevice();
+    }
+
+    /**
+     * The app is done with the camera: no recovery until the next {@link #open}.
+     */
+    public void close() {
+        _Generation++;
+        _State = STATE_CLOSED;
+        _FaultNs = -1;
+        _Host.closeDevice();
+    }
+
+    public void onOpened() {
+        if (_State == STATE_OPENING) {
+            _State = STATE_OPEN;
+        }
+    }
+
+    public void onDisconnected(long nowNs) {
+        fault(nowNs);
+    }
+
+    /**
+     * @param retryable false for errors that won't go away by retrying (camera disabled by
+     *                  policy); recovery gives up right away
+     */
+    public void onError(boolean retryable, long nowNs) {
+        fault(nowNs);
+        if (!retryable) {
+            giveUp();
+        }
+    }
+
+    public void onConfigureFailed(long nowNs) {
+        fault(nowNs);
+    }
+
+    /**
+     * A captured frame, with its sensor timestamp.  The first one after a fault completes the
+     * recovery.
+     */
+    public void onFrame(long sensorTimestampNs, long nowNs) {
+        if (_FaultNs >= 0 && _State == STATE_OPEN) {
+            _LastRecoveryNs = nowNs - _FaultNs;
+            _RecoveryTime.record(_LastRecoveryNs / 1000);
+            if (_FrameBeforeFaultNs >= 0) {
+                _LastGapNs = sensorTimestampNs - _FrameBeforeFaultNs;
+                _TotalGapNs += _LastGapNs;
+            }
+            _RecoveryCount++;
+            _FaultNs = -1;
+            _Attempts = 0;
+        }
+        _LastFrameNs = sensorTimestampNs;
+    }
+
+    private void fault(long nowNs) {
+        if (_State == STATE_CLOSED || _State == STATE_FAILED) {
+            return;
+        }
+        if (_FaultNs < 0) {
+            // the first fault of an outage; retries failing on the way don't restart the clock
+            _FaultNs = nowNs;
+            _FrameBeforeFaultNs = _LastFrameNs;
+            _FaultCount++;
+        }
+        _Host.closeDevice();
+        scheduleRetry();
+    }
+
+    private void scheduleRetry() {
+        if (_Attempts >= _MaxAttempts) {
+            giveUp();
+            return;
+        }
+        long delay = Math.min(_MaxBackoffMs, _InitialBackoffMs << Math.min(_Attempts, 30));
+        _Attempts++;
+        _State = STATE_WAITING;
+        final int generation = ++_Generation;
+        _Host.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != _Generation || _State != STATE_WAITING) {
+                    return;
+                }
+                _RetryCount++;
+                _State = STATE_OPENING;
+                _Host.openDevice();
+            }
+        }, delay);
+    }
+
+    private void giveUp() {
+        _Generation++;
+        _State = STATE_FAILED;
+    }
+
+    /**
+     * Outages so far, however many retries each took.
+     */
+    public int getFaultCount() {
+        return _FaultCount;
+    }
+
+    public int getRecoveryCount() {
+        return _RecoveryCount;
+    }
+
+    /**
+     * Reopen attempts so far.
+     */
+    public int getRetryCount() {
+        return _RetryCount;
+    }
+
+    /**
+     * Fault to the first frame after it, for the last recovery; -1 if none.
+     */
+    public long getLastRecoveryNs() {
+        return _LastRecoveryNs;
+    }
+
+    /**
+     * Recovery times in microseconds.
+     */
+    public LatencyHistogram getRecoveryTime() {
+        return _RecoveryTime;
+    }
+
+    /**
+     * Sensor time between the last frame before the last fault and the first one after; -1 if
+     * there was no frame before it.
+     */
+    public long getLastGapNs() {
+        return _LastGapNs;
+    }
+
+    public long getTotalGapNs() {
+        return _TotalGapNs;
+    }
+
+    public String summary() {
+        LatencyHistogram.Snapshot recovery = _RecoveryTime.snapshot();
+        return String.format("%d faults, %d recovered, %d retries, recovery p50 %d ms max %d ms, gap %d ms total",
+                _FaultCount, _RecoveryCount, _RetryCount, recovery.getPercentile(50) / 1000,
+                recovery.getMax() / 1000, _TotalGapNs / 1000000);
+    }
+}
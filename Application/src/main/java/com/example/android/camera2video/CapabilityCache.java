@@ -0,0 +1,216 @@
+package com.example.android.camera2video;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The camera and codec capabilities the pipeline uses at startup, in a compact binary file.
+ * <p>
+ * Holds, per camera id, the output sizes and minimum frame durations that
+ * {@link StreamConfigSolver} works from, and per mime type the name of the encoder to create.
+ * The file is keyed by a string identifying the device and OS build; a file written under any
+ * other key, of another format version, or failing its checksum reads as absent, so an OTA
+ * update or a different device simply triggers a fresh query.
+ * <p>
+ * Layout (big endian): magic, version, key, camera count, then per camera its id and the video
+ * and preview size lists (count, then width, height, min frame duration each), encoder count,
+ * then mime type and codec name pairs, and finally a CRC32 of everything before it.
+ */
+public class CapabilityCache {
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x43324350;   // "C2CP"
+
+    private final String _Key;
+    private final Map<String, StreamConfigSolver> _Cameras = new LinkedHashMap<>();
+    private final Map<String, String> _Encoders = new LinkedHashMap<>();
+
+    public CapabilityCache(String key) {
+        _Key = key;
+    }
+
+    public String getKey() {
+        return _Key;
+    }
+
+    public void putCamera(String cameraId, StreamConfigSolver capabilities) {
+        _Cameras.put(cameraId, capabilities);
+    }
+
+    /**
+     * Camera ids in the order the camera service listed them.
+     */
+    public List<String> getCameraIds() {
+        return Collections.unmodifiableList(new ArrayList<>(_Cameras.keySet()));
+    }
+
+    public StreamConfigSolver getCamera(String cameraId) {
+        return _Cameras.get(cameraId);
+    }
+
+    public void putEncoder(String mimeType, String codecName) {
+        _Encoders.put(mimeType, codecName);
+    }
+
+    /**
+     * @return the codec name to pass to createByCodecName, or null if unknown
+     */
+    public String getEncoder(String mimeType) {
+        return _Encoders.get(mimeType);
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(_Key);
+            out.writeInt(_Cameras.size());
+            for (Map.Entry<String, StreamConfigSolver> camera : _Cameras.entrySet()) {
+                out.writeUTF(camera.getKey());
+                writeSizes(out, camera.getValue().getVideoSizes());
+                writeSizes(out, camera.getValue().getPreviewSizes());
+            }
+            out.writeInt(_Encoders.size());
+            for (Map.Entry<String, String> encoder : _Encoders.entrySet()) {
+                out.writeUTF(encoder.getKey());
+                out.writeUTF(encoder.getValue());
+            }
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        long value = crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes.write((int) (value >>> shift));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the cache stored in data, or null if it was written for another key or version
+     *         or is damaged
+     */
+    public static CapabilityCache fromByteArray(byte[] data, String expectedKey) {
+        if (data.length < 4) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        long stored = 0;
+        for (int i = data.length - 4; i < data.length; i++) {
+            stored = (stored << 8) | (data[i] & 0xff);
+        }
+        if (stored != crc.getValue()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(expectedKey)) {
+                return null;
+            }
+            CapabilityCache cache = new CapabilityCache(expectedKey);
+            int cameras = in.readInt();
+            for (int i = 0; i < cameras; i++) {
+                String id = in.readUTF();
+                List<StreamConfigSolver.StreamSize> video = readSizes(in);
+                List<StreamConfigSolver.StreamSize> preview = readSizes(in);
+                cache.putCamera(id, new StreamConfigSolver(video, preview));
+            }
+            int encoders = in.readInt();
+            for (int i = 0; i < encoders; i++) {
+                cache.putEncoder(in.readUTF(), in.readUTF());
+            }
+            return cache;
+        } catch (IOException | IllegalArgumentException e) {
+            // truncated, or a size list that StreamConfigSolver refuses
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file next to file and renames it over, so a crash never leaves a
+     * half written cache behind.
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(toByteArray());
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    /**
+     * @return the cache in file, or null if there is none valid for expectedKey
+     */
+    public static CapabilityCache load(File file, String expectedKey) {
+        if (!file.isFile() || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return fromByteArray(data, expectedKey);
+    }
+
+    private static void writeSizes(DataOutputStream out, List<StreamConfigSolver.StreamSize> sizes)
+            throws IOException {
+        out.writeInt(sizes.size());
+        for (StreamConfigSolver.StreamSize size : sizes) {
+            out.writeInt(size.width);
+            out.writeInt(size.height);
+            out.writeLong(size.minFrameDurationNs);
+        }
+    }
+
+    private static List<StreamConfigSolver.StreamSize> readSizes(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 4096) {
+            throw new IOException("bad size count " + count);
+        }
+        List<StreamConfigSolver.StreamSize> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sizes.add(new StreamConfigSolver.StreamSize(in.readInt(), in.readInt(), in.readLong()));
+        }
+        return sizes;
+    }
+}
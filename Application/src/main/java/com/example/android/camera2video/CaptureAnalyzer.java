@@ -0,0 +1,268 @@
+package com.example.android.camera2video;
+
+/**
+ * Per-frame capture results in preallocated primitive rings, and the frame rate and drop
+ * counters derived from them.
+ * <p>
+ * The camera thread appends one entry per capture result (frame number, sensor timestamp,
+ * frame duration, exposure time) and the codec thread appends the presentation time of every
+ * encoded sample.  Both are single-writer rings published through a volatile count, so neither
+ * side locks or allocates.  Nothing is boxed here; the boxing of CaptureResult.get() happens
+ * before.
+ * <p>
+ * Both streams are in timestamp order, so they can be matched like a merge.  A captured
+ * frame older than the current encoded sample will never be encoded, so it counts as an encoder
+ * drop.  An encoded sample older than the current capture result never got a result.  A
+ * timestamp gap of more than one and a half frame durations counts the missing frames as
+ * sensor drops.  The counters can be read from any thread while recording.
+ */
+public class CaptureAnalyzer {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final long DEFAULT_FRAME_NS = 33333333L;
+
+    private final int _Mask;
+    private final long[] _FrameNumber;
+    private final long[] _TimestampNs;
+    private final long[] _FrameDurationNs;
+    private final long[] _ExposureNs;
+    private final boolean[] _Encoded;
+    private volatile long _CaptureCount;
+
+    private final long[] _EncodedUs;
+    private volatile long _EncodedCount;
+
+    // camera thread
+    private long _LastFrameNumber = -1;
+    private long _LastTimestampNs = -1;
+    private volatile long _AverageIntervalNs;
+    private volatile long _SensorDropCount;
+    private volatile long _MissingResultCount;
+    // whole-recording rate; a negative start asks the camera thread to restart it
+    private volatile long _RateStartNs = -1;
+    private volatile long _RateEndNs;
+    private volatile long _RateIntervals;
+
+    // matching, guarded by this
+    private long _CaptureCursor;
+    private long _EncodedCursor;
+    private volatile long _MatchedCount;
+    private volatile long _EncoderDropCount;
+    private volatile long _UnmatchedEncodedCount;
+    private volatile long _OverrunCount;
+
+    public CaptureAnalyzer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity entries kept per ring, rounded up to a power of two; must cover the
+     *                 encoder's latency in frames
+     */
+    public CaptureAnalyzer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        _Mask = size - 1;
+        _FrameNumber = new long[size];
+        _TimestampNs = new long[size];
+        _FrameDurationNs = new long[size];
+        _ExposureNs = new long[size];
+        _Encoded = new boolean[size];
+        _EncodedUs = new long[size];
+    }
+
+    /**
+     * One capture result, from the camera thread.
+     *
+     * @param encoderTarget whether the request also targeted the encoder
+     */
+    public void onCaptureResult(long frameNumber, long timestampNs, long frameDurationNs,
+                                long exposureNs, boolean encoderTarget) {
+        long frameNs = frameDurationNs > 0 ? frameDurationNs : DEFAULT_FRAME_NS;
+        if (_LastTimestampNs >= 0) {
+            long interval = timestampNs - _LastTimestampNs;
+            if (interval * 2 > frameNs * 3) {
+                _SensorDropCount += (interval + frameNs / 2) / frameNs - 1;
+            }
+            // exponential average over roughly the last 16 frames
+            long average = _AverageIntervalNs;
+            _AverageIntervalNs = average == 0 ? interval : average + (interval - average) / 16;
+        }
+        if (_LastFrameNumber >= 0 && frameNumber > _LastFrameNumber + 1) {
+            _MissingResultCount += frameNumber - _LastFrameNumber - 1;
+        }
+        _LastFrameNumber = frameNumber;
+        _LastTimestampNs = timestampNs;
+        if (_RateStartNs < 0) {
+            _RateIntervals = 0;
+            _RateStartNs = timestampNs;
+        } else {
+            _RateEndNs = timestampNs;
+            _RateIntervals++;
+        }
+
+        long count = _CaptureCount;
+        int i = (int) (count & _Mask);
+        _FrameNumber[i] = frameNumber;
+        _TimestampNs[i] = timestampNs;
+        _FrameDurationNs[i] = frameDurationNs;
+        _ExposureNs[i] = exposureNs;
+        _Encoded[i] = encoderTarget;
+        _CaptureCount = count + 1;
+        match();
+    }
+
+    /**
+     * One encoded sample, from the codec thread.  presentationTimeUs is the sensor timestamp
+     * the camera gave the frame, in microseconds.
+     */
+    public void onEncoded(long presentationTimeUs) {
+        long count = _EncodedCount;
+        _EncodedUs[(int) (count & _Mask)] = presentationTimeUs;
+        _EncodedCount = count + 1;
+        match();
+    }
+
+    /**
+     * Forgets all frames and counters, for a new recording.
+     */
+    public synchronized void reset() {
+        _CaptureCursor = _CaptureCount;
+        _EncodedCursor = _EncodedCount;
+        _MatchedCount = 0;
+        _EncoderDropCount = 0;
+        _UnmatchedEncodedCount = 0;
+        _OverrunCount = 0;
+        _SensorDropCount = 0;
+        _MissingResultCount = 0;
+        _RateStartNs = -1;
+    }
+
+    private synchronized void match() {
+        long captured = _CaptureCount;
+        long encoded = _EncodedCount;
+        if (captured - _CaptureCursor > _Mask + 1 || encoded - _EncodedCursor > _Mask + 1) {
+            // the other side stalled for longer than the rings cover; start over from here
+            _OverrunCount++;
+            _CaptureCursor = captured;
+            _EncodedCursor = encoded;
+            return;
+        }
+        long average = _AverageIntervalNs;
+        long toleranceUs = (average > 0 ? average : DEFAULT_FRAME_NS) / 2000;
+        while (_CaptureCursor < captured && _EncodedCursor < encoded) {
+            int c = (int) (_CaptureCursor & _Mask);
+            if (!_Encoded[c]) {
+                _CaptureCursor++;
+                continue;
+            }
+            long captureUs = _TimestampNs[c] / 1000;
+            long encodedUs = _EncodedUs[(int) (_EncodedCursor & _Mask)];
+            if (captureUs < encodedUs - toleranceUs) {
+                _EncoderDropCount++;
+                _CaptureCursor++;
+            } else if (encodedUs < captureUs - toleranceUs) {
+                _UnmatchedEncodedCount++;
+                _EncodedCursor++;
+            } else {
+                _MatchedCount++;
+                _CaptureCursor++;
+                _EncodedCursor++;
+            }
+        }
+    }
+
+    public long getCaptureCount() {
+        return _CaptureCount;
+    }
+
+    /**
+     * Capture rate over roughly the last 16 frames.
+     */
+    public float getFrameRate() {
+        long average = _AverageIntervalNs;
+        return average > 0 ? 1e9f / average : 0;
+    }
+
+    /**
+     * Capture rate since the last reset, from the first and last sensor timestamps.  Results of
+     * a high-speed burst arrive together, but their timestamps are still one frame apart.
+     */
+    public float getAverageFrameRate() {
+        long intervals = _RateIntervals;
+        long span = _RateEndNs - _RateStartNs;
+        return _RateStartNs >= 0 && intervals > 0 && span > 0 ? intervals * 1e9f / span : 0;
+    }
+
+    /**
+     * Whether the average capture rate is within tolerance (a fraction) of the rate the session
+     * was configured for.
+     */
+    public boolean deliversFrameRate(int frameRate, float tolerance) {
+        return Math.abs(getAverageFrameRate() - frameRate) <= frameRate * tolerance;
+    }
+
+    /**
+     * Frames the sensor skipped, judged from timestamp gaps against the frame duration.
+     */
+    public long getSensorDropCount() {
+        return _SensorDropCount;
+    }
+
+    /**
+     * Frame numbers for which no result arrived (failed captures).
+     */
+    public long getMissingResultCount() {
+        return _MissingResultCount;
+    }
+
+    /**
+     * Frames captured for the encoder that never came out of it.
+     */
+    public long getEncoderDropCount() {
+        return _EncoderDropCount;
+    }
+
+    public long getMatchedCount() {
+        return _MatchedCount;
+    }
+
+    /**
+     * Encoded samples with no matching capture result.
+     */
+    public long getUnmatchedEncodedCount() {
+        return _UnmatchedEncodedCount;
+    }
+
+    /**
+     * Times matching had to resynchronize because one ring overran the other.
+     */
+    public long getOverrunCount() {
+        return _OverrunCount;
+    }
+
+    /**
+     * Copies the most recent entry into out as {frame number, timestamp, frame duration,
+     * exposure}.
+     *
+     * @return false if nothing was captured yet
+     */
+    public boolean getLatest(long[] out) {
+        long count = _CaptureCount;
+        if (count == 0) {
+            return false;
+        }
+        int i = (int) ((count - 1) & _Mask);
+        out[0] = _FrameNumber[i];
+        out[1] = _TimestampNs[i];
+        out[2] = _FrameDurationNs[i];
+        out[3] = _ExposureNs[i];
+        return true;
+    }
+
+    public String summary() {
+        return String.format("%.1f fps (%.1f average), %d captured, %d sensor drops, %d missing results, "
+                        + "%d encoded, %d encoder drops, %d unmatched, %d overruns",
+                getFrameRate(), getAverageFrameRate(), _CaptureCount, _SensorDropCount, _MissingResultCount,
+                _MatchedCount, _EncoderDropCount, _UnmatchedEncodedCount, _OverrunCount);
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides when the capture session has to be rebuilt and what the repeating request targets.
+ * <p>
+ * In persistent mode the session is configured once with both the preview and the record
+ * surface, and starting or stopping a recording only replaces the repeating request (preview
+ * alone, or preview plus encoder).  Otherwise every record toggle aborts the captures and builds
+ * a new session with the current set of outputs, as the camera code always did.
+ * <p>
+ * The time from {@link #startRecord} to the first completed capture that targeted the encoder
+ * is recorded as the record-start latency.  Pure Java and parameterized on the surface type, so
+ * it runs against a fake {@link Host} on the JVM.  Not thread safe; drive it from the camera
+ * callback thread.
+ */
+public class CaptureSessionController<S> {
+
+    /**
+     * The camera device side: all calls may complete asynchronously.
+     */
+    public interface Host<S> {
+        /**
+         * Builds a new capture session with exactly these outputs and calls
+         * {@link #onSessionConfigured} once it is ready.
+         */
+        void createSession(List<S> outputs);
+
+        /**
+         * Replaces the repeating request.  recording marks requests that target the encoder so
+         * their completions can be reported to {@link #onCaptureCompleted}.
+         */
+        void setRepeating(List<S> targets, boolean recording);
+
+        void abortCaptures();
+    }
+
+    private final Host<S> _Host;
+    private boolean _Persistent;
+    private boolean _AlwaysEncode;
+    private S _PreviewSurface;
+    private S _RecordSurface;
+    private S _AnalysisSurface;
+
+    private boolean _Open;
+    private boolean _Configured;
+    private boolean _Recording;
+    private final List<S> _SessionOutputs = new ArrayList<>();
+
+    private long _RecordRequestedNs = -1;
+    private long _LastRecordStartLatencyNs = -1;
+    private final LatencyHistogram _RecordStartLatency = new LatencyHistogram();
+    private int _SessionCount;
+    private int _RequestCount;
+
+    public CaptureSessionController(Host<S> host) {
+        _Host = host;
+    }
+
+    /**
+     * Keeps one session across recordings.  Takes effect with the next session.
+     */
+    public void setPersistent(boolean persistent) {
+        _Persistent = persistent;
+    }
+
+    public boolean isPersistent() {
+        return _Persistent;
+    }
+
+    /**
+     * Targets the record surface with every request, recording or not (pre-roll).
+     */
+    public void setAlwaysEncode(boolean alwaysEncode) {
+        _AlwaysEncode = alwaysEncode;
+    }
+
+    public void setPreviewSurface(S surface) {
+        _PreviewSurface = surface;
+    }
+
+    /**
+     * A different surface than the one the current session was built with forces a new
+     * session the next time the record surface is needed.
+     */
+    public void setRecordSurface(S surface) {
+        _RecordSurface = surface;
+    }
+
+    /**
+     * A surface (an ImageReader's) that is part of every session and every repeating request,
+     * recording or not.  Takes effect with the next session.
+     */
+    public void setAnalysisSurface(S surface) {
+        _AnalysisSurface = surface;
+    }
+
+    /**
+     * The device is open: build the first session.
+     */
+    public void open() {
+        _Open = true;
+        createSession();
+    }
+
+    /**
+     * The device or session is gone; nothing is sent to the host until {@link #open}.
+     */
+    public void close() {
+        _Open = false;
+        _Configured = false;
+        _SessionOutputs.clear();
+    }
+
+    public void onSessionConfigured() {
+        _Configured = true;
+        submitRepeating();
+    }
+
+    public void startRecord(long nowNs) {
+        _Recording = true;
+        _RecordRequestedNs = nowNs;
+        update();
+    }
+
+    public void stopRecord() {
+        _Recording = false;
+        _RecordRequestedNs = -1;
+        update();
+    }
+
+    public boolean isRecording() {
+        return _Recording;
+    }
+
+    /**
+     * Reports a completed capture.
+     *
+     * @param recordTarget whether the request included the record surface
+     * @return true if this completed a record start and a latency was recorded
+     */
+    public boolean onCaptureCompleted(boolean recordTarget, long nowNs) {
+        if (!recordTarget || _RecordRequestedNs < 0) {
+            return false;
+        }
+        _LastRecordStartLatencyNs = nowNs - _RecordRequestedNs;
+        _RecordRequestedNs = -1;
+        _RecordStartLatency.record(_LastRecordStartLatencyNs / 1000);
+        return true;
+    }
+
+    /**
+     * Time from the last startRecord to its first captured frame, or -1 if none arrived yet.
+     */
+    public long getLastRecordStartLatencyNs() {
+        return _LastRecordStartLatencyNs;
+    }
+
+    /**
+     * Record-start latencies in microseconds.
+     */
+    public LatencyHistogram getRecordStartLatency() {
+        return _RecordStartLatency;
+    }
+
+    /**
+     * Number of capture sessions built so far.
+     */
+    public int getSessionCount() {
+        return _SessionCount;
+    }
+
+    /**
+     * Number of repeating requests submitted so far.
+     */
+    public int getRequestCount() {
+        return _RequestCount;
+    }
+
+    private void update() {
+        if (!_Open) {
+            return;
+        }
+        if (!_Persistent && !_AlwaysEncode) {
+            createSession();
+        } else if (needsRecordSurface() && !_SessionOutputs.contains(_RecordSurface)) {
+            // the encoder surface changed or was not known when the session was built
+            createSession();
+        } else if (_Configured) {
+            submitRepeating();
+        }
+    }
+
+    private void createSession() {
+        if (_Configured) {
+            _Host.abortCaptures();
+        }
+        _Configured = false;
+        _SessionOutputs.clear();
+        if (_PreviewSurface != null) {
+            _SessionOutputs.add(_PreviewSurface);
+        }
+        boolean withRecord = _Persistent || _AlwaysEncode || _Recording;
+        if (withRecord && _RecordSurface != null) {
+            _SessionOutputs.add(_RecordSurface);
+        }
+        if (_AnalysisSurface != null) {
+            _SessionOutputs.add(_AnalysisSurface);
+        }
+        _SessionCount++;
+        _Host.createSession(new ArrayList<>(_SessionOutputs));
+    }
+
+    private void submitRepeating() {
+        List<S> targets = new ArrayList<>(2);
+        if (_PreviewSurface != null) {
+            targets.add(_PreviewSurface);
+        }
+        boolean record = needsRecordSurface() && _SessionOutputs.contains(_RecordSurface);
+        if (record) {
+            targets.add(_RecordSurface);
+        }
+        if (_AnalysisSurface != null && _SessionOutputs.contains(_AnalysisSurface)) {
+            targets.add(_AnalysisSurface);
+        }
+        _RequestCount++;
+        _Host.setRepeating(targets, record);
+    }
+
+    private boolean needsRecordSurface() {
+        return (_Recording || _AlwaysEncode) && _RecordSurface != null;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.camera2video;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admission control for concurrent encoders.
+ * <p>
+ * Three budgets are shared by every stream: codec instances, encoder throughput in macroblocks
+ * per second (what the hardware's H.264 level promises for all its sessions together), and the
+ * total bitrate the storage path is expected to sustain.  A stream is only admitted if it fits
+ * into all three next to the streams already running, so a configuration that would stall the
+ * encoder or the writer is refused up front instead of dropping frames later.
+ * <p>
+ * Pure Java; the budgets come from MediaCodecInfo on the device (see MultiCameraManager).
+ * Thread safe.
+ */
+public class CodecBudget {
+    private static final int MACROBLOCK = 16;
+
+    // H.264 table A-1 MaxMBPS, indexed like MediaCodecInfo.CodecProfileLevel.AVCLevel* bits
+    private static final int[] AVC_LEVEL_MBPS = {
+            1485,       // 1
+            1485,       // 1b
+            3000,       // 1.1
+            6000,       // 1.2
+            11880,      // 1.3
+            11880,      // 2
+            19800,      // 2.1
+            20250,      // 2.2
+            40500,      // 3
+            108000,     // 3.1
+            216000,     // 3.2
+            245760,     // 4
+            245760,     // 4.1
+            522240,     // 4.2
+            589824,     // 5
+            983040,     // 5.1
+            2073600,    // 5.2
+    };
+
+    private static final class Stream {
+        final long macroblocksPerSecond;
+        final long bitsPerSecond;
+
+        Stream(long macroblocksPerSecond, long bitsPerSecond) {
+            this.macroblocksPerSecond = macroblocksPerSecond;
+            this.bitsPerSecond = bitsPerSecond;
+        }
+    }
+
+    private final int _MaxInstances;
+    private final long _MaxMacroblocksPerSecond;
+    private final long _MaxBitsPerSecond;
+    private final Map<String, Stream> _Streams = new LinkedHashMap<>();
+    private long _MacroblocksPerSecond;
+    private long _BitsPerSecond;
+    private String _Refusal;
+
+    /**
+     * @param maxMacroblocksPerSecond total encoder throughput, 0 for no limit
+     * @param maxBitsPerSecond total bitrate, 0 for no limit
+     */
+    public CodecBudget(int maxInstances, long maxMacroblocksPerSecond, long maxBitsPerSecond) {
+        _MaxInstances = maxInstances;
+        _MaxMacroblocksPerSecond = maxMacroblocksPerSecond;
+        _MaxBitsPerSecond = maxBitsPerSecond;
+    }
+
+    /**
+     * MaxMBPS of the highest AVC level set in levelBits (a MediaCodecInfo.CodecProfileLevel
+     * AVCLevel* constant), 0 if none is known.
+     */
+    public static long avcLevelMacroblocksPerSecond(int levelBits) {
+        if (levelBits <= 0) {
+            return 0;
+        }
+        int index = 31 - Integer.numberOfLeadingZeros(levelBits);
+        return AVC_LEVEL_MBPS[Math.min(index, AVC_LEVEL_MBPS.length - 1)];
+    }
+
+    public static long macroblocksPerSecond(int width, int height, int frameRate) {
+        long columns = (width + MACROBLOCK - 1) / MACROBLOCK;
+        long rows = (height + MACROBLOCK - 1) / MACROBLOCK;
+        return columns * rows * frameRate;
+    }
+
+    /**
+     * Reserves a stream under name if it fits, replacing any earlier reservation of that name.
+     *
+     * @return false, with the reason in {@link #getRefusal}, if it doesn't
+     */
+    public synchronized boolean tryAdmit(String name, int width, int height, int frameRate, int bitrate) {
+        Stream previous = _Streams.get(name);
+        long mbps = _MacroblocksPerSecond - (previous != null ? previous.macroblocksPerSecond : 0);
+        long bps = _BitsPerSecond - (previous != null ? previous.bitsPerSecond : 0);
+        int instances = _Streams.size() - (previous != null ? 1 : 0);
+        Stream stream = new Stream(macroblocksPerSecond(width, height, frameRate), bitrate);
+
+        if (instances + 1 > _MaxInstances) {
+            _Refusal = name + ": all " + _MaxInstances + " codec instances in use";
+            return false;
+        }
+        if (_MaxMacroblocksPerSecond > 0 && mbps + stream.macroblocksPerSecond > _MaxMacroblocksPerSecond) {
+            _Refusal = name + ": " + width + "x" + height + "@" + frameRate + " needs " + stream.macroblocksPerSecond
+                    + " MB/s, " + (_MaxMacroblocksPerSecond - mbps) + " left";
+            return false;
+        }
+        if (_MaxBitsPerSecond > 0 && bps + stream.bitsPerSecond > _MaxBitsPerSecond) {
+            _Refusal = name + ": " + bitrate + " bps, " + (_MaxBitsPerSecond - bps) + " left";
+            return false;
+        }
+        _Streams.put(name, stream);
+        _MacroblocksPerSecond = mbps + stream.macroblocksPerSecond;
+        _BitsPerSecond = bps + stream.bitsPerSecond;
+        _Refusal = null;
+        return true;
+    }
+
+    public synchronized void release(String name) {
+        Stream stream = _Streams.remove(name);
+        if (stream != null) {
+            _MacroblocksPerSecond -= stream.macroblocksPerSecond;
+            _BitsPerSecond -= stream.bitsPerSecond;
+        }
+    }
+
+    /**
+     * Why the last tryAdmit failed, or null if it succeeded.
+     */
+    public synchronized String getRefusal() {
+        return _Refusal;
+    }
+
+    public synchronized int getInstanceCount() {
+        return _Streams.size();
+    }
+
+    public synchronized long getMacroblocksPerSecond() {
+        return _MacroblocksPerSecond;
+    }
+
+    public synchronized long getBitsPerSecond() {
+        return _BitsPerSecond;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return _Streams.size() + "/" + _MaxInstances + " codecs, " + _MacroblocksPerSecond + "/"
+                + _MaxMacroblocksPerSecond + " MB/s, " + _BitsPerSecond + "/" + _MaxBitsPerSecond + " bps";
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference {@link RenderStage.Backend} that draws ARGB frames with plain Java: the input frame
+ * is scaled nearest-neighbour to each output's size and the presentation times are recorded.
+ * <p>
+ * It behaves like the GL backend where scheduling is concerned: queued frames pile up until
+ * latched, and a latch keeps only the newest.  Meant for tests on the JVM, where it shows what
+ * each output would have received.
+ */
+public class CpuRenderBackend implements RenderStage.Backend<CpuRenderBackend.Output> {
+
+    /**
+     * An output surface: the last frame drawn to it and every presentation time submitted.
+     */
+    public static final class Output {
+        private final int _Width;
+        private final int _Height;
+        private final int[] _Pixels;
+        private final List<Long> _PresentationTimesNs = new ArrayList<>();
+        private boolean _Attached;
+
+        public Output(int width, int height) {
+            _Width = width;
+            _Height = height;
+            _Pixels = new int[width * height];
+        }
+
+        public int getWidth() {
+            return _Width;
+        }
+
+        public int getHeight() {
+            return _Height;
+        }
+
+        public synchronized int getPixel(int x, int y) {
+            return _Pixels[y * _Width + x];
+        }
+
+        public synchronized List<Long> getPresentationTimesNs() {
+            return new ArrayList<>(_PresentationTimesNs);
+        }
+
+        public synchronized boolean isAttached() {
+            return _Attached;
+        }
+    }
+
+    private int[] _QueuedPixels;
+    private int _QueuedWidth;
+    private int _QueuedHeight;
+    private long _QueuedTimestampNs = -1;
+
+    // render thread only
+    private int[] _Pixels;
+    private int _Width;
+    private int _Height;
+    private boolean _Released;
+
+    /**
+     * Hands a frame to the input, as the camera would.  pixels is kept, not copied.
+     */
+    public synchronized void queueFrame(int[] pixels, int width, int height, long timestampNs) {
+        _QueuedPixels = pixels;
+        _QueuedWidth = width;
+        _QueuedHeight = height;
+        _QueuedTimestampNs = timestampNs;
+    }
+
+    @Override
+    public void addOutput(Output output) {
+        synchronized (output) {
+            output._Attached = true;
+        }
+    }
+
+    @Override
+    public void removeOutput(Output output) {
+        synchronized (output) {
+            output._Attached = false;
+        }
+    }
+
+    @Override
+    public synchronized long latchFrame() {
+        if (_QueuedTimestampNs < 0) {
+            return -1;
+        }
+        _Pixels = _QueuedPixels;
+        _Width = _QueuedWidth;
+        _Height = _QueuedHeight;
+        long timestampNs = _QueuedTimestampNs;
+        _QueuedPixels = null;
+        _QueuedTimestampNs = -1;
+        return timestampNs;
+    }
+
+    @Override
+    public void draw(Output output, long presentationTimeNs) {
+        if (_Released || _Pixels == null) {
+            throw new IllegalStateException("nothing latched");
+        }
+        synchronized (output) {
+            if (!output._Attached) {
+                throw new IllegalStateException("output not attached");
+            }
+            for (int y = 0; y < output._Height; y++) {
+                int row = (int) ((long) y * _Height / output._Height) * _Width;
+                int outRow = y * output._Width;
+                for (int x = 0; x < output._Width; x++) {
+                    output._Pixels[outRow + x] = _Pixels[row + (int) ((long) x * _Width / output._Width)];
+                }
+            }
+            output._PresentationTimesNs.add(presentationTimeNs);
+        }
+    }
+
+    @Override
+    public void release() {
+        _Released = true;
+        _Pixels = null;
+    }
+
+    public boolean isReleased() {
+        return _Released;
+    }
+}
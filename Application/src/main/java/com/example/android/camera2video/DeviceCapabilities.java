@@ -0,0 +1,125 @@
+package com.example.android.camera2video;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the {@link CapabilityCache} for this device, querying the camera service and the codec
+ * list only when there is no valid cache file.
+ * <p>
+ * The cache is keyed by the build fingerprint and the OS build, so an update or a restored
+ * backup from another device starts from a fresh query.  Both paths log how long they took, which
+ * is the cold versus cached startup comparison on the device itself.
+ */
+public class DeviceCapabilities {
+    public static final String TAG = "DeviceCapabilities";
+
+    private static final String FILE_NAME = "capabilities.bin";
+
+    private static CapabilityCache _Loaded;
+
+    private DeviceCapabilities() {
+    }
+
+    public static String getKey() {
+        return Build.FINGERPRINT + "|" + Build.VERSION.INCREMENTAL + "|" + Build.VERSION.SDK_INT;
+    }
+
+    /**
+     * @return the capabilities, or null if the camera service couldn't be queried
+     */
+    public static synchronized CapabilityCache get(Context context) {
+        if (_Loaded != null) {
+            return _Loaded;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        File file = getFile(context);
+        CapabilityCache cache = CapabilityCache.load(file, getKey());
+        if (cache != null) {
+            Log.d(TAG, "cached capabilities loaded in " + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + " us");
+        } else {
+            cache = query(context);
+            if (cache == null) {
+                return null;
+            }
+            Log.d(TAG, "capabilities queried in " + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + " us");
+            try {
+                cache.save(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        _Loaded = cache;
+        return cache;
+    }
+
+    /**
+     * Drops the cache, for when it turned out not to match the device (a camera id that no
+     * longer opens, a codec name that no longer exists).
+     */
+    public static synchronized void invalidate(Context context) {
+        _Loaded = null;
+        getFile(context).delete();
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    private static CapabilityCache query(Context context) {
+        CapabilityCache cache = new CapabilityCache(getKey());
+        CameraManager manager = (CameraManager) context.getSystemService(Activity.CAMERA_SERVICE);
+        try {
+            for (String cameraId : manager.getCameraIdList()) {
+                cache.putCamera(cameraId, createSolver(manager.getCameraCharacteristics(cameraId)));
+            }
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+        // the first encoder listed for a type is the one createEncoderByType would pick
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (cache.getEncoder(type) == null) {
+                    cache.putEncoder(type, info.getName());
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static StreamConfigSolver createSolver(CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        List<StreamConfigSolver.StreamSize> video = new ArrayList<>();
+        for (Size size : map.getOutputSizes(MediaCodec.class)) {
+            video.add(new StreamConfigSolver.StreamSize(size.getWidth(), size.getHeight(),
+                    map.getOutputMinFrameDuration(MediaCodec.class, size)));
+        }
+        List<StreamConfigSolver.StreamSize> preview = new ArrayList<>();
+        for (Size size : map.getOutputSizes(SurfaceTexture.class)) {
+            preview.add(new StreamConfigSolver.StreamSize(size.getWidth(), size.getHeight(),
+                    map.getOutputMinFrameDuration(SurfaceTexture.class, size)));
+        }
+        return new StreamConfigSolver(video, preview);
+    }
+}
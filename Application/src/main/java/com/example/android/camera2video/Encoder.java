@@ -1,113 +1,333 @@
 package com.example.android.camera2video;
 
 import android.content.Context;
-import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 /**
  * Created by wangt on 6/2/15.
  */
-public class Encoder extends MediaCodec.Callback {
+public class Encoder {
     public static final String TAG = "Encoder";
-    private MediaCodec _Codec;
-    private MediaMuxer _Muxer;
-    private MediaCodec.BufferInfo _BufferInfo;
-    private int _TrackedIndex;
-    private boolean _MuxerStarted;
-    private Surface _InputSurface;
+    public static final int OUTPUT_FORMAT_MPEG_4 = 0;
+    public static final int OUTPUT_FORMAT_FRAGMENTED_MPEG_4 = 1;
+
+    private int _OutputFormat;
+    private String _Type;
+    private String _CodecName;
+    private String _CodecNameType;
+    private String _FilePrefix = "h264";
+    private Context _Context;
+    private PipelineThreads _Threads;
+    private long _SegmentDurationUs;
+    private long _SegmentBytes;
+    private File _LatencyFile;
+    private SampleWriter _Writer;
+    // the codec side, shared with the JVM fakes; this class adds files, threads and logging
+    private final RecordPath<Surface> _Path = new RecordPath<>(new RecordPath.Host() {
+        @Override
+        public SampleMuxer openMuxer() throws IOException {
+            return createMuxer();
+        }
+
+        @Override
+        public void startWriter(SampleRing ring, SampleSink sink) {
+            _Writer = new SampleWriter(ring, sink);
+            if (_Threads != null) {
+                _Writer.start(_Threads.getIo());
+            } else {
+                _Writer.start();
+            }
+        }
+
+        @Override
+        public void stopWriter() {
+            _Writer.stop();
+            _Writer = null;
+            SampleRing ring = _Path.getSampleRing();
+            Log.d(TAG, "sample ring high water mark " + ring.getHighWaterMark()
+                    + ", dropped " + ring.getDroppedCount());
+        }
+
+        @Override
+        public void onRecordingFinished(LatencyTracker latency) {
+            Log.d(TAG, "latency (us)\n" + latency.summary());
+            try {
+                latency.dump(_LatencyFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't write " + _LatencyFile, e);
+            }
+        }
+
+        @Override
+        public long getRealtimeOffsetNs() {
+            return SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, e.toString(), e);
+        }
+    }, PipelineClock.SYSTEM);
 
     public void onCreate(Context context, String type, int width, int height) { //1440x1080
+        onCreate(context, type, width, height, OUTPUT_FORMAT_MPEG_4);
+    }
 
-        prepareCodec(type, width, height);
-        prepareMuxer(context);
+    public void onCreate(Context context, String type, int width, int height, int outputFormat) {
+        _OutputFormat = outputFormat;
+        create(type);
+        arm(context, width, height);
     }
 
-    public void onDestroy() {
-        destroyCodec();
-        destroyMuxer();
+    public void setOutputFormat(int outputFormat) {
+        _OutputFormat = outputFormat;
     }
 
-    public final Surface getSurface() {
-        return _InputSurface;
+    /**
+     * Start of the output file names, so encoders running side by side don't collide.
+     */
+    public void setFilePrefix(String prefix) {
+        _FilePrefix = prefix;
+    }
+
+    /**
+     * Delivers codec callbacks on the codec thread and writes files on the I/O thread.  Without
+     * threads the callbacks arrive on the looper of whoever calls create(), and the writer gets
+     * a thread of its own.  Must be called before create().
+     */
+    public void setThreads(PipelineThreads threads) {
+        _Threads = threads;
     }
 
-    @Override
-    public void onInputBufferAvailable(MediaCodec mediaCodec, int i) {
-        Log.e(TAG, "onInputBufferAvailable");
+    /**
+     * Creates the codec by name instead of by type, which skips the codec enumeration that
+     * createEncoderByType does.  The name comes from {@link DeviceCapabilities}; if it no longer
+     * exists, or create() asks for another type, the codec is created by type.  Must be called
+     * before create().
+     */
+    public void setCodecName(String type, String codecName) {
+        _CodecNameType = type;
+        _CodecName = codecName;
     }
 
-    @Override
-    public void onOutputBufferAvailable(MediaCodec mediaCodec, int i, MediaCodec.BufferInfo bufferInfo) {
-        if (_MuxerStarted) {
-            Log.d(TAG,"onOutputBufferAvailable go ...");
-            ByteBuffer outBuffer = mediaCodec.getOutputBuffer(i);
-            outBuffer.position(bufferInfo.offset);
-            outBuffer.limit(bufferInfo.offset + bufferInfo.size);
-            _Muxer.writeSampleData(_TrackedIndex, outBuffer, bufferInfo);
-            mediaCodec.releaseOutputBuffer(i,false);
+    /**
+     * Allocates the hardware codec.  This is the expensive step (hundreds of ms on some devices)
+     * and only has to happen once; see {@link EncoderManager}.
+     */
+    public void create(final String type) {
+        _Type = type;
+        Runnable create = new Runnable() {
+            @Override
+            public void run() {
+                _Path.setCodec(MediaCodecVideoCodec.create(type, type.equals(_CodecNameType) ? _CodecName : null));
+            }
+        };
+        if (_Threads != null) {
+            PipelineThreads.runAndWait(_Threads.getCodec(), create);
+        } else {
+            create.run();
         }
     }
 
-    @Override
-    public void onError(MediaCodec mediaCodec, MediaCodec.CodecException e) {
-        Log.e(TAG,e.toString());
+    /**
+     * Configures and starts the codec with a fresh input surface (or its input queue in buffer
+     * input mode), and opens a new output file.
+     */
+    public void arm(Context context, int width, int height) {
+        _Context = context;
+        _Path.arm(width, height);
     }
 
-    @Override
-    public void onOutputFormatChanged(MediaCodec mediaCodec, MediaFormat mediaFormat) {
-        _TrackedIndex = _Muxer.addTrack(mediaFormat);
-        if (_TrackedIndex != -1) {
-            _MuxerStarted = true;
-            _Muxer.start();
-        }
+    /**
+     * Stops the codec and finalizes the output file.  The codec stays allocated and can be
+     * armed again.
+     */
+    public void disarm() {
+        _Path.disarm();
+    }
 
+    /**
+     * Finalizes the current file and opens the next one while the codec keeps running, so the
+     * input surface stays valid.  Output still in flight from the previous recording is dropped
+     * until the key frame that the next {@link #startRecording} asks for.
+     */
+    public void rollover() {
+        _Path.rollover();
     }
 
-    private void prepareCodec(String type, int width, int height) {
-        _TrackedIndex = -1;
-        _BufferInfo = new MediaCodec.BufferInfo();
+    public void release() {
+        _Path.release();
+    }
 
-        MediaFormat format = MediaFormat.createVideoFormat(type, width, height);
-        format.setInteger(MediaFormat.KEY_BIT_RATE,125000);
-        format.setInteger(MediaFormat.KEY_FRAME_RATE,30);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 5);
+    public boolean isArmed() {
+        return _Path.isArmed();
+    }
 
-        try {
-            _Codec = MediaCodec.createEncoderByType(type);//video/avc
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        _Codec.setCallback(this);
-        _Codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        _InputSurface = _Codec.createInputSurface();
-        _Codec.start();
-    }
-
-    private void prepareMuxer(Context context) {
-        String path = context.getExternalFilesDir(null).getAbsolutePath();
-        try {
-            _Muxer = new MediaMuxer(path + "/h264.mp4", MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        _MuxerStarted = false;
+    public String getType() {
+        return _Type;
+    }
+
+    public int getWidth() {
+        return _Path.getWidth();
     }
 
-    private void destroyCodec() {
-        _Codec.stop();
-        _Codec.release();
+    public int getHeight() {
+        return _Path.getHeight();
     }
 
-    private void destroyMuxer() {
-        _Muxer.stop();
-        _Muxer.release();
+    /**
+     * Splits the recording into h264-TIME-NNNNN.mp4 files, each starting on a key frame, once a
+     * segment reaches either limit.  Pass 0 to disable a limit.  Takes effect on the next arm().
+     */
+    public void setSegmentLimits(long durationUs, long bytes) {
+        _SegmentDurationUs = durationUs;
+        _SegmentBytes = bytes;
+    }
+
+    /**
+     * Keeps the last durationUs of output (capped at maxBytes) while not recording, and starts
+     * every recording with it.  The camera has to feed the encoder continuously in this mode.
+     * Takes effect on the next arm().
+     */
+    public void setPreRoll(long durationUs, int maxBytes) {
+        _Path.setPreRoll(durationUs, maxBytes);
+    }
+
+    /**
+     * Starts at initial and lets a {@link BitrateController} move the bitrate within
+     * [min, max] at runtime.  min == max keeps it fixed.  Takes effect on the next arm().
+     */
+    public void setBitrate(int initial, int min, int max) {
+        _Path.setBitrate(initial, min, max);
+    }
+
+    /**
+     * Frame rate the camera delivers, as a hint to the codec.  Takes effect on the next arm().
+     */
+    public void setFrameRate(int frameRate) {
+        _Path.setFrameRate(frameRate);
+    }
+
+    /**
+     * Closes timestamp gaps longer than maxGapUs in the file down to one frame, so a recording
+     * that survived a camera reopen, or several pre-roll recordings in one file, plays straight
+     * through; 0 keeps gaps as they were.  Takes effect with the next muxer.
+     */
+    public void setMaxPtsGap(long maxGapUs) {
+        _Path.setMaxPtsGap(maxGapUs);
+    }
+
+    /**
+     * Timestamp adjustments of the current file, or null before the first arm().
+     */
+    public PtsContinuity getPtsContinuity() {
+        return _Path.getPtsContinuity();
+    }
+
+    /**
+     * Feeds the codec YUV frames from an {@link InputFrameQueue} of the given size instead of an
+     * input surface, so frames made on the CPU can be encoded without GL; 0 (the default) takes
+     * a surface.  Frames are NV12 when semiPlanar, I420 otherwise, and are converted to the
+     * codec's own layout on the way in.  Takes effect on the next arm().
+     */
+    public void setBufferInput(int queuedFrames, boolean semiPlanar) {
+        _Path.setBufferInput(queuedFrames, semiPlanar);
+    }
+
+    /**
+     * Rotates queued frames clockwise by degrees on their way into the codec in buffer input
+     * mode, so the file comes out upright; the codec is configured for the rotated size.  Pass
+     * the ORIENTATIONS entry for the display rotation.  kernels may bring a fork-join pool, null
+     * rotates on the filling thread.  Takes effect on the next arm().
+     */
+    public void setInputRotation(int degrees, YuvKernels kernels) {
+        _Path.setInputRotation(degrees, kernels);
+    }
+
+    /**
+     * Where the producer gets frames from and queues them in buffer input mode, or null with a
+     * surface.  The same queue is kept across arm() while the size stays the same.
+     */
+    public InputFrameQueue getInputQueue() {
+        return _Path.getInputQueue();
+    }
+
+    public BitrateController getBitrateController() {
+        return _Path.getBitrateController();
+    }
+
+    public boolean isAlwaysEncoding() {
+        return _Path.isAlwaysEncoding();
+    }
+
+    /**
+     * In pre-roll mode, switches output from the pre-roll buffer to the file.  Otherwise the
+     * encoder writes whatever the camera feeds it.  Either way the next frame is requested as a
+     * key frame so the recording can start on it.
+     */
+    public void startRecording() {
+        _Path.startRecording();
+    }
+
+    public void stopRecording() {
+        _Path.stopRecording();
+    }
+
+    public void onDestroy() {
+        release();
+    }
+
+    public final Surface getSurface() {
+        return _Path.getInputSurface();
+    }
+
+    /**
+     * Queue between the codec callback and the writer thread, for depth and drop counters.
+     */
+    public SampleRing getSampleRing() {
+        return _Path.getSampleRing();
+    }
+
+    /**
+     * Capture to encode to mux latency of the current recording; percentiles can be read at
+     * any time.  Written next to the recording as NAME-latency.txt when it ends.
+     */
+    public LatencyTracker getLatencyTracker() {
+        return _Path.getLatencyTracker();
+    }
+
+    /**
+     * Reports every encoded presentation time to analyzer, for encoder-side drop detection.
+     */
+    public void setCaptureAnalyzer(CaptureAnalyzer analyzer) {
+        _Path.setCaptureAnalyzer(analyzer);
+    }
+
+    private SampleMuxer createMuxer() throws IOException {
+        final File dir = _Context.getExternalFilesDir(null);
+        // one file (or set of segments) per recording, opened on its first sample
+        final String name = _FilePrefix + "-" + System.currentTimeMillis();
+        _LatencyFile = new File(dir, name + "-latency.txt");
+        if (_SegmentDurationUs > 0 || _SegmentBytes > 0) {
+            return new SegmentingMuxer(new SegmentingMuxer.Factory() {
+                @Override
+                public SampleMuxer create(int segmentIndex) throws IOException {
+                    return createMuxer(new File(dir, String.format("%s-%05d.mp4", name, segmentIndex)));
+                }
+            }, _SegmentDurationUs, _SegmentBytes);
+        }
+        return createMuxer(new File(dir, name + ".mp4"));
+    }
+
+    private SampleMuxer createMuxer(File file) throws IOException {
+        if (_OutputFormat == OUTPUT_FORMAT_FRAGMENTED_MPEG_4) {
+            return FragmentedMp4Muxer.open(file);
+        }
+        return new MediaMuxerAdapter(file.getAbsolutePath());
     }
 }
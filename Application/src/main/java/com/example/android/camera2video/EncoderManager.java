@@ -0,0 +1,177 @@
+package com.example.android.camera2video;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Keeps one {@link Encoder} allocated and configured between recordings.
+ * <p>
+ * Creating a hardware codec costs hundreds of milliseconds, so the codec is created once and
+ * re-armed (stop, configure, new input surface, start) right after each recording ends, off the
+ * record-start path.  Only a change of mime type or size forces a full re-creation.  Every
+ * recording reports how long its start took and how much that saved against a cold start.
+ */
+public class EncoderManager {
+    public static final String TAG = "EncoderManager";
+
+    private final Context _Context;
+    private Encoder _Encoder;
+    private boolean _Recording;
+    private boolean _KeepSurface;
+
+    private long _ColdStartNs;
+    private long _LastStartNs;
+    private long _TotalSavedNs;
+    private int _Recordings;
+
+    private final PipelineThreads _Threads;
+
+    public EncoderManager(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * With threads, every codec operation runs on the codec thread, in order with the codec's
+     * own callbacks; the calling thread waits for it.
+     */
+    public EncoderManager(Context context, PipelineThreads threads) {
+        _Context = context.getApplicationContext();
+        _Threads = threads;
+        _Encoder = new Encoder();
+        _Encoder.setThreads(threads);
+    }
+
+    /**
+     * The encoder being managed, for configuration before {@link #prepare} and for counters.
+     */
+    public Encoder getEncoder() {
+        return _Encoder;
+    }
+
+    /**
+     * Rolls over to a new file after each recording instead of re-arming, so the encoder's input
+     * surface stays the same and a persistent capture session can keep targeting it.
+     */
+    public void setKeepSurface(boolean keepSurface) {
+        _KeepSurface = keepSurface;
+    }
+
+    /**
+     * Creates and arms the codec ahead of the first recording.
+     */
+    public void prepare(final String type, final int width, final int height) {
+        onCodecThread(new Runnable() {
+            @Override
+            public void run() {
+                prepareNow(type, width, height);
+            }
+        });
+    }
+
+    private void prepareNow(String type, int width, int height) {
+        long start = System.nanoTime();
+        _Encoder.create(type);
+        _Encoder.arm(_Context, width, height);
+        _ColdStartNs = System.nanoTime() - start;
+        Log.d(TAG, "cold encoder start " + _ColdStartNs / 1000000 + " ms");
+    }
+
+    /**
+     * Returns an armed encoder for type/width/height, re-using the warm one when it matches.
+     */
+    public Encoder startRecording(final String type, final int width, final int height) {
+        onCodecThread(new Runnable() {
+            @Override
+            public void run() {
+                startRecordingNow(type, width, height);
+            }
+        });
+        return _Encoder;
+    }
+
+    private void startRecordingNow(String type, int width, int height) {
+        long start = System.nanoTime();
+        boolean cold = false;
+        if (_Encoder.getType() == null || !_Encoder.getType().equals(type)
+                || _Encoder.getWidth() != width || _Encoder.getHeight() != height) {
+            // format change: a warm codec configured for something else is no use
+            long coldStart = System.nanoTime();
+            _Encoder.release();
+            _Encoder.create(type);
+            _Encoder.arm(_Context, width, height);
+            _ColdStartNs = System.nanoTime() - coldStart;
+            cold = true;
+        } else if (!_Encoder.isArmed()) {
+            _Encoder.arm(_Context, width, height);
+        }
+        _Encoder.startRecording();
+        _Recording = true;
+
+        _LastStartNs = System.nanoTime() - start;
+        _Recordings++;
+        long saved = cold ? 0 : Math.max(0, _ColdStartNs - _LastStartNs);
+        _TotalSavedNs += saved;
+        Log.d(TAG, "recording " + _Recordings + " started in " + _LastStartNs / 1000
+                + " us, saved " + saved / 1000 + " us against a cold start");
+    }
+
+    /**
+     * Finalizes the current file and re-arms the codec for the next recording, or rolls over to
+     * a new file if the surface has to be kept.  In pre-roll mode the encoder keeps running and
+     * always rolls over; the new file collects the pre-roll for the next recording.
+     */
+    public void stopRecording() {
+        onCodecThread(new Runnable() {
+            @Override
+            public void run() {
+                stopRecordingNow();
+            }
+        });
+    }
+
+    private void stopRecordingNow() {
+        if (!_Recording) {
+            return;
+        }
+        _Recording = false;
+        _Encoder.stopRecording();
+        if (_KeepSurface || _Encoder.isAlwaysEncoding()) {
+            _Encoder.rollover();
+            return;
+        }
+        _Encoder.disarm();
+        _Encoder.arm(_Context, _Encoder.getWidth(), _Encoder.getHeight());
+    }
+
+    public void release() {
+        onCodecThread(new Runnable() {
+            @Override
+            public void run() {
+                _Encoder.release();
+            }
+        });
+    }
+
+    public long getColdStartNs() {
+        return _ColdStartNs;
+    }
+
+    public long getLastStartNs() {
+        return _LastStartNs;
+    }
+
+    /**
+     * Start latency saved over all recordings so far by re-using the warm codec.
+     */
+    public long getTotalSavedNs() {
+        return _TotalSavedNs;
+    }
+
+    private void onCodecThread(Runnable task) {
+        if (_Threads != null) {
+            PipelineThreads.runAndWait(_Threads.getCodec(), task);
+        } else {
+            task.run();
+        }
+    }
+}
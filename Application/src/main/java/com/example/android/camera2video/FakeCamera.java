@@ -0,0 +1,263 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link VideoCamera} on a {@link VirtualClock}: opens and builds sessions after fixed
+ * delays, and while a repeating request is set captures a frame every frame period, handing its
+ * sensor timestamp to the request's outputs and reporting the capture result.
+ * <p>
+ * Faults are injected from the outside: failed opens, a failed session, a disconnect or a
+ * device error, and sensor stalls during which no frames are captured.  Everything runs as
+ * clock tasks, so it is single threaded and reproducible.
+ */
+public class FakeCamera implements VideoCamera<FakeCamera.Output> {
+    public static final long DEFAULT_OPEN_NS = 120000000L;
+    public static final long DEFAULT_SESSION_NS = 60000000L;
+    public static final long DEFAULT_RESULT_NS = 15000000L;
+
+    /**
+     * Where frames go: a {@link FakeVideoCodec} input surface, or anything else that counts them.
+     */
+    public interface Output {
+        void onFrame(long timestampNs);
+    }
+
+    private final VirtualClock _Clock;
+    private long _FrameNs;
+    private long _OpenNs = DEFAULT_OPEN_NS;
+    private long _SessionNs = DEFAULT_SESSION_NS;
+    private long _ResultNs = DEFAULT_RESULT_NS;
+
+    private Callback _Callback;
+    private boolean _Open;
+    // bumped by open and close, so delayed callbacks of an earlier device are dropped
+    private int _DeviceGeneration;
+    // bumped by every new session and request, which stops the running capture loop
+    private int _RequestGeneration;
+    private List<Output> _SessionOutputs;
+    private int _FailOpens;
+    private boolean _FailOpenRetryable;
+    private boolean _FailNextSession;
+    private long _StallStartNs = -1;
+    private long _StallEndNs = -1;
+
+    private long _FrameNumber;
+    private long _StalledCount;
+    private int _OpenCount;
+    private int _SessionCount;
+    private int _FaultCount;
+
+    public FakeCamera(VirtualClock clock, int frameRate) {
+        _Clock = clock;
+        _FrameNs = 1000000000L / frameRate;
+    }
+
+    public void setFrameRate(int frameRate) {
+        _FrameNs = 1000000000L / frameRate;
+    }
+
+    /**
+     * How long opening the device, building a session and getting a frame's capture result
+     * (and the frame itself to its outputs) take.
+     */
+    public void setDelays(long openNs, long sessionNs, long resultNs) {
+        _OpenNs = openNs;
+        _SessionNs = sessionNs;
+        _ResultNs = resultNs;
+    }
+
+    /**
+     * Fails the next count opens with an error.
+     */
+    public void failOpens(int count, boolean retryable) {
+        _FailOpens = count;
+        _FailOpenRetryable = retryable;
+    }
+
+    public void failNextSession() {
+        _FailNextSession = true;
+    }
+
+    /**
+     * Captures nothing from startNs for durationNs, as if the sensor or the ISP stalled.
+     */
+    public void stall(long startNs, long durationNs) {
+        _StallStartNs = startNs;
+        _StallEndNs = startNs + durationNs;
+    }
+
+    /**
+     * The device goes away now, as when another app takes the camera.
+     */
+    public void disconnect() {
+        if (!_Open) {
+            return;
+        }
+        fault();
+        _Callback.onDisconnected();
+    }
+
+    /**
+     * The open device breaks now.
+     */
+    public void error(boolean retryable) {
+        if (!_Open) {
+            return;
+        }
+        fault();
+        _Callback.onError(retryable);
+    }
+
+    private void fault() {
+        _FaultCount++;
+        _Open = false;
+        _DeviceGeneration++;
+        _RequestGeneration++;
+        _SessionOutputs = null;
+    }
+
+    public boolean isOpen() {
+        return _Open;
+    }
+
+    /**
+     * Frames captured so far.
+     */
+    public long getFrameCount() {
+        return _FrameNumber;
+    }
+
+    /**
+     * Frames not captured because of a stall.
+     */
+    public long getStalledCount() {
+        return _StalledCount;
+    }
+
+    public int getOpenCount() {
+        return _OpenCount;
+    }
+
+    public int getSessionCount() {
+        return _SessionCount;
+    }
+
+    public int getFaultCount() {
+        return _FaultCount;
+    }
+
+    @Override
+    public void open(Callback callback) {
+        _Callback = callback;
+        _OpenCount++;
+        final int generation = ++_DeviceGeneration;
+        _Clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != _DeviceGeneration) {
+                    return;
+                }
+                if (_FailOpens > 0) {
+                    _FailOpens--;
+                    _Callback.onError(_FailOpenRetryable);
+                    return;
+                }
+                _Open = true;
+                _Callback.onOpened();
+            }
+        }, _OpenNs);
+    }
+
+    @Override
+    public void createSession(final List<Output> outputs) {
+        if (!_Open) {
+            return;
+        }
+        _SessionCount++;
+        _SessionOutputs = null;
+        final int device = _DeviceGeneration;
+        final int request = ++_RequestGeneration;
+        _Clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (device != _DeviceGeneration || request != _RequestGeneration) {
+                    // replaced by a newer session before it was ready
+                    return;
+                }
+                if (_FailNextSession) {
+                    _FailNextSession = false;
+                    _Callback.onSessionConfigureFailed();
+                    return;
+                }
+                _SessionOutputs = new ArrayList<>(outputs);
+                _Callback.onSessionConfigured();
+            }
+        }, _SessionNs);
+    }
+
+    @Override
+    public void setRepeating(List<Output> targets, final boolean recording) {
+        if (_SessionOutputs == null) {
+            return;
+        }
+        final List<Output> request = new ArrayList<>(targets);
+        final int device = _DeviceGeneration;
+        final int generation = ++_RequestGeneration;
+        _Clock.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (device != _DeviceGeneration || generation != _RequestGeneration) {
+                    return;
+                }
+                capture(request, recording);
+                _Clock.schedule(this, _FrameNs);
+            }
+        });
+    }
+
+    private void capture(final List<Output> targets, final boolean recording) {
+        final long timestampNs = _Clock.nowNs();
+        if (timestampNs >= _StallStartNs && timestampNs < _StallEndNs) {
+            _StalledCount++;
+            return;
+        }
+        final long frameNumber = _FrameNumber++;
+        final int device = _DeviceGeneration;
+        _Clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (device != _DeviceGeneration) {
+                    // closed or lost with the frame in flight
+                    return;
+                }
+                for (Output target : targets) {
+                    target.onFrame(timestampNs);
+                }
+                _Callback.onCaptureCompleted(frameNumber, timestampNs, _FrameNs, _FrameNs / 2, recording);
+            }
+        }, _ResultNs);
+    }
+
+    /**
+     * Stops the repeating request; frames in flight are still delivered.
+     */
+    @Override
+    public void abortCaptures() {
+        _RequestGeneration++;
+    }
+
+    @Override
+    public void close() {
+        _Open = false;
+        _DeviceGeneration++;
+        _RequestGeneration++;
+        _SessionOutputs = null;
+    }
+
+    public String summary() {
+        return "camera: " + _OpenCount + " opens, " + _SessionCount + " sessions, " + _FaultCount
+                + " faults, " + _FrameNumber + " frames, " + _StalledCount + " stalled";
+    }
+}
@@ -0,0 +1,403 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A {@link VideoCodec} on a {@link VirtualClock} that turns each input frame into a synthetic
+ * Annex-B access unit after a fixed encode time.
+ * <p>
+ * Frames are encoded one at a time in arrival order.  Surface input holds a few pending frames
+ * and drops the newest when they are all taken, like a BufferQueue whose consumer fell behind;
+ * buffer input hands out a fixed set of input buffers and gives each back once its frame is
+ * encoded.  A sample only leaves once an output buffer is free, so a caller sitting on output
+ * buffers stalls the codec.  Samples are bitrate / frame rate in size, key frames four times
+ * that, with a key frame every key frame interval or on request.  Encoder stalls can be
+ * injected.  Everything runs as clock tasks, so it is single threaded and reproducible.
+ */
+public class FakeVideoCodec implements VideoCodec<FakeCamera.Output> {
+    public static final long DEFAULT_ENCODE_NS = 8000000L;
+    public static final int DEFAULT_PENDING_FRAMES = 3;
+    public static final int DEFAULT_INPUT_BUFFERS = 4;
+    public static final int DEFAULT_OUTPUT_BUFFERS = 4;
+
+    // csd-0 / csd-1 as a real encoder reports them, with start codes; the size is passed
+    // alongside, so the muxer never has to parse them
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x28, (byte) 0xda, 0x01, 0x68, 0x08,
+            0x7b, 0x01, 0x6a, 0x02, 0x02, 0x02, (byte) 0x80};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final int KEY_FRAME_SCALE = 4;
+
+    private final VirtualClock _Clock;
+    private long _EncodeNs = DEFAULT_ENCODE_NS;
+    private int _PendingFrames = DEFAULT_PENDING_FRAMES;
+    private int _InputBufferCount = DEFAULT_INPUT_BUFFERS;
+    private int _OutputBufferCount = DEFAULT_OUTPUT_BUFFERS;
+    private int _StridePadding;
+    private int _SliceHeightPadding;
+    private boolean _FlexibleInput;
+
+    private Callback _Callback;
+    private int _Width;
+    private int _Height;
+    private int _Bitrate;
+    private int _FrameRate;
+    private int _KeyFrameIntervalFrames;
+    private boolean _BufferInput;
+    private boolean _Started;
+    private boolean _Released;
+    // bumped by start and stop, so work in flight for an earlier run is dropped
+    private int _Generation;
+    private boolean _FormatSent;
+    private boolean _KeyFrameRequested;
+    private long _FramesSinceKey;
+
+    // pending input: presentation time, flags and input buffer index (-1 for surface input)
+    private final ArrayDeque<long[]> _Pending = new ArrayDeque<>();
+    private final ArrayDeque<Integer> _FreeOutputs = new ArrayDeque<>();
+    private ByteBuffer[] _InputBuffers;
+    private ByteBuffer[] _OutputBuffers;
+    private boolean _Busy;
+    private long _StallEndNs = -1;
+
+    private long _InputCount;
+    private long _InputDropCount;
+    private long _OutputCount;
+    private long _KeyFrameCount;
+    private long _OutputBytes;
+    private int _BitrateChangeCount;
+    private long _ShortInputCount;
+
+    private final FakeCamera.Output _Surface = new FakeCamera.Output() {
+        @Override
+        public void onFrame(long timestampNs) {
+            if (!_Started || _BufferInput) {
+                return;
+            }
+            if (_Pending.size() >= _PendingFrames) {
+                _InputDropCount++;
+                return;
+            }
+            input(timestampNs / 1000, 0, -1);
+        }
+    };
+
+    public FakeVideoCodec(VirtualClock clock) {
+        _Clock = clock;
+    }
+
+    /**
+     * Time to encode one frame.
+     */
+    public void setEncodeTime(long encodeNs) {
+        _EncodeNs = encodeNs;
+    }
+
+    /**
+     * Surface frames waiting for the encoder, input buffers and output buffers.  Takes effect
+     * on the next configure.
+     */
+    public void setBufferCounts(int pendingFrames, int inputBuffers, int outputBuffers) {
+        _PendingFrames = pendingFrames;
+        _InputBufferCount = inputBuffers;
+        _OutputBufferCount = outputBuffers;
+    }
+
+    /**
+     * Pads input buffer rows and the luma slice, as hardware encoders do for alignment.  Takes
+     * effect on the next configure.
+     */
+    public void setInputPadding(int stridePadding, int sliceHeightPadding) {
+        _StridePadding = stridePadding;
+        _SliceHeightPadding = sliceHeightPadding;
+    }
+
+    /**
+     * Hands out input buffers like MediaCodec's input images, as planes without a layout
+     * description, so the whole buffer has to be queued.
+     */
+    public void setFlexibleInput(boolean flexible) {
+        _FlexibleInput = flexible;
+    }
+
+    /**
+     * Encodes nothing from startNs for durationNs, as if the hardware was busy elsewhere; frames
+     * pile up and surface input starts dropping.
+     */
+    public void stall(long startNs, final long durationNs) {
+        _Clock.scheduleAt(new Runnable() {
+            @Override
+            public void run() {
+                _StallEndNs = _Clock.nowNs() + durationNs;
+                _Clock.scheduleAt(new Runnable() {
+                    @Override
+                    public void run() {
+                        encodeNext();
+                    }
+                }, _StallEndNs);
+            }
+        }, startNs);
+    }
+
+    public int getBitrate() {
+        return _Bitrate;
+    }
+
+    public int getBitrateChangeCount() {
+        return _BitrateChangeCount;
+    }
+
+    /**
+     * Frames that reached the encoder.
+     */
+    public long getInputCount() {
+        return _InputCount;
+    }
+
+    /**
+     * Surface frames dropped because the encoder fell behind.
+     */
+    public long getInputDropCount() {
+        return _InputDropCount;
+    }
+
+    /**
+     * Input buffers queued with fewer bytes than their layout spans, which would lose chroma on
+     * a real codec.
+     */
+    public long getShortInputCount() {
+        return _ShortInputCount;
+    }
+
+    public long getOutputCount() {
+        return _OutputCount;
+    }
+
+    public long getKeyFrameCount() {
+        return _KeyFrameCount;
+    }
+
+    public long getOutputBytes() {
+        return _OutputBytes;
+    }
+
+    public boolean isReleased() {
+        return _Released;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        _Callback = callback;
+    }
+
+    @Override
+    public void configure(int width, int height, int bitrate, int frameRate, int keyFrameIntervalS,
+                          boolean bufferInput) {
+        if (_Released) {
+            throw new IllegalStateException("released");
+        }
+        _Width = width;
+        _Height = height;
+        _Bitrate = bitrate;
+        _FrameRate = frameRate;
+        _KeyFrameIntervalFrames = Math.max(1, keyFrameIntervalS * frameRate);
+        _BufferInput = bufferInput;
+        _InputBuffers = null;
+        if (bufferInput) {
+            _InputBuffers = new ByteBuffer[_InputBufferCount];
+            for (int i = 0; i < _InputBuffers.length; i++) {
+                _InputBuffers[i] = ByteBuffer.allocateDirect(YuvFrame.packedSize(width, height, inputStride(),
+                        inputSliceHeight()));
+            }
+        }
+        _OutputBuffers = new ByteBuffer[_OutputBufferCount];
+        for (int i = 0; i < _OutputBuffers.length; i++) {
+            _OutputBuffers[i] = ByteBuffer.allocate(sampleSize(true));
+        }
+    }
+
+    @Override
+    public FakeCamera.Output createInputSurface() {
+        return _Surface;
+    }
+
+    @Override
+    public void start() {
+        final int generation = ++_Generation;
+        _Started = true;
+        _FormatSent = false;
+        _KeyFrameRequested = true;
+        _FramesSinceKey = 0;
+        _Busy = false;
+        _Pending.clear();
+        _FreeOutputs.clear();
+        for (int i = 0; i < _OutputBuffers.length; i++) {
+            _FreeOutputs.add(i);
+        }
+        if (_BufferInput) {
+            for (int i = 0; i < _InputBuffers.length; i++) {
+                final int index = i;
+                _Clock.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == _Generation) {
+                            _Callback.onInputBufferAvailable(index);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        _Generation++;
+        _Started = false;
+        _Pending.clear();
+    }
+
+    @Override
+    public void release() {
+        stop();
+        _Released = true;
+    }
+
+    @Override
+    public int getInputFrame(int index, YuvFrame frame) {
+        YuvFrame.wrapPacked(frame, _InputBuffers[index], _Width, _Height, inputStride(), inputSliceHeight(), true);
+        if (_FlexibleInput) {
+            return _InputBuffers[index].capacity();
+        }
+        return YuvFrame.packedSize(_Width, _Height, inputStride(), inputSliceHeight());
+    }
+
+    private int inputStride() {
+        return _Width + _StridePadding;
+    }
+
+    private int inputSliceHeight() {
+        return _Height + _SliceHeightPadding;
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        if (!_Started) {
+            return;
+        }
+        if ((flags & SampleMuxer.FLAG_END_OF_STREAM) == 0
+                && size < YuvFrame.packedSize(_Width, _Height, inputStride(), inputSliceHeight())) {
+            _ShortInputCount++;
+        }
+        input(presentationTimeUs, flags, index);
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return _OutputBuffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        _FreeOutputs.add(index);
+        if (!_Busy) {
+            encodeNext();
+        }
+    }
+
+    @Override
+    public void setBitrate(int bitrate) {
+        _Bitrate = bitrate;
+        _BitrateChangeCount++;
+    }
+
+    @Override
+    public void requestKeyFrame() {
+        _KeyFrameRequested = true;
+    }
+
+    private void input(long presentationTimeUs, int flags, int inputIndex) {
+        _InputCount++;
+        _Pending.add(new long[]{presentationTimeUs, flags, inputIndex});
+        if (!_Busy) {
+            encodeNext();
+        }
+    }
+
+    private void encodeNext() {
+        if (!_Started || _Busy || _Pending.isEmpty() || _FreeOutputs.isEmpty()
+                || _Clock.nowNs() < _StallEndNs) {
+            return;
+        }
+        final long[] input = _Pending.poll();
+        final int output = _FreeOutputs.poll();
+        final int generation = _Generation;
+        _Busy = true;
+        _Clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != _Generation) {
+                    return;
+                }
+                _Busy = false;
+                finish(input, output);
+                encodeNext();
+            }
+        }, _EncodeNs);
+    }
+
+    private void finish(long[] input, int output) {
+        int inputIndex = (int) input[2];
+        int flags = (int) input[1];
+        if (!_FormatSent) {
+            _FormatSent = true;
+            _Callback.onOutputFormatChanged(_Width, _Height, ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS));
+        }
+        int size = 0;
+        if ((flags & SampleMuxer.FLAG_END_OF_STREAM) == 0) {
+            boolean key = _KeyFrameRequested || _FramesSinceKey >= _KeyFrameIntervalFrames;
+            if (key) {
+                _KeyFrameRequested = false;
+                _FramesSinceKey = 0;
+                _KeyFrameCount++;
+                flags |= SampleMuxer.FLAG_KEY_FRAME;
+            }
+            _FramesSinceKey++;
+            size = fill(output, key, input[0]);
+            _OutputCount++;
+            _OutputBytes += size;
+        }
+        if (inputIndex >= 0) {
+            _Callback.onInputBufferAvailable(inputIndex);
+        }
+        _Callback.onOutputBufferAvailable(output, 0, size, input[0], flags);
+    }
+
+    private int sampleSize(boolean key) {
+        int size = Math.max(16, _Bitrate / Math.max(1, _FrameRate) / 8);
+        return key ? size * KEY_FRAME_SCALE : size;
+    }
+
+    private int fill(int index, boolean key, long presentationTimeUs) {
+        int size = sampleSize(key);
+        ByteBuffer buffer = _OutputBuffers[index];
+        if (buffer.capacity() < size) {
+            // the bitrate went up since configure
+            buffer = _OutputBuffers[index] = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        buffer.putInt(1);
+        buffer.put((byte) (key ? 0x65 : 0x41));
+        // never zero, so no start code can show up in the payload
+        byte fill = (byte) (1 + (presentationTimeUs & 0x7f));
+        while (buffer.position() < size) {
+            buffer.put(fill);
+        }
+        buffer.flip();
+        return size;
+    }
+
+    public String summary() {
+        return "codec: " + _InputCount + " in, " + _InputDropCount + " dropped, " + _OutputCount + " out ("
+                + _KeyFrameCount + " key, " + _OutputBytes + " bytes), " + _BitrateChangeCount + " bitrate changes";
+    }
+}
@@ -0,0 +1,399 @@
+package com.example.android.camera2video;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Pure Java fragmented MP4 writer for a single H.264 track.
+ * <p>
+ * ftyp + moov are written on {@link #start()}, after which every GOP is flushed as one
+ * moof/mdat pair as soon as the next key frame arrives.  Only the current fragment is held in
+ * memory, so memory use is bounded by the largest GOP no matter how long the recording runs, and
+ * everything up to the last complete fragment stays playable if the process dies.
+ * <p>
+ * Samples may be Annex-B (as MediaCodec produces them) or already length prefixed; they are
+ * stored with 4 byte NAL lengths as required by the avcC sample entry.  A track size of 0x0 is
+ * taken from the SPS.
+ */
+public class FragmentedMp4Muxer implements SampleMuxer {
+    public static final int TIMESCALE = 90000;
+
+    private static final long DEFAULT_MAX_FRAGMENT_DURATION_US = 10000000L;
+    private static final int DEFAULT_FRAME_DURATION = TIMESCALE / 30;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    private final WritableByteChannel _Out;
+    private long _MaxFragmentDurationUs = DEFAULT_MAX_FRAGMENT_DURATION_US;
+
+    private int _Width;
+    private int _Height;
+    private byte[] _Sps;
+    private byte[] _Pps;
+    private boolean _Started;
+    private final NalScanner _Scanner = new NalScanner();
+
+    // current fragment, reused between fragments
+    private ByteBuffer _Data = ByteBuffer.allocate(256 * 1024);
+    private ByteBuffer _Header = ByteBuffer.allocate(4 * 1024);
+    private long[] _SampleTimes = new long[64];
+    private int[] _SampleSizes = new int[64];
+    private boolean[] _SampleSync = new boolean[64];
+    private int _SampleCount;
+
+    private long _FirstPtsUs = -1;
+    private long _FragmentStartUs;
+    private int _LastDuration = DEFAULT_FRAME_DURATION;
+    private int _SequenceNumber;
+    private long _BytesWritten;
+
+    public FragmentedMp4Muxer(WritableByteChannel out) {
+        _Out = out;
+    }
+
+    public static FragmentedMp4Muxer open(File file) throws IOException {
+        return new FragmentedMp4Muxer(new FileOutputStream(file).getChannel());
+    }
+
+    /**
+     * Upper bound on fragment length for streams with very long (or no) key frame intervals.
+     */
+    public void setMaxFragmentDurationUs(long durationUs) {
+        _MaxFragmentDurationUs = durationUs;
+    }
+
+    public long getBytesWritten() {
+        return _BytesWritten;
+    }
+
+    public int getFragmentCount() {
+        return _SequenceNumber;
+    }
+
+    @Override
+    public void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        _Sps = stripStartCode(sps);
+        _Pps = stripStartCode(pps);
+        _Width = width;
+        _Height = height;
+        if (width <= 0 || height <= 0) {
+            H264Sps parsed = new H264Sps();
+            if (parsed.parse(ByteBuffer.wrap(_Sps), 0, _Sps.length)) {
+                _Width = parsed.getWidth();
+                _Height = parsed.getHeight();
+            }
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (_Sps == null || _Pps == null) {
+            throw new IllegalStateException("addVideoTrack must be called before start");
+        }
+        _Header.clear();
+        writeFtyp();
+        writeMoov();
+        _Header.flip();
+        write(_Header);
+        _Started = true;
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if (!_Started) {
+            throw new IllegalStateException("muxer not started");
+        }
+        if ((flags & FLAG_CODEC_CONFIG) != 0) {
+            return;
+        }
+        if (_FirstPtsUs < 0) {
+            _FirstPtsUs = presentationTimeUs;
+        }
+        boolean sync = (flags & FLAG_KEY_FRAME) != 0;
+        if (_SampleCount > 0 && (sync || presentationTimeUs - _FragmentStartUs >= _MaxFragmentDurationUs)) {
+            flushFragment(toTicks(presentationTimeUs));
+        }
+        if (_SampleCount == 0) {
+            _FragmentStartUs = presentationTimeUs;
+        }
+        appendSample(data, toTicks(presentationTimeUs), sync);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (_SampleCount > 0) {
+            flushFragment(_SampleTimes[_SampleCount - 1] + _LastDuration);
+        }
+        _Started = false;
+    }
+
+    @Override
+    public void release() {
+        try {
+            _Out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long toTicks(long ptsUs) {
+        return (ptsUs - _FirstPtsUs) * TIMESCALE / 1000000L;
+    }
+
+    private void appendSample(ByteBuffer data, long ticks, boolean sync) {
+        if (_SampleCount == _SampleTimes.length) {
+            int n = _SampleCount * 2;
+            _SampleTimes = Arrays.copyOf(_SampleTimes, n);
+            _SampleSizes = Arrays.copyOf(_SampleSizes, n);
+            _SampleSync = Arrays.copyOf(_SampleSync, n);
+        }
+        // worst case every 3 byte start code becomes a 4 byte length
+        _Data = ensureCapacity(_Data, data.remaining() + data.remaining() / 3 + 4);
+        int start = _Data.position();
+        appendAvcc(data, _Data);
+        _SampleTimes[_SampleCount] = ticks;
+        _SampleSizes[_SampleCount] = _Data.position() - start;
+        _SampleSync[_SampleCount] = sync;
+        _SampleCount++;
+    }
+
+    /**
+     * Writes the fragment collected so far.  nextTicks is the decode time of the sample that
+     * follows, which gives the duration of the last sample in the fragment.
+     */
+    private void flushFragment(long nextTicks) throws IOException {
+        _SequenceNumber++;
+        ByteBuffer h = _Header;
+        h.clear();
+        int moof = beginBox(h, "moof");
+        int mfhd = beginFullBox(h, "mfhd", 0, 0);
+        h.putInt(_SequenceNumber);
+        endBox(h, mfhd);
+        int traf = beginBox(h, "traf");
+        int tfhd = beginFullBox(h, "tfhd", 0, 0x020000); // default-base-is-moof
+        h.putInt(1);
+        endBox(h, tfhd);
+        int tfdt = beginFullBox(h, "tfdt", 1, 0);
+        h.putLong(_SampleTimes[0]);
+        endBox(h, tfdt);
+        h = _Header = ensureCapacity(h, 32 + _SampleCount * 12);
+        int trun = beginFullBox(h, "trun", 0, 0x000701); // data offset, duration, size, flags
+        h.putInt(_SampleCount);
+        int dataOffsetPos = h.position();
+        h.putInt(0);
+        for (int i = 0; i < _SampleCount; i++) {
+            long next = i + 1 < _SampleCount ? _SampleTimes[i + 1] : nextTicks;
+            int duration = (int) Math.max(1, next - _SampleTimes[i]);
+            h.putInt(duration);
+            h.putInt(_SampleSizes[i]);
+            h.putInt(_SampleSync[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            _LastDuration = duration;
+        }
+        endBox(h, trun);
+        endBox(h, traf);
+        endBox(h, moof);
+        h.putInt(dataOffsetPos, h.position() - moof + 8);
+        h.putInt(8 + _Data.position());
+        h.put(fourcc("mdat"));
+        h.flip();
+        write(h);
+        _Data.flip();
+        write(_Data);
+        _Data.clear();
+        _SampleCount = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            _BytesWritten += _Out.write(buffer);
+        }
+    }
+
+    private void writeFtyp() {
+        ByteBuffer h = _Header;
+        int ftyp = beginBox(h, "ftyp");
+        h.put(fourcc("isom"));
+        h.putInt(0x200);
+        h.put(fourcc("isom"));
+        h.put(fourcc("iso6"));
+        h.put(fourcc("avc1"));
+        h.put(fourcc("mp41"));
+        endBox(h, ftyp);
+    }
+
+    private void writeMoov() {
+        ByteBuffer h = _Header;
+        int moov = beginBox(h, "moov");
+
+        int mvhd = beginFullBox(h, "mvhd", 0, 0);
+        h.putInt(0).putInt(0);          // creation / modification time
+        h.putInt(1000).putInt(0);       // timescale, duration
+        h.putInt(0x00010000);           // rate 1.0
+        h.putShort((short) 0x0100);     // volume 1.0
+        h.put(new byte[10]);
+        putMatrix(h);
+        h.put(new byte[24]);
+        h.putInt(2);                    // next track id
+        endBox(h, mvhd);
+
+        int trak = beginBox(h, "trak");
+        int tkhd = beginFullBox(h, "tkhd", 0, 0x000003); // enabled, in movie
+        h.putInt(0).putInt(0);
+        h.putInt(1).putInt(0);          // track id, reserved
+        h.putInt(0);                    // duration
+        h.put(new byte[8]);
+        h.putShort((short) 0).putShort((short) 0);
+        h.putShort((short) 0).putShort((short) 0);
+        putMatrix(h);
+        h.putInt(_Width << 16).putInt(_Height << 16);
+        endBox(h, tkhd);
+
+        int mdia = beginBox(h, "mdia");
+        int mdhd = beginFullBox(h, "mdhd", 0, 0);
+        h.putInt(0).putInt(0);
+        h.putInt(TIMESCALE).putInt(0);
+        h.putShort((short) 0x55c4);     // "und"
+        h.putShort((short) 0);
+        endBox(h, mdhd);
+        int hdlr = beginFullBox(h, "hdlr", 0, 0);
+        h.putInt(0);
+        h.put(fourcc("vide"));
+        h.put(new byte[12]);
+        h.put(new byte[]{'V', 'i', 'd', 'e', 'o', 'H', 'a', 'n', 'd', 'l', 'e', 'r', 0});
+        endBox(h, hdlr);
+
+        int minf = beginBox(h, "minf");
+        int vmhd = beginFullBox(h, "vmhd", 0, 1);
+        h.put(new byte[8]);
+        endBox(h, vmhd);
+        int dinf = beginBox(h, "dinf");
+        int dref = beginFullBox(h, "dref", 0, 0);
+        h.putInt(1);
+        int url = beginFullBox(h, "url ", 0, 1);
+        endBox(h, url);
+        endBox(h, dref);
+        endBox(h, dinf);
+
+        int stbl = beginBox(h, "stbl");
+        int stsd = beginFullBox(h, "stsd", 0, 0);
+        h.putInt(1);
+        writeAvc1(h);
+        endBox(h, stsd);
+        for (String type : new String[]{"stts", "stsc", "stco"}) {
+            int box = beginFullBox(h, type, 0, 0);
+            h.putInt(0);
+            endBox(h, box);
+        }
+        int stsz = beginFullBox(h, "stsz", 0, 0);
+        h.putInt(0).putInt(0);
+        endBox(h, stsz);
+        endBox(h, stbl);
+        endBox(h, minf);
+        endBox(h, mdia);
+        endBox(h, trak);
+
+        int mvex = beginBox(h, "mvex");
+        int trex = beginFullBox(h, "trex", 0, 0);
+        h.putInt(1).putInt(1);          // track id, sample description index
+        h.putInt(0).putInt(0).putInt(0);
+        endBox(h, trex);
+        endBox(h, mvex);
+
+        endBox(h, moov);
+    }
+
+    private void writeAvc1(ByteBuffer h) {
+        int avc1 = beginBox(h, "avc1");
+        h.put(new byte[6]);
+        h.putShort((short) 1);          // data reference index
+        h.put(new byte[16]);
+        h.putShort((short) _Width).putShort((short) _Height);
+        h.putInt(0x00480000).putInt(0x00480000); // 72 dpi
+        h.putInt(0);
+        h.putShort((short) 1);          // frame count
+        h.put(new byte[32]);            // compressor name
+        h.putShort((short) 0x0018);
+        h.putShort((short) -1);
+
+        int avcc = beginBox(h, "avcC");
+        h.put((byte) 1);
+        h.put(_Sps[1]).put(_Sps[2]).put(_Sps[3]); // profile, compatibility, level
+        h.put((byte) 0xff);             // 4 byte NAL lengths
+        h.put((byte) 0xe1);             // one SPS
+        h.putShort((short) _Sps.length).put(_Sps);
+        h.put((byte) 1);
+        h.putShort((short) _Pps.length).put(_Pps);
+        endBox(h, avcc);
+        endBox(h, avc1);
+    }
+
+    private static void putMatrix(ByteBuffer h) {
+        h.putInt(0x00010000).putInt(0).putInt(0);
+        h.putInt(0).putInt(0x00010000).putInt(0);
+        h.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private static int beginBox(ByteBuffer h, String type) {
+        int start = h.position();
+        h.putInt(0);
+        h.put(fourcc(type));
+        return start;
+    }
+
+    private static int beginFullBox(ByteBuffer h, String type, int version, int flags) {
+        int start = beginBox(h, type);
+        h.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private static void endBox(ByteBuffer h, int start) {
+        h.putInt(start, h.position() - start);
+    }
+
+    private static byte[] fourcc(String type) {
+        return new byte[]{(byte) type.charAt(0), (byte) type.charAt(1),
+                (byte) type.charAt(2), (byte) type.charAt(3)};
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    private static byte[] stripStartCode(ByteBuffer nal) {
+        ByteBuffer b = nal.duplicate();
+        if (NalScanner.isAnnexB(b)) {
+            b.position(NalScanner.findStartCode(b, b.position(), b.limit()) + 3);
+        }
+        byte[] out = new byte[b.remaining()];
+        b.get(out);
+        return out;
+    }
+
+    /**
+     * Copies an access unit into dst with 4 byte NAL lengths.  Input that does not begin with a
+     * start code is assumed to be length prefixed already and copied unchanged.
+     */
+    private void appendAvcc(ByteBuffer src, ByteBuffer dst) {
+        if (!NalScanner.isAnnexB(src)) {
+            dst.put(src.duplicate());
+            return;
+        }
+        NalScanner scanner = _Scanner.reset(src);
+        ByteBuffer nal = src.duplicate();
+        while (scanner.next()) {
+            dst.putInt(scanner.getNalSize());
+            nal.limit(scanner.getNalOffset() + scanner.getNalSize()).position(scanner.getNalOffset());
+            dst.put(nal);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.android.camera2video;
+
+/**
+ * Per-frame analysis plugged into an {@link AnalysisTap}.
+ * <p>
+ * The frame's planes are the camera's own memory and are only valid during the call; copy out
+ * whatever is needed later.  With more than one worker, calls for different frames can overlap,
+ * so implementations must be thread safe.
+ */
+public interface FrameAnalyzer {
+    void analyze(YuvFrame frame);
+}
@@ -0,0 +1,223 @@
+package com.example.android.camera2video;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link RenderStage.Backend} on OpenGL ES 2.0: the camera writes into a SurfaceTexture, and
+ * each output (the preview's SurfaceTexture surface, the encoder's input surface) is an EGL
+ * window surface of one shared context, drawn with {@link TextureRender}.
+ * <p>
+ * Built from CodecInputSurface and SurfaceTextureManager in CameraToMpegTest, with one context
+ * for any number of window surfaces instead of one per surface, and a 1x1 pbuffer to keep the
+ * context current when there are none.  Output surfaces stay owned by whoever passed them in.
+ * Everything but {@link #setInputSize} and {@link #getInputSurface} must run on the render
+ * thread, the one {@link #prepare} ran on.
+ */
+public class GlRenderBackend implements RenderStage.Backend<Surface> {
+    private static final String TAG = "GlRenderBackend";
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final class Target {
+        final EGLSurface eglSurface;
+        final int width;
+        final int height;
+
+        Target(EGLSurface eglSurface, int width, int height) {
+            this.eglSurface = eglSurface;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private EGLDisplay _Display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext _Context = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig _Config;
+    private EGLSurface _Pbuffer = EGL14.EGL_NO_SURFACE;
+    private final Map<Surface, Target> _Targets = new HashMap<>();
+
+    private TextureRender _Render;
+    private volatile SurfaceTexture _SurfaceTexture;
+    private volatile Surface _InputSurface;
+    private final float[] _STMatrix = new float[16];
+
+    /**
+     * Sets up EGL and the input SurfaceTexture, whose frame callbacks go to stage on the render
+     * thread.
+     *
+     * @param renderThread the thread this runs on
+     */
+    public void prepare(HandlerExecutor renderThread, final RenderStage<Surface> stage) {
+        eglSetup();
+        _Render = new TextureRender();
+        _Render.surfaceCreated();
+        _SurfaceTexture = new SurfaceTexture(_Render.getTextureId());
+        _SurfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+            @Override
+            public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                stage.onFrameAvailable();
+            }
+        }, renderThread.getHandler());
+        _InputSurface = new Surface(_SurfaceTexture);
+    }
+
+    /**
+     * Size of the camera output, once {@link #prepare} ran.  Any thread.
+     */
+    public void setInputSize(int width, int height) {
+        _SurfaceTexture.setDefaultBufferSize(width, height);
+    }
+
+    /**
+     * The surface to give the camera, once {@link #prepare} ran.  Any thread.
+     */
+    public Surface getInputSurface() {
+        return _InputSurface;
+    }
+
+    private void eglSetup() {
+        _Display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (_Display == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("unable to get EGL14 display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(_Display, version, 0, version, 1)) {
+            throw new RuntimeException("unable to initialize EGL14");
+        }
+        // recordable, so the same config works for the encoder's surface
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(_Display, attribList, 0, configs, 0, configs.length, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("no RGB888+recordable ES2 EGL config");
+        }
+        _Config = configs[0];
+        int[] contextAttribs = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        _Context = EGL14.eglCreateContext(_Display, _Config, EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        checkEglError("eglCreateContext");
+        int[] pbufferAttribs = {
+                EGL14.EGL_WIDTH, 1,
+                EGL14.EGL_HEIGHT, 1,
+                EGL14.EGL_NONE
+        };
+        _Pbuffer = EGL14.eglCreatePbufferSurface(_Display, _Config, pbufferAttribs, 0);
+        checkEglError("eglCreatePbufferSurface");
+        makeCurrent(_Pbuffer);
+    }
+
+    @Override
+    public void addOutput(Surface output) {
+        int[] surfaceAttribs = {
+                EGL14.EGL_NONE
+        };
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(_Display, _Config, output, surfaceAttribs, 0);
+        checkEglError("eglCreateWindowSurface");
+        int[] size = new int[2];
+        EGL14.eglQuerySurface(_Display, eglSurface, EGL14.EGL_WIDTH, size, 0);
+        EGL14.eglQuerySurface(_Display, eglSurface, EGL14.EGL_HEIGHT, size, 1);
+        makeCurrent(eglSurface);
+        // don't let a display surface hold the encoder's frame back until vsync
+        EGL14.eglSwapInterval(_Display, 0);
+        _Targets.put(output, new Target(eglSurface, size[0], size[1]));
+    }
+
+    @Override
+    public void removeOutput(Surface output) {
+        Target target = _Targets.remove(output);
+        if (target != null) {
+            makeCurrent(_Pbuffer);
+            EGL14.eglDestroySurface(_Display, target.eglSurface);
+        }
+    }
+
+    @Override
+    public long latchFrame() {
+        makeCurrent(_Pbuffer);
+        _SurfaceTexture.updateTexImage();
+        _SurfaceTexture.getTransformMatrix(_STMatrix);
+        return _SurfaceTexture.getTimestamp();
+    }
+
+    @Override
+    public void draw(Surface output, long presentationTimeNs) {
+        Target target = _Targets.get(output);
+        if (target == null) {
+            return;
+        }
+        makeCurrent(target.eglSurface);
+        _Render.drawFrame(_STMatrix, target.width, target.height);
+        EGLExt.eglPresentationTimeANDROID(_Display, target.eglSurface, presentationTimeNs);
+        if (!EGL14.eglSwapBuffers(_Display, target.eglSurface)) {
+            // the consumer went away (encoder released, view destroyed); the owner removes it
+            Log.w(TAG, "eglSwapBuffers failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    @Override
+    public void release() {
+        if (_Display == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        makeCurrent(_Pbuffer);
+        for (Target target : _Targets.values()) {
+            EGL14.eglDestroySurface(_Display, target.eglSurface);
+        }
+        _Targets.clear();
+        if (_Render != null) {
+            _Render.release();
+            _Render = null;
+        }
+        if (_SurfaceTexture != null) {
+            _SurfaceTexture.release();
+            _SurfaceTexture = null;
+        }
+        if (_InputSurface != null) {
+            _InputSurface.release();
+            _InputSurface = null;
+        }
+        EGL14.eglMakeCurrent(_Display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(_Display, _Pbuffer);
+        EGL14.eglDestroyContext(_Display, _Context);
+        EGL14.eglReleaseThread();
+        EGL14.eglTerminate(_Display);
+        _Display = EGL14.EGL_NO_DISPLAY;
+        _Context = EGL14.EGL_NO_CONTEXT;
+        _Pbuffer = EGL14.EGL_NO_SURFACE;
+    }
+
+    private void makeCurrent(EGLSurface surface) {
+        if (!EGL14.eglMakeCurrent(_Display, surface, surface, _Context)) {
+            checkEglError("eglMakeCurrent");
+        }
+    }
+
+    private static void checkEglError(String msg) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new RuntimeException(msg + ": EGL error: 0x" + Integer.toHexString(error));
+        }
+    }
+}
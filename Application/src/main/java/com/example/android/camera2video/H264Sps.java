@@ -0,0 +1,220 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the fields of an H.264 sequence parameter set that the pipeline cares about: profile,
+ * level, chroma format and the cropped picture size.
+ * <p>
+ * Parsing works in place on the NAL bytes (emulation prevention bytes are skipped on the fly)
+ * and writes into this reusable instance, so nothing is allocated per call.
+ */
+public final class H264Sps {
+    private int _ProfileIdc;
+    private int _ConstraintFlags;
+    private int _LevelIdc;
+    private int _SpsId;
+    private int _ChromaFormatIdc;
+    private boolean _FrameMbsOnly;
+    private int _Width;
+    private int _Height;
+
+    // bit reader state
+    private ByteBuffer _Buffer;
+    private int _Pos;
+    private int _End;
+    private int _Current;
+    private int _BitsLeft;
+    private int _Zeros;
+
+    public int getProfileIdc() {
+        return _ProfileIdc;
+    }
+
+    public int getConstraintFlags() {
+        return _ConstraintFlags;
+    }
+
+    public int getLevelIdc() {
+        return _LevelIdc;
+    }
+
+    public int getSpsId() {
+        return _SpsId;
+    }
+
+    public int getChromaFormatIdc() {
+        return _ChromaFormatIdc;
+    }
+
+    public boolean isFrameMbsOnly() {
+        return _FrameMbsOnly;
+    }
+
+    public int getWidth() {
+        return _Width;
+    }
+
+    public int getHeight() {
+        return _Height;
+    }
+
+    /**
+     * Parses the SPS NAL unit whose header byte is at offset.
+     *
+     * @return false if it is not an SPS or is truncated
+     */
+    public boolean parse(ByteBuffer buffer, int offset, int size) {
+        if (size < 4 || (buffer.get(offset) & 0x1f) != NalScanner.TYPE_SPS) {
+            return false;
+        }
+        _Buffer = buffer;
+        _Pos = offset + 1;
+        _End = offset + size;
+        _BitsLeft = 0;
+        _Zeros = 0;
+        try {
+            parseFields();
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            // ran past the end of a truncated SPS
+            return false;
+        } finally {
+            _Buffer = null;
+        }
+    }
+
+    private void parseFields() {
+        _ProfileIdc = readBits(8);
+        _ConstraintFlags = readBits(8);
+        _LevelIdc = readBits(8);
+        _SpsId = readUe();
+
+        _ChromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(_ProfileIdc)) {
+            _ChromaFormatIdc = readUe();
+            if (_ChromaFormatIdc == 3) {
+                separateColourPlane = readBit() == 1;
+            }
+            readUe();       // bit_depth_luma_minus8
+            readUe();       // bit_depth_chroma_minus8
+            readBit();      // qpprime_y_zero_transform_bypass_flag
+            if (readBit() == 1) {
+                int lists = _ChromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (readBit() == 1) {
+                        skipScalingList(i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        readUe();           // log2_max_frame_num_minus4
+        int pocType = readUe();
+        if (pocType == 0) {
+            readUe();       // log2_max_pic_order_cnt_lsb_minus4
+        } else if (pocType == 1) {
+            readBit();      // delta_pic_order_always_zero_flag
+            readSe();       // offset_for_non_ref_pic
+            readSe();       // offset_for_top_to_bottom_field
+            int cycle = readUe();
+            for (int i = 0; i < cycle; i++) {
+                readSe();
+            }
+        }
+        readUe();           // max_num_ref_frames
+        readBit();          // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = readUe() + 1;
+        int heightInMapUnits = readUe() + 1;
+        _FrameMbsOnly = readBit() == 1;
+        if (!_FrameMbsOnly) {
+            readBit();      // mb_adaptive_frame_field_flag
+        }
+        readBit();          // direct_8x8_inference_flag
+
+        int frameHeightFactor = _FrameMbsOnly ? 1 : 2;
+        _Width = widthInMbs * 16;
+        _Height = heightInMapUnits * 16 * frameHeightFactor;
+        if (readBit() == 1) {
+            int cropUnitX = 1;
+            int cropUnitY = frameHeightFactor;
+            if (_ChromaFormatIdc != 0 && !separateColourPlane) {
+                cropUnitX = _ChromaFormatIdc == 3 ? 1 : 2;
+                cropUnitY *= _ChromaFormatIdc == 1 ? 2 : 1;
+            }
+            int left = readUe();
+            int right = readUe();
+            int top = readUe();
+            int bottom = readUe();
+            _Width -= (left + right) * cropUnitX;
+            _Height -= (top + bottom) * cropUnitY;
+        }
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100: case 110: case 122: case 244: case 44:
+            case 83: case 86: case 118: case 128: case 138: case 139: case 134: case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void skipScalingList(int size) {
+        int last = 8;
+        int next = 8;
+        for (int j = 0; j < size; j++) {
+            if (next != 0) {
+                next = (last + readSe() + 256) % 256;
+            }
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private int readBit() {
+        if (_BitsLeft == 0) {
+            if (_Pos >= _End) {
+                throw new IndexOutOfBoundsException();
+            }
+            int b = _Buffer.get(_Pos++) & 0xff;
+            if (_Zeros >= 2 && b == 3) {
+                // emulation_prevention_three_byte
+                _Zeros = 0;
+                if (_Pos >= _End) {
+                    throw new IndexOutOfBoundsException();
+                }
+                b = _Buffer.get(_Pos++) & 0xff;
+            }
+            _Zeros = b == 0 ? _Zeros + 1 : 0;
+            _Current = b;
+            _BitsLeft = 8;
+        }
+        _BitsLeft--;
+        return (_Current >> _BitsLeft) & 1;
+    }
+
+    private int readBits(int n) {
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            v = (v << 1) | readBit();
+        }
+        return v;
+    }
+
+    private int readUe() {
+        int zeros = 0;
+        while (readBit() == 0) {
+            if (++zeros > 31) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+        return (int) ((1L << zeros) - 1 + readBits(zeros));
+    }
+
+    private int readSe() {
+        int v = readUe();
+        return (v & 1) != 0 ? (v + 1) / 2 : -(v / 2);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.android.camera2video;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * {@link PipelineExecutor} on a looper thread, for the camera and codec APIs that deliver their
+ * callbacks through a Handler or the calling thread's looper.
+ */
+public class HandlerExecutor implements PipelineExecutor {
+    private final HandlerThread _Thread;
+    private final Handler _Handler;
+
+    public HandlerExecutor(String name) {
+        _Thread = new HandlerThread(name);
+        _Thread.start();
+        _Handler = new Handler(_Thread.getLooper());
+    }
+
+    public Handler getHandler() {
+        return _Handler;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        _Handler.post(task);
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Looper.myLooper() == _Thread.getLooper();
+    }
+
+    @Override
+    public void quit() {
+        _Thread.quitSafely();
+    }
+}
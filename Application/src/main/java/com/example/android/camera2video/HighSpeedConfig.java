@@ -0,0 +1,195 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the size and frame rate ranges for a constrained high-speed (120/240 fps) session.
+ * <p>
+ * Such a session has at most a preview and a record output, both at one of the high-speed
+ * sizes, and only accepts the fps ranges listed for that size.  Recording uses a fixed range
+ * (fps, fps); preview alone uses (30, fps) so the sensor drops to 30 when nothing is recorded.
+ * Requests go out in bursts of fps / 30, and only the first request of each burst targets the
+ * preview, so the preview and the UI that draws it stay at 30 fps whatever the recording rate.
+ * <p>
+ * Pure Java.  The ranges come from the device (see Camera2Wrapper) or from a dump in the format
+ * of {@link #toDump}.
+ */
+public class HighSpeedConfig {
+    public static final int PREVIEW_FRAME_RATE = 30;
+
+    /**
+     * One size and one of the fps ranges it supports.
+     */
+    public static final class Mode {
+        public final int width;
+        public final int height;
+        public final int minFps;
+        public final int maxFps;
+
+        public Mode(int width, int height, int minFps, int maxFps) {
+            this.width = width;
+            this.height = height;
+            this.minFps = minFps;
+            this.maxFps = maxFps;
+        }
+
+        boolean isFixed() {
+            return minFps == maxFps;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + minFps + "-" + maxFps;
+        }
+    }
+
+    /**
+     * A chosen high-speed configuration.
+     */
+    public static final class Result {
+        private final Mode _Record;
+        private final Mode _Preview;
+
+        Result(Mode record, Mode preview) {
+            _Record = record;
+            _Preview = preview;
+        }
+
+        public int getWidth() {
+            return _Record.width;
+        }
+
+        public int getHeight() {
+            return _Record.height;
+        }
+
+        /**
+         * The fixed rate while recording; also what the encoder is configured for.
+         */
+        public int getFrameRate() {
+            return _Record.maxFps;
+        }
+
+        public int getPreviewMinFps() {
+            return _Preview.minFps;
+        }
+
+        public int getPreviewMaxFps() {
+            return _Preview.maxFps;
+        }
+
+        /**
+         * Requests per burst, from which the camera takes one preview frame.
+         */
+        public int getBurstSize() {
+            return Math.max(1, _Record.maxFps / PREVIEW_FRAME_RATE);
+        }
+
+        /**
+         * The rate the preview surface gets frames at while recording.
+         */
+        public int getPreviewFrameRate() {
+            return _Record.maxFps / getBurstSize();
+        }
+
+        @Override
+        public String toString() {
+            return getWidth() + "x" + getHeight() + " at " + getFrameRate() + " fps, preview "
+                    + getPreviewMinFps() + "-" + getPreviewMaxFps() + " fps, bursts of " + getBurstSize();
+        }
+    }
+
+    private final List<Mode> _Modes;
+
+    public HighSpeedConfig(List<Mode> modes) {
+        _Modes = new ArrayList<>(modes);
+    }
+
+    public boolean isEmpty() {
+        return _Modes.isEmpty();
+    }
+
+    /**
+     * Chooses the fixed range closest to frameRate (the fastest below it if there is no exact
+     * one) and among its sizes the closest to width x height.
+     *
+     * @return null if there is no fixed range at all
+     */
+    public Result choose(int width, int height, int frameRate) {
+        int fps = 0;
+        for (Mode mode : _Modes) {
+            if (mode.isFixed() && mode.maxFps <= frameRate && mode.maxFps > fps) {
+                fps = mode.maxFps;
+            }
+        }
+        if (fps == 0) {
+            // nothing at or below the request: the slowest there is
+            for (Mode mode : _Modes) {
+                if (mode.isFixed() && (fps == 0 || mode.maxFps < fps)) {
+                    fps = mode.maxFps;
+                }
+            }
+        }
+        Mode record = null;
+        long requestedArea = (long) width * height;
+        for (Mode mode : _Modes) {
+            if (!mode.isFixed() || mode.maxFps != fps) {
+                continue;
+            }
+            if (record == null || Math.abs(area(mode) - requestedArea) < Math.abs(area(record) - requestedArea)) {
+                record = mode;
+            }
+        }
+        if (record == null) {
+            return null;
+        }
+        // the widest range ending at the recording rate for the same size
+        Mode preview = record;
+        for (Mode mode : _Modes) {
+            if (mode.width == record.width && mode.height == record.height && mode.maxFps == fps
+                    && mode.minFps < preview.minFps) {
+                preview = mode;
+            }
+        }
+        return new Result(record, preview);
+    }
+
+    private static long area(Mode mode) {
+        return (long) mode.width * mode.height;
+    }
+
+    /**
+     * One line, "highspeed:", followed by WIDTHxHEIGHT@MIN-MAX entries.
+     */
+    public String toDump() {
+        StringBuilder out = new StringBuilder("highspeed:");
+        for (Mode mode : _Modes) {
+            out.append(' ').append(mode);
+        }
+        return out.append('\n').toString();
+    }
+
+    /**
+     * Reads the format written by {@link #toDump}.
+     */
+    public static HighSpeedConfig fromDump(String dump) {
+        List<Mode> modes = new ArrayList<>();
+        String[] tokens = dump.trim().split("\\s+");
+        if (!tokens[0].equals("highspeed:")) {
+            throw new IllegalArgumentException("not a high-speed dump: " + tokens[0]);
+        }
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            int x = token.indexOf('x');
+            int at = token.indexOf('@');
+            int dash = token.indexOf('-', at);
+            if (x < 0 || at < x || dash < at) {
+                throw new IllegalArgumentException("bad mode " + token);
+            }
+            modes.add(new Mode(Integer.parseInt(token.substring(0, x)), Integer.parseInt(token.substring(x + 1, at)),
+                    Integer.parseInt(token.substring(at + 1, dash)), Integer.parseInt(token.substring(dash + 1))));
+        }
+        return new HighSpeedConfig(modes);
+    }
+}
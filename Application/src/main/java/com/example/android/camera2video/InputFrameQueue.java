@@ -0,0 +1,298 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded queue of YUV frames between a producer and a codec fed through input buffers.
+ * <p>
+ * The frames are a fixed pool allocated up front: the producer {@link #obtain}s a free one,
+ * fills it, sets its timestamp and {@link #queue}s it; once its pixels are in a codec input
+ * buffer it goes back to the pool.  When all of them are queued, obtain() waits, which is the
+ * back pressure that keeps a producer from running ahead of the codec.  Nothing is allocated
+ * per frame.
+ * <p>
+ * The codec side reports free input buffers with {@link #onInputBufferAvailable}.  A free
+ * buffer and a queued frame are paired in arrival order and handed to {@link Host#fill} by
+ * whichever thread completed the pair, one fill at a time, so input reaches the codec in
+ * timestamp order.  Pure Java; the codec is behind {@link Host}.
+ */
+public class InputFrameQueue {
+
+    /**
+     * The codec side.
+     */
+    public interface Host {
+        /**
+         * Copies frame into input buffer index and queues it with the frame's timestamp.
+         */
+        void fill(int index, YuvFrame frame);
+
+        /**
+         * Queues input buffer index empty, with the end of stream flag.
+         */
+        void queueEndOfStream(int index);
+    }
+
+    private final Host _Host;
+    private final int _Width;
+    private final int _Height;
+    private final int _Capacity;
+
+    // guarded by this
+    private final ArrayDeque<YuvFrame> _Free;
+    private final ArrayDeque<YuvFrame> _Queued;
+    private final ArrayDeque<Integer> _Buffers = new ArrayDeque<>();
+    private boolean _Filling;
+    private boolean _EndOfStream;
+    private boolean _EndOfStreamQueued;
+    private boolean _Closed;
+    private long _LastTimestampNs = Long.MIN_VALUE;
+    private int _MaxDepth;
+
+    // written under this, read from anywhere
+    private volatile long _QueuedCount;
+    private volatile long _FilledCount;
+    private volatile long _WaitCount;
+
+    /**
+     * @param capacity   frames in the pool; two or three keep a producer and the codec busy
+     * @param semiPlanar NV12 frames rather than I420
+     */
+    public InputFrameQueue(Host host, int width, int height, int capacity, boolean semiPlanar) {
+        _Host = host;
+        _Width = width;
+        _Height = height;
+        _Capacity = Math.max(1, capacity);
+        _Free = new ArrayDeque<>(_Capacity);
+        _Queued = new ArrayDeque<>(_Capacity);
+        for (int i = 0; i < _Capacity; i++) {
+            _Free.add(YuvFrame.allocatePacked(width, height, semiPlanar, true));
+        }
+    }
+
+    public int getWidth() {
+        return _Width;
+    }
+
+    public int getHeight() {
+        return _Height;
+    }
+
+    public int getCapacity() {
+        return _Capacity;
+    }
+
+    /**
+     * Takes a free frame from the pool, waiting up to timeoutMs for one.
+     *
+     * @return the frame, or null on timeout, after the end of stream or once closed
+     */
+    public YuvFrame obtain(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        synchronized (this) {
+            boolean waited = false;
+            while (_Free.isEmpty() && !_Closed && !_EndOfStream) {
+                long remainingMs = (deadline - System.nanoTime()) / 1000000L;
+                if (remainingMs <= 0) {
+                    return null;
+                }
+                if (!waited) {
+                    _WaitCount++;
+                    waited = true;
+                }
+                wait(remainingMs);
+            }
+            if (_Closed || _EndOfStream) {
+                return null;
+            }
+            return _Free.poll();
+        }
+    }
+
+    /**
+     * Queues a frame from {@link #obtain} for encoding; the queue owns it again.
+     *
+     * @throws IllegalArgumentException if its timestamp is not after the last queued one
+     */
+    public void queue(YuvFrame frame) {
+        synchronized (this) {
+            if (_Closed) {
+                recycleLocked(frame);
+                return;
+            }
+            if (frame.getTimestampNs() <= _LastTimestampNs) {
+                recycleLocked(frame);
+                throw new IllegalArgumentException("timestamp " + frame.getTimestampNs()
+                        + " not after " + _LastTimestampNs);
+            }
+            _LastTimestampNs = frame.getTimestampNs();
+            _Queued.add(frame);
+            _QueuedCount++;
+            _MaxDepth = Math.max(_MaxDepth, _Queued.size());
+        }
+        pump();
+    }
+
+    /**
+     * Gives back a frame from {@link #obtain} without encoding it.
+     */
+    public synchronized void recycle(YuvFrame frame) {
+        recycleLocked(frame);
+    }
+
+    /**
+     * Ends the stream after the queued frames; the codec gets an empty buffer with the end of
+     * stream flag and obtain() returns null from now on.
+     */
+    public void queueEndOfStream() {
+        synchronized (this) {
+            if (_EndOfStream) {
+                return;
+            }
+            _EndOfStream = true;
+            notifyAll();
+        }
+        pump();
+    }
+
+    /**
+     * Called from the codec callback with a free input buffer.
+     */
+    public void onInputBufferAvailable(int index) {
+        synchronized (this) {
+            if (_Closed) {
+                return;
+            }
+            _Buffers.add(index);
+        }
+        pump();
+    }
+
+    /**
+     * Forgets the codec's input buffers, which a stop or flush invalidates, after waiting for a
+     * fill in progress.  Queued frames stay queued for the codec once it runs again, and the
+     * end of stream is cleared.
+     */
+    public synchronized void flush() throws InterruptedException {
+        _Buffers.clear();
+        while (_Filling) {
+            wait();
+        }
+        _EndOfStream = false;
+        _EndOfStreamQueued = false;
+        _LastTimestampNs = Long.MIN_VALUE;
+        notifyAll();
+    }
+
+    /**
+     * Drops queued frames and input buffers and wakes a waiting producer; everything offered
+     * afterwards is ignored.  A fill in progress finishes.
+     */
+    public synchronized void close() {
+        _Closed = true;
+        _Buffers.clear();
+        while (!_Queued.isEmpty()) {
+            recycleLocked(_Queued.poll());
+        }
+        notifyAll();
+    }
+
+    private void pump() {
+        synchronized (this) {
+            if (_Filling) {
+                // the thread filling picks the new work up before it stops
+                return;
+            }
+            _Filling = true;
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                int index;
+                YuvFrame frame;
+                synchronized (this) {
+                    boolean endOfStream = _EndOfStream && !_EndOfStreamQueued && _Queued.isEmpty();
+                    if (_Buffers.isEmpty() || (_Queued.isEmpty() && !endOfStream)) {
+                        // in the same lock as the checks, or new work could be left unfilled
+                        _Filling = false;
+                        notifyAll();
+                        done = true;
+                        return;
+                    }
+                    index = _Buffers.poll();
+                    frame = _Queued.poll();
+                    if (frame == null) {
+                        _EndOfStreamQueued = true;
+                    }
+                }
+                if (frame == null) {
+                    _Host.queueEndOfStream(index);
+                    continue;
+                }
+                boolean filled = false;
+                try {
+                    _Host.fill(index, frame);
+                    filled = true;
+                } finally {
+                    synchronized (this) {
+                        if (filled) {
+                            _FilledCount++;
+                        }
+                        recycleLocked(frame);
+                    }
+                }
+            }
+        } finally {
+            if (!done) {
+                // the host threw; let the next caller fill
+                synchronized (this) {
+                    _Filling = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void recycleLocked(YuvFrame frame) {
+        _Free.add(frame);
+        notifyAll();
+    }
+
+    /**
+     * Frames waiting for an input buffer.
+     */
+    public synchronized int getDepth() {
+        return _Queued.size();
+    }
+
+    public synchronized int getMaxDepth() {
+        return _MaxDepth;
+    }
+
+    /**
+     * Input buffers waiting for a frame.
+     */
+    public synchronized int getIdleBufferCount() {
+        return _Buffers.size();
+    }
+
+    public long getQueuedCount() {
+        return _QueuedCount;
+    }
+
+    public long getFilledCount() {
+        return _FilledCount;
+    }
+
+    /**
+     * Times obtain() had to wait for a frame because the codec was behind.
+     */
+    public long getWaitCount() {
+        return _WaitCount;
+    }
+
+    public String summary() {
+        return String.format("%d queued, %d filled, max depth %d of %d, producer waited %d times",
+                _QueuedCount, _FilledCount, getMaxDepth(), _Capacity, _WaitCount);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.camera2video;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory log-linear histogram of non-negative latencies in microseconds.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is
+ * reported with at most 1/16 relative error across the whole range (1 us up to about 25 days).
+ * Recording is a couple of atomic increments and never allocates or locks, so it can be called
+ * from the codec and writer threads while another thread takes {@link #snapshot}s.
+ */
+public final class LatencyHistogram {
+    public static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray _Counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _Max = new AtomicLong();
+
+    public void record(long valueUs) {
+        long v = Math.max(0, valueUs);
+        _Counts.incrementAndGet(bucketOf(v));
+        long max = _Max.get();
+        while (v > max && !_Max.compareAndSet(max, v)) {
+            max = _Max.get();
+        }
+    }
+
+    /**
+     * Zeroes the histogram.  Values recorded concurrently may land either side of the reset.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _Counts.set(i, 0);
+        }
+        _Max.set(0);
+    }
+
+    /**
+     * Copies the current counts.  The pipeline keeps recording while this runs, so the copy is
+     * not a single point in time, but every value is counted at most once.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _Counts.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, _Max.get());
+    }
+
+    static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        // the leading one bit is implied by the exponent, the next SUB_BUCKET_BITS pick the bucket
+        int sub = (int) (v >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Highest value that falls into bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket == BUCKETS - 1) {
+            // also holds everything beyond the range
+            return Long.MAX_VALUE;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] _Counts;
+        private final long _Count;
+        private final long _Max;
+
+        Snapshot(long[] counts, long count, long max) {
+            _Counts = counts;
+            _Count = count;
+            _Max = max;
+        }
+
+        public long getCount() {
+            return _Count;
+        }
+
+        public long getMax() {
+            return _Max;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile (0..100), capped at the
+         * exact maximum.  0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (_Count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(_Count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < _Counts.length; i++) {
+                seen += _Counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), _Max);
+                }
+            }
+            return _Max;
+        }
+
+        /**
+         * Appends "count, p50, p99, max" followed by every non-empty bucket as
+         * "upper bound:count".
+         */
+        public void appendTo(StringBuilder out) {
+            out.append("count=").append(_Count)
+                    .append(" p50=").append(getPercentile(50))
+                    .append(" p99=").append(getPercentile(99))
+                    .append(" max=").append(_Max);
+            for (int i = 0; i < _Counts.length; i++) {
+                if (_Counts[i] != 0) {
+                    out.append(' ').append(upperBoundOf(i)).append(':').append(_Counts[i]);
+                }
+            }
+        }
+    }
+}
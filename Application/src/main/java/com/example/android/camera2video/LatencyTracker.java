@@ -0,0 +1,103 @@
+package com.example.android.camera2video;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Per-frame latency from the sensor to the file, split into stages.
+ * <p>
+ * Presentation times from a camera-fed input surface are the sensor timestamps, so the capture
+ * time of a frame is its presentationTimeUs.  The codec callback reports when the encoder handed
+ * out each sample and the writer reports when the muxer returned from writing it; each frame
+ * then lands in one {@link LatencyHistogram} per stage.  All times passed in are
+ * {@link System#nanoTime} based; {@link #setCaptureClockOffsetUs} maps them onto the sensor
+ * clock when the camera stamps frames with a different time base.
+ */
+public class LatencyTracker {
+    public static final int STAGE_CAPTURE_TO_ENCODE = 0;
+    public static final int STAGE_ENCODE_TO_MUX = 1;
+    public static final int STAGE_CAPTURE_TO_MUX = 2;
+    public static final int STAGE_COUNT = 3;
+
+    private static final String[] STAGE_NAMES = {"capture->encode", "encode->mux", "capture->mux"};
+
+    private final LatencyHistogram[] _Stages = new LatencyHistogram[STAGE_COUNT];
+    private volatile long _ClockOffsetUs;
+
+    public LatencyTracker() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            _Stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Sensor clock minus the System.nanoTime clock, in microseconds.
+     */
+    public void setCaptureClockOffsetUs(long offsetUs) {
+        _ClockOffsetUs = offsetUs;
+    }
+
+    public long getCaptureClockOffsetUs() {
+        return _ClockOffsetUs;
+    }
+
+    /**
+     * The encoder produced the sample captured at presentationTimeUs.
+     */
+    public void onEncoded(long presentationTimeUs, long encodedNs) {
+        _Stages[STAGE_CAPTURE_TO_ENCODE].record(toCaptureClockUs(encodedNs) - presentationTimeUs);
+    }
+
+    /**
+     * The muxer finished writing the sample that the encoder produced at encodedNs.
+     */
+    public void onMuxed(long presentationTimeUs, long encodedNs, long muxedNs) {
+        _Stages[STAGE_ENCODE_TO_MUX].record((muxedNs - encodedNs) / 1000);
+        _Stages[STAGE_CAPTURE_TO_MUX].record(toCaptureClockUs(muxedNs) - presentationTimeUs);
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return _Stages[stage];
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public void reset() {
+        for (LatencyHistogram stage : _Stages) {
+            stage.reset();
+        }
+    }
+
+    /**
+     * One line per stage: name, count, p50/p99/max in microseconds and the non-empty buckets.
+     */
+    public String summary() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            out.append(STAGE_NAMES[i]).append(' ');
+            _Stages[i].snapshot().appendTo(out);
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes {@link #summary} to file, replacing it.
+     */
+    public void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(summary());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private long toCaptureClockUs(long ns) {
+        return ns / 1000 + _ClockOffsetUs;
+    }
+}
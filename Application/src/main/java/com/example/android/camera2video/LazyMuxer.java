@@ -0,0 +1,111 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} that only opens its output when the first sample arrives, so an encoder
+ * that is armed or rolled over ahead of a recording that never comes leaves no empty file
+ * behind.  Stopping it before then does nothing.
+ * <p>
+ * Like {@link SegmentingMuxer} it opens the output inside {@link #writeSampleData}, on the
+ * {@link SampleWriter} thread.  If opening fails, every later write fails the same way.
+ */
+public class LazyMuxer implements SampleMuxer {
+
+    /** Opens the output. */
+    public interface Factory {
+        SampleMuxer open() throws IOException;
+    }
+
+    private final Factory _Factory;
+
+    private int _Width;
+    private int _Height;
+    private ByteBuffer _Sps;
+    private ByteBuffer _Pps;
+    private boolean _Started;
+
+    private SampleMuxer _Muxer;
+    private IOException _OpenError;
+
+    public LazyMuxer(Factory factory) {
+        _Factory = factory;
+    }
+
+    /**
+     * Whether the output has been opened, i.e. a sample has been written.
+     */
+    public boolean isOpen() {
+        return _Muxer != null;
+    }
+
+    @Override
+    public void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        _Width = width;
+        _Height = height;
+        _Sps = copyOf(sps);
+        _Pps = copyOf(pps);
+    }
+
+    @Override
+    public void start() {
+        _Started = true;
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if (_Muxer == null) {
+            open();
+        }
+        _Muxer.writeSampleData(data, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        _Started = false;
+        if (_Muxer != null) {
+            _Muxer.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (_Muxer != null) {
+            _Muxer.release();
+            _Muxer = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (!_Started) {
+            throw new IllegalStateException("muxer not started");
+        }
+        if (_OpenError != null) {
+            throw _OpenError;
+        }
+        SampleMuxer muxer;
+        try {
+            muxer = _Factory.open();
+        } catch (IOException e) {
+            _OpenError = e;
+            throw e;
+        }
+        try {
+            muxer.addVideoTrack(_Width, _Height, _Sps.duplicate(), _Pps.duplicate());
+            muxer.start();
+        } catch (IOException e) {
+            muxer.release();
+            _OpenError = e;
+            throw e;
+        }
+        _Muxer = muxer;
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Luma histogram of every frame, on a grid of every step-th pixel in both directions.
+ * <p>
+ * Counting runs in a per-thread scratch array, so workers don't contend; the result of the most
+ * recent frame is published under a lock and can be read from any thread.
+ */
+public class LumaHistogramAnalyzer implements FrameAnalyzer {
+    public static final int BINS = 256;
+
+    private final int _Step;
+    private final ThreadLocal<int[]> _Scratch = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[BINS];
+        }
+    };
+
+    private final int[] _Histogram = new int[BINS];
+    private int _Samples;
+    private long _TimestampNs = -1;
+    private long _FrameCount;
+
+    /**
+     * @param step sampling distance in pixels; 1 counts every pixel
+     */
+    public LumaHistogramAnalyzer(int step) {
+        _Step = Math.max(1, step);
+    }
+
+    @Override
+    public void analyze(YuvFrame frame) {
+        int[] counts = _Scratch.get();
+        int samples = count(frame, _Step, counts);
+        synchronized (this) {
+            _FrameCount++;
+            if (frame.getTimestampNs() < _TimestampNs) {
+                // a frame that finished after a newer one is not the latest
+                return;
+            }
+            System.arraycopy(counts, 0, _Histogram, 0, BINS);
+            _Samples = samples;
+            _TimestampNs = frame.getTimestampNs();
+        }
+    }
+
+    /**
+     * Fills counts (BINS entries, cleared first) from the luma plane.
+     *
+     * @return the number of samples counted
+     */
+    public static int count(YuvFrame frame, int step, int[] counts) {
+        Arrays.fill(counts, 0);
+        ByteBuffer luma = frame.getPlane(YuvFrame.Y);
+        int rowStride = frame.getRowStride(YuvFrame.Y);
+        int pixelStep = frame.getPixelStride(YuvFrame.Y) * step;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int samples = 0;
+        for (int y = 0; y < height; y += step) {
+            int i = y * rowStride;
+            int end = i + width * frame.getPixelStride(YuvFrame.Y);
+            for (; i < end; i += pixelStep) {
+                counts[luma.get(i) & 0xff]++;
+                samples++;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Copies the histogram of the latest frame into out.
+     *
+     * @return its sample count, 0 before the first frame
+     */
+    public synchronized int getHistogram(int[] out) {
+        System.arraycopy(_Histogram, 0, out, 0, BINS);
+        return _Samples;
+    }
+
+    public synchronized double getMean() {
+        if (_Samples == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < BINS; i++) {
+            sum += (long) i * _Histogram[i];
+        }
+        return (double) sum / _Samples;
+    }
+
+    /**
+     * Luma level below which percentile percent of the latest frame's samples lie.
+     */
+    public synchronized int getPercentile(double percentile) {
+        long target = (long) Math.ceil(_Samples * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += _Histogram[i];
+            if (seen >= target && seen > 0) {
+                return i;
+            }
+        }
+        return BINS - 1;
+    }
+
+    /**
+     * Share of the latest frame's samples at or above 250, a cheap overexposure measure.
+     */
+    public synchronized double getClippedFraction() {
+        if (_Samples == 0) {
+            return 0;
+        }
+        int clipped = 0;
+        for (int i = 250; i < BINS; i++) {
+            clipped += _Histogram[i];
+        }
+        return (double) clipped / _Samples;
+    }
+
+    public synchronized long getFrameCount() {
+        return _FrameCount;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Deterministic {@link PipelineExecutor} for tests: tasks only run when the caller says so, on
+ * the caller's thread.  One instance can stand in for all of the {@link PipelineThreads}, which
+ * turns the pipeline into a single-threaded, reproducible sequence of steps.
+ */
+public class ManualExecutor implements PipelineExecutor {
+    private final Queue<Runnable> _Queue = new ArrayDeque<>();
+    private Thread _Running;
+    private boolean _Quit;
+    private long _RunCount;
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        if (!_Quit) {
+            _Queue.add(task);
+        }
+    }
+
+    @Override
+    public synchronized boolean isCurrentThread() {
+        return _Running == Thread.currentThread();
+    }
+
+    @Override
+    public synchronized void quit() {
+        _Quit = true;
+    }
+
+    public synchronized int getPendingCount() {
+        return _Queue.size();
+    }
+
+    public synchronized long getRunCount() {
+        return _RunCount;
+    }
+
+    /**
+     * Runs the oldest queued task.
+     *
+     * @return false if there was none
+     */
+    public boolean runNext() {
+        Runnable task;
+        synchronized (this) {
+            task = _Queue.poll();
+            if (task == null) {
+                return false;
+            }
+            _Running = Thread.currentThread();
+            _RunCount++;
+        }
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                _Running = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the tasks queued so far, but not the ones they queue in turn.
+     *
+     * @return the number of tasks run
+     */
+    public int runPending() {
+        int count = getPendingCount();
+        for (int i = 0; i < count; i++) {
+            runNext();
+        }
+        return count;
+    }
+
+    /**
+     * Runs tasks until the queue is empty or maxTasks have run.
+     *
+     * @return the number of tasks run
+     */
+    public int runAll(int maxTasks) {
+        int count = 0;
+        while (count < maxTasks && runNext()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.camera2video;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VideoCodec} over a MediaCodec encoder in asynchronous mode.
+ */
+public class MediaCodecVideoCodec implements VideoCodec<Surface> {
+    public static final String TAG = "MediaCodecVideoCodec";
+
+    // rates above this get KEY_OPERATING_RATE as well
+    private static final int NOMINAL_FRAME_RATE = 30;
+
+    private final MediaCodec _Codec;
+    private final String _Type;
+    private Surface _InputSurface;
+    private int _Width;
+    private int _Height;
+
+    private MediaCodecVideoCodec(MediaCodec codec, String type) {
+        _Codec = codec;
+        _Type = type;
+    }
+
+    /**
+     * Creates the encoder by name, which skips the codec enumeration that createEncoderByType
+     * does, or by type if codecName is null or no longer exists.
+     */
+    public static MediaCodecVideoCodec create(String type, String codecName) {
+        MediaCodec codec = null;
+        if (codecName != null) {
+            try {
+                codec = MediaCodec.createByCodecName(codecName);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.w(TAG, "no codec named " + codecName + ", creating by type");
+            }
+        }
+        if (codec == null) {
+            try {
+                codec = MediaCodec.createEncoderByType(type);
+            } catch (IOException e) {
+                throw new IllegalStateException("no encoder for " + type, e);
+            }
+        }
+        return new MediaCodecVideoCodec(codec, type);
+    }
+
+    @Override
+    public void setCallback(final Callback callback) {
+        // before API 23 the callback looper is the calling thread's
+        _Codec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                callback.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                callback.onOutputBufferAvailable(index, info.offset, info.size, info.presentationTimeUs, info.flags);
+            }
+
+            @Override
+            public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                callback.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                callback.onOutputFormatChanged(format.getInteger(MediaFormat.KEY_WIDTH),
+                        format.getInteger(MediaFormat.KEY_HEIGHT),
+                        format.getByteBuffer("csd-0"), format.getByteBuffer("csd-1"));
+            }
+        });
+    }
+
+    @Override
+    public void configure(int width, int height, int bitrate, int frameRate, int keyFrameIntervalS,
+                          boolean bufferInput) {
+        _Width = width;
+        _Height = height;
+        MediaFormat format = MediaFormat.createVideoFormat(_Type, width, height);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, bufferInput
+                ? MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible
+                : MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameIntervalS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && frameRate > NOMINAL_FRAME_RATE) {
+            // without it the codec is clocked for KEY_FRAME_RATE as a hint only and falls
+            // behind at high-speed rates
+            format.setInteger(MediaFormat.KEY_OPERATING_RATE, frameRate);
+        }
+        _Codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    @Override
+    public Surface createInputSurface() {
+        _InputSurface = _Codec.createInputSurface();
+        return _InputSurface;
+    }
+
+    @Override
+    public void start() {
+        _Codec.start();
+    }
+
+    @Override
+    public void stop() {
+        _Codec.stop();
+        releaseSurface();
+    }
+
+    @Override
+    public void release() {
+        releaseSurface();
+        _Codec.release();
+    }
+
+    private void releaseSurface() {
+        if (_InputSurface != null) {
+            _InputSurface.release();
+            _InputSurface = null;
+        }
+    }
+
+    @Override
+    public int getInputFrame(int index, YuvFrame frame) {
+        // read before getInputImage(), which invalidates the buffer but not what it told us
+        int capacity = _Codec.getInputBuffer(index).capacity();
+        Image image = _Codec.getInputImage(index);
+        if (image != null) {
+            Image.Plane[] planes = image.getPlanes();
+            frame.set(image.getWidth(), image.getHeight(), 0);
+            for (int i = 0; i < 3; i++) {
+                frame.setPlane(i, planes[i].getBuffer(), planes[i].getRowStride(), planes[i].getPixelStride());
+            }
+            // the planes share one buffer and the image doesn't say where chroma starts, which is
+            // after the padded luma slice; queue the whole buffer so none of it is cut off
+            return capacity;
+        }
+        // no flexible layout: a packed buffer described by the input format
+        MediaFormat format = _Codec.getInputFormat();
+        int stride = format.containsKey("stride") ? format.getInteger("stride") : _Width;
+        int sliceHeight = format.containsKey("slice-height") ? format.getInteger("slice-height") : _Height;
+        int colorFormat = format.getInteger(MediaFormat.KEY_COLOR_FORMAT);
+        stride = Math.max(stride, _Width);
+        sliceHeight = Math.max(sliceHeight, _Height);
+        YuvFrame.wrapPacked(frame, _Codec.getInputBuffer(index), _Width, _Height, stride, sliceHeight,
+                colorFormat != MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar);
+        // chroma starts after the padded luma slice; queueing less would cut it off
+        return YuvFrame.packedSize(_Width, _Height, stride, sliceHeight);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int size, long presentationTimeUs, int flags) {
+        _Codec.queueInputBuffer(index, 0, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return _Codec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        _Codec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public void setBitrate(int bitrate) {
+        Log.d(TAG, "bitrate -> " + bitrate);
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        _Codec.setParameters(params);
+    }
+
+    @Override
+    public void requestKeyFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        _Codec.setParameters(params);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.camera2video;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} on top of the platform {@link MediaMuxer}.  The sample table is kept in
+ * memory until {@link #stop()}, so the file is only playable once recording ends cleanly.
+ */
+public class MediaMuxerAdapter implements SampleMuxer {
+    private final MediaMuxer _Muxer;
+    private final MediaCodec.BufferInfo _BufferInfo = new MediaCodec.BufferInfo();
+    private int _TrackIndex = -1;
+
+    public MediaMuxerAdapter(String path) throws IOException {
+        _Muxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        MediaFormat format = MediaFormat.createVideoFormat("video/avc", width, height);
+        format.setByteBuffer("csd-0", sps);
+        format.setByteBuffer("csd-1", pps);
+        _TrackIndex = _Muxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        _Muxer.start();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+        _BufferInfo.set(data.position(), data.remaining(), presentationTimeUs, flags);
+        _Muxer.writeSampleData(_TrackIndex, data, _BufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        _Muxer.stop();
+    }
+
+    @Override
+    public void release() {
+        _Muxer.release();
+    }
+}
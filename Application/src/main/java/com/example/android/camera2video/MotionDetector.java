@@ -0,0 +1,139 @@
+package com.example.android.camera2video;
+
+/**
+ * Turns {@link MotionScorer} scores into motion events for starting and stopping a recording.
+ * <p>
+ * Hysteresis keeps noise from toggling it: motion starts once startFrames frames in a row
+ * score at least the start threshold, and ends only after no frame has reached the lower stop
+ * threshold for the post-roll.  Time is taken from the frames' timestamps, not the clock, so
+ * the analysis falling behind doesn't cut the post-roll short.
+ * <p>
+ * As a {@link FrameAnalyzer} it serializes frames and skips any older than the last one, which
+ * several tap workers can hand it.  The listener is called on the analyzing thread.
+ */
+public class MotionDetector implements FrameAnalyzer {
+
+    public interface Listener {
+        void onMotionStart(long timestampNs);
+
+        void onMotionStop(long timestampNs);
+    }
+
+    private final MotionScorer _Scorer;
+    private final Listener _Listener;
+    private float _StartThreshold = 0.02f;
+    private float _StopThreshold = 0.005f;
+    private int _StartFrames = 2;
+    private long _PostRollNs = 3000000000L;
+
+    // guarded by this
+    private long _LastTimestampNs = Long.MIN_VALUE;
+    private int _FramesAbove;
+    private long _LastActiveNs;
+
+    private volatile boolean _Motion;
+    private volatile float _LastScore;
+    private volatile long _EventCount;
+    private volatile long _StaleCount;
+
+    public MotionDetector(MotionScorer scorer, Listener listener) {
+        _Scorer = scorer;
+        _Listener = listener;
+    }
+
+    /**
+     * @param start share of changed blocks that starts motion
+     * @param stop  share below which a frame counts as still; at most start
+     */
+    public synchronized void setThresholds(float start, float stop) {
+        if (stop > start) {
+            throw new IllegalArgumentException("stop threshold " + stop + " above start " + start);
+        }
+        _StartThreshold = start;
+        _StopThreshold = stop;
+    }
+
+    /**
+     * Consecutive frames at or above the start threshold before motion starts.
+     */
+    public synchronized void setStartFrames(int frames) {
+        _StartFrames = Math.max(1, frames);
+    }
+
+    /**
+     * How long motion lasts after the last active frame.
+     */
+    public synchronized void setPostRollNs(long postRollNs) {
+        _PostRollNs = postRollNs;
+    }
+
+    @Override
+    public synchronized void analyze(YuvFrame frame) {
+        long timestampNs = frame.getTimestampNs();
+        if (timestampNs <= _LastTimestampNs) {
+            _StaleCount++;
+            return;
+        }
+        _LastTimestampNs = timestampNs;
+        onScore(_Scorer.score(frame), timestampNs);
+    }
+
+    /**
+     * Advances the state machine by one scored frame.
+     */
+    public synchronized void onScore(float score, long timestampNs) {
+        _LastScore = score;
+        if (!_Motion) {
+            _FramesAbove = score >= _StartThreshold ? _FramesAbove + 1 : 0;
+            if (_FramesAbove >= _StartFrames) {
+                _Motion = true;
+                _LastActiveNs = timestampNs;
+                _EventCount++;
+                _Listener.onMotionStart(timestampNs);
+            }
+        } else if (score >= _StopThreshold) {
+            _LastActiveNs = timestampNs;
+        } else if (timestampNs - _LastActiveNs >= _PostRollNs) {
+            _Motion = false;
+            _FramesAbove = 0;
+            _Listener.onMotionStop(timestampNs);
+        }
+    }
+
+    /**
+     * Starts over from no motion and no previous frame, without calling the listener.
+     */
+    public synchronized void reset() {
+        _Scorer.reset();
+        _Motion = false;
+        _FramesAbove = 0;
+        _LastTimestampNs = Long.MIN_VALUE;
+    }
+
+    public boolean isMotion() {
+        return _Motion;
+    }
+
+    public float getLastScore() {
+        return _LastScore;
+    }
+
+    /**
+     * Motion starts so far.
+     */
+    public long getEventCount() {
+        return _EventCount;
+    }
+
+    /**
+     * Frames skipped because they were not newer than the last one.
+     */
+    public long getStaleCount() {
+        return _StaleCount;
+    }
+
+    public String summary() {
+        return String.format("%s, %d events, last score %.3f, %d stale",
+                _Motion ? "motion" : "still", _EventCount, _LastScore, _StaleCount);
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Scores how much of the picture changed since the previous frame: the luma plane is box
+ * filtered down by a factor, cut into square blocks, and the share of blocks whose sum of
+ * absolute differences against the previous frame is above the noise level is the score.
+ * <p>
+ * Nothing is allocated per frame: the two decimated planes and the per-block sums are sized at
+ * construction, and so are the stripes the work is split into.  With
+ * {@link #setParallelism} the block rows are divided into stripes, each decimating and
+ * differencing its own rows on the given executor while the calling thread takes the first.
+ * Not thread safe: one frame at a time.
+ */
+public class MotionScorer {
+    public static final int DEFAULT_NOISE_LEVEL = 6;
+
+    private final int _Width;
+    private final int _Height;
+    private final int _Factor;
+    private final int _Block;
+    private final int _GridWidth;
+    private final int _BlocksX;
+    private final int _BlocksY;
+    private byte[] _Previous;
+    private byte[] _Current;
+    private final int[] _BlockSad;
+    private boolean _HasPrevious;
+    private int _NoiseLevel = DEFAULT_NOISE_LEVEL;
+
+    private Executor _Executor;
+    private Stripe[] _Stripes;
+    private final Object _Lock = new Object();
+    private int _Remaining;
+    private Throwable _Failure;
+    private YuvFrame _Frame;
+
+    private final class Stripe implements Runnable {
+        final int blockRowFrom;
+        final int blockRowTo;
+
+        Stripe(int index, int count) {
+            blockRowFrom = _BlocksY * index / count;
+            blockRowTo = _BlocksY * (index + 1) / count;
+        }
+
+        void work() {
+            YuvFrame frame = _Frame;
+            decimate(frame.getPlane(YuvFrame.Y), frame.getRowStride(YuvFrame.Y), frame.getPixelStride(YuvFrame.Y),
+                    _Factor, _Current, _GridWidth, blockRowFrom * _Block, blockRowTo * _Block);
+            if (_HasPrevious) {
+                blockSad(_Previous, _Current, _GridWidth, _Block, _BlockSad, _BlocksX, blockRowFrom, blockRowTo);
+            }
+        }
+
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                work();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            synchronized (_Lock) {
+                if (failure != null && _Failure == null) {
+                    _Failure = failure;
+                }
+                if (--_Remaining == 0) {
+                    _Lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param width     frame size the scorer is used for
+     * @param factor    decimation in both directions; 4 turns 1920x1080 into 480x270
+     * @param blockSize block edge in decimated pixels
+     */
+    public MotionScorer(int width, int height, int factor, int blockSize) {
+        _Width = width;
+        _Height = height;
+        _Factor = factor;
+        _Block = blockSize;
+        _GridWidth = width / factor;
+        _BlocksX = _GridWidth / blockSize;
+        _BlocksY = height / factor / blockSize;
+        if (_BlocksX == 0 || _BlocksY == 0) {
+            throw new IllegalArgumentException("no whole block in " + width + "x" + height);
+        }
+        // only the rows that make up whole blocks are ever decimated
+        _Previous = new byte[_GridWidth * _BlocksY * blockSize];
+        _Current = new byte[_Previous.length];
+        _BlockSad = new int[_BlocksX * _BlocksY];
+        _Stripes = new Stripe[]{new Stripe(0, 1)};
+    }
+
+    /**
+     * Splits every frame into stripes run on executor, which needs stripes - 1 threads for
+     * them to run in parallel.  1 (the default) runs everything on the calling thread.
+     */
+    public void setParallelism(Executor executor, int stripes) {
+        int count = Math.max(1, Math.min(stripes, _BlocksY));
+        _Executor = executor;
+        _Stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            _Stripes[i] = new Stripe(i, count);
+        }
+    }
+
+    /**
+     * Mean absolute difference per decimated pixel below which a block counts as still.
+     */
+    public void setNoiseLevel(int noiseLevel) {
+        _NoiseLevel = noiseLevel;
+    }
+
+    public int getBlockCount() {
+        return _BlockSad.length;
+    }
+
+    /**
+     * Forgets the previous frame, e.g. after the camera was reopened.
+     */
+    public void reset() {
+        _HasPrevious = false;
+    }
+
+    /**
+     * @return the share of blocks that changed since the previous frame, 0 for the first
+     */
+    public float score(YuvFrame frame) {
+        if (frame.getWidth() != _Width || frame.getHeight() != _Height) {
+            throw new IllegalArgumentException("frame is " + frame.getWidth() + "x" + frame.getHeight()
+                    + ", scorer " + _Width + "x" + _Height);
+        }
+        _Frame = frame;
+        try {
+            if (_Stripes.length == 1) {
+                _Stripes[0].work();
+            } else {
+                runStripes();
+            }
+        } finally {
+            _Frame = null;
+        }
+        float score = 0;
+        if (_HasPrevious) {
+            int threshold = _NoiseLevel * _Block * _Block;
+            int moving = 0;
+            for (int sad : _BlockSad) {
+                if (sad > threshold) {
+                    moving++;
+                }
+            }
+            score = (float) moving / _BlockSad.length;
+        }
+        byte[] swap = _Previous;
+        _Previous = _Current;
+        _Current = swap;
+        _HasPrevious = true;
+        return score;
+    }
+
+    private void runStripes() {
+        synchronized (_Lock) {
+            _Remaining = _Stripes.length - 1;
+            _Failure = null;
+        }
+        for (int i = 1; i < _Stripes.length; i++) {
+            _Executor.execute(_Stripes[i]);
+        }
+        Throwable failure = null;
+        try {
+            _Stripes[0].work();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        boolean interrupted = false;
+        synchronized (_Lock) {
+            // the other stripes use the buffers, so wait for them even when interrupted
+            while (_Remaining > 0) {
+                try {
+                    _Lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (failure == null) {
+                failure = _Failure;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Box filters rows [rowFrom, rowTo) of the factor-times smaller plane out of luma.
+     */
+    public static void decimate(ByteBuffer luma, int rowStride, int pixelStride, int factor, byte[] out,
+                                int outWidth, int rowFrom, int rowTo) {
+        int shift = Integer.numberOfTrailingZeros(factor);
+        boolean powerOfTwo = factor == 1 << shift;
+        int area = factor * factor;
+        for (int oy = rowFrom; oy < rowTo; oy++) {
+            int rowStart = oy * factor * rowStride;
+            int o = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int sum = 0;
+                int column = rowStart + ox * factor * pixelStride;
+                for (int dy = 0; dy < factor; dy++) {
+                    int i = column + dy * rowStride;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += luma.get(i) & 0xff;
+                        i += pixelStride;
+                    }
+                }
+                out[o + ox] = (byte) (powerOfTwo ? sum >> (shift * 2) : sum / area);
+            }
+        }
+    }
+
+    /**
+     * Sums of absolute differences between previous and current for block rows
+     * [blockRowFrom, blockRowTo), into sads[blockRow * blocksX + blockColumn].
+     */
+    public static void blockSad(byte[] previous, byte[] current, int width, int block, int[] sads, int blocksX,
+                                int blockRowFrom, int blockRowTo) {
+        for (int by = blockRowFrom; by < blockRowTo; by++) {
+            int rowBase = by * blocksX;
+            for (int bx = 0; bx < blocksX; bx++) {
+                sads[rowBase + bx] = 0;
+            }
+            for (int y = by * block; y < (by + 1) * block; y++) {
+                int i = y * width;
+                for (int bx = 0; bx < blocksX; bx++) {
+                    int sad = 0;
+                    int end = i + block;
+                    for (; i < end; i++) {
+                        int d = (previous[i] & 0xff) - (current[i] & 0xff);
+                        sad += d < 0 ? -d : d;
+                    }
+                    sads[rowBase + bx] += sad;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.camera2video;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records from several cameras at once, each with its own camera session, encoder and output
+ * files.
+ * <p>
+ * All pipelines share one set of {@link PipelineThreads}: camera callbacks for every device
+ * arrive on the one camera thread, every codec calls back on the codec thread, and every
+ * {@link SampleWriter} runs as tasks on the one I/O executor, queued only while it has samples
+ * to write.  Before a camera is added its stream has to fit the {@link CodecBudget}, so a
+ * combination the encoder or storage can't keep up with is refused instead of dropping frames
+ * in every pipeline.  Capture, encode and write counters are kept per camera.
+ */
+public class MultiCameraManager {
+    public static final String TAG = "MultiCameraManager";
+
+    // before M the number of concurrent codec instances isn't reported
+    private static final int DEFAULT_MAX_INSTANCES = 2;
+
+    /**
+     * One camera and the encoder recording it.
+     */
+    public static final class CameraPipeline {
+        private final String _CameraId;
+        private final Camera2Wrapper _Camera;
+        private final EncoderManager _Encoder;
+        private final CaptureAnalyzer _Analyzer = new CaptureAnalyzer();
+        private final int _Width;
+        private final int _Height;
+        private final int _FrameRate;
+        private long _RecordStartNs;
+        private long _RecordStartBytes;
+
+        CameraPipeline(String cameraId, Camera2Wrapper camera, EncoderManager encoder, int width, int height,
+                       int frameRate) {
+            _CameraId = cameraId;
+            _Camera = camera;
+            _Encoder = encoder;
+            _Width = width;
+            _Height = height;
+            _FrameRate = frameRate;
+        }
+
+        public String getCameraId() {
+            return _CameraId;
+        }
+
+        public Camera2Wrapper getCamera() {
+            return _Camera;
+        }
+
+        public EncoderManager getEncoderManager() {
+            return _Encoder;
+        }
+
+        public CaptureAnalyzer getCaptureAnalyzer() {
+            return _Analyzer;
+        }
+
+        /**
+         * Bits per second written to this camera's files since its recording started.
+         */
+        public long getThroughputBps() {
+            SampleRing ring = _Encoder.getEncoder().getSampleRing();
+            long elapsedNs = System.nanoTime() - _RecordStartNs;
+            if (ring == null || _RecordStartNs == 0 || elapsedNs <= 0) {
+                return 0;
+            }
+            return (ring.getWrittenBytes() - _RecordStartBytes) * 8 * 1000000000L / elapsedNs;
+        }
+
+        /**
+         * Samples the writer couldn't keep, over the life of the encoder.
+         */
+        public long getWriterDropCount() {
+            SampleRing ring = _Encoder.getEncoder().getSampleRing();
+            return ring != null ? ring.getDroppedCount() : 0;
+        }
+
+        public String summary() {
+            return String.format("camera %s %dx%d@%d: %d kbps, %d writer drops, %s", _CameraId, _Width, _Height,
+                    _FrameRate, getThroughputBps() / 1000, getWriterDropCount(), _Analyzer.summary());
+        }
+
+        void startRecording() {
+            _Analyzer.reset();
+            Encoder encoder = _Encoder.startRecording(_Encoder.getEncoder().getType(), _Width, _Height);
+            SampleRing ring = encoder.getSampleRing();
+            _RecordStartBytes = ring != null ? ring.getWrittenBytes() : 0;
+            _RecordStartNs = System.nanoTime();
+            _Camera.setRecordSurface(encoder.getSurface());
+            _Camera.startRecord();
+        }
+
+        void stopRecording() {
+            _Camera.stopRecord();
+            _Encoder.stopRecording();
+        }
+    }
+
+    private final Context _Context;
+    private final PipelineThreads _Threads;
+    private final CodecBudget _Budget;
+    private final Map<String, CameraPipeline> _Pipelines = new LinkedHashMap<>();
+
+    public MultiCameraManager(Context context, PipelineThreads threads, CodecBudget budget) {
+        _Context = context.getApplicationContext();
+        _Threads = threads;
+        _Budget = budget;
+    }
+
+    /**
+     * The budget of the encoder the device picks for type: its instance limit (M and later),
+     * the throughput of its highest AVC level and maxBitsPerSecond for storage.
+     */
+    public static CodecBudget createBudget(Context context, String type, long maxBitsPerSecond) {
+        CapabilityCache capabilities = DeviceCapabilities.get(context);
+        String name = capabilities != null ? capabilities.getEncoder(type) : null;
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder() || (name != null && !name.equals(info.getName()))) {
+                continue;
+            }
+            MediaCodecInfo.CodecCapabilities caps;
+            try {
+                caps = info.getCapabilitiesForType(type);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            int levels = 0;
+            for (MediaCodecInfo.CodecProfileLevel level : caps.profileLevels) {
+                levels |= level.level;
+            }
+            int instances = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    ? caps.getMaxSupportedInstances() : DEFAULT_MAX_INSTANCES;
+            CodecBudget budget = new CodecBudget(instances, CodecBudget.avcLevelMacroblocksPerSecond(levels),
+                    maxBitsPerSecond);
+            Log.d(TAG, info.getName() + " budget " + budget);
+            return budget;
+        }
+        return new CodecBudget(DEFAULT_MAX_INSTANCES, 0, maxBitsPerSecond);
+    }
+
+    public CodecBudget getBudget() {
+        return _Budget;
+    }
+
+    /**
+     * Admits and prepares a pipeline for cameraId: solves its stream sizes and creates and arms
+     * its encoder.  Open it with {@link #open}.
+     *
+     * @param bitrate the most the stream may use; it adapts below that
+     * @return null if the stream doesn't fit the budget next to the ones already added
+     */
+    public CameraPipeline add(String cameraId, String type, int width, int height, int frameRate, int bitrate) {
+        CapabilityCache capabilities = DeviceCapabilities.get(_Context);
+        StreamConfigSolver solver = capabilities != null ? capabilities.getCamera(cameraId) : null;
+        if (solver == null) {
+            Log.e(TAG, "no camera " + cameraId);
+            return null;
+        }
+        StreamConfigSolver.Result config = solver.solve(width, height, frameRate, 0, 0);
+        if (!_Budget.tryAdmit(cameraId, config.getVideoWidth(), config.getVideoHeight(), config.getFrameRate(),
+                bitrate)) {
+            Log.w(TAG, "refused " + _Budget.getRefusal());
+            return null;
+        }
+
+        EncoderManager encoderManager = new EncoderManager(_Context, _Threads);
+        encoderManager.setKeepSurface(true);
+        Encoder encoder = encoderManager.getEncoder();
+        encoder.setFilePrefix("h264-camera" + cameraId);
+        encoder.setBitrate(bitrate, bitrate / 4, bitrate);
+        encoder.setFrameRate(config.getFrameRate());
+        encoder.setCodecName(type, capabilities.getEncoder(type));
+        encoderManager.prepare(type, config.getVideoWidth(), config.getVideoHeight());
+
+        Camera2Wrapper camera = new Camera2Wrapper();
+        if (_Threads.getCamera() instanceof HandlerExecutor) {
+            camera.setExecutor((HandlerExecutor) _Threads.getCamera());
+        }
+        camera.setCameraId(cameraId);
+        camera.setVideoConfig(config.getVideoWidth(), config.getVideoHeight(), config.getFrameRate());
+        camera.setRecordSurface(encoder.getSurface());
+        camera.setPersistentSession(true);
+
+        CameraPipeline pipeline = new CameraPipeline(cameraId, camera, encoderManager, config.getVideoWidth(),
+                config.getVideoHeight(), config.getFrameRate());
+        encoder.setCaptureAnalyzer(pipeline.getCaptureAnalyzer());
+        camera.setCaptureAnalyzer(pipeline.getCaptureAnalyzer());
+        _Pipelines.put(cameraId, pipeline);
+        Log.d(TAG, "added camera " + cameraId + ", " + config + ", budget " + _Budget);
+        return pipeline;
+    }
+
+    /**
+     * Opens the pipeline's camera.  view may be null for a camera that only records.
+     */
+    public void open(CameraPipeline pipeline, AutoFitTextureView view, int viewWidth, int viewHeight) {
+        pipeline.getCamera().setFitTextureView(view);
+        pipeline.getCamera().openCamera(_Context, viewWidth, viewHeight);
+    }
+
+    /**
+     * Closes the camera, releases the encoder and returns the stream's share of the budget.
+     */
+    public void remove(String cameraId) {
+        CameraPipeline pipeline = _Pipelines.remove(cameraId);
+        if (pipeline == null) {
+            return;
+        }
+        pipeline.getCamera().closeCamera();
+        pipeline.getEncoderManager().release();
+        _Budget.release(cameraId);
+    }
+
+    public List<CameraPipeline> getPipelines() {
+        return Collections.unmodifiableList(new ArrayList<>(_Pipelines.values()));
+    }
+
+    public void startRecording() {
+        for (CameraPipeline pipeline : _Pipelines.values()) {
+            pipeline.startRecording();
+        }
+    }
+
+    public void stopRecording() {
+        for (CameraPipeline pipeline : _Pipelines.values()) {
+            pipeline.stopRecording();
+            Log.d(TAG, pipeline.summary());
+        }
+    }
+
+    public void release() {
+        for (String cameraId : new ArrayList<>(_Pipelines.keySet())) {
+            remove(cameraId);
+        }
+    }
+
+    /**
+     * One line per camera.
+     */
+    public String summary() {
+        StringBuilder out = new StringBuilder();
+        for (CameraPipeline pipeline : _Pipelines.values()) {
+            out.append(pipeline.summary()).append('\n');
+        }
+        return out.toString();
+    }
+}
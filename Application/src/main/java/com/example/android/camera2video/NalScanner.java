@@ -0,0 +1,179 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free iterator over the H.264 NAL units in a buffer.
+ * <p>
+ * Handles both Annex-B (start code delimited, as MediaCodec emits) and AVCC (length prefixed,
+ * as stored in MP4) framing.  Only absolute get()s are used, so the scanned buffer's position and
+ * limit are left alone and direct buffers are read in place.  One instance can be reset and
+ * reused for every access unit.
+ */
+public final class NalScanner {
+    public static final int TYPE_SLICE = 1;
+    public static final int TYPE_IDR = 5;
+    public static final int TYPE_SEI = 6;
+    public static final int TYPE_SPS = 7;
+    public static final int TYPE_PPS = 8;
+    public static final int TYPE_AUD = 9;
+
+    private ByteBuffer _Buffer;
+    private int _Limit;
+    private int _LengthSize;    // 0 for Annex-B
+    private int _Cursor;        // Annex-B: next NAL start, AVCC: next length field
+    private int _NalOffset;
+    private int _NalSize;
+    private int _NalType;
+
+    /**
+     * Scans buffer from its position to its limit as an Annex-B stream.
+     */
+    public NalScanner reset(ByteBuffer buffer) {
+        _Buffer = buffer;
+        _Limit = buffer.limit();
+        _LengthSize = 0;
+        int sc = findStartCode(buffer, buffer.position(), _Limit);
+        _Cursor = sc < 0 ? _Limit : sc + 3;
+        return this;
+    }
+
+    /**
+     * Scans buffer from its position to its limit as length prefixed NAL units.
+     */
+    public NalScanner resetAvcc(ByteBuffer buffer, int lengthSize) {
+        _Buffer = buffer;
+        _Limit = buffer.limit();
+        _LengthSize = lengthSize;
+        _Cursor = buffer.position();
+        return this;
+    }
+
+    /**
+     * Advances to the next NAL unit.
+     *
+     * @return false once the buffer is exhausted
+     */
+    public boolean next() {
+        return _LengthSize == 0 ? nextAnnexB() : nextAvcc();
+    }
+
+    /**
+     * Absolute index of the NAL header byte.
+     */
+    public int getNalOffset() {
+        return _NalOffset;
+    }
+
+    /**
+     * NAL size including the header byte, excluding start code or length field.
+     */
+    public int getNalSize() {
+        return _NalSize;
+    }
+
+    public int getNalType() {
+        return _NalType;
+    }
+
+    /**
+     * Scans the whole buffer for an IDR slice.
+     */
+    public boolean containsIdr(ByteBuffer buffer) {
+        reset(buffer);
+        while (next()) {
+            if (_NalType == TYPE_IDR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if the buffer starts with a 3 or 4 byte start code.
+     */
+    public static boolean isAnnexB(ByteBuffer b) {
+        int i = b.position();
+        int limit = b.limit();
+        if (i + 3 <= limit && b.get(i) == 0 && b.get(i + 1) == 0) {
+            return b.get(i + 2) == 1 || (i + 4 <= limit && b.get(i + 2) == 0 && b.get(i + 3) == 1);
+        }
+        return false;
+    }
+
+    /**
+     * Index of the first byte of the next 00 00 01 sequence in [from, limit), or -1.
+     * A four byte start code is found at its second zero.
+     */
+    public static int findStartCode(ByteBuffer b, int from, int limit) {
+        int i = from;
+        while (i + 2 < limit) {
+            if (i + 8 <= limit) {
+                // a start code needs a zero byte, so a word without one can be skipped whole
+                long w = b.getLong(i);
+                if (((w - 0x0101010101010101L) & ~w & 0x8080808080808080L) == 0) {
+                    i += 8;
+                    continue;
+                }
+            }
+            int b2 = b.get(i + 2);
+            if (b2 == 0) {
+                // a start code may still begin at i + 1 or i + 2
+                i++;
+            } else if (b2 == 1 && b.get(i + 1) == 0 && b.get(i) == 0) {
+                return i;
+            } else {
+                // b[i + 2] is neither 0 nor the 1 of a start code beginning at i, so no start
+                // code can begin at i, i + 1 or i + 2
+                i += 3;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nextAnnexB() {
+        while (_Cursor < _Limit) {
+            int start = _Cursor;
+            int sc = findStartCode(_Buffer, start, _Limit);
+            int end;
+            if (sc < 0) {
+                end = _Limit;
+                _Cursor = _Limit;
+            } else {
+                end = sc;
+                _Cursor = sc + 3;
+            }
+            // drop trailing_zero_8bits and the leading zero of a four byte start code
+            while (end > start && _Buffer.get(end - 1) == 0) {
+                end--;
+            }
+            if (end > start) {
+                _NalOffset = start;
+                _NalSize = end - start;
+                _NalType = _Buffer.get(start) & 0x1f;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean nextAvcc() {
+        if (_Cursor + _LengthSize > _Limit) {
+            return false;
+        }
+        int size = 0;
+        for (int i = 0; i < _LengthSize; i++) {
+            size = (size << 8) | (_Buffer.get(_Cursor + i) & 0xff);
+        }
+        int start = _Cursor + _LengthSize;
+        if (size <= 0 || start + size > _Limit) {
+            _Cursor = _Limit;
+            return false;
+        }
+        _Cursor = start + size;
+        _NalOffset = start;
+        _NalSize = size;
+        _NalType = _Buffer.get(start) & 0x1f;
+        return true;
+    }
+}
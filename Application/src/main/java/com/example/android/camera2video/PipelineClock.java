@@ -0,0 +1,39 @@
+package com.example.android.camera2video;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time as the pipeline's pacing code sees it, so it can run against a fake clock in tests.
+ */
+public interface PipelineClock {
+    /**
+     * Monotonic time in nanoseconds.
+     */
+    long nowNs();
+
+    /**
+     * Returns once nowNs() has reached deadlineNs.
+     */
+    void sleepUntilNs(long deadlineNs) throws InterruptedException;
+
+    /**
+     * System.nanoTime(), parking the thread until the deadline.
+     */
+    PipelineClock SYSTEM = new PipelineClock() {
+        @Override
+        public long nowNs() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepUntilNs(long deadlineNs) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadlineNs - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    };
+}
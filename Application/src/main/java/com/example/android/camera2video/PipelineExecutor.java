@@ -0,0 +1,19 @@
+package com.example.android.camera2video;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A serial executor owning one pipeline thread (camera, codec or I/O).  Tasks run one at a time
+ * in submission order.  See {@link PipelineThreads}.
+ */
+public interface PipelineExecutor extends Executor {
+    /**
+     * True if called from the thread tasks run on.
+     */
+    boolean isCurrentThread();
+
+    /**
+     * Runs what is already queued, then stops accepting tasks.
+     */
+    void quit();
+}
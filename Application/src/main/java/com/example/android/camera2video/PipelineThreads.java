@@ -0,0 +1,75 @@
+package com.example.android.camera2video;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The recording pipeline's threads: camera callbacks, codec callbacks and file I/O each get
+ * their own serial executor, so none of them waits behind the UI or each other.  Tests pass one
+ * {@link ManualExecutor} for all three.
+ */
+public class PipelineThreads {
+    private final PipelineExecutor _Camera;
+    private final PipelineExecutor _Codec;
+    private final PipelineExecutor _Io;
+
+    public PipelineThreads(PipelineExecutor camera, PipelineExecutor codec, PipelineExecutor io) {
+        _Camera = camera;
+        _Codec = codec;
+        _Io = io;
+    }
+
+    public PipelineExecutor getCamera() {
+        return _Camera;
+    }
+
+    public PipelineExecutor getCodec() {
+        return _Codec;
+    }
+
+    public PipelineExecutor getIo() {
+        return _Io;
+    }
+
+    public void quit() {
+        _Camera.quit();
+        if (_Codec != _Camera) {
+            _Codec.quit();
+        }
+        if (_Io != _Camera && _Io != _Codec) {
+            _Io.quit();
+        }
+    }
+
+    /**
+     * Runs task on executor and waits for it; runs it right away when already on that thread.
+     * A RuntimeException thrown by task is rethrown here.
+     */
+    public static void runAndWait(PipelineExecutor executor, final Runnable task) {
+        if (executor.isCurrentThread()) {
+            task.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final RuntimeException[] failure = new RuntimeException[1];
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failure[0] = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte-bounded history of the most recent encoded samples, so a recording can start with the
+ * seconds before Record was pressed.
+ * <p>
+ * Sample data lives in one circular direct buffer of fixed size; per-sample records and a key
+ * frame index are kept in primitive rings.  Adding a sample evicts the oldest ones until the new
+ * sample fits, which is O(1) amortized per sample and never allocates.
+ * <p>
+ * Not thread safe; it is owned by the {@link SampleWriter} thread.
+ */
+public class PreRollBuffer {
+    private final ByteBuffer _Data;
+    private final int _MaxSamples;
+    private final int[] _Offset;
+    private final int[] _Size;
+    private final long[] _PresentationTimeUs;
+    private final int[] _Flags;
+    // sequence numbers of retained key frames, oldest first
+    private final long[] _KeyFrames;
+
+    private long _First;        // sequence number of the oldest retained sample
+    private long _Next;         // sequence number the next sample will get
+    private long _FirstKey;
+    private long _NextKey;
+    private int _WritePos;
+    private long _EvictedCount;
+    private long _RejectedCount;
+
+    public PreRollBuffer(int maxBytes, int maxSamples) {
+        _Data = ByteBuffer.allocateDirect(maxBytes);
+        _MaxSamples = maxSamples;
+        _Offset = new int[maxSamples];
+        _Size = new int[maxSamples];
+        _PresentationTimeUs = new long[maxSamples];
+        _Flags = new int[maxSamples];
+        _KeyFrames = new long[maxSamples];
+    }
+
+    public int getSampleCount() {
+        return (int) (_Next - _First);
+    }
+
+    public int getKeyFrameCount() {
+        return (int) (_NextKey - _FirstKey);
+    }
+
+    public long getEvictedCount() {
+        return _EvictedCount;
+    }
+
+    /**
+     * Samples that were larger than the whole buffer.
+     */
+    public long getRejectedCount() {
+        return _RejectedCount;
+    }
+
+    /**
+     * Span between the oldest retained key frame and the newest sample.
+     */
+    public long getDecodableDurationUs() {
+        if (_NextKey == _FirstKey) {
+            return 0;
+        }
+        return _PresentationTimeUs[index(_Next - 1)] - _PresentationTimeUs[index(_KeyFrames[keyIndex(_FirstKey)])];
+    }
+
+    public void add(ByteBuffer data, long presentationTimeUs, int flags) {
+        int size = data.remaining();
+        if (size > _Data.capacity()) {
+            // nothing before it can be decoded without this sample either
+            _RejectedCount++;
+            clear();
+            return;
+        }
+        if (_Next - _First == _MaxSamples) {
+            evictOldest();
+        }
+
+        int start = _WritePos;
+        if (start + size > _Data.capacity()) {
+            // samples between the write position and the end are older than anything at the front
+            while (_Next > _First && _Offset[index(_First)] >= start) {
+                evictOldest();
+            }
+            start = 0;
+        }
+        while (_Next > _First && _Offset[index(_First)] >= start && _Offset[index(_First)] < start + size) {
+            evictOldest();
+        }
+
+        ByteBuffer dst = _Data.duplicate();
+        dst.position(start);
+        dst.put(data.duplicate());
+        int i = index(_Next);
+        _Offset[i] = start;
+        _Size[i] = size;
+        _PresentationTimeUs[i] = presentationTimeUs;
+        _Flags[i] = flags;
+        if ((flags & SampleMuxer.FLAG_KEY_FRAME) != 0) {
+            _KeyFrames[keyIndex(_NextKey++)] = _Next;
+        }
+        _Next++;
+        _WritePos = start + size;
+    }
+
+    /**
+     * Writes everything from the last key frame at or before fromPtsUs (or the oldest retained key
+     * frame if there is none that early) up to the newest sample, then empties the buffer.
+     *
+     * @return the number of samples written
+     */
+    public int drainTo(SampleSink sink, long fromPtsUs) throws IOException {
+        if (_NextKey == _FirstKey) {
+            clear();
+            return 0;
+        }
+        long startSeq = _KeyFrames[keyIndex(_FirstKey)];
+        for (long k = _FirstKey + 1; k < _NextKey; k++) {
+            long seq = _KeyFrames[keyIndex(k)];
+            if (_PresentationTimeUs[index(seq)] > fromPtsUs) {
+                break;
+            }
+            startSeq = seq;
+        }
+
+        int count = 0;
+        try {
+            for (long seq = startSeq; seq < _Next; seq++, count++) {
+                int i = index(seq);
+                ByteBuffer sample = _Data.duplicate();
+                sample.limit(_Offset[i] + _Size[i]).position(_Offset[i]);
+                sink.writeSampleData(sample, _PresentationTimeUs[i], _Flags[i]);
+            }
+        } finally {
+            clear();
+        }
+        return count;
+    }
+
+    public void clear() {
+        _First = _Next;
+        _FirstKey = _NextKey;
+        _WritePos = 0;
+    }
+
+    private void evictOldest() {
+        if (_NextKey > _FirstKey && _KeyFrames[keyIndex(_FirstKey)] == _First) {
+            _FirstKey++;
+        }
+        _First++;
+        _EvictedCount++;
+    }
+
+    private int index(long seq) {
+        return (int) (seq % _MaxSamples);
+    }
+
+    private int keyIndex(long key) {
+        return (int) (key % _MaxSamples);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sits between the {@link SampleWriter} and the file's {@link PtsContinuity} while the encoder
+ * runs continuously.
+ * <p>
+ * While not recording every sample goes into a {@link PreRollBuffer}.  When recording starts,
+ * the first sample seen flushes the buffered history from the key frame nearest to
+ * (now - pre-roll) and live samples follow without a gap.  Everything runs on the writer thread;
+ * {@link #setRecording} is the only call made from elsewhere.
+ */
+public class PreRollSink implements SampleSink {
+    private final SampleSink _Downstream;
+    private final PreRollBuffer _Buffer;
+    private final long _PreRollUs;
+
+    private volatile boolean _Recording;
+    private boolean _Live;
+    private int _LastFlushCount;
+
+    public PreRollSink(SampleSink downstream, long preRollUs, int maxBytes, int maxSamples) {
+        _Downstream = downstream;
+        _PreRollUs = preRollUs;
+        _Buffer = new PreRollBuffer(maxBytes, maxSamples);
+    }
+
+    public void setRecording(boolean recording) {
+        _Recording = recording;
+    }
+
+    public boolean isRecording() {
+        return _Recording;
+    }
+
+    public PreRollBuffer getBuffer() {
+        return _Buffer;
+    }
+
+    /**
+     * Number of buffered samples written when the current recording started.
+     */
+    public int getLastFlushCount() {
+        return _LastFlushCount;
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if (!_Recording) {
+            _Live = false;
+            _Buffer.add(data, presentationTimeUs, flags);
+            return;
+        }
+        if (!_Live) {
+            _LastFlushCount = _Buffer.drainTo(_Downstream, presentationTimeUs - _PreRollUs);
+            if (_LastFlushCount == 0 && (flags & SampleMuxer.FLAG_KEY_FRAME) == 0) {
+                // no history to start from; wait for the next key frame
+                return;
+            }
+            _Live = true;
+        }
+        _Downstream.writeSampleData(data, presentationTimeUs, flags);
+    }
+}
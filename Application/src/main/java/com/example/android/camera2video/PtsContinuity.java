@@ -0,0 +1,76 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSink} in front of the muxer that keeps presentation times strictly increasing
+ * and, optionally, closes long gaps.
+ * <p>
+ * While the camera is being recovered the encoder gets no frames, so the first frame after it
+ * carries a timestamp the outage later than the last one before.  With a gap limit set, any
+ * step longer than the limit is shortened to one frame duration by shifting everything after
+ * it, so the file plays on without a frozen stretch.  A timestamp that doesn't move forward (a
+ * new session on a different clock base) is always moved to one frame after the previous one.
+ * Behind a {@link PreRollSink} it only sees what goes into the file, so the time between two
+ * recordings into the same file is a gap like any other.  Runs on the writer thread.
+ */
+public class PtsContinuity implements SampleSink {
+    private final SampleSink _Target;
+    private final long _FrameDurationUs;
+    private final long _MaxGapUs;
+
+    private long _LastUs = -1;
+    private long _OffsetUs;
+    private volatile long _ClosedGapUs;
+    private volatile int _AdjustCount;
+
+    /**
+     * @param maxGapUs steps longer than this are closed; 0 keeps every gap
+     */
+    public PtsContinuity(SampleSink target, long frameDurationUs, long maxGapUs) {
+        _Target = target;
+        _FrameDurationUs = frameDurationUs;
+        _MaxGapUs = maxGapUs;
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        _Target.writeSampleData(data, adjust(presentationTimeUs), flags);
+    }
+
+    /**
+     * @return presentationTimeUs as written to the target
+     */
+    public long adjust(long presentationTimeUs) {
+        long out = presentationTimeUs - _OffsetUs;
+        if (_LastUs >= 0) {
+            long step = out - _LastUs;
+            if (step <= 0 || (_MaxGapUs > 0 && step > _MaxGapUs)) {
+                long target = _LastUs + _FrameDurationUs;
+                if (step > 0) {
+                    _ClosedGapUs += out - target;
+                }
+                _OffsetUs += out - target;
+                out = target;
+                _AdjustCount++;
+            }
+        }
+        _LastUs = out;
+        return out;
+    }
+
+    /**
+     * Total time taken out of the file by closed gaps.
+     */
+    public long getClosedGapUs() {
+        return _ClosedGapUs;
+    }
+
+    /**
+     * Number of samples that had to be moved.
+     */
+    public int getAdjustCount() {
+        return _AdjustCount;
+    }
+}
@@ -0,0 +1,535 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The encoder side of recording: codec output into the {@link SampleRing}, through pre-roll and
+ * timestamp continuity to the muxer, with bitrate control, latency tracking and buffer input.
+ * <p>
+ * It only sees the codec as a {@link VideoCodec} and the files as {@link Host#openMuxer}, so the
+ * same path runs in {@link Encoder} on a device and against {@link FakeVideoCodec} and a
+ * {@link VirtualClock} on the JVM.  Codec callbacks arrive on the codec's thread; everything
+ * else is called from one app thread.
+ */
+public class RecordPath<S> implements VideoCodec.Callback {
+    public static final int DEFAULT_FRAME_RATE = 30;
+    public static final int KEY_FRAME_INTERVAL_S = 5;
+
+    // about three seconds at 30fps; slots grow on demand for oversized key frames
+    private static final int RING_SLOTS = 90;
+    private static final int RING_SLOT_CAPACITY = 64 * 1024;
+
+    /**
+     * Files, threads and clocks of the platform.
+     */
+    public interface Host {
+        /**
+         * Opens the file, or set of segments, for the next recording.  Called from the writer
+         * once the first sample for it arrives, so a file that would stay empty is never made.
+         */
+        SampleMuxer openMuxer() throws IOException;
+
+        /**
+         * Starts draining ring into sink off the codec thread.
+         */
+        void startWriter(SampleRing ring, SampleSink sink);
+
+        /**
+         * Writes what is left in the ring and stops the writer.
+         */
+        void stopWriter();
+
+        /**
+         * A recording ended; latency still holds its numbers.
+         */
+        void onRecordingFinished(LatencyTracker latency);
+
+        /**
+         * The realtime clock some cameras stamp frames with, minus the pipeline clock.
+         */
+        long getRealtimeOffsetNs();
+
+        void onError(Exception e);
+    }
+
+    private final Host _Host;
+    private final PipelineClock _Clock;
+    private VideoCodec<S> _Codec;
+    private LazyMuxer _Muxer;
+    private SampleRing _Ring;
+    private boolean _MuxerStarted;
+    private boolean _WriterStarted;
+    private S _InputSurface;
+    private int _Width;
+    private int _Height;
+    private volatile boolean _Armed;
+    // the codec reports its format once per start; kept for the files after a rollover()
+    private int _FormatWidth;
+    private int _FormatHeight;
+    private ByteBuffer _Sps;
+    private ByteBuffer _Pps;
+    private long _PreRollUs;
+    private int _PreRollBytes;
+    private PreRollSink _PreRollSink;
+    private long _MaxPtsGapUs;
+    private PtsContinuity _PtsContinuity;
+    private int _FrameRate = DEFAULT_FRAME_RATE;
+    private int _Bitrate = 125000;
+    private int _MinBitrate = 125000;
+    private int _MaxBitrate = 125000;
+    private BitrateController _BitrateController;
+    private final LatencyTracker _Latency = new LatencyTracker();
+    private boolean _LatencyClockChecked;
+    private volatile CaptureAnalyzer _CaptureAnalyzer;
+    private int _InputFrames;
+    private boolean _InputSemiPlanar;
+    private InputFrameQueue _InputQueue;
+    private int _InputRotation;
+    private YuvKernels _InputKernels = new YuvKernels(null);
+    private volatile long _OutputCount;
+    private volatile long _ErrorCount;
+    private final InputFrameQueue.Host _CodecInput = new InputFrameQueue.Host() {
+        // only one fill runs at a time
+        private final YuvFrame _Target = new YuvFrame();
+
+        @Override
+        public void fill(int index, YuvFrame frame) {
+            VideoCodec<S> codec = _Codec;
+            int size = codec.getInputFrame(index, _Target);
+            try {
+                _InputKernels.rotate(frame, _Target, _InputRotation);
+            } finally {
+                _Target.clear();
+            }
+            codec.queueInputBuffer(index, size, frame.getTimestampNs() / 1000, 0);
+        }
+
+        @Override
+        public void queueEndOfStream(int index) {
+            _Codec.queueInputBuffer(index, 0, 0, SampleMuxer.FLAG_END_OF_STREAM);
+        }
+    };
+
+    private final LazyMuxer.Factory _OpenMuxer = new LazyMuxer.Factory() {
+        @Override
+        public SampleMuxer open() throws IOException {
+            try {
+                return _Host.openMuxer();
+            } catch (IOException e) {
+                _Host.onError(e);
+                throw e;
+            }
+        }
+    };
+
+    public RecordPath(Host host, PipelineClock clock) {
+        _Host = host;
+        _Clock = clock;
+    }
+
+    /**
+     * The allocated codec; its callbacks are set to this path on the calling thread.
+     */
+    public void setCodec(VideoCodec<S> codec) {
+        _Codec = codec;
+        codec.setCallback(this);
+    }
+
+    public VideoCodec<S> getCodec() {
+        return _Codec;
+    }
+
+    /**
+     * Configures and starts the codec with a fresh input surface (or its input queue in buffer
+     * input mode), and opens a new output file.
+     */
+    public void arm(int width, int height) {
+        _Sps = null;
+        _Pps = null;
+        _Width = width;
+        _Height = height;
+        prepareMuxer();
+        prepareCodec();
+        _Armed = true;
+    }
+
+    /**
+     * Stops the codec and finalizes the output file.  The codec stays allocated and can be
+     * armed again.
+     */
+    public void disarm() {
+        if (!_Armed) {
+            return;
+        }
+        _Armed = false;
+        if (_InputQueue != null) {
+            try {
+                _InputQueue.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        _Codec.stop();
+        // the codec's stop() released it
+        _InputSurface = null;
+        destroyMuxer();
+    }
+
+    /**
+     * Finalizes the current file and opens the next one while the codec keeps running, so the
+     * input surface stays valid.  Output still in flight from the previous recording is dropped
+     * until the key frame that the next {@link #startRecording} asks for.
+     */
+    public void rollover() {
+        if (!_Armed) {
+            return;
+        }
+        destroyMuxer();
+        _Ring.skipToKeyFrame();
+        _BitrateController.reset();
+        prepareMuxer();
+        if (_Sps != null) {
+            // the codec won't report its format again, reuse the one it gave at start
+            startMuxer();
+        }
+    }
+
+    public void release() {
+        disarm();
+        if (_InputQueue != null) {
+            _InputQueue.close();
+            _InputQueue = null;
+        }
+        if (_Codec != null) {
+            _Codec.release();
+            _Codec = null;
+        }
+    }
+
+    public boolean isArmed() {
+        return _Armed;
+    }
+
+    public int getWidth() {
+        return _Width;
+    }
+
+    public int getHeight() {
+        return _Height;
+    }
+
+    /**
+     * See {@link Encoder#setPreRoll}.  Takes effect on the next arm().
+     */
+    public void setPreRoll(long durationUs, int maxBytes) {
+        _PreRollUs = durationUs;
+        _PreRollBytes = maxBytes;
+    }
+
+    /**
+     * See {@link Encoder#setBitrate}.  Takes effect on the next arm().
+     */
+    public void setBitrate(int initial, int min, int max) {
+        _Bitrate = initial;
+        _MinBitrate = min;
+        _MaxBitrate = max;
+    }
+
+    /**
+     * Frame rate the camera delivers, as a hint to the codec.  Takes effect on the next arm().
+     */
+    public void setFrameRate(int frameRate) {
+        _FrameRate = frameRate;
+    }
+
+    /**
+     * See {@link Encoder#setMaxPtsGap}.  Takes effect with the next muxer.
+     */
+    public void setMaxPtsGap(long maxGapUs) {
+        _MaxPtsGapUs = maxGapUs;
+    }
+
+    /**
+     * Timestamp adjustments of the current file, or null before the first arm().
+     */
+    public PtsContinuity getPtsContinuity() {
+        return _PtsContinuity;
+    }
+
+    /**
+     * See {@link Encoder#setBufferInput}.  Takes effect on the next arm().
+     */
+    public void setBufferInput(int queuedFrames, boolean semiPlanar) {
+        _InputFrames = queuedFrames;
+        _InputSemiPlanar = semiPlanar;
+    }
+
+    /**
+     * See {@link Encoder#setInputRotation}.  Takes effect on the next arm().
+     */
+    public void setInputRotation(int degrees, YuvKernels kernels) {
+        _InputRotation = degrees;
+        _InputKernels = kernels != null ? kernels : new YuvKernels(null);
+    }
+
+    private int codecWidth() {
+        return _InputFrames > 0 && _InputRotation % 180 != 0 ? _Height : _Width;
+    }
+
+    private int codecHeight() {
+        return _InputFrames > 0 && _InputRotation % 180 != 0 ? _Width : _Height;
+    }
+
+    /**
+     * Where the producer gets frames from and queues them in buffer input mode, or null with a
+     * surface.  The same queue is kept across arm() while the size stays the same.
+     */
+    public InputFrameQueue getInputQueue() {
+        return _InputQueue;
+    }
+
+    public S getInputSurface() {
+        return _InputSurface;
+    }
+
+    public BitrateController getBitrateController() {
+        return _BitrateController;
+    }
+
+    public boolean isAlwaysEncoding() {
+        return _PreRollUs > 0;
+    }
+
+    /**
+     * In pre-roll mode, switches output from the pre-roll buffer to the file.  Otherwise the
+     * encoder writes whatever the camera feeds it.  Either way the next frame is requested as a
+     * key frame so the recording can start on it.
+     */
+    public void startRecording() {
+        if (_PreRollSink != null) {
+            // only measure what ends up in this recording
+            _Latency.reset();
+            _PreRollSink.setRecording(true);
+        }
+        if (_BitrateController != null) {
+            // the idle time since the last recording is no measure of the stream
+            _BitrateController.reset();
+        }
+        // shortens the wait for a key frame if the pre-roll buffer is still empty, and after a
+        // rollover() starts the new file right away
+        _Codec.requestKeyFrame();
+    }
+
+    public void stopRecording() {
+        if (_PreRollSink != null) {
+            _PreRollSink.setRecording(false);
+            finishLatency();
+        }
+    }
+
+    /**
+     * Queue between the codec callback and the writer, for depth and drop counters.
+     */
+    public SampleRing getSampleRing() {
+        return _Ring;
+    }
+
+    /**
+     * Capture to encode to mux latency of the current recording.
+     */
+    public LatencyTracker getLatencyTracker() {
+        return _Latency;
+    }
+
+    /**
+     * Reports every encoded presentation time to analyzer, for encoder-side drop detection.
+     */
+    public void setCaptureAnalyzer(CaptureAnalyzer analyzer) {
+        _CaptureAnalyzer = analyzer;
+    }
+
+    /**
+     * Samples the codec produced while a file was open.
+     */
+    public long getOutputCount() {
+        return _OutputCount;
+    }
+
+    public long getErrorCount() {
+        return _ErrorCount;
+    }
+
+    @Override
+    public void onInputBufferAvailable(int index) {
+        InputFrameQueue queue = _InputQueue;
+        if (queue == null || !_Armed) {
+            return;
+        }
+        queue.onInputBufferAvailable(index);
+    }
+
+    @Override
+    public void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags) {
+        // codec config is already carried by the output format as csd-0 / csd-1
+        if (!_Armed) {
+            // queued before disarm(); the buffer index is no longer valid
+            return;
+        }
+        if (_MuxerStarted && (flags & SampleMuxer.FLAG_CODEC_CONFIG) == 0 && size != 0) {
+            _OutputCount++;
+            trackLatency(presentationTimeUs);
+            CaptureAnalyzer analyzer = _CaptureAnalyzer;
+            if (analyzer != null) {
+                analyzer.onEncoded(presentationTimeUs);
+            }
+            ByteBuffer outBuffer = _Codec.getOutputBuffer(index);
+            outBuffer.limit(offset + size);
+            outBuffer.position(offset);
+            // a full ring drops the sample and counts it
+            _Ring.offer(outBuffer, presentationTimeUs, flags);
+            adjustBitrate(size, presentationTimeUs);
+        }
+        _Codec.releaseOutputBuffer(index);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        _ErrorCount++;
+        _Host.onError(e);
+    }
+
+    @Override
+    public void onOutputFormatChanged(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        _FormatWidth = width;
+        _FormatHeight = height;
+        _Sps = copy(sps);
+        _Pps = copy(pps);
+        startMuxer();
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    private void startMuxer() {
+        if (_Muxer == null) {
+            return;
+        }
+        // only remembered until the first sample opens the file
+        _Muxer.addVideoTrack(_FormatWidth, _FormatHeight, _Sps.duplicate(), _Pps.duplicate());
+        _Muxer.start();
+        _MuxerStarted = true;
+        _Host.startWriter(_Ring, _PreRollSink != null ? _PreRollSink : _PtsContinuity);
+        _WriterStarted = true;
+    }
+
+    private void trackLatency(long presentationTimeUs) {
+        long now = _Clock.nowNs();
+        if (!_LatencyClockChecked) {
+            // sensor timestamps are either on the monotonic clock or, on devices reporting a
+            // realtime timestamp source, on elapsedRealtime; pick whichever is nearer
+            long offsetUs = _Host.getRealtimeOffsetNs() / 1000;
+            long nowUs = now / 1000;
+            if (Math.abs(presentationTimeUs - (nowUs + offsetUs)) < Math.abs(presentationTimeUs - nowUs)) {
+                _Latency.setCaptureClockOffsetUs(offsetUs);
+            } else {
+                _Latency.setCaptureClockOffsetUs(0);
+            }
+            _LatencyClockChecked = true;
+        }
+        _Latency.onEncoded(presentationTimeUs, now);
+    }
+
+    private void finishLatency() {
+        _Host.onRecordingFinished(_Latency);
+        _Latency.reset();
+    }
+
+    private void adjustBitrate(int size, long presentationTimeUs) {
+        if (_MinBitrate == _MaxBitrate) {
+            return;
+        }
+        int bitrate = _BitrateController.onSample(size, presentationTimeUs,
+                _Ring.getDepth(), _Ring.getCapacity(), _Ring.getDroppedCount(), inputCount());
+        if (bitrate > 0) {
+            _Codec.setBitrate(bitrate);
+        }
+    }
+
+    /**
+     * Frames given to the codec so far: the frames queued in buffer input mode, else the camera's
+     * capture results if they are analyzed, else -1.
+     */
+    private long inputCount() {
+        InputFrameQueue queue = _InputQueue;
+        if (queue != null) {
+            return queue.getQueuedCount();
+        }
+        CaptureAnalyzer analyzer = _CaptureAnalyzer;
+        return analyzer != null ? analyzer.getCaptureCount() : -1;
+    }
+
+    private void prepareCodec() {
+        _BitrateController = new BitrateController(_MinBitrate, _MaxBitrate, _Bitrate, _FrameRate);
+        _Codec.configure(codecWidth(), codecHeight(), _BitrateController.getBitrate(), _FrameRate,
+                KEY_FRAME_INTERVAL_S, _InputFrames > 0);
+        if (_InputFrames > 0) {
+            if (_InputQueue == null || _InputQueue.getWidth() != _Width || _InputQueue.getHeight() != _Height) {
+                if (_InputQueue != null) {
+                    _InputQueue.close();
+                }
+                _InputQueue = new InputFrameQueue(_CodecInput, _Width, _Height, _InputFrames, _InputSemiPlanar);
+            }
+        } else {
+            _InputSurface = _Codec.createInputSurface();
+        }
+        _Codec.start();
+    }
+
+    private void prepareMuxer() {
+        _LatencyClockChecked = false;
+        _Latency.reset();
+        _Muxer = new LazyMuxer(_OpenMuxer);
+        if (_Ring == null) {
+            // kept across arm() so the buffers are only allocated once
+            _Ring = new SampleRing(RING_SLOTS, RING_SLOT_CAPACITY);
+            _Ring.setLatencyTracker(_Latency);
+            _Ring.setClock(_Clock);
+        }
+        // the ring, the latency tracker and the pre-roll keep sensor timestamps; only what goes
+        // into the file is adjusted, so the time between two recordings is a gap too
+        _PtsContinuity = new PtsContinuity(_Muxer, 1000000L / _FrameRate, _MaxPtsGapUs);
+        _PreRollSink = null;
+        if (_PreRollUs > 0) {
+            // room for the pre-roll plus the GOP leading into it, at twice the nominal rate
+            int maxSamples = (int) ((_PreRollUs / 1000000L + KEY_FRAME_INTERVAL_S + 1) * _FrameRate * 2);
+            _PreRollSink = new PreRollSink(_PtsContinuity, _PreRollUs, _PreRollBytes, maxSamples);
+        }
+        _MuxerStarted = false;
+    }
+
+    private void destroyMuxer() {
+        if (_WriterStarted) {
+            _Host.stopWriter();
+            _WriterStarted = false;
+        }
+        if (_MuxerStarted) {
+            try {
+                _Muxer.stop();
+            } catch (IOException e) {
+                _Host.onError(e);
+            }
+            _MuxerStarted = false;
+            if (_PreRollSink == null && _Muxer.isOpen()) {
+                finishLatency();
+            }
+        }
+        if (_Muxer != null) {
+            _Muxer.release();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The whole record path on the JVM: a {@link FakeCamera} run by a {@link CameraDriver}, feeding
+ * a {@link FakeVideoCodec} through a {@link RecordPath} into in-memory files, all on one
+ * {@link VirtualClock}.
+ * <p>
+ * The writer drains the sample ring every write period on the clock instead of waiting on it
+ * from a thread, so I/O stalls can be injected like camera and codec stalls.  Start-up time
+ * (open to first preview frame), record-start latency, capture to mux latency, recovery time
+ * and drops at every stage come out the same on every run, which makes them usable as
+ * regression numbers.  Single threaded; call everything from the thread that runs the clock.
+ */
+public class RecordSimulation {
+    public static final long DEFAULT_START_NS = 1000000000000L;
+    public static final long DEFAULT_WRITE_PERIOD_NS = 10000000L;
+    private static final int WRITE_BATCH = 16;
+
+    /**
+     * A file in memory: counts what is written and folds it into a checksum.
+     */
+    public static class MemoryMuxer implements SampleMuxer {
+        private boolean _Started;
+        private boolean _Stopped;
+        private long _SampleCount;
+        private long _KeyFrameCount;
+        private long _Bytes;
+        private long _FirstPtsUs = -1;
+        private long _LastPtsUs = -1;
+        private long _MaxPtsStepUs;
+        private long _Checksum = 17;
+
+        @Override
+        public void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+            _Checksum = 31 * _Checksum + width * 65536 + height;
+        }
+
+        @Override
+        public void start() {
+            _Started = true;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+            if (!_Started || _Stopped) {
+                throw new IllegalStateException("muxer not started");
+            }
+            if (_FirstPtsUs < 0) {
+                _FirstPtsUs = presentationTimeUs;
+            } else {
+                _MaxPtsStepUs = Math.max(_MaxPtsStepUs, presentationTimeUs - _LastPtsUs);
+            }
+            _LastPtsUs = presentationTimeUs;
+            _SampleCount++;
+            if ((flags & FLAG_KEY_FRAME) != 0) {
+                _KeyFrameCount++;
+            }
+            _Bytes += data.remaining();
+            _Checksum = 31 * (31 * (31 * _Checksum + presentationTimeUs) + flags) + data.remaining();
+        }
+
+        @Override
+        public void stop() {
+            _Stopped = true;
+        }
+
+        @Override
+        public void release() {
+        }
+
+        public boolean isStarted() {
+            return _Started;
+        }
+
+        public boolean isStopped() {
+            return _Stopped;
+        }
+
+        public long getSampleCount() {
+            return _SampleCount;
+        }
+
+        public long getKeyFrameCount() {
+            return _KeyFrameCount;
+        }
+
+        public long getBytes() {
+            return _Bytes;
+        }
+
+        public long getFirstPtsUs() {
+            return _FirstPtsUs;
+        }
+
+        public long getLastPtsUs() {
+            return _LastPtsUs;
+        }
+
+        /**
+         * Longest step between two samples, which is how long a player shows the earlier one.
+         */
+        public long getMaxPtsStepUs() {
+            return _MaxPtsStepUs;
+        }
+
+        /**
+         * Depends on the timestamp, flags and size of every sample, in order.
+         */
+        public long getChecksum() {
+            return _Checksum;
+        }
+    }
+
+    private final VirtualClock _Clock;
+    private final FakeCamera _Camera;
+    private final FakeVideoCodec _Codec;
+    private final CameraDriver<FakeCamera.Output> _Driver;
+    private final RecordPath<FakeCamera.Output> _Path;
+    private final int _Width;
+    private final int _Height;
+    private SegmentingMuxer.Factory _MuxerFactory;
+    private final List<MemoryMuxer> _Files = new ArrayList<>();
+    private int _FileIndex;
+
+    private long _WritePeriodNs = DEFAULT_WRITE_PERIOD_NS;
+    private long _IoStallStartNs = -1;
+    private long _IoStallEndNs = -1;
+    // bumped by every writer start and stop, which ends the running drain loop
+    private int _WriterGeneration;
+    private SampleRing _WriterRing;
+    private SampleSink _WriterSink;
+
+    private long _OpenRequestedNs = -1;
+    private long _StartupNs = -1;
+    private long _PreviewFrameCount;
+    private int _RecordingCount;
+    private int _DeviceLostCount;
+    private long _ErrorCount;
+
+    private final FakeCamera.Output _Preview = new FakeCamera.Output() {
+        @Override
+        public void onFrame(long timestampNs) {
+            _PreviewFrameCount++;
+            if (_StartupNs < 0 && _OpenRequestedNs >= 0) {
+                _StartupNs = _Clock.nowNs() - _OpenRequestedNs;
+            }
+        }
+    };
+
+    public RecordSimulation(int width, int height, int frameRate) {
+        this(new VirtualClock(DEFAULT_START_NS), width, height, frameRate);
+    }
+
+    public RecordSimulation(VirtualClock clock, int width, int height, int frameRate) {
+        _Clock = clock;
+        _Width = width;
+        _Height = height;
+        _Camera = new FakeCamera(clock, frameRate);
+        _Codec = new FakeVideoCodec(clock);
+        _Driver = new CameraDriver<>(_Camera, new CameraDriver.Host() {
+            @Override
+            public void onDeviceOpened() {
+                _Driver.startSession();
+            }
+
+            @Override
+            public void onDeviceLost(String reason) {
+                _DeviceLostCount++;
+            }
+
+            @Override
+            public void onRecordStarted(long latencyNs) {
+            }
+
+            @Override
+            public void onRecovered(long recoveryNs, long gapNs) {
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                _Clock.schedule(task, delayMs * 1000000L);
+            }
+        }, clock);
+        _Path = new RecordPath<>(new RecordPath.Host() {
+            @Override
+            public SampleMuxer openMuxer() throws IOException {
+                int index = _FileIndex++;
+                if (_MuxerFactory != null) {
+                    return _MuxerFactory.create(index);
+                }
+                MemoryMuxer muxer = new MemoryMuxer();
+                _Files.add(muxer);
+                return muxer;
+            }
+
+            @Override
+            public void startWriter(SampleRing ring, SampleSink sink) {
+                _WriterRing = ring;
+                _WriterSink = sink;
+                final int generation = ++_WriterGeneration;
+                _Clock.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != _WriterGeneration) {
+                            return;
+                        }
+                        long now = _Clock.nowNs();
+                        if (now >= _IoStallStartNs && now < _IoStallEndNs) {
+                            _Clock.scheduleAt(this, _IoStallEndNs);
+                            return;
+                        }
+                        drain(WRITE_BATCH);
+                        _Clock.schedule(this, _WritePeriodNs);
+                    }
+                }, _WritePeriodNs);
+            }
+
+            @Override
+            public void stopWriter() {
+                _WriterGeneration++;
+                drain(Integer.MAX_VALUE);
+                _WriterRing = null;
+                _WriterSink = null;
+            }
+
+            @Override
+            public void onRecordingFinished(LatencyTracker latency) {
+                _RecordingCount++;
+            }
+
+            @Override
+            public long getRealtimeOffsetNs() {
+                return 0;
+            }
+
+            @Override
+            public void onError(Exception e) {
+                _ErrorCount++;
+            }
+        }, clock);
+        _Path.setFrameRate(frameRate);
+        _Path.setCodec(_Codec);
+    }
+
+    private void drain(int maxSamples) {
+        int drained = 0;
+        try {
+            int count;
+            while (drained < maxSamples && (count = _WriterRing.drainTo(_WriterSink, maxSamples - drained)) > 0) {
+                drained += count;
+            }
+        } catch (IOException e) {
+            _ErrorCount++;
+        }
+    }
+
+    public VirtualClock getClock() {
+        return _Clock;
+    }
+
+    public FakeCamera getCamera() {
+        return _Camera;
+    }
+
+    public FakeVideoCodec getCodec() {
+        return _Codec;
+    }
+
+    public CameraDriver<FakeCamera.Output> getDriver() {
+        return _Driver;
+    }
+
+    /**
+     * Configure it before {@link #start}, like an {@link Encoder}.
+     */
+    public RecordPath<FakeCamera.Output> getRecordPath() {
+        return _Path;
+    }
+
+    /**
+     * Where files go; by default they are {@link MemoryMuxer}s, see {@link #getFiles}.
+     */
+    public void setMuxerFactory(SegmentingMuxer.Factory factory) {
+        _MuxerFactory = factory;
+    }
+
+    /**
+     * Files opened so far by the default muxer factory, oldest first.
+     */
+    public List<MemoryMuxer> getFiles() {
+        return _Files;
+    }
+
+    public void setWritePeriod(long periodNs) {
+        _WritePeriodNs = periodNs;
+    }
+
+    /**
+     * Writes nothing from startNs for durationNs, as if storage stopped responding; the ring
+     * fills up and starts dropping.
+     */
+    public void stallWriter(long startNs, long durationNs) {
+        _IoStallStartNs = startNs;
+        _IoStallEndNs = startNs + durationNs;
+    }
+
+    /**
+     * Arms the codec, then opens the camera with preview and the codec's input surface as
+     * outputs; run the clock to get it going.
+     */
+    public void start() {
+        _Path.arm(_Width, _Height);
+        CaptureSessionController<FakeCamera.Output> controller = _Driver.getSessionController();
+        controller.setPreviewSurface(_Preview);
+        controller.setRecordSurface(_Path.getInputSurface());
+        controller.setAlwaysEncode(_Path.isAlwaysEncoding());
+        _OpenRequestedNs = _Clock.nowNs();
+        _StartupNs = -1;
+        _Driver.open();
+    }
+
+    public void startRecording() {
+        _Driver.startRecord(_Clock.nowNs());
+        _Path.startRecording();
+    }
+
+    /**
+     * In pre-roll mode also rolls over to the next file, like {@link EncoderManager}.
+     */
+    public void stopRecording() {
+        _Path.stopRecording();
+        if (_Path.isAlwaysEncoding()) {
+            _Path.rollover();
+        }
+        _Driver.stopRecord();
+    }
+
+    /**
+     * Closes the camera and disarms the codec, which writes out and closes the current file.
+     */
+    public void stop() {
+        _Driver.close();
+        _Path.disarm();
+    }
+
+    public void release() {
+        stop();
+        _Path.release();
+    }
+
+    public int runFor(long durationNs) {
+        return _Clock.runFor(durationNs);
+    }
+
+    /**
+     * Time from {@link #start} to the first preview frame, or -1 if none arrived yet.
+     */
+    public long getStartupNs() {
+        return _StartupNs;
+    }
+
+    public long getPreviewFrameCount() {
+        return _PreviewFrameCount;
+    }
+
+    public int getRecordingCount() {
+        return _RecordingCount;
+    }
+
+    public int getDeviceLostCount() {
+        return _DeviceLostCount;
+    }
+
+    /**
+     * Errors reported by the record path and the writer.
+     */
+    public long getErrorCount() {
+        return _ErrorCount;
+    }
+
+    public String summary() {
+        SampleRing ring = _Path.getSampleRing();
+        CaptureSessionController<FakeCamera.Output> controller = _Driver.getSessionController();
+        LatencyHistogram.Snapshot recordStart = controller.getRecordStartLatency().snapshot();
+        StringBuilder summary = new StringBuilder();
+        summary.append("startup ").append(_StartupNs / 1000000).append(" ms, record start p50 ")
+                .append(recordStart.getPercentile(50) / 1000).append(" ms, ")
+                .append(controller.getSessionCount()).append(" sessions\n");
+        summary.append(_Camera.summary()).append('\n');
+        summary.append(_Codec.summary()).append('\n');
+        if (ring != null) {
+            summary.append("ring: high water mark ").append(ring.getHighWaterMark()).append(", ")
+                    .append(ring.getDroppedCount()).append(" dropped, ").append(ring.getWrittenCount())
+                    .append(" written\n");
+        }
+        summary.append("recovery: ").append(_Driver.getRecovery().summary()).append('\n');
+        summary.append("latency (us)\n").append(_Path.getLatencyTracker().summary());
+        return summary.toString();
+    }
+}
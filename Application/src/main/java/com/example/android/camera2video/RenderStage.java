@@ -0,0 +1,256 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws one camera stream to several outputs (preview, encoder) so the camera only produces a
+ * single stream.
+ * <p>
+ * The camera writes into the backend's input; every frame it announces through
+ * {@link #onFrameAvailable} is latched once and drawn to each enabled output with the camera
+ * timestamp as presentation time, so the encoder sees the same timestamps it would get from the
+ * camera directly.  Frames that arrive faster than the render thread keeps up are coalesced:
+ * the backend latches only the newest and the rest count as skipped.  An output can have a
+ * minimum frame interval (a 30 fps preview off a 120 fps stream), and an output's presentation
+ * times are kept strictly increasing because an encoder input surface drops anything else.
+ * <p>
+ * Pure Java: the drawing is behind {@link Backend}, with a GL backend on the device
+ * ({@code GlRenderBackend}) and a CPU reference one ({@link CpuRenderBackend}) for the JVM.
+ * All backend calls run on the render executor; the public methods may be called from any
+ * thread.
+ */
+public class RenderStage<S> {
+
+    /**
+     * Does the drawing.  Called on the render executor only.
+     */
+    public interface Backend<S> {
+        void addOutput(S output);
+
+        void removeOutput(S output);
+
+        /**
+         * Makes the newest input frame current, dropping any older ones.
+         *
+         * @return its timestamp in nanoseconds, or -1 if there was no new frame
+         */
+        long latchFrame();
+
+        /**
+         * Draws the current frame to output and submits it with this presentation time.
+         */
+        void draw(S output, long presentationTimeNs);
+
+        void release();
+    }
+
+    private static final class Output<S> {
+        final S surface;
+        final long minIntervalNs;
+        volatile boolean enabled;
+        long lastPtsNs = Long.MIN_VALUE;
+        volatile long drawnCount;
+        volatile long decimatedCount;
+
+        Output(S surface, long minIntervalNs, boolean enabled) {
+            this.surface = surface;
+            this.minIntervalNs = minIntervalNs;
+            this.enabled = enabled;
+        }
+    }
+
+    private final Backend<S> _Backend;
+    private final PipelineExecutor _Executor;
+    // render thread only
+    private final List<Output<S>> _Outputs = new ArrayList<>();
+    private long _LastFrameNs = -1;
+    private boolean _Released;
+
+    private final AtomicInteger _Pending = new AtomicInteger();
+    private volatile long _AvailableCount;
+    private volatile long _LatchedCount;
+    private volatile long _SkippedCount;
+    private volatile long _StaleCount;
+
+    public RenderStage(Backend<S> backend, PipelineExecutor executor) {
+        _Backend = backend;
+        _Executor = executor;
+    }
+
+    /**
+     * @param minIntervalNs frames closer than this to the last one drawn to the output are left
+     *                      out; 0 draws every frame
+     * @param enabled       whether it is drawn to right away, see {@link #setEnabled}
+     */
+    public void addOutput(final S surface, final long minIntervalNs, final boolean enabled) {
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (_Released || find(surface) != null) {
+                    return;
+                }
+                _Backend.addOutput(surface);
+                _Outputs.add(new Output<>(surface, minIntervalNs, enabled));
+            }
+        });
+    }
+
+    public void removeOutput(final S surface) {
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Output<S> output = find(surface);
+                if (output != null) {
+                    _Outputs.remove(output);
+                    _Backend.removeOutput(surface);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts or stops drawing to an output without tearing it down, e.g. the encoder between
+     * recordings.  Takes effect with the next frame.
+     */
+    public void setEnabled(final S surface, final boolean enabled) {
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Output<S> output = find(surface);
+                if (output != null) {
+                    output.enabled = enabled;
+                }
+            }
+        });
+    }
+
+    /**
+     * The backend's input received a frame.  Any thread; the frame is drawn on the render
+     * executor.
+     */
+    public void onFrameAvailable() {
+        _AvailableCount++;
+        if (_Pending.getAndIncrement() == 0) {
+            _Executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    private void drain() {
+        int frames = _Pending.getAndSet(0);
+        if (frames == 0 || _Released) {
+            return;
+        }
+        long timestampNs = _Backend.latchFrame();
+        if (timestampNs < 0) {
+            return;
+        }
+        _LatchedCount++;
+        _SkippedCount += frames - 1;
+        if (timestampNs <= _LastFrameNs) {
+            // the same buffer again, or one from before the last: nothing new to show
+            _StaleCount++;
+            return;
+        }
+        _LastFrameNs = timestampNs;
+        for (int i = 0; i < _Outputs.size(); i++) {
+            Output<S> output = _Outputs.get(i);
+            if (!output.enabled) {
+                continue;
+            }
+            if (output.lastPtsNs != Long.MIN_VALUE && output.minIntervalNs > 0
+                    && timestampNs - output.lastPtsNs < output.minIntervalNs - output.minIntervalNs / 8) {
+                // an eighth of slack keeps timestamp jitter from halving the output's rate
+                output.decimatedCount++;
+                continue;
+            }
+            _Backend.draw(output.surface, timestampNs);
+            output.lastPtsNs = timestampNs;
+            output.drawnCount++;
+        }
+    }
+
+    /**
+     * Removes every output and releases the backend.
+     */
+    public void release() {
+        _Executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (_Released) {
+                    return;
+                }
+                _Released = true;
+                for (Output<S> output : _Outputs) {
+                    _Backend.removeOutput(output.surface);
+                }
+                _Outputs.clear();
+                _Backend.release();
+            }
+        });
+    }
+
+    private Output<S> find(S surface) {
+        for (Output<S> output : _Outputs) {
+            if (output.surface == surface) {
+                return output;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Frames announced by the input so far.
+     */
+    public long getAvailableCount() {
+        return _AvailableCount;
+    }
+
+    /**
+     * Frames actually latched and drawn.
+     */
+    public long getLatchedCount() {
+        return _LatchedCount;
+    }
+
+    /**
+     * Frames replaced by a newer one before the render thread got to them.
+     */
+    public long getSkippedCount() {
+        return _SkippedCount;
+    }
+
+    /**
+     * Latched frames that were not newer than the previous one.
+     */
+    public long getStaleCount() {
+        return _StaleCount;
+    }
+
+    /**
+     * Frames drawn to an output, or -1 if it isn't there.  Render executor only.
+     */
+    public long getDrawnCount(S surface) {
+        Output<S> output = find(surface);
+        return output != null ? output.drawnCount : -1;
+    }
+
+    /**
+     * Frames left out of an output by its minimum interval.  Render executor only.
+     */
+    public long getDecimatedCount(S surface) {
+        Output<S> output = find(surface);
+        return output != null ? output.decimatedCount : -1;
+    }
+
+    public String summary() {
+        return String.format("%d frames, %d latched, %d skipped, %d stale", _AvailableCount, _LatchedCount,
+                _SkippedCount, _StaleCount);
+    }
+}
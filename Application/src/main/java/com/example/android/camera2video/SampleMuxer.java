@@ -0,0 +1,29 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Container writer fed by {@link Encoder} with encoded H.264 samples.
+ * <p>
+ * Deliberately free of android.* types so implementations can be unit tested and benchmarked on
+ * a plain JVM.  The flag values match MediaCodec.BUFFER_FLAG_* so BufferInfo.flags can be
+ * passed straight through.
+ */
+public interface SampleMuxer extends SampleSink {
+    int FLAG_KEY_FRAME = 1;
+    int FLAG_CODEC_CONFIG = 2;
+    int FLAG_END_OF_STREAM = 4;
+
+    /**
+     * Declares the single video track.  sps and pps are the csd-0 / csd-1 buffers of the
+     * encoder output format, with or without an Annex-B start code.
+     */
+    void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) throws IOException;
+
+    void start() throws IOException;
+
+    void stop() throws IOException;
+
+    void release();
+}
@@ -0,0 +1,266 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded single-producer / single-consumer queue of encoded samples backed by pre-allocated
+ * direct buffers.
+ * <p>
+ * The producer (the MediaCodec callback) copies each sample into a free slot and can release the
+ * codec buffer immediately; the consumer ({@link SampleWriter}) drains filled slots in batches.
+ * When the ring is full the sample is dropped rather than blocking the codec, and everything up
+ * to the next key frame is dropped with it so the written stream stays decodable.
+ */
+public class SampleRing {
+    private final ByteBuffer[] _Slots;
+    private final long[] _PresentationTimeUs;
+    private final int[] _Flags;
+    private final long[] _OfferNs;
+    private volatile LatencyTracker _LatencyTracker;
+    private volatile PipelineClock _Clock = PipelineClock.SYSTEM;
+    private final AtomicReference<Runnable> _Listener = new AtomicReference<>();
+
+    private final ReentrantLock _Lock = new ReentrantLock();
+    private final Condition _NotEmpty = _Lock.newCondition();
+    // guarded by _Lock; slots in [_Tail, _Head) belong to the consumer, the rest to the producer
+    private long _Head;
+    private long _Tail;
+
+    private volatile int _HighWaterMark;
+    private volatile long _DroppedCount;
+    private volatile long _WrittenCount;
+    private volatile long _WrittenBytes;
+    private volatile long _GrowCount;
+    private boolean _WaitForKeyFrame;
+    private boolean _SkipToKeyFrame;
+
+    public SampleRing(int slotCount, int slotCapacity) {
+        _Slots = new ByteBuffer[slotCount];
+        _PresentationTimeUs = new long[slotCount];
+        _Flags = new int[slotCount];
+        _OfferNs = new long[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            _Slots[i] = ByteBuffer.allocateDirect(slotCapacity);
+        }
+    }
+
+    /**
+     * Reports, for every written sample, the time from offer() to the sink returning.
+     */
+    public void setLatencyTracker(LatencyTracker tracker) {
+        _LatencyTracker = tracker;
+    }
+
+    /**
+     * Where offer and write times for the latency tracker come from; System.nanoTime() unless
+     * the pipeline runs on a virtual clock.
+     */
+    public void setClock(PipelineClock clock) {
+        _Clock = clock;
+    }
+
+    /**
+     * Runs listener on the producer's thread after every sample that made it into the ring,
+     * so a consumer can be scheduled instead of waiting in {@link #await}.  Null removes it.
+     */
+    public void setListener(Runnable listener) {
+        _Listener.set(listener);
+    }
+
+    /**
+     * Removes listener if it is still the one set, so a consumer that has stopped can't remove
+     * the listener of the one that replaced it.
+     *
+     * @return whether it was removed
+     */
+    public boolean clearListener(Runnable listener) {
+        return _Listener.compareAndSet(listener, null);
+    }
+
+    public int getCapacity() {
+        return _Slots.length;
+    }
+
+    /**
+     * Number of samples waiting to be written.
+     */
+    public int getDepth() {
+        _Lock.lock();
+        try {
+            return (int) (_Head - _Tail);
+        } finally {
+            _Lock.unlock();
+        }
+    }
+
+    public int getHighWaterMark() {
+        return _HighWaterMark;
+    }
+
+    public long getDroppedCount() {
+        return _DroppedCount;
+    }
+
+    public long getWrittenCount() {
+        return _WrittenCount;
+    }
+
+    /**
+     * Sample bytes handed to the sink so far.
+     */
+    public long getWrittenBytes() {
+        return _WrittenBytes;
+    }
+
+    /**
+     * Number of times a slot had to be reallocated for a sample larger than its capacity.
+     */
+    public long getGrowCount() {
+        return _GrowCount;
+    }
+
+    /**
+     * Copies data (position to limit) into the ring.  Never blocks on the consumer.
+     *
+     * @return false if the sample was dropped
+     */
+    public boolean offer(ByteBuffer data, long presentationTimeUs, int flags) {
+        boolean key = (flags & SampleMuxer.FLAG_KEY_FRAME) != 0;
+        long head;
+        _Lock.lock();
+        try {
+            head = _Head;
+            if (_SkipToKeyFrame) {
+                if (!key) {
+                    return false;
+                }
+                _SkipToKeyFrame = false;
+            }
+            if (head - _Tail == _Slots.length || (_WaitForKeyFrame && !key)) {
+                _WaitForKeyFrame = true;
+                _DroppedCount++;
+                return false;
+            }
+            _WaitForKeyFrame = false;
+        } finally {
+            _Lock.unlock();
+        }
+
+        // the slot at head is owned by the producer until _Head is advanced
+        int index = (int) (head % _Slots.length);
+        ByteBuffer slot = _Slots[index];
+        if (slot.capacity() < data.remaining()) {
+            slot = _Slots[index] = ByteBuffer.allocateDirect(data.remaining());
+            _GrowCount++;
+        }
+        slot.clear();
+        slot.put(data.duplicate());
+        slot.flip();
+        _PresentationTimeUs[index] = presentationTimeUs;
+        _Flags[index] = flags;
+        _OfferNs[index] = _Clock.nowNs();
+
+        _Lock.lock();
+        try {
+            _Head = head + 1;
+            int depth = (int) (_Head - _Tail);
+            if (depth > _HighWaterMark) {
+                _HighWaterMark = depth;
+            }
+            _NotEmpty.signal();
+        } finally {
+            _Lock.unlock();
+        }
+        Runnable listener = _Listener.get();
+        if (listener != null) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * Drops everything offered from now on up to the next key frame, so whatever reads the
+     * ring next starts on a decodable sample.  Skipped samples are not counted as dropped.
+     */
+    public void skipToKeyFrame() {
+        _Lock.lock();
+        try {
+            _SkipToKeyFrame = true;
+        } finally {
+            _Lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMs for at least one sample to become available.
+     *
+     * @return the number of samples available
+     */
+    public int await(long timeoutMs) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        _Lock.lock();
+        try {
+            while (_Head == _Tail && remaining > 0) {
+                remaining = _NotEmpty.awaitNanos(remaining);
+            }
+            return (int) (_Head - _Tail);
+        } finally {
+            _Lock.unlock();
+        }
+    }
+
+    /**
+     * Writes up to maxBatch queued samples to sink and frees their slots.  Must only be called
+     * from the single consumer thread.
+     *
+     * @return the number of samples taken off the ring
+     */
+    public int drainTo(SampleSink sink, int maxBatch) throws IOException {
+        long tail;
+        int count;
+        _Lock.lock();
+        try {
+            tail = _Tail;
+            count = (int) Math.min(maxBatch, _Head - _Tail);
+        } finally {
+            _Lock.unlock();
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        LatencyTracker tracker = _LatencyTracker;
+        int written = 0;
+        long bytes = 0;
+        try {
+            for (; written < count; written++) {
+                int index = (int) ((tail + written) % _Slots.length);
+                ByteBuffer slot = _Slots[index];
+                slot.rewind();
+                int size = slot.remaining();
+                sink.writeSampleData(slot, _PresentationTimeUs[index], _Flags[index]);
+                bytes += size;
+                if (tracker != null) {
+                    tracker.onMuxed(_PresentationTimeUs[index], _OfferNs[index], _Clock.nowNs());
+                }
+            }
+        } finally {
+            // a failed sample is consumed too, otherwise it would be retried forever
+            int consumed = Math.min(count, written + 1);
+            _Lock.lock();
+            try {
+                _Tail = tail + consumed;
+            } finally {
+                _Lock.unlock();
+            }
+            _WrittenCount += written;
+            _WrittenBytes += bytes;
+        }
+        return count;
+    }
+}
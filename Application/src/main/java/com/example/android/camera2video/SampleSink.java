@@ -0,0 +1,15 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Anything that consumes encoded samples, e.g. a {@link SampleMuxer}.
+ */
+public interface SampleSink {
+    /**
+     * Writes one access unit from data's position to its limit.  The buffer is not retained
+     * after the call returns.
+     */
+    void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException;
+}
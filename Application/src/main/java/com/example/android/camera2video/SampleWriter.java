@@ -0,0 +1,148 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains a {@link SampleRing} into a {@link SampleSink} on its own executor, so storage latency
+ * never reaches the codec callback.
+ * <p>
+ * Each run drains one batch without blocking and re-queues itself while samples remain.  Once
+ * the ring is empty it returns, and the next sample offered queues it again, so an idle writer
+ * never holds an executor it shares with other pipelines' writers.  On a {@link ManualExecutor}
+ * every step is explicit.
+ */
+public class SampleWriter implements Runnable {
+    private static final int MAX_BATCH = 16;
+
+    private final SampleRing _Ring;
+    private final SampleSink _Sink;
+    private Executor _Executor;
+    private ThreadExecutor _OwnThread;
+    private CountDownLatch _Stopped;
+    private volatile boolean _Running;
+    // set once a stop has completed; runs still queued after that do nothing
+    private volatile boolean _Finished;
+    // set while a run is queued; whoever sets it queues the run
+    private final AtomicBoolean _Scheduled = new AtomicBoolean();
+    private final Runnable _Wake = new Runnable() {
+        @Override
+        public void run() {
+            schedule();
+        }
+    };
+    private volatile IOException _LastError;
+    private volatile long _ErrorCount;
+    private volatile long _BatchCount;
+
+    public SampleWriter(SampleRing ring, SampleSink sink) {
+        _Ring = ring;
+        _Sink = sink;
+    }
+
+    /**
+     * Starts on a thread of its own.
+     */
+    public void start() {
+        _OwnThread = new ThreadExecutor("SampleWriter");
+        start(_OwnThread);
+    }
+
+    /**
+     * Starts on executor, which it only occupies while there is something to write.
+     */
+    public void start(Executor executor) {
+        _Executor = executor;
+        _Stopped = new CountDownLatch(1);
+        _Finished = false;
+        _Running = true;
+        _Ring.setListener(_Wake);
+        schedule();
+    }
+
+    /**
+     * Lets the writer finish everything queued so far and then stop, without waiting.
+     */
+    public void requestStop() {
+        _Running = false;
+        schedule();
+    }
+
+    private void schedule() {
+        if (_Scheduled.compareAndSet(false, true)) {
+            _Executor.execute(this);
+        }
+    }
+
+    public boolean isStopped() {
+        return _Stopped == null || _Stopped.getCount() == 0;
+    }
+
+    /**
+     * Stops after everything queued so far has been written.  Must not be called from the
+     * writer's own executor.
+     */
+    public void stop() {
+        requestStop();
+        if (_Stopped == null) {
+            return;
+        }
+        try {
+            _Stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (_OwnThread != null) {
+            _OwnThread.quit();
+            _OwnThread = null;
+        }
+        _Stopped = null;
+    }
+
+    public IOException getLastError() {
+        return _LastError;
+    }
+
+    public long getErrorCount() {
+        return _ErrorCount;
+    }
+
+    public long getBatchCount() {
+        return _BatchCount;
+    }
+
+    @Override
+    public void run() {
+        // cleared before draining, so a sample offered from here on queues another run
+        _Scheduled.set(false);
+        if (_Finished) {
+            // queued by a stop request while the last run was draining; the ring and the sink
+            // may belong to a new writer by now
+            return;
+        }
+        drain();
+        if (_Ring.getDepth() > 0) {
+            schedule();
+        } else if (!_Running) {
+            _Finished = true;
+            _Ring.clearListener(_Wake);
+            CountDownLatch stopped = _Stopped;
+            if (stopped != null) {
+                stopped.countDown();
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            if (_Ring.drainTo(_Sink, MAX_BATCH) > 0) {
+                _BatchCount++;
+            }
+        } catch (IOException e) {
+            _LastError = e;
+            _ErrorCount++;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} that rolls over to a new output once a segment has reached a duration or
+ * size limit.  Splits only ever happen in front of a key frame, so every segment starts with an
+ * IDR and each sample lands in exactly one segment.
+ * <p>
+ * Closing the old file and opening the next one happens inside {@link #writeSampleData}, i.e. on
+ * the {@link SampleWriter} thread, never on the codec callback.
+ */
+public class SegmentingMuxer implements SampleMuxer {
+
+    /** Creates the muxer for each new segment. */
+    public interface Factory {
+        SampleMuxer create(int segmentIndex) throws IOException;
+    }
+
+    /** Notified on the writer thread whenever a segment has been finalized. */
+    public interface Listener {
+        void onSegmentClosed(int segmentIndex, long firstPtsUs, long lastPtsUs, long bytes);
+    }
+
+    private final Factory _Factory;
+    private final long _MaxDurationUs;
+    private final long _MaxBytes;
+    private Listener _Listener;
+
+    private int _Width;
+    private int _Height;
+    private ByteBuffer _Sps;
+    private ByteBuffer _Pps;
+
+    private SampleMuxer _Current;
+    private int _SegmentIndex = -1;
+    private long _SegmentFirstPtsUs;
+    private long _SegmentLastPtsUs;
+    private long _SegmentBytes;
+    private int _SegmentSamples;
+
+    /**
+     * @param maxDurationUs segment length limit, 0 for none
+     * @param maxBytes segment size limit, 0 for none
+     */
+    public SegmentingMuxer(Factory factory, long maxDurationUs, long maxBytes) {
+        _Factory = factory;
+        _MaxDurationUs = maxDurationUs;
+        _MaxBytes = maxBytes;
+    }
+
+    public void setListener(Listener listener) {
+        _Listener = listener;
+    }
+
+    public int getSegmentIndex() {
+        return _SegmentIndex;
+    }
+
+    @Override
+    public void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        _Width = width;
+        _Height = height;
+        _Sps = copyOf(sps);
+        _Pps = copyOf(pps);
+    }
+
+    @Override
+    public void start() throws IOException {
+        openSegment();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+        if ((flags & FLAG_KEY_FRAME) != 0 && _SegmentSamples > 0 && segmentFull(presentationTimeUs)) {
+            try {
+                closeSegment();
+            } finally {
+                openSegment();
+            }
+        }
+        if (_SegmentSamples == 0) {
+            _SegmentFirstPtsUs = presentationTimeUs;
+        }
+        int size = data.remaining();
+        _Current.writeSampleData(data, presentationTimeUs, flags);
+        _SegmentLastPtsUs = presentationTimeUs;
+        _SegmentBytes += size;
+        _SegmentSamples++;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (_Current != null) {
+            closeSegment();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (_Current != null) {
+            _Current.release();
+            _Current = null;
+        }
+    }
+
+    private boolean segmentFull(long presentationTimeUs) {
+        return (_MaxDurationUs > 0 && presentationTimeUs - _SegmentFirstPtsUs >= _MaxDurationUs)
+                || (_MaxBytes > 0 && _SegmentBytes >= _MaxBytes);
+    }
+
+    private void openSegment() throws IOException {
+        _SegmentIndex++;
+        _Current = _Factory.create(_SegmentIndex);
+        _Current.addVideoTrack(_Width, _Height, _Sps.duplicate(), _Pps.duplicate());
+        _Current.start();
+        _SegmentBytes = 0;
+        _SegmentSamples = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        SampleMuxer closing = _Current;
+        _Current = null;
+        try {
+            closing.stop();
+        } finally {
+            closing.release();
+        }
+        if (_Listener != null) {
+            _Listener.onSegmentClosed(_SegmentIndex, _SegmentFirstPtsUs, _SegmentLastPtsUs, _SegmentBytes);
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer src) {
+        ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+        copy.put(src.duplicate());
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Focus measure per frame: the mean squared luma gradient (horizontal plus vertical neighbour
+ * differences) on a grid of every step-th pixel.  Higher is sharper; the value only means
+ * something compared against other frames of the same scene, e.g. while focusing.
+ */
+public class SharpnessAnalyzer implements FrameAnalyzer {
+    private final int _Step;
+    private volatile double _Sharpness;
+    private long _TimestampNs = -1;
+
+    /**
+     * @param step sampling distance in pixels; 1 uses every pixel
+     */
+    public SharpnessAnalyzer(int step) {
+        _Step = Math.max(1, step);
+    }
+
+    @Override
+    public void analyze(YuvFrame frame) {
+        double sharpness = measure(frame, _Step);
+        synchronized (this) {
+            if (frame.getTimestampNs() >= _TimestampNs) {
+                _TimestampNs = frame.getTimestampNs();
+                _Sharpness = sharpness;
+            }
+        }
+    }
+
+    public static double measure(YuvFrame frame, int step) {
+        ByteBuffer luma = frame.getPlane(YuvFrame.Y);
+        int rowStride = frame.getRowStride(YuvFrame.Y);
+        int pixelStride = frame.getPixelStride(YuvFrame.Y);
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        long sum = 0;
+        int samples = 0;
+        for (int y = 0; y + 1 < height; y += step) {
+            int row = y * rowStride;
+            for (int x = 0; x + 1 < width; x += step) {
+                int i = row + x * pixelStride;
+                int center = luma.get(i) & 0xff;
+                int dx = (luma.get(i + pixelStride) & 0xff) - center;
+                int dy = (luma.get(i + rowStride) & 0xff) - center;
+                sum += dx * dx + dy * dy;
+                samples++;
+            }
+        }
+        return samples > 0 ? (double) sum / samples : 0;
+    }
+
+    /**
+     * Sharpness of the latest frame analyzed.
+     */
+    public double getSharpness() {
+        return _Sharpness;
+    }
+}
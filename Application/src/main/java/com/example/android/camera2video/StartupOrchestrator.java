@@ -0,0 +1,113 @@
+package com.example.android.camera2video;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the independent parts of startup at the same time and joins them without blocking a
+ * thread.
+ * <p>
+ * A step is either a task submitted to one of the pipeline threads ({@link #submit}) or an
+ * event some callback completes ({@link #expect}), such as the camera device opening or the
+ * preview surface becoming available.  {@link #whenAll} runs an action once all of its steps
+ * have succeeded, on the thread that action belongs to.  Every step marks its milestone in the
+ * {@link StartupTimeline} when it succeeds.
+ */
+public class StartupOrchestrator {
+    private final StartupTimeline _Timeline;
+
+    public StartupOrchestrator(StartupTimeline timeline) {
+        _Timeline = timeline;
+    }
+
+    public StartupTimeline getTimeline() {
+        return _Timeline;
+    }
+
+    /**
+     * A step completed from outside, e.g. by a framework callback.
+     */
+    public <T> StartupStep<T> expect(String milestone) {
+        StartupStep<T> step = new StartupStep<>(milestone);
+        markWhenDone(step);
+        return step;
+    }
+
+    /**
+     * Runs task on executor; its result or exception completes the step.
+     */
+    public <T> StartupStep<T> submit(String milestone, Executor executor, final Callable<T> task) {
+        final StartupStep<T> step = expect(milestone);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (step.isDone()) {
+                    return;
+                }
+                try {
+                    step.set(task.call());
+                } catch (Exception e) {
+                    step.fail(e);
+                }
+            }
+        });
+        return step;
+    }
+
+    /**
+     * Runs action on executor once every step in steps has succeeded.  If one fails, the
+     * returned step fails with its failure and action never runs.
+     */
+    public StartupStep<Void> whenAll(String milestone, final Executor executor, final Runnable action,
+                                     final StartupStep<?>... steps) {
+        final StartupStep<Void> result = expect(milestone);
+        final AtomicInteger pending = new AtomicInteger(steps.length);
+        final Runnable run = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    action.run();
+                    result.set(null);
+                } catch (RuntimeException e) {
+                    result.fail(e);
+                }
+            }
+        };
+        if (steps.length == 0) {
+            executor.execute(run);
+            return result;
+        }
+        for (final StartupStep<?> step : steps) {
+            step.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (!step.isSucceeded()) {
+                        result.fail(step.getFailure());
+                    } else if (pending.decrementAndGet() == 0 && !result.isDone()) {
+                        executor.execute(run);
+                    }
+                }
+            }, DIRECT);
+        }
+        return result;
+    }
+
+    private void markWhenDone(final StartupStep<?> step) {
+        step.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (step.isSucceeded()) {
+                    _Timeline.mark(step.getName());
+                }
+            }
+        }, DIRECT);
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,151 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A future completed either by a task or from a callback, with listeners that run on an
+ * executor once it is done.  See {@link StartupOrchestrator}.
+ */
+public class StartupStep<T> implements Future<T> {
+    private final String _Name;
+    private final List<Runnable> _Listeners = new ArrayList<>();
+    private boolean _Done;
+    private boolean _Cancelled;
+    private T _Value;
+    private Throwable _Failure;
+
+    public StartupStep(String name) {
+        _Name = name;
+    }
+
+    public String getName() {
+        return _Name;
+    }
+
+    /**
+     * @return false if the step was already done
+     */
+    public boolean set(T value) {
+        return complete(value, null, false);
+    }
+
+    public boolean fail(Throwable failure) {
+        return complete(null, failure, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, new CancellationException(_Name + " cancelled"), true);
+    }
+
+    private boolean complete(T value, Throwable failure, boolean cancelled) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (_Done) {
+                return false;
+            }
+            _Done = true;
+            _Value = value;
+            _Failure = failure;
+            _Cancelled = cancelled;
+            notifyAll();
+            listeners = new ArrayList<>(_Listeners);
+            _Listeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * Runs listener on executor once the step is done, right away if it already is.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable dispatch = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (this) {
+            if (!_Done) {
+                _Listeners.add(dispatch);
+                return;
+            }
+        }
+        dispatch.run();
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return _Cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return _Done;
+    }
+
+    /**
+     * Done without failure.
+     */
+    public synchronized boolean isSucceeded() {
+        return _Done && _Failure == null;
+    }
+
+    /**
+     * The value of a step that has succeeded, for listeners that know it did.
+     *
+     * @throws IllegalStateException if it hasn't
+     */
+    public synchronized T getNow() {
+        if (!_Done || _Failure != null) {
+            throw new IllegalStateException(_Name + (_Done ? " failed" : " not done"));
+        }
+        return _Value;
+    }
+
+    public synchronized Throwable getFailure() {
+        return _Failure;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!_Done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!_Done) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                throw new TimeoutException(_Name);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (_Cancelled) {
+            throw (CancellationException) _Failure;
+        }
+        if (_Failure != null) {
+            throw new ExecutionException(_Name + " failed", _Failure);
+        }
+        return _Value;
+    }
+}
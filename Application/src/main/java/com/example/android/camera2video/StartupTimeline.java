@@ -0,0 +1,107 @@
+package com.example.android.camera2video;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named milestones of one app startup, in nanoseconds since the origin (activity create).
+ * <p>
+ * Each milestone keeps the first time it was marked, so callbacks that repeat (preview frames)
+ * can mark unconditionally.  {@link #appendTo} adds the timeline as one line to a log kept across
+ * releases, so time-to-first-frame can be compared between versions.  Thread safe.
+ */
+public class StartupTimeline {
+    public static final String ACTIVITY_CREATE = "activity-create";
+    public static final String CAMERA_OPEN = "camera-open";
+    public static final String SURFACE_READY = "surface-ready";
+    public static final String ENCODER_READY = "encoder-ready";
+    public static final String SESSION_START = "session-start";
+    public static final String FIRST_PREVIEW_FRAME = "first-preview-frame";
+
+    private final long _OriginNs;
+    private final Map<String, Long> _Marks = new LinkedHashMap<>();
+
+    public StartupTimeline() {
+        this(System.nanoTime());
+    }
+
+    public StartupTimeline(long originNs) {
+        _OriginNs = originNs;
+    }
+
+    public boolean mark(String milestone) {
+        return mark(milestone, System.nanoTime());
+    }
+
+    /**
+     * @return false if the milestone was already marked; the first time stays
+     */
+    public synchronized boolean mark(String milestone, long nowNs) {
+        if (_Marks.containsKey(milestone)) {
+            return false;
+        }
+        _Marks.put(milestone, nowNs - _OriginNs);
+        return true;
+    }
+
+    /**
+     * @return nanoseconds from the origin to milestone, or -1 if it wasn't reached
+     */
+    public synchronized long getElapsedNs(String milestone) {
+        Long elapsed = _Marks.get(milestone);
+        return elapsed != null ? elapsed : -1;
+    }
+
+    /**
+     * Milestones in the order they were reached.
+     */
+    public synchronized List<String> getMilestones() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(_Marks.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        List<String> names = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            names.add(entry.getKey());
+        }
+        return names;
+    }
+
+    /**
+     * "milestone=ms" pairs in the order they were reached, space separated.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder();
+        for (String milestone : getMilestones()) {
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            out.append(milestone).append('=').append(String.format("%.1f", _Marks.get(milestone) / 1e6));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends "release milestone=ms ..." as one line to file.
+     */
+    public void appendTo(File file, String release) throws IOException {
+        Writer out = new FileWriter(file, true);
+        try {
+            out.write(release + " " + toString() + "\n");
+        } finally {
+            out.close();
+        }
+    }
+}
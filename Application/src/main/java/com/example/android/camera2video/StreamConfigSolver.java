@@ -0,0 +1,279 @@
+package com.example.android.camera2video;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks one consistent camera, preview and encoder configuration from a device's stream
+ * capabilities.
+ * <p>
+ * The encoder is configured at exactly the camera's output size for the encoder surface, so
+ * no scaling pass is needed between them.  Candidates must match the requested aspect ratio
+ * and have a minimum frame duration short enough for the frame rate; among those the size
+ * closest to the requested one wins, with a penalty for going below it.  The preview is the
+ * smallest size of the same aspect ratio that covers the view at the same frame rate, since
+ * both streams run in one session and the slower one sets the pace.
+ * <p>
+ * Pure Java.  Capabilities come either from the device (see Camera2Wrapper) or from a dump in
+ * the format of {@link #toDump}, which Camera2Wrapper logs, so tests can replay real devices.
+ */
+public class StreamConfigSolver {
+    // relative aspect ratio error that still counts as the same ratio (1080 vs 1088 rows)
+    private static final double ASPECT_TOLERANCE = 0.01;
+    // going below the requested area costs this much more than going above
+    private static final double BELOW_PENALTY = 2.0;
+
+    /**
+     * An output size and its minimum frame duration (0 if unknown).
+     */
+    public static final class StreamSize {
+        public final int width;
+        public final int height;
+        public final long minFrameDurationNs;
+
+        public StreamSize(int width, int height, long minFrameDurationNs) {
+            this.width = width;
+            this.height = height;
+            this.minFrameDurationNs = minFrameDurationNs;
+        }
+
+        boolean supports(int frameRate) {
+            return minFrameDurationNs <= 1000000000L / frameRate;
+        }
+
+        float getMaxFrameRate() {
+            return minFrameDurationNs > 0 ? 1e9f / minFrameDurationNs : Float.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + minFrameDurationNs;
+        }
+    }
+
+    /**
+     * A solved configuration.  The camera output for the encoder and the encoder input are both
+     * video size.
+     */
+    public static final class Result {
+        private final StreamSize _Video;
+        private final StreamSize _Preview;
+        private final int _FrameRate;
+        private final boolean _MeetsFrameRate;
+
+        Result(StreamSize video, StreamSize preview, int frameRate, boolean meetsFrameRate) {
+            _Video = video;
+            _Preview = preview;
+            _FrameRate = frameRate;
+            _MeetsFrameRate = meetsFrameRate;
+        }
+
+        public int getVideoWidth() {
+            return _Video.width;
+        }
+
+        public int getVideoHeight() {
+            return _Video.height;
+        }
+
+        public int getPreviewWidth() {
+            return _Preview.width;
+        }
+
+        public int getPreviewHeight() {
+            return _Preview.height;
+        }
+
+        /**
+         * The frame rate both streams can run at together: the request, or less if nothing
+         * could meet it.
+         */
+        public int getFrameRate() {
+            return _FrameRate;
+        }
+
+        public boolean meetsFrameRate() {
+            return _MeetsFrameRate;
+        }
+
+        @Override
+        public String toString() {
+            return "video " + _Video.width + "x" + _Video.height + ", preview " + _Preview.width
+                    + "x" + _Preview.height + " at " + _FrameRate + " fps"
+                    + (_MeetsFrameRate ? "" : " (below request)");
+        }
+    }
+
+    private final List<StreamSize> _VideoSizes;
+    private final List<StreamSize> _PreviewSizes;
+
+    /**
+     * @param videoSizes sizes the camera can output to an encoder surface
+     * @param previewSizes sizes the camera can output to a SurfaceTexture
+     */
+    public StreamConfigSolver(List<StreamSize> videoSizes, List<StreamSize> previewSizes) {
+        if (videoSizes.isEmpty() || previewSizes.isEmpty()) {
+            throw new IllegalArgumentException("no output sizes");
+        }
+        _VideoSizes = new ArrayList<>(videoSizes);
+        _PreviewSizes = new ArrayList<>(previewSizes);
+    }
+
+    public List<StreamSize> getVideoSizes() {
+        return Collections.unmodifiableList(_VideoSizes);
+    }
+
+    public List<StreamSize> getPreviewSizes() {
+        return Collections.unmodifiableList(_PreviewSizes);
+    }
+
+    /**
+     * @param width requested video width; with height it also sets the aspect ratio
+     * @param viewWidth size of the preview view, 0 if not known yet
+     */
+    public Result solve(int width, int height, int frameRate, int viewWidth, int viewHeight) {
+        StreamSize video = chooseVideo(width, height, frameRate);
+        boolean meets = video.supports(frameRate);
+        int rate = meets ? frameRate : (int) video.getMaxFrameRate();
+        StreamSize preview = choosePreview(video, rate, viewWidth, viewHeight);
+        if (!preview.supports(rate)) {
+            // the preview sets the pace of the whole session
+            rate = Math.min(rate, (int) preview.getMaxFrameRate());
+            meets = false;
+        }
+        return new Result(video, preview, rate, meets);
+    }
+
+    private StreamSize chooseVideo(int width, int height, int frameRate) {
+        StreamSize best = null;
+        double bestCost = Double.MAX_VALUE;
+        // first pass: right aspect ratio and fast enough; second: fast enough; third: anything
+        for (int pass = 0; pass < 3 && best == null; pass++) {
+            for (StreamSize size : _VideoSizes) {
+                if (pass < 2 && !size.supports(frameRate)) {
+                    continue;
+                }
+                double cost = sizeCost(size, width, height);
+                if (pass > 0) {
+                    cost += aspectError(size, width, height) * 100;
+                } else if (aspectError(size, width, height) > ASPECT_TOLERANCE) {
+                    continue;
+                }
+                if (pass == 2) {
+                    // too slow for the request anyway: prefer whatever runs fastest
+                    cost += size.minFrameDurationNs / 1e6;
+                }
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = size;
+                }
+            }
+        }
+        return best;
+    }
+
+    private StreamSize choosePreview(StreamSize video, int frameRate, int viewWidth, int viewHeight) {
+        int viewLong = Math.max(viewWidth, viewHeight);
+        int viewShort = Math.min(viewWidth, viewHeight);
+        StreamSize smallestCovering = null;
+        StreamSize largest = null;
+        for (StreamSize size : _PreviewSizes) {
+            if (aspectError(size, video.width, video.height) > ASPECT_TOLERANCE || !size.supports(frameRate)) {
+                continue;
+            }
+            // no point in a preview larger than the video itself
+            if (size.width > video.width || size.height > video.height) {
+                continue;
+            }
+            boolean covers = Math.max(size.width, size.height) >= viewLong
+                    && Math.min(size.width, size.height) >= viewShort;
+            if (covers && (smallestCovering == null || area(size) < area(smallestCovering))) {
+                smallestCovering = size;
+            }
+            if (largest == null || area(size) > area(largest)) {
+                largest = size;
+            }
+        }
+        if (smallestCovering != null) {
+            return smallestCovering;
+        }
+        if (largest != null) {
+            return largest;
+        }
+        // no matching preview size: take the closest ratio, fastest first
+        StreamSize best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (StreamSize size : _PreviewSizes) {
+            double cost = aspectError(size, video.width, video.height) * 100 + sizeCost(size, video.width, video.height)
+                    + (size.supports(frameRate) ? 0 : 1000);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    private static double sizeCost(StreamSize size, int width, int height) {
+        double ratio = Math.log((double) area(size) / ((long) width * height));
+        return ratio < 0 ? -ratio * BELOW_PENALTY : ratio;
+    }
+
+    private static double aspectError(StreamSize size, int width, int height) {
+        return Math.abs((double) size.width * height / ((double) size.height * width) - 1);
+    }
+
+    private static long area(StreamSize size) {
+        return (long) size.width * size.height;
+    }
+
+    /**
+     * Two lines, "video:" and "preview:", each followed by WIDTHxHEIGHT@MIN_FRAME_DURATION_NS
+     * entries.
+     */
+    public String toDump() {
+        StringBuilder out = new StringBuilder("video:");
+        for (StreamSize size : _VideoSizes) {
+            out.append(' ').append(size);
+        }
+        out.append("\npreview:");
+        for (StreamSize size : _PreviewSizes) {
+            out.append(' ').append(size);
+        }
+        return out.append('\n').toString();
+    }
+
+    /**
+     * Reads the format written by {@link #toDump}.
+     */
+    public static StreamConfigSolver fromDump(String dump) {
+        List<StreamSize> video = new ArrayList<>();
+        List<StreamSize> preview = new ArrayList<>();
+        List<StreamSize> target = null;
+        for (String token : dump.trim().split("\\s+")) {
+            if (token.equals("video:")) {
+                target = video;
+            } else if (token.equals("preview:")) {
+                target = preview;
+            } else if (target == null) {
+                throw new IllegalArgumentException("size before a video: or preview: tag: " + token);
+            } else {
+                target.add(parseSize(token));
+            }
+        }
+        return new StreamConfigSolver(video, preview);
+    }
+
+    private static StreamSize parseSize(String token) {
+        int x = token.indexOf('x');
+        int at = token.indexOf('@');
+        if (x < 0) {
+            throw new IllegalArgumentException("bad size " + token);
+        }
+        int width = Integer.parseInt(token.substring(0, x));
+        int height = Integer.parseInt(token.substring(x + 1, at < 0 ? token.length() : at));
+        long duration = at < 0 ? 0 : Long.parseLong(token.substring(at + 1));
+        return new StreamSize(width, height, duration);
+    }
+}
@@ -0,0 +1,374 @@
+package com.example.android.camera2video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Produces YUV test pictures on the CPU with exact timestamps, to load the pipeline without a
+ * camera or GL.
+ * <p>
+ * Frame n is a function of n alone: vertical bars moving sideways, hashed noise on top, and n
+ * written as 32 black and white cells along the top edge, which {@link #readCounter} reads
+ * back.  Its timestamp is start + n / frameRate, computed from n so it never drifts.  Frames
+ * are drawn into whatever frame the {@link Target} hands out, in any layout.
+ * <p>
+ * {@link #run} either produces as fast as the target takes frames, for throughput ceilings, or
+ * paces them in real time against absolute deadlines on a {@link PipelineClock}, recording how
+ * late each frame went out.
+ */
+public class SyntheticFrameSource {
+    private static final int BARS = 8;
+    private static final int COUNTER_BITS = 32;
+    private static final int BLACK = 16;
+    private static final int WHITE = 235;
+
+    /**
+     * Where frames go: the run draws into the frame obtain() returns and hands it to submit().
+     */
+    public interface Target {
+        /**
+         * A frame of the source's size to draw the next picture into, or null to stop.
+         */
+        YuvFrame obtain() throws InterruptedException;
+
+        void submit(YuvFrame frame) throws IOException;
+    }
+
+    private final int _Width;
+    private final int _Height;
+    private final int _FrameRate;
+    private long _StartNs;
+    private int _Noise = 12;
+    private int _BarSpeed = 4;
+    private PipelineClock _Clock = PipelineClock.SYSTEM;
+    private final int[] _Bars;
+    private final byte[] _Row;
+
+    private final LatencyHistogram _Lateness = new LatencyHistogram();
+    private volatile long _ProducedCount;
+    private volatile long _ElapsedNs;
+
+    public SyntheticFrameSource(int width, int height, int frameRate) {
+        if (width < 2 * COUNTER_BITS || height < 8) {
+            throw new IllegalArgumentException(width + "x" + height + " is too small for the counter");
+        }
+        _Width = width;
+        _Height = height;
+        _FrameRate = frameRate;
+        _Bars = new int[width];
+        _Row = new byte[width];
+    }
+
+    /**
+     * Timestamp of frame 0.
+     */
+    public void setStartNs(long startNs) {
+        _StartNs = startNs;
+    }
+
+    /**
+     * Largest luma offset of the noise; 0 draws clean bars.
+     */
+    public void setNoise(int amplitude) {
+        _Noise = amplitude;
+    }
+
+    /**
+     * Pixels the bars move per frame.
+     */
+    public void setBarSpeed(int pixelsPerFrame) {
+        _BarSpeed = pixelsPerFrame;
+    }
+
+    public void setClock(PipelineClock clock) {
+        _Clock = clock;
+    }
+
+    public int getWidth() {
+        return _Width;
+    }
+
+    public int getHeight() {
+        return _Height;
+    }
+
+    public long getTimestampNs(long index) {
+        return _StartNs + index * 1000000000L / _FrameRate;
+    }
+
+    /**
+     * Draws frame index into frame and sets its timestamp.  One thread at a time: the row
+     * scratch is shared.
+     */
+    public void draw(YuvFrame frame, long index) {
+        if (frame.getWidth() != _Width || frame.getHeight() != _Height) {
+            throw new IllegalArgumentException("frame is " + frame.getWidth() + "x" + frame.getHeight()
+                    + ", source " + _Width + "x" + _Height);
+        }
+        frame.set(_Width, _Height, getTimestampNs(index));
+        // everything but the noise only varies along x, so work out one row of bars per frame
+        int shift = (int) (index * _BarSpeed % _Width);
+        int barWidth = (_Width + BARS - 1) / BARS;
+        for (int x = 0; x < _Width; x++) {
+            _Bars[x] = (x + _Width - shift) % _Width / barWidth;
+        }
+        int counterHeight = counterHeight(_Height);
+        int cell = counterCell(_Width);
+        for (int x = 0; x < _Width; x++) {
+            int bit = x / cell;
+            boolean set = bit < COUNTER_BITS && (index >>> (COUNTER_BITS - 1 - bit) & 1) != 0;
+            _Row[x] = (byte) (set ? WHITE : BLACK);
+        }
+        for (int y = 0; y < counterHeight; y++) {
+            putRow(frame, y, _Row);
+        }
+        int seed = (int) index * 0x27d4eb2d;
+        int span = 2 * _Noise + 1;
+        for (int y = counterHeight; y < _Height; y++) {
+            int rowSeed = y * 0x5bd1e995 ^ seed;
+            for (int x = 0; x < _Width; x++) {
+                int value = 32 + _Bars[x] * 24;
+                if (_Noise > 0) {
+                    int h = x * 0x1f1f1f1f ^ rowSeed;
+                    h ^= h >>> 15;
+                    h *= 0x2c1b3c6d;
+                    h ^= h >>> 12;
+                    value += ((h >>> 16) * span >>> 16) - _Noise;
+                }
+                // never 0, so luma bytes can stand in for slice data
+                _Row[x] = (byte) (value < 1 ? 1 : value > 255 ? 255 : value);
+            }
+            putRow(frame, y, _Row);
+        }
+        int chromaWidth = (_Width + 1) / 2;
+        int chromaHeight = (_Height + 1) / 2;
+        for (int plane = YuvFrame.U; plane <= YuvFrame.V; plane++) {
+            ByteBuffer chroma = frame.getPlane(plane);
+            int stride = frame.getRowStride(plane);
+            int step = frame.getPixelStride(plane);
+            int sign = plane == YuvFrame.U ? 1 : -1;
+            for (int y = 0; y < chromaHeight; y++) {
+                int i = y * stride;
+                boolean counter = 2 * y < counterHeight;
+                for (int x = 0; x < chromaWidth; x++) {
+                    chroma.put(i, (byte) (counter ? 128 : 128 + sign * (_Bars[2 * x] - BARS / 2) * 12));
+                    i += step;
+                }
+            }
+        }
+    }
+
+    private static void putRow(YuvFrame frame, int y, byte[] row) {
+        ByteBuffer luma = frame.getPlane(YuvFrame.Y);
+        int pixelStride = frame.getPixelStride(YuvFrame.Y);
+        int i = y * frame.getRowStride(YuvFrame.Y);
+        if (pixelStride == 1) {
+            ByteBuffer out = luma.duplicate();
+            out.position(i);
+            out.put(row);
+            return;
+        }
+        for (byte value : row) {
+            luma.put(i, value);
+            i += pixelStride;
+        }
+    }
+
+    /**
+     * The frame number drawn into frame's counter, modulo 2^32.
+     */
+    public static long readCounter(YuvFrame frame) {
+        int cell = counterCell(frame.getWidth());
+        int y = counterHeight(frame.getHeight()) / 2;
+        long value = 0;
+        for (int bit = 0; bit < COUNTER_BITS; bit++) {
+            value = value << 1 | (frame.getLuma(bit * cell + cell / 2, y) > 128 ? 1 : 0);
+        }
+        return value;
+    }
+
+    private static int counterCell(int width) {
+        return Math.min(16, width / COUNTER_BITS);
+    }
+
+    private static int counterHeight(int height) {
+        return Math.min(16, height / 4) & ~1;
+    }
+
+    /**
+     * Produces frames 0 to count - 1, or until the target returns no frame.
+     *
+     * @param realTime submit each frame no earlier than its timestamp after the start, rather
+     *                 than as fast as the target takes them
+     * @return the frames produced
+     */
+    public long run(Target target, long count, boolean realTime) throws InterruptedException, IOException {
+        long startNs = _Clock.nowNs();
+        long produced = 0;
+        try {
+            for (long index = 0; index < count; index++) {
+                YuvFrame frame = target.obtain();
+                if (frame == null) {
+                    break;
+                }
+                draw(frame, index);
+                if (realTime) {
+                    long dueNs = startNs + getTimestampNs(index) - _StartNs;
+                    _Clock.sleepUntilNs(dueNs);
+                    _Lateness.record((_Clock.nowNs() - dueNs) / 1000);
+                }
+                target.submit(frame);
+                produced++;
+                _ProducedCount++;
+            }
+        } finally {
+            _ElapsedNs = _Clock.nowNs() - startNs;
+        }
+        return produced;
+    }
+
+    public long getProducedCount() {
+        return _ProducedCount;
+    }
+
+    /**
+     * How far after its deadline each real-time frame was submitted, in microseconds.
+     */
+    public LatencyHistogram getLateness() {
+        return _Lateness;
+    }
+
+    /**
+     * Frames per second the last run achieved.
+     */
+    public double getAchievedFrameRate(long frames) {
+        return _ElapsedNs > 0 ? frames * 1e9 / _ElapsedNs : 0;
+    }
+
+    public String summary() {
+        LatencyHistogram.Snapshot lateness = _Lateness.snapshot();
+        return String.format("%dx%d at %d fps, %d produced, lateness p50 %d us p99 %d us",
+                _Width, _Height, _FrameRate, _ProducedCount, lateness.getPercentile(50), lateness.getPercentile(99));
+    }
+
+    /**
+     * Feeds a buffer-input encoder; stops when the queue has no frame within timeoutMs.
+     */
+    public static Target toQueue(final InputFrameQueue queue, final long timeoutMs) {
+        return new Target() {
+            @Override
+            public YuvFrame obtain() throws InterruptedException {
+                return queue.obtain(timeoutMs);
+            }
+
+            @Override
+            public void submit(YuvFrame frame) {
+                queue.queue(frame);
+            }
+        };
+    }
+
+    /**
+     * Runs analyzers on the calling thread, reusing frame.
+     */
+    public static Target toAnalyzers(final YuvFrame frame, final FrameAnalyzer... analyzers) {
+        return new Target() {
+            @Override
+            public YuvFrame obtain() {
+                return frame;
+            }
+
+            @Override
+            public void submit(YuvFrame frame) {
+                for (FrameAnalyzer analyzer : analyzers) {
+                    analyzer.analyze(frame);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stands in for an encoder: every frame becomes a sampleBytes Annex-B access unit, an IDR
+     * slice every gopFrames and non-IDR slices between, written to sink with the frame's
+     * timestamp.  The slice payload is the top of the luma plane, which never holds a zero
+     * byte, so no start code can form inside it.
+     */
+    public static Target toSamples(final YuvFrame frame, final SampleSink sink, final int sampleBytes,
+                                   final int gopFrames) {
+        final ByteBuffer luma = frame.getPlane(YuvFrame.Y).duplicate();
+        final ByteBuffer sample = ByteBuffer.allocateDirect(sampleBytes);
+        final int payload = Math.min(sampleBytes - 5, frame.getWidth() * (frame.getHeight() / 2));
+        return new Target() {
+            private long _Index;
+
+            @Override
+            public YuvFrame obtain() {
+                return frame;
+            }
+
+            @Override
+            public void submit(YuvFrame frame) throws IOException {
+                boolean key = _Index++ % gopFrames == 0;
+                sample.clear();
+                sample.putInt(1).put((byte) (key ? 0x65 : 0x41));
+                // row by row, in case the plane is padded
+                int width = frame.getWidth();
+                int rowStride = frame.getRowStride(YuvFrame.Y);
+                for (int y = 0, left = payload; left > 0; y++, left -= width) {
+                    luma.limit(y * rowStride + Math.min(width, left)).position(y * rowStride);
+                    sample.put(luma);
+                }
+                sample.flip();
+                sink.writeSampleData(sample, frame.getTimestampNs() / 1000, key ? SampleMuxer.FLAG_KEY_FRAME : 0);
+            }
+        };
+    }
+
+    /**
+     * Frames for an {@link AnalysisTap}: obtain() waits for a free one, submit() offers it to
+     * the tap and the tap's close() gives it back.  Create the tap with the pool as its host,
+     * then {@link #setTap}.
+     */
+    public static class FramePool implements Target, AnalysisTap.Host<YuvFrame> {
+        private final ArrayDeque<YuvFrame> _Free = new ArrayDeque<>();
+        private AnalysisTap<YuvFrame> _Tap;
+
+        public FramePool(int width, int height, int count, boolean semiPlanar) {
+            for (int i = 0; i < count; i++) {
+                _Free.add(YuvFrame.allocatePacked(width, height, semiPlanar, true));
+            }
+        }
+
+        public void setTap(AnalysisTap<YuvFrame> tap) {
+            _Tap = tap;
+        }
+
+        @Override
+        public synchronized YuvFrame obtain() throws InterruptedException {
+            while (_Free.isEmpty()) {
+                wait();
+            }
+            return _Free.poll();
+        }
+
+        @Override
+        public void submit(YuvFrame frame) {
+            _Tap.offer(frame);
+        }
+
+        @Override
+        public void wrap(YuvFrame image, YuvFrame frame) {
+            frame.set(image.getWidth(), image.getHeight(), image.getTimestampNs());
+            for (int i = YuvFrame.Y; i <= YuvFrame.V; i++) {
+                frame.setPlane(i, image.getPlane(i), image.getRowStride(i), image.getPixelStride(i));
+            }
+        }
+
+        @Override
+        public synchronized void close(YuvFrame image) {
+            _Free.add(image);
+            notifyAll();
+        }
+    }
+}
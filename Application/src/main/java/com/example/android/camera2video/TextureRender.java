@@ -0,0 +1,200 @@
+package com.example.android.camera2video;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Draws an external (camera) texture as a full-viewport quad with OpenGL ES 2.0.  Taken from
+ * STextureRender in CameraToMpegTest; the transform matrix is passed in instead of read from
+ * the SurfaceTexture, so one latched frame can be drawn to several surfaces.
+ */
+public class TextureRender {
+    private static final String TAG = "TextureRender";
+
+    private static final int FLOAT_SIZE_BYTES = 4;
+    private static final int TRIANGLE_VERTICES_DATA_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES;
+    private static final int TRIANGLE_VERTICES_DATA_POS_OFFSET = 0;
+    private static final int TRIANGLE_VERTICES_DATA_UV_OFFSET = 3;
+    private static final float[] TRIANGLE_VERTICES_DATA = {
+            // X, Y, Z, U, V
+            -1.0f, -1.0f, 0, 0.f, 0.f,
+            1.0f, -1.0f, 0, 1.f, 0.f,
+            -1.0f,  1.0f, 0, 0.f, 1.f,
+            1.0f,  1.0f, 0, 1.f, 1.f,
+    };
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "uniform mat4 uSTMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "    gl_Position = uMVPMatrix * aPosition;\n" +
+                    "    vTextureCoord = (uSTMatrix * aTextureCoord).xy;\n" +
+                    "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+                    "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform samplerExternalOES sTexture;\n" +
+                    "void main() {\n" +
+                    "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+                    "}\n";
+
+    private final FloatBuffer _TriangleVertices;
+    private final float[] _MVPMatrix = new float[16];
+
+    private int _Program;
+    private int _TextureId = -1;
+    private int _MVPMatrixHandle;
+    private int _STMatrixHandle;
+    private int _PositionHandle;
+    private int _TextureHandle;
+
+    public TextureRender() {
+        _TriangleVertices = ByteBuffer.allocateDirect(TRIANGLE_VERTICES_DATA.length * FLOAT_SIZE_BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        _TriangleVertices.put(TRIANGLE_VERTICES_DATA).position(0);
+        Matrix.setIdentityM(_MVPMatrix, 0);
+    }
+
+    public int getTextureId() {
+        return _TextureId;
+    }
+
+    /**
+     * Builds the program and the texture.  Call with an EGL context current.
+     */
+    public void surfaceCreated() {
+        _Program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        if (_Program == 0) {
+            throw new RuntimeException("failed creating program");
+        }
+        _PositionHandle = GLES20.glGetAttribLocation(_Program, "aPosition");
+        checkLocation(_PositionHandle, "aPosition");
+        _TextureHandle = GLES20.glGetAttribLocation(_Program, "aTextureCoord");
+        checkLocation(_TextureHandle, "aTextureCoord");
+        _MVPMatrixHandle = GLES20.glGetUniformLocation(_Program, "uMVPMatrix");
+        checkLocation(_MVPMatrixHandle, "uMVPMatrix");
+        _STMatrixHandle = GLES20.glGetUniformLocation(_Program, "uSTMatrix");
+        checkLocation(_STMatrixHandle, "uSTMatrix");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        _TextureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, _TextureId);
+        checkGlError("glBindTexture");
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        checkGlError("glTexParameter");
+    }
+
+    /**
+     * Draws the texture into a viewport of width x height on the current surface.
+     *
+     * @param stMatrix the SurfaceTexture's transform matrix for the latched frame
+     */
+    public void drawFrame(float[] stMatrix, int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(_Program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, _TextureId);
+
+        _TriangleVertices.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
+        GLES20.glVertexAttribPointer(_PositionHandle, 3, GLES20.GL_FLOAT, false,
+                TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _TriangleVertices);
+        GLES20.glEnableVertexAttribArray(_PositionHandle);
+        _TriangleVertices.position(TRIANGLE_VERTICES_DATA_UV_OFFSET);
+        GLES20.glVertexAttribPointer(_TextureHandle, 2, GLES20.GL_FLOAT, false,
+                TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _TriangleVertices);
+        GLES20.glEnableVertexAttribArray(_TextureHandle);
+
+        GLES20.glUniformMatrix4fv(_MVPMatrixHandle, 1, false, _MVPMatrix, 0);
+        GLES20.glUniformMatrix4fv(_STMatrixHandle, 1, false, stMatrix, 0);
+        // the quad covers the viewport, so there is nothing to clear
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        checkGlError("glDrawArrays");
+    }
+
+    public void release() {
+        if (_Program != 0) {
+            GLES20.glDeleteProgram(_Program);
+            _Program = 0;
+        }
+        if (_TextureId >= 0) {
+            GLES20.glDeleteTextures(1, new int[]{_TextureId}, 0);
+            _TextureId = -1;
+        }
+    }
+
+    private static int loadShader(int shaderType, String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        checkGlError("glCreateShader type=" + shaderType);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            Log.e(TAG, "Could not compile shader " + shaderType + ": " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            shader = 0;
+        }
+        return shader;
+    }
+
+    private static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+        int pixelShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (pixelShader == 0) {
+            return 0;
+        }
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            Log.e(TAG, "Could not create program");
+            return 0;
+        }
+        GLES20.glAttachShader(program, vertexShader);
+        checkGlError("glAttachShader");
+        GLES20.glAttachShader(program, pixelShader);
+        checkGlError("glAttachShader");
+        GLES20.glLinkProgram(program);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.e(TAG, "Could not link program: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+        return program;
+    }
+
+    public static void checkGlError(String op) {
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            throw new RuntimeException(op + ": glError " + error);
+        }
+    }
+
+    private static void checkLocation(int location, String label) {
+        if (location < 0) {
+            throw new RuntimeException("Unable to locate '" + label + "' in program");
+        }
+    }
+}
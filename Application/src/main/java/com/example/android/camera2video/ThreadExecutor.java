@@ -0,0 +1,66 @@
+package com.example.android.camera2video;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link PipelineExecutor} backed by one plain Java thread.  Used for blocking work such as
+ * file writes, where a looper would gain nothing.
+ */
+public class ThreadExecutor implements PipelineExecutor, Runnable {
+    private final BlockingQueue<Runnable> _Queue = new LinkedBlockingQueue<>();
+    private final Thread _Thread;
+    private volatile boolean _Quit;
+
+    public ThreadExecutor(String name) {
+        _Thread = new Thread(this, name);
+        _Thread.start();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        // checked and queued under the same lock as quit(), so once the thread sees the quit
+        // nothing can be added behind its back: every task either runs or is rejected
+        synchronized (this) {
+            if (_Quit) {
+                throw new RejectedExecutionException(_Thread.getName() + " has quit");
+            }
+            _Queue.add(task);
+        }
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == _Thread;
+    }
+
+    @Override
+    public synchronized void quit() {
+        _Quit = true;
+        // wakes the thread up to notice
+        _Queue.add(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    /**
+     * Waits for the thread to finish after {@link #quit}.
+     */
+    public void join() throws InterruptedException {
+        _Thread.join();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!_Quit || !_Queue.isEmpty()) {
+                _Queue.take().run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.camera2video;
+
+import java.util.List;
+
+/**
+ * The camera device and its capture session, cut down to what recording needs, so the same
+ * {@link CameraDriver} runs against Camera2 on a device and against {@link FakeCamera} on the
+ * JVM.
+ * <p>
+ * Calls may complete asynchronously; results come back through the {@link Callback} passed to
+ * {@link #open}, on the camera's own thread.  S is the output type, a Surface on Android.
+ */
+public interface VideoCamera<S> {
+
+    interface Callback {
+        void onOpened();
+
+        /**
+         * The device went away; it is closed.
+         */
+        void onDisconnected();
+
+        /**
+         * Opening failed or the open device broke.
+         *
+         * @param retryable false for errors that won't go away by retrying, such as the camera
+         *                  being disabled by policy
+         */
+        void onError(boolean retryable);
+
+        void onSessionConfigured();
+
+        void onSessionConfigureFailed();
+
+        /**
+         * A capture of the repeating request completed.
+         *
+         * @param recordTarget whether the request targeted the record surface
+         */
+        void onCaptureCompleted(long frameNumber, long timestampNs, long frameDurationNs, long exposureTimeNs,
+                                boolean recordTarget);
+    }
+
+    void open(Callback callback);
+
+    /**
+     * Builds a new session with exactly these outputs, replacing the current one;
+     * {@link Callback#onSessionConfigured} follows.
+     */
+    void createSession(List<S> outputs);
+
+    /**
+     * Replaces the repeating request.  recording marks requests that target the encoder.
+     */
+    void setRepeating(List<S> targets, boolean recording);
+
+    void abortCaptures();
+
+    /**
+     * Closes the session and the device; no callbacks follow until the next open.
+     */
+    void close();
+}
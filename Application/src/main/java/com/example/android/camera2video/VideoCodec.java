@@ -0,0 +1,78 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A video encoder in asynchronous mode, cut down to what {@link RecordPath} needs, so the same
+ * path runs against MediaCodec on a device and against {@link FakeVideoCodec} on the JVM.
+ * <p>
+ * Callbacks arrive on the codec's own thread.  Flag values are MediaCodec's BUFFER_FLAG_*, the
+ * same as {@link SampleMuxer}'s.  S is the input surface type, a Surface on Android.
+ */
+public interface VideoCodec<S> {
+
+    interface Callback {
+        void onInputBufferAvailable(int index);
+
+        /**
+         * Encoded data in output buffer index from offset to offset + size; give the buffer
+         * back with {@link #releaseOutputBuffer}.
+         */
+        void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags);
+
+        /**
+         * Sent once after start, before the first sample; sps and pps are csd-0 and csd-1.
+         */
+        void onOutputFormatChanged(int width, int height, ByteBuffer sps, ByteBuffer pps);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Must be called before configure, on the thread the callbacks should arrive on if the
+     * codec has no thread of its own.
+     */
+    void setCallback(Callback callback);
+
+    /**
+     * @param bufferInput take YUV frames through input buffers instead of an input surface
+     */
+    void configure(int width, int height, int bitrate, int frameRate, int keyFrameIntervalS, boolean bufferInput);
+
+    /**
+     * The surface to render input to; after configure and before start, surface input only.
+     */
+    S createInputSurface();
+
+    void start();
+
+    /**
+     * Drops everything in flight; the codec can be configured and started again.
+     */
+    void stop();
+
+    void release();
+
+    /**
+     * Points frame at input buffer index, in the codec's own layout, and sets its size.
+     *
+     * @return the bytes to queue once frame is filled, padding included
+     */
+    int getInputFrame(int index, YuvFrame frame);
+
+    void queueInputBuffer(int index, int size, long presentationTimeUs, int flags);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    /**
+     * Changes the bitrate of a running codec.
+     */
+    void setBitrate(int bitrate);
+
+    /**
+     * Makes the next frame a key frame.
+     */
+    void requestKeyFrame();
+}
@@ -0,0 +1,172 @@
+package com.example.android.camera2video;
+
+import java.util.PriorityQueue;
+
+/**
+ * Simulated time for running the pipeline on the JVM: a {@link PipelineClock} that only moves
+ * when the caller runs it, and a timer queue of tasks that fire when it gets to them.
+ * <p>
+ * Tasks run on the caller's thread in time order, ties in the order they were scheduled, and
+ * time jumps straight from one task to the next, so a minute of recording takes as long as the
+ * work in it and runs the same every time.  As a {@link PipelineExecutor} one instance can stand
+ * in for all of the {@link PipelineThreads}, like {@link ManualExecutor} but with time.
+ */
+public class VirtualClock implements PipelineClock, PipelineExecutor {
+
+    private static class Task implements Comparable<Task> {
+        final long timeNs;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long timeNs, long sequence, Runnable runnable) {
+            this.timeNs = timeNs;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (timeNs != other.timeNs) {
+                return timeNs < other.timeNs ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    private final PriorityQueue<Task> _Queue = new PriorityQueue<>();
+    private long _NowNs;
+    private long _Sequence;
+    private Thread _Running;
+    private boolean _Quit;
+    private long _RunCount;
+
+    /**
+     * @param startNs what nowNs() returns until the clock is run
+     */
+    public VirtualClock(long startNs) {
+        _NowNs = startNs;
+    }
+
+    @Override
+    public synchronized long nowNs() {
+        return _NowNs;
+    }
+
+    /**
+     * Runs the clock up to deadlineNs, for code that paces itself by sleeping.
+     *
+     * @throws IllegalStateException if called from a task; time can't move under a running task
+     */
+    @Override
+    public void sleepUntilNs(long deadlineNs) {
+        if (isCurrentThread()) {
+            throw new IllegalStateException("sleeping in a task on the virtual clock");
+        }
+        runUntil(deadlineNs);
+    }
+
+    /**
+     * Runs task at the current time, after the tasks already due.
+     */
+    @Override
+    public void execute(Runnable task) {
+        scheduleAt(task, nowNs());
+    }
+
+    @Override
+    public synchronized boolean isCurrentThread() {
+        return _Running == Thread.currentThread();
+    }
+
+    /**
+     * Drops everything scheduled from now on; tasks already queued still run.
+     */
+    @Override
+    public synchronized void quit() {
+        _Quit = true;
+    }
+
+    public void schedule(Runnable task, long delayNs) {
+        scheduleAt(task, nowNs() + Math.max(0, delayNs));
+    }
+
+    /**
+     * Runs task once the clock reaches timeNs; a time in the past means now.
+     */
+    public synchronized void scheduleAt(Runnable task, long timeNs) {
+        if (!_Quit) {
+            _Queue.add(new Task(Math.max(timeNs, _NowNs), _Sequence++, task));
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return _Queue.size();
+    }
+
+    /**
+     * Tasks run so far.
+     */
+    public synchronized long getRunCount() {
+        return _RunCount;
+    }
+
+    /**
+     * Time of the next task, or -1 if there is none.
+     */
+    public synchronized long getNextTaskNs() {
+        Task next = _Queue.peek();
+        return next != null ? next.timeNs : -1;
+    }
+
+    /**
+     * Moves the clock to the next task and runs it.
+     *
+     * @return false if there was none
+     */
+    public boolean runNext() {
+        return runNext(Long.MAX_VALUE);
+    }
+
+    private boolean runNext(long deadlineNs) {
+        Task task;
+        synchronized (this) {
+            task = _Queue.peek();
+            if (task == null || task.timeNs > deadlineNs) {
+                return false;
+            }
+            _Queue.poll();
+            _NowNs = task.timeNs;
+            _Running = Thread.currentThread();
+            _RunCount++;
+        }
+        try {
+            task.runnable.run();
+        } finally {
+            synchronized (this) {
+                _Running = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs every task due up to deadlineNs, including the ones they schedule on the way, and
+     * leaves the clock at deadlineNs.
+     *
+     * @return the number of tasks run
+     */
+    public int runUntil(long deadlineNs) {
+        int count = 0;
+        while (runNext(deadlineNs)) {
+            count++;
+        }
+        synchronized (this) {
+            _NowNs = Math.max(_NowNs, deadlineNs);
+        }
+        return count;
+    }
+
+    public int runFor(long durationNs) {
+        return runUntil(nowNs() + durationNs);
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV 4:2:0 frame as three planes with their own row and pixel strides, the way
+ * android.media.Image hands out YUV_420_888: the planes are only referenced, never copied.
+ * <p>
+ * Chroma may be planar (pixel stride 1) or interleaved (pixel stride 2, U and V views into the
+ * same memory); rows may be padded.  Reads use absolute gets, so the buffers' positions don't
+ * matter.  Instances are reusable; see {@link AnalysisTap}.
+ */
+public final class YuvFrame {
+    public static final int Y = 0;
+    public static final int U = 1;
+    public static final int V = 2;
+
+    private int _Width;
+    private int _Height;
+    private long _TimestampNs;
+    private final ByteBuffer[] _Planes = new ByteBuffer[3];
+    private final int[] _RowStride = new int[3];
+    private final int[] _PixelStride = new int[3];
+
+    public void set(int width, int height, long timestampNs) {
+        _Width = width;
+        _Height = height;
+        _TimestampNs = timestampNs;
+    }
+
+    public void setPlane(int plane, ByteBuffer buffer, int rowStride, int pixelStride) {
+        _Planes[plane] = buffer;
+        _RowStride[plane] = rowStride;
+        _PixelStride[plane] = pixelStride;
+    }
+
+    /**
+     * Drops the plane references, so a pooled frame doesn't keep an image's memory reachable.
+     */
+    public void clear() {
+        for (int i = 0; i < 3; i++) {
+            _Planes[i] = null;
+        }
+    }
+
+    public int getWidth() {
+        return _Width;
+    }
+
+    public int getHeight() {
+        return _Height;
+    }
+
+    public long getTimestampNs() {
+        return _TimestampNs;
+    }
+
+    public ByteBuffer getPlane(int plane) {
+        return _Planes[plane];
+    }
+
+    public int getRowStride(int plane) {
+        return _RowStride[plane];
+    }
+
+    public int getPixelStride(int plane) {
+        return _PixelStride[plane];
+    }
+
+    /**
+     * Luma at (x, y), 0 to 255.
+     */
+    public int getLuma(int x, int y) {
+        return _Planes[Y].get(y * _RowStride[Y] + x * _PixelStride[Y]) & 0xff;
+    }
+
+    /**
+     * Chroma sample of plane U or V covering luma pixel (x, y).
+     */
+    public int getChroma(int plane, int x, int y) {
+        return _Planes[plane].get((y >> 1) * _RowStride[plane] + (x >> 1) * _PixelStride[plane]) & 0xff;
+    }
+
+    /**
+     * Allocates a frame laid out like a camera image.
+     *
+     * @param rowPadding  bytes added to every row of every plane
+     * @param interleaved U and V share one buffer with pixel stride 2 (NV21 order, as most
+     *                    cameras deliver), instead of separate planes
+     */
+    public static YuvFrame allocate(int width, int height, int rowPadding, boolean interleaved, boolean direct) {
+        YuvFrame frame = new YuvFrame();
+        frame.set(width, height, 0);
+        int lumaStride = width + rowPadding;
+        frame.setPlane(Y, allocate(lumaStride * height, direct), lumaStride, 1);
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        if (interleaved) {
+            int stride = chromaWidth * 2 + rowPadding;
+            ByteBuffer vu = allocate(stride * chromaHeight, direct);
+            frame.setPlane(V, vu.duplicate(), stride, 2);
+            vu.position(1);
+            frame.setPlane(U, vu.slice(), stride, 2);
+        } else {
+            int stride = chromaWidth + rowPadding;
+            frame.setPlane(U, allocate(stride * chromaHeight, direct), stride, 1);
+            frame.setPlane(V, allocate(stride * chromaHeight, direct), stride, 1);
+        }
+        return frame;
+    }
+
+    /**
+     * Allocates a frame in one buffer packed the way codec input buffers are; see
+     * {@link #wrapPacked}.
+     */
+    public static YuvFrame allocatePacked(int width, int height, boolean semiPlanar, boolean direct) {
+        YuvFrame frame = new YuvFrame();
+        wrapPacked(frame, allocate(packedSize(width, height, width, height), direct), width, height, width, height,
+                semiPlanar);
+        return frame;
+    }
+
+    /**
+     * Bytes a packed frame takes with the given luma stride and slice height.
+     */
+    public static int packedSize(int width, int height, int stride, int sliceHeight) {
+        return stride * sliceHeight + stride * ((height + 1) / 2);
+    }
+
+    /**
+     * Points frame at a packed 4:2:0 image in buffer: sliceHeight rows of stride bytes of luma,
+     * then either NV12 (one interleaved plane, U first) or I420 (U then V, each at half the
+     * stride).  Views are slices, so the buffer's position doesn't matter afterwards.
+     */
+    public static void wrapPacked(YuvFrame frame, ByteBuffer buffer, int width, int height, int stride,
+                                  int sliceHeight, boolean semiPlanar) {
+        frame.set(width, height, frame._TimestampNs);
+        int chromaStart = stride * sliceHeight;
+        frame.setPlane(Y, slice(buffer, 0), stride, 1);
+        if (semiPlanar) {
+            frame.setPlane(U, slice(buffer, chromaStart), stride, 2);
+            frame.setPlane(V, slice(buffer, chromaStart + 1), stride, 2);
+        } else {
+            int chromaStride = stride / 2;
+            frame.setPlane(U, slice(buffer, chromaStart), chromaStride, 1);
+            frame.setPlane(V, slice(buffer, chromaStart + chromaStride * ((height + 1) / 2)), chromaStride, 1);
+        }
+    }
+
+    /**
+     * Copies the picture of src into dst, which has the same size and any layout; the
+     * timestamp is left alone.  Rows with a pixel stride of 1 on both sides are copied in bulk.
+     */
+    public static void copy(YuvFrame src, YuvFrame dst) {
+        if (src._Width != dst._Width || src._Height != dst._Height) {
+            throw new IllegalArgumentException("copy from " + src._Width + "x" + src._Height + " to "
+                    + dst._Width + "x" + dst._Height);
+        }
+        int chromaWidth = (src._Width + 1) / 2;
+        int chromaHeight = (src._Height + 1) / 2;
+        for (int plane = 0; plane < 3; plane++) {
+            int width = plane == Y ? src._Width : chromaWidth;
+            int height = plane == Y ? src._Height : chromaHeight;
+            copyPlane(src._Planes[plane], src._RowStride[plane], src._PixelStride[plane],
+                    dst._Planes[plane], dst._RowStride[plane], dst._PixelStride[plane], width, height);
+        }
+    }
+
+    private static void copyPlane(ByteBuffer src, int srcRowStride, int srcPixelStride,
+                                  ByteBuffer dst, int dstRowStride, int dstPixelStride, int width, int height) {
+        if (srcPixelStride == 1 && dstPixelStride == 1) {
+            ByteBuffer from = src.duplicate();
+            ByteBuffer to = dst.duplicate();
+            for (int y = 0; y < height; y++) {
+                from.limit(y * srcRowStride + width).position(y * srcRowStride);
+                to.position(y * dstRowStride);
+                to.put(from);
+            }
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int s = y * srcRowStride;
+            int d = y * dstRowStride;
+            for (int x = 0; x < width; x++) {
+                dst.put(d, src.get(s));
+                s += srcPixelStride;
+                d += dstPixelStride;
+            }
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.position(offset);
+        return view.slice();
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.android.camera2video;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * CPU kernels between {@link YuvFrame}s of any layout: layout conversion, rotation, box
+ * downscaling and cropping.
+ * <p>
+ * They read and write the frames' ByteBuffers in place through each plane's row and pixel
+ * stride, so NV12, NV21, I420 and padded camera images all work as source or destination; the
+ * destination's layout is the output layout.  Destinations are supplied by the caller and
+ * reused, and no pixel memory is allocated.  With a pool, every plane's rows are split into
+ * ranges of at least minRows run as fork-join tasks; without one everything runs on the
+ * calling thread.  Timestamps are left alone.
+ */
+public class YuvKernels {
+    public static final int DEFAULT_MIN_ROWS = 32;
+
+    private static final int CONVERT = 0;
+    private static final int ROTATE = 1;
+    private static final int DOWNSCALE = 2;
+    private static final int CROP = 3;
+
+    private final ForkJoinPool _Pool;
+    private final int _MinRows;
+
+    public YuvKernels(ForkJoinPool pool) {
+        this(pool, DEFAULT_MIN_ROWS);
+    }
+
+    /**
+     * @param pool    runs the row ranges, or null to run on the calling thread
+     * @param minRows rows below which a range is not split further
+     */
+    public YuvKernels(ForkJoinPool pool, int minRows) {
+        _Pool = pool;
+        _MinRows = Math.max(1, minRows);
+    }
+
+    /**
+     * Copies src into dst, converting between layouts.  Both have the same size.
+     */
+    public void convert(YuvFrame src, YuvFrame dst) {
+        checkSize(dst, src.getWidth(), src.getHeight());
+        run(CONVERT, src, dst, 0, 0);
+    }
+
+    /**
+     * Rotates src clockwise by degrees, 0, 90, 180 or 270, into dst; for 90 and 270 dst is
+     * src's height wide.  The degrees for a display rotation are what the fragment's
+     * ORIENTATIONS table gives, the same a MediaMuxer orientation hint would take.
+     */
+    public void rotate(YuvFrame src, YuvFrame dst, int degrees) {
+        boolean swap;
+        switch (degrees) {
+            case 0:
+            case 180:
+                swap = false;
+                break;
+            case 90:
+            case 270:
+                swap = true;
+                break;
+            default:
+                throw new IllegalArgumentException("rotation " + degrees);
+        }
+        checkSize(dst, swap ? src.getHeight() : src.getWidth(), swap ? src.getWidth() : src.getHeight());
+        run(degrees == 0 ? CONVERT : ROTATE, src, dst, degrees, 0);
+    }
+
+    /**
+     * Box filters src down by factor, 2 or 4, into dst of src's size divided by factor; src's
+     * size has to be a multiple of twice the factor.
+     */
+    public void downscale(YuvFrame src, YuvFrame dst, int factor) {
+        if (factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("downscale by " + factor);
+        }
+        if (src.getWidth() % (2 * factor) != 0 || src.getHeight() % (2 * factor) != 0) {
+            // or the chroma boxes would run off the edge
+            throw new IllegalArgumentException(src.getWidth() + "x" + src.getHeight() + " is not a multiple of "
+                    + 2 * factor);
+        }
+        checkSize(dst, src.getWidth() / factor, src.getHeight() / factor);
+        run(DOWNSCALE, src, dst, factor, 0);
+    }
+
+    /**
+     * Copies the dst-sized window of src at (left, top), both even so chroma stays aligned.
+     */
+    public void crop(YuvFrame src, YuvFrame dst, int left, int top) {
+        if ((left & 1) != 0 || (top & 1) != 0 || left < 0 || top < 0
+                || left + dst.getWidth() > src.getWidth() || top + dst.getHeight() > src.getHeight()) {
+            throw new IllegalArgumentException("crop " + dst.getWidth() + "x" + dst.getHeight() + " at "
+                    + left + "," + top + " out of " + src.getWidth() + "x" + src.getHeight());
+        }
+        run(CROP, src, dst, left, top);
+    }
+
+    private static void checkSize(YuvFrame dst, int width, int height) {
+        if (dst.getWidth() != width || dst.getHeight() != height) {
+            throw new IllegalArgumentException("destination is " + dst.getWidth() + "x" + dst.getHeight()
+                    + ", needs " + width + "x" + height);
+        }
+    }
+
+    private void run(int op, YuvFrame src, YuvFrame dst, int a, int b) {
+        if (_Pool == null) {
+            for (int plane = YuvFrame.Y; plane <= YuvFrame.V; plane++) {
+                rows(op, src, dst, plane, a, b, 0, planeHeight(dst, plane));
+            }
+            return;
+        }
+        _Pool.invoke(new FrameTask(op, src, dst, a, b));
+    }
+
+    // tasks are never serialized
+    @SuppressWarnings("serial")
+    private final class FrameTask extends RecursiveAction {
+        private final int _Op;
+        private final YuvFrame _Src;
+        private final YuvFrame _Dst;
+        private final int _A;
+        private final int _B;
+
+        FrameTask(int op, YuvFrame src, YuvFrame dst, int a, int b) {
+            _Op = op;
+            _Src = src;
+            _Dst = dst;
+            _A = a;
+            _B = b;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(new RowTask(this, YuvFrame.Y, 0, planeHeight(_Dst, YuvFrame.Y)),
+                    new RowTask(this, YuvFrame.U, 0, planeHeight(_Dst, YuvFrame.U)),
+                    new RowTask(this, YuvFrame.V, 0, planeHeight(_Dst, YuvFrame.V)));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class RowTask extends RecursiveAction {
+        private final FrameTask _Frame;
+        private final int _Plane;
+        private final int _From;
+        private final int _To;
+
+        RowTask(FrameTask frame, int plane, int from, int to) {
+            _Frame = frame;
+            _Plane = plane;
+            _From = from;
+            _To = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_To - _From < 2 * _MinRows) {
+                rows(_Frame._Op, _Frame._Src, _Frame._Dst, _Plane, _Frame._A, _Frame._B, _From, _To);
+                return;
+            }
+            int middle = (_From + _To) >>> 1;
+            invokeAll(new RowTask(_Frame, _Plane, _From, middle), new RowTask(_Frame, _Plane, middle, _To));
+        }
+    }
+
+    private static int planeWidth(YuvFrame frame, int plane) {
+        return plane == YuvFrame.Y ? frame.getWidth() : (frame.getWidth() + 1) / 2;
+    }
+
+    private static int planeHeight(YuvFrame frame, int plane) {
+        return plane == YuvFrame.Y ? frame.getHeight() : (frame.getHeight() + 1) / 2;
+    }
+
+    /**
+     * Destination rows [from, to) of one plane.
+     */
+    private static void rows(int op, YuvFrame src, YuvFrame dst, int plane, int a, int b, int from, int to) {
+        ByteBuffer s = src.getPlane(plane);
+        ByteBuffer d = dst.getPlane(plane);
+        int srcRow = src.getRowStride(plane);
+        int srcPixel = src.getPixelStride(plane);
+        int dstRow = dst.getRowStride(plane);
+        int dstPixel = dst.getPixelStride(plane);
+        int width = planeWidth(dst, plane);
+        switch (op) {
+            case CONVERT:
+                copyRows(s, srcRow, srcPixel, 0, d, dstRow, dstPixel, width, from, to);
+                break;
+            case CROP: {
+                int shift = plane == YuvFrame.Y ? 0 : 1;
+                int offset = (b >> shift) * srcRow + (a >> shift) * srcPixel;
+                copyRows(s, srcRow, srcPixel, offset, d, dstRow, dstPixel, width, from, to);
+                break;
+            }
+            case DOWNSCALE:
+                downscaleRows(s, srcRow, srcPixel, d, dstRow, dstPixel, width, a, from, to);
+                break;
+            case ROTATE:
+                rotateRows(s, srcRow, srcPixel, planeWidth(src, plane), planeHeight(src, plane),
+                        d, dstRow, dstPixel, width, a, from, to);
+                break;
+            default:
+                throw new IllegalArgumentException("op " + op);
+        }
+    }
+
+    private static void copyRows(ByteBuffer src, int srcRow, int srcPixel, int srcOffset,
+                                 ByteBuffer dst, int dstRow, int dstPixel, int width, int from, int to) {
+        if (srcPixel == 1 && dstPixel == 1) {
+            ByteBuffer in = src.duplicate();
+            ByteBuffer out = dst.duplicate();
+            for (int y = from; y < to; y++) {
+                int start = srcOffset + y * srcRow;
+                in.limit(start + width).position(start);
+                out.position(y * dstRow);
+                out.put(in);
+            }
+            return;
+        }
+        for (int y = from; y < to; y++) {
+            int i = srcOffset + y * srcRow;
+            int o = y * dstRow;
+            for (int x = 0; x < width; x++) {
+                dst.put(o, src.get(i));
+                i += srcPixel;
+                o += dstPixel;
+            }
+        }
+    }
+
+    private static void downscaleRows(ByteBuffer src, int srcRow, int srcPixel, ByteBuffer dst, int dstRow,
+                                      int dstPixel, int width, int factor, int from, int to) {
+        int shift = factor == 2 ? 2 : 4;
+        int round = 1 << (shift - 1);
+        for (int y = from; y < to; y++) {
+            int rowStart = y * factor * srcRow;
+            int o = y * dstRow;
+            for (int x = 0; x < width; x++) {
+                int column = rowStart + x * factor * srcPixel;
+                int sum = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    int i = column + dy * srcRow;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += src.get(i) & 0xff;
+                        i += srcPixel;
+                    }
+                }
+                dst.put(o, (byte) ((sum + round) >> shift));
+                o += dstPixel;
+            }
+        }
+    }
+
+    private static void rotateRows(ByteBuffer src, int srcRow, int srcPixel, int srcWidth, int srcHeight,
+                                   ByteBuffer dst, int dstRow, int dstPixel, int width, int degrees,
+                                   int from, int to) {
+        // where destination (0, y) comes from, and the source step for each x along the row
+        for (int y = from; y < to; y++) {
+            int i;
+            int step;
+            switch (degrees) {
+                case 90:
+                    // dst(x, y) = src(y, srcHeight - 1 - x)
+                    i = (srcHeight - 1) * srcRow + y * srcPixel;
+                    step = -srcRow;
+                    break;
+                case 180:
+                    // dst(x, y) = src(srcWidth - 1 - x, srcHeight - 1 - y)
+                    i = (srcHeight - 1 - y) * srcRow + (srcWidth - 1) * srcPixel;
+                    step = -srcPixel;
+                    break;
+                default:
+                    // 270: dst(x, y) = src(srcWidth - 1 - y, x)
+                    i = (srcWidth - 1 - y) * srcPixel;
+                    step = srcRow;
+                    break;
+            }
+            int o = y * dstRow;
+            for (int x = 0; x < width; x++) {
+                dst.put(o, src.get(i));
+                i += step;
+                o += dstPixel;
+            }
+        }
+    }
+}
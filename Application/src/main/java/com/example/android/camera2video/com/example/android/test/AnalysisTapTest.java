@@ -0,0 +1,223 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.AnalysisTap;
+import com.example.android.camera2video.FrameAnalyzer;
+import com.example.android.camera2video.LumaHistogramAnalyzer;
+import com.example.android.camera2video.ManualExecutor;
+import com.example.android.camera2video.SharpnessAnalyzer;
+import com.example.android.camera2video.YuvFrame;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs on a plain JVM: drop-oldest queueing, image ownership and zero-copy wrapping of the
+ * analysis tap against fake images, and the luma and sharpness analyzers on known planes.
+ */
+public class AnalysisTapTest extends TestCase {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /** Stands in for an android.media.Image: a frame's planes and a closed flag. */
+    private static class FakeImage {
+        final YuvFrame planes;
+        final long timestampNs;
+        int closeCount;
+
+        FakeImage(YuvFrame planes, long timestampNs) {
+            this.planes = planes;
+            this.timestampNs = timestampNs;
+        }
+    }
+
+    private static class FakeHost implements AnalysisTap.Host<FakeImage> {
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger maxOpen = new AtomicInteger();
+        final List<YuvFrame> wrappers = Collections.synchronizedList(new ArrayList<YuvFrame>());
+
+        FakeImage image(YuvFrame planes, long timestampNs) {
+            int now = open.incrementAndGet();
+            while (true) {
+                int max = maxOpen.get();
+                if (now <= max || maxOpen.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            return new FakeImage(planes, timestampNs);
+        }
+
+        @Override
+        public void wrap(FakeImage image, YuvFrame frame) {
+            YuvFrame planes = image.planes;
+            frame.set(planes.getWidth(), planes.getHeight(), image.timestampNs);
+            for (int i = 0; i < 3; i++) {
+                frame.setPlane(i, planes.getPlane(i), planes.getRowStride(i), planes.getPixelStride(i));
+            }
+            wrappers.add(frame);
+        }
+
+        @Override
+        public void close(FakeImage image) {
+            synchronized (image) {
+                image.closeCount++;
+            }
+            open.decrementAndGet();
+        }
+    }
+
+    /** Records the timestamps it saw and checks it got the image's own buffers. */
+    private static class RecordingAnalyzer implements FrameAnalyzer {
+        final List<Long> timestamps = Collections.synchronizedList(new ArrayList<Long>());
+        final List<ByteBuffer> lumaPlanes = Collections.synchronizedList(new ArrayList<ByteBuffer>());
+
+        @Override
+        public void analyze(YuvFrame frame) {
+            timestamps.add(frame.getTimestampNs());
+            lumaPlanes.add(frame.getPlane(YuvFrame.Y));
+        }
+    }
+
+    private FakeHost _Host;
+
+    @Override
+    protected void setUp() {
+        _Host = new FakeHost();
+    }
+
+    public void testDropsOldestWhenBehind() {
+        ManualExecutor worker = new ManualExecutor();
+        AnalysisTap<FakeImage> tap = new AnalysisTap<>(_Host, worker, 1, 2);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        tap.addAnalyzer(analyzer);
+        List<FakeImage> images = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            FakeImage image = _Host.image(YuvFrame.allocate(WIDTH, HEIGHT, 0, true, true), i);
+            images.add(image);
+            tap.offer(image);
+        }
+        // the worker hasn't run: only the two newest are still open
+        assertEquals(1, worker.getPendingCount());
+        assertEquals(2, _Host.open.get());
+        assertEquals(3, tap.getDroppedCount());
+        worker.runAll(10);
+        assertEquals(2, analyzer.timestamps.size());
+        assertEquals(3L, (long) analyzer.timestamps.get(0));
+        assertEquals(4L, (long) analyzer.timestamps.get(1));
+        // zero copy: the analyzer saw the image's own luma buffer
+        assertSame(images.get(4).planes.getPlane(YuvFrame.Y), analyzer.lumaPlanes.get(1));
+        for (FakeImage image : images) {
+            assertEquals(1, image.closeCount);
+        }
+        assertEquals(0, _Host.open.get());
+        assertEquals(5, tap.getOfferedCount());
+        assertEquals(2, tap.getAnalyzedCount());
+        assertEquals(2, tap.getAnalysisTime().snapshot().getCount());
+    }
+
+    public void testFramesArePooled() {
+        ManualExecutor worker = new ManualExecutor();
+        AnalysisTap<FakeImage> tap = new AnalysisTap<>(_Host, worker, 1, 4);
+        for (int i = 0; i < 10; i++) {
+            tap.offer(_Host.image(YuvFrame.allocate(WIDTH, HEIGHT, 0, false, false), i));
+            worker.runAll(10);
+        }
+        assertEquals(10, _Host.wrappers.size());
+        for (YuvFrame frame : _Host.wrappers) {
+            assertSame(_Host.wrappers.get(0), frame);
+        }
+        // released after each image, so no image memory stays reachable
+        assertNull(_Host.wrappers.get(0).getPlane(YuvFrame.Y));
+    }
+
+    public void testCloseReleasesQueuedImages() {
+        ManualExecutor worker = new ManualExecutor();
+        AnalysisTap<FakeImage> tap = new AnalysisTap<>(_Host, worker, 1, 3);
+        for (int i = 0; i < 3; i++) {
+            tap.offer(_Host.image(YuvFrame.allocate(WIDTH, HEIGHT, 0, true, false), i));
+        }
+        tap.close();
+        FakeImage late = _Host.image(YuvFrame.allocate(WIDTH, HEIGHT, 0, true, false), 9);
+        tap.offer(late);
+        assertEquals(1, late.closeCount);
+        worker.runAll(10);
+        assertEquals(0, _Host.open.get());
+        assertEquals(0, tap.getAnalyzedCount());
+        assertEquals(4, tap.getDroppedCount());
+    }
+
+    public void testWorkersNeverHoldMoreThanTheLimit() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        final AnalysisTap<FakeImage> tap = new AnalysisTap<>(_Host, workers, 3, 2);
+        tap.addAnalyzer(new LumaHistogramAnalyzer(2));
+        tap.addAnalyzer(new SharpnessAnalyzer(2));
+        YuvFrame planes = YuvFrame.allocate(WIDTH, HEIGHT, 16, true, true);
+        List<FakeImage> images = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            FakeImage image = _Host.image(planes, i);
+            images.add(image);
+            tap.offer(image);
+        }
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, _Host.open.get());
+        assertTrue("max open " + _Host.maxOpen.get(), _Host.maxOpen.get() <= tap.getMaxOpenImages() + 1);
+        assertEquals(2000, tap.getAnalyzedCount() + tap.getDroppedCount());
+        for (FakeImage image : images) {
+            assertEquals(1, image.closeCount);
+        }
+    }
+
+    public void testLumaHistogram() {
+        // left half 40, right half 220, with row padding that must not be counted
+        YuvFrame frame = YuvFrame.allocate(WIDTH, HEIGHT, 8, true, true);
+        ByteBuffer luma = frame.getPlane(YuvFrame.Y);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH + 8; x++) {
+                luma.put(y * (WIDTH + 8) + x, (byte) (x >= WIDTH ? 255 : x < WIDTH / 2 ? 40 : 220));
+            }
+        }
+        LumaHistogramAnalyzer analyzer = new LumaHistogramAnalyzer(1);
+        analyzer.analyze(frame);
+        int[] histogram = new int[LumaHistogramAnalyzer.BINS];
+        assertEquals(WIDTH * HEIGHT, analyzer.getHistogram(histogram));
+        assertEquals(WIDTH * HEIGHT / 2, histogram[40]);
+        assertEquals(WIDTH * HEIGHT / 2, histogram[220]);
+        assertEquals(0, histogram[255]);
+        assertEquals(130.0, analyzer.getMean(), 1e-9);
+        assertEquals(40, analyzer.getPercentile(50));
+        assertEquals(220, analyzer.getPercentile(51));
+        assertEquals(0.0, analyzer.getClippedFraction(), 1e-9);
+
+        LumaHistogramAnalyzer sampled = new LumaHistogramAnalyzer(4);
+        sampled.analyze(frame);
+        assertEquals((WIDTH / 4) * (HEIGHT / 4), sampled.getHistogram(histogram));
+    }
+
+    public void testSharpnessOrdersEdgesAboveFlat() {
+        YuvFrame flat = YuvFrame.allocate(WIDTH, HEIGHT, 0, false, false);
+        YuvFrame stripes = YuvFrame.allocate(WIDTH, HEIGHT, 0, false, false);
+        YuvFrame checker = YuvFrame.allocate(WIDTH, HEIGHT, 0, false, false);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                flat.getPlane(YuvFrame.Y).put(y * WIDTH + x, (byte) 128);
+                stripes.getPlane(YuvFrame.Y).put(y * WIDTH + x, (byte) ((x / 8) % 2 == 0 ? 0 : 200));
+                checker.getPlane(YuvFrame.Y).put(y * WIDTH + x, (byte) ((x + y) % 2 == 0 ? 0 : 200));
+            }
+        }
+        assertEquals(0.0, SharpnessAnalyzer.measure(flat, 1), 1e-9);
+        double soft = SharpnessAnalyzer.measure(stripes, 1);
+        double sharp = SharpnessAnalyzer.measure(checker, 1);
+        assertTrue(soft > 0);
+        assertTrue(sharp > soft);
+        // every step of the checkerboard is an edge both ways
+        assertEquals(2.0 * 200 * 200, sharp, 1e-9);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.BitrateController;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: replays synthetic encoder traces through {@link BitrateController} and
+ * checks which way the control law moves the target.
+ */
+public class BitrateControllerTest extends TestCase {
+    private static final int MIN = 500000;
+    private static final int MAX = 6000000;
+    private static final long FRAME_US = 33333;
+
+    private BitrateController _Controller;
+    private long _Pts;
+    private long _Dropped;
+    private long _Input;
+
+    @Override
+    protected void setUp() throws Exception {
+        _Controller = new BitrateController(MIN, MAX, 2000000, 30);
+        _Pts = 0;
+        _Dropped = 0;
+        _Input = 0;
+    }
+
+    /**
+     * Feeds seconds worth of frames at fps, each sized to match the current target, with the
+     * given writer backlog (out of 90 slots).
+     */
+    private void replay(int seconds, int fps, int backlog, int dropsPerSecond) {
+        replay(seconds, fps, backlog, dropsPerSecond, 0);
+    }
+
+    /**
+     * As above, with inputFps frames counted as input per second; 0 leaves the input uncounted.
+     */
+    private void replay(int seconds, int fps, int backlog, int dropsPerSecond, int inputFps) {
+        long frameUs = 1000000L / fps;
+        for (int s = 0; s < seconds; s++) {
+            for (int f = 0; f < fps; f++) {
+                if (f == 0) {
+                    _Dropped += dropsPerSecond;
+                }
+                _Input += inputFps / fps + (f < inputFps % fps ? 1 : 0);
+                _Controller.onSample(_Controller.getBitrate() / 8 / fps, _Pts, backlog, 90, _Dropped,
+                        inputFps > 0 ? _Input : -1);
+                _Pts += frameUs;
+            }
+        }
+    }
+
+    public void testIdleWriterProbesUpToMax() {
+        replay(30, 30, 0, 0);
+        assertEquals(MAX, _Controller.getBitrate());
+        assertEquals(30f, _Controller.getMeasuredFrameRate(), 1f);
+    }
+
+    public void testBacklogBacksOffToMin() {
+        replay(3, 30, 0, 0);
+        int before = _Controller.getBitrate();
+        replay(2, 30, 70, 0);
+        assertTrue(_Controller.getBitrate() < before * 0.75);
+        replay(20, 30, 70, 0);
+        assertEquals(MIN, _Controller.getBitrate());
+    }
+
+    public void testDropsBackOffEvenWithoutBacklog() {
+        replay(2, 30, 0, 0);
+        int before = _Controller.getBitrate();
+        replay(1, 30, 0, 3);
+        assertTrue(_Controller.getBitrate() < before);
+    }
+
+    public void testFrameRateCollapseBacksOff() {
+        replay(2, 30, 5, 0);
+        int before = _Controller.getBitrate();
+        replay(3, 15, 5, 0);
+        assertTrue(_Controller.getBitrate() < before);
+    }
+
+    public void testModerateBacklogHolds() {
+        replay(2, 30, 20, 0);
+        int adjusts = _Controller.getAdjustCount();
+        replay(10, 30, 20, 0);
+        assertEquals(adjusts, _Controller.getAdjustCount());
+    }
+
+    public void testIdleGapStartsANewWindow() {
+        replay(3, 30, 20, 0);
+        int bitrate = _Controller.getBitrate();
+        int adjusts = _Controller.getAdjustCount();
+        // a minute without samples, between two recordings
+        _Pts += 60000000L;
+        replay(3, 30, 20, 0);
+        assertEquals(adjusts, _Controller.getAdjustCount());
+        assertEquals(bitrate, _Controller.getBitrate());
+        assertEquals(30f, _Controller.getMeasuredFrameRate(), 1f);
+    }
+
+    public void testResetDropsTheWindow() {
+        replay(2, 30, 20, 0);
+        int adjusts = _Controller.getAdjustCount();
+        // the tail of one stream at 5 fps, then a new one at 30 fps
+        for (int f = 0; f < 3; f++) {
+            _Controller.onSample(_Controller.getBitrate() / 40, _Pts, 20, 90, 0, -1);
+            _Pts += 200000;
+        }
+        _Controller.reset();
+        replay(2, 30, 20, 0);
+        assertEquals(adjusts, _Controller.getAdjustCount());
+        assertEquals(30f, _Controller.getMeasuredFrameRate(), 1f);
+    }
+
+    public void testSlowCameraIsNotTheEncodersFault() {
+        replay(2, 30, 20, 0, 30);
+        int adjusts = _Controller.getAdjustCount();
+        // low light: the camera itself drops to 15 fps, the encoder keeps up with it
+        replay(5, 15, 20, 0, 15);
+        assertEquals(adjusts, _Controller.getAdjustCount());
+        assertEquals(15f, _Controller.getMeasuredInputFrameRate(), 1f);
+
+        // the encoder falls behind the camera
+        int before = _Controller.getBitrate();
+        replay(3, 15, 20, 0, 30);
+        assertTrue(_Controller.getBitrate() < before);
+    }
+}
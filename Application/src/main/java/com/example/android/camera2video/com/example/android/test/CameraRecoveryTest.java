@@ -0,0 +1,259 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CameraRecovery;
+import com.example.android.camera2video.CaptureSessionController;
+import com.example.android.camera2video.PtsContinuity;
+import com.example.android.camera2video.SampleSink;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM: a fake camera that disconnects and refuses to reopen on demand, and
+ * the recovery state machine, rebuilt session and file timestamps that result.
+ */
+public class CameraRecoveryTest extends TestCase {
+    private static final long FRAME_NS = 33333333L;
+
+    /**
+     * A camera on a virtual clock.  Opens succeed after the next failOpens attempts, sessions
+     * configure immediately and scheduled tasks run when the clock reaches them.
+     */
+    private static class FakeCamera implements CameraRecovery.Host, CaptureSessionController.Host<String> {
+        CameraRecovery recovery;
+        CaptureSessionController<String> controller;
+        final List<long[]> delays = new ArrayList<>();
+        final List<Runnable> scheduled = new ArrayList<>();
+        final List<Long> scheduledAt = new ArrayList<>();
+        final List<List<String>> sessions = new ArrayList<>();
+        final List<Long> filePts = new ArrayList<>();
+        PtsContinuity continuity;
+        boolean open;
+        int failOpens;
+        boolean recordingRequest;
+        long clockNs = 1000000000000L;
+        int opens;
+
+        @Override
+        public void openDevice() {
+            opens++;
+            if (failOpens > 0) {
+                failOpens--;
+                recovery.onError(true, clockNs);
+                return;
+            }
+            open = true;
+            recovery.onOpened();
+            controller.open();
+        }
+
+        @Override
+        public void closeDevice() {
+            open = false;
+            controller.close();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            delays.add(new long[]{delayMs});
+            scheduled.add(task);
+            scheduledAt.add(clockNs + delayMs * 1000000L);
+        }
+
+        @Override
+        public void createSession(List<String> outputs) {
+            sessions.add(outputs);
+            controller.onSessionConfigured();
+        }
+
+        @Override
+        public void setRepeating(List<String> targets, boolean recording) {
+            recordingRequest = recording;
+        }
+
+        @Override
+        public void abortCaptures() {
+        }
+
+        /** One frame period: due tasks run, and an open camera captures a frame. */
+        void tick() throws Exception {
+            clockNs += FRAME_NS;
+            for (int i = 0; i < scheduled.size(); i++) {
+                if (scheduledAt.get(i) <= clockNs) {
+                    Runnable task = scheduled.remove(i);
+                    scheduledAt.remove(i);
+                    i--;
+                    task.run();
+                }
+            }
+            if (open) {
+                recovery.onFrame(clockNs, clockNs);
+                controller.onCaptureCompleted(recordingRequest, clockNs);
+                if (recordingRequest) {
+                    // the encoder stamps each frame with its sensor time
+                    continuity.writeSampleData(ByteBuffer.allocate(0), clockNs / 1000, 0);
+                }
+            }
+        }
+
+        void disconnect() {
+            open = false;
+            controller.close();
+            recovery.onDisconnected(clockNs);
+        }
+    }
+
+    private FakeCamera _Camera;
+    private CameraRecovery _Recovery;
+    private CaptureSessionController<String> _Controller;
+
+    @Override
+    protected void setUp() {
+        _Camera = new FakeCamera();
+        _Recovery = new CameraRecovery(_Camera);
+        _Controller = new CaptureSessionController<>(_Camera);
+        _Controller.setPersistent(true);
+        _Controller.setPreviewSurface("preview");
+        _Controller.setRecordSurface("encoder");
+        _Camera.recovery = _Recovery;
+        _Camera.controller = _Controller;
+        _Camera.continuity = new PtsContinuity(new SampleSink() {
+            @Override
+            public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+                _Camera.filePts.add(presentationTimeUs);
+            }
+        }, FRAME_NS / 1000, 500000);
+    }
+
+    public void testRecordingContinuesAcrossDisconnect() throws Exception {
+        _Recovery.open();
+        assertEquals(CameraRecovery.STATE_OPEN, _Recovery.getState());
+        _Controller.startRecord(_Camera.clockNs);
+        for (int i = 0; i < 30; i++) {
+            _Camera.tick();
+        }
+        long lastBefore = _Camera.clockNs;
+
+        // the camera goes away and is busy for the first two reopen attempts
+        _Camera.failOpens = 2;
+        _Camera.disconnect();
+        assertEquals(CameraRecovery.STATE_WAITING, _Recovery.getState());
+        for (int i = 0; i < 60 && _Recovery.getRecoveryCount() == 0; i++) {
+            _Camera.tick();
+        }
+        assertEquals(1, _Recovery.getRecoveryCount());
+        assertEquals(1, _Recovery.getFaultCount());
+        assertEquals(3, _Recovery.getRetryCount());
+        assertEquals(100, _Camera.delays.get(0)[0]);
+        assertEquals(200, _Camera.delays.get(1)[0]);
+        assertEquals(400, _Camera.delays.get(2)[0]);
+
+        // the new session has the same encoder surface and is still recording
+        assertEquals(2, _Camera.sessions.size());
+        assertEquals(Arrays.asList("preview", "encoder"), _Camera.sessions.get(1));
+        assertTrue(_Camera.recordingRequest);
+
+        // 700 ms of backoff, rounded up to whole frames
+        long gap = _Recovery.getLastGapNs();
+        assertEquals(gap, _Camera.clockNs - lastBefore);
+        assertTrue(gap >= 700000000L && gap < 800000000L);
+        assertTrue(_Recovery.getLastRecoveryNs() <= gap);
+        assertEquals(1, _Recovery.getRecoveryTime().snapshot().getCount());
+
+        for (int i = 0; i < 30; i++) {
+            _Camera.tick();
+        }
+        // one file, frame spacing throughout: the gap was closed
+        List<Long> pts = _Camera.filePts;
+        assertEquals(61, pts.size());
+        for (int i = 1; i < pts.size(); i++) {
+            long step = pts.get(i) - pts.get(i - 1);
+            assertTrue("step " + step + " at " + i, step > 0 && step <= FRAME_NS / 1000 + 1);
+        }
+        assertEquals(gap / 1000 - FRAME_NS / 1000, _Camera.continuity.getClosedGapUs(), 1);
+        assertEquals(1, _Camera.continuity.getAdjustCount());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        _Recovery.setBackoff(10, 40, 4);
+        _Recovery.open();
+        _Camera.failOpens = 100;
+        _Camera.disconnect();
+        for (int i = 0; i < 100; i++) {
+            _Camera.tick();
+        }
+        assertEquals(CameraRecovery.STATE_FAILED, _Recovery.getState());
+        assertEquals(4, _Recovery.getRetryCount());
+        assertEquals(Arrays.asList(10L, 20L, 40L, 40L), delays());
+        assertEquals(0, _Recovery.getRecoveryCount());
+        // reopening by hand starts over
+        _Camera.failOpens = 0;
+        _Recovery.open();
+        assertEquals(CameraRecovery.STATE_OPEN, _Recovery.getState());
+    }
+
+    public void testFatalErrorDoesNotRetry() throws Exception {
+        _Recovery.open();
+        _Recovery.onError(false, _Camera.clockNs);
+        assertEquals(CameraRecovery.STATE_FAILED, _Recovery.getState());
+        int opens = _Camera.opens;
+        for (int i = 0; i < 100; i++) {
+            _Camera.tick();
+        }
+        assertEquals(opens, _Camera.opens);
+    }
+
+    public void testCloseCancelsPendingRetry() throws Exception {
+        _Recovery.open();
+        _Camera.disconnect();
+        _Recovery.close();
+        for (int i = 0; i < 100; i++) {
+            _Camera.tick();
+        }
+        assertEquals(CameraRecovery.STATE_CLOSED, _Recovery.getState());
+        assertEquals(1, _Camera.opens);
+        // faults while closed are none of its business
+        _Recovery.onConfigureFailed(_Camera.clockNs);
+        assertEquals(1, _Recovery.getFaultCount());
+        assertTrue(_Camera.scheduled.size() <= 1);
+    }
+
+    public void testContinuityKeepsShortGapsAndFixesBackwardSteps() throws Exception {
+        final List<Long> out = new ArrayList<>();
+        PtsContinuity continuity = new PtsContinuity(new SampleSink() {
+            @Override
+            public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+                out.add(presentationTimeUs);
+            }
+        }, 33333, 500000);
+        long[] in = {0, 33333, 66666, 166666, 100000, 133333, 1133333};
+        for (long pts : in) {
+            continuity.writeSampleData(ByteBuffer.allocate(0), pts, 0);
+        }
+        // a 100 ms step stays; the step back moves everything after it; the second long
+        // gap is closed
+        assertEquals(Arrays.asList(0L, 33333L, 66666L, 166666L, 199999L, 233332L, 266665L), out);
+        assertEquals(2, continuity.getAdjustCount());
+
+        PtsContinuity keepGaps = new PtsContinuity(new SampleSink() {
+            @Override
+            public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+            }
+        }, 33333, 0);
+        assertEquals(0, keepGaps.adjust(0));
+        assertEquals(5000000, keepGaps.adjust(5000000));
+        assertEquals(0, keepGaps.getClosedGapUs());
+    }
+
+    private List<Long> delays() {
+        List<Long> delays = new ArrayList<>();
+        for (long[] delay : _Camera.delays) {
+            delays.add(delay[0]);
+        }
+        return delays;
+    }
+}
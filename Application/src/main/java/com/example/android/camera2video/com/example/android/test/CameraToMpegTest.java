@@ -24,6 +24,9 @@ import android.test.AndroidTestCase;
 import android.util.Log;
 import android.view.Surface;
 
+import com.example.android.camera2video.H264Sps;
+import com.example.android.camera2video.NalScanner;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -82,6 +85,8 @@ public class CameraToMpegTest extends AndroidTestCase {
     private MediaMuxer mMuxer;
     private int mTrackIndex;
     private boolean mMuxerStarted;
+    private int mEncWidth;
+    private int mEncHeight;
 
     // camera state
     private Camera mCamera;
@@ -318,6 +323,8 @@ public class CameraToMpegTest extends AndroidTestCase {
      */
     private void prepareEncoder(int width, int height, int bitRate) {
         mBufferInfo = new MediaCodec.BufferInfo();
+        mEncWidth = width;
+        mEncHeight = height;
 
         MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
 
@@ -447,8 +454,11 @@ public class CameraToMpegTest extends AndroidTestCase {
 
                 if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
                     // The codec config data was pulled out and fed to the muxer when we got
-                    // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-                    if (VERBOSE) Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
+                    // the INFO_OUTPUT_FORMAT_CHANGED status.  Just check that it describes
+                    // the stream we asked for.
+                    encodedData.position(mBufferInfo.offset);
+                    encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
+                    checkCodecConfig(encodedData);
                     mBufferInfo.size = 0;
                 }
 
@@ -479,6 +489,30 @@ public class CameraToMpegTest extends AndroidTestCase {
         }
     }
 
+    /**
+     * Extracts SPS and PPS from a BUFFER_FLAG_CODEC_CONFIG buffer and checks the coded size.
+     */
+    private void checkCodecConfig(ByteBuffer config) {
+        NalScanner scanner = new NalScanner().reset(config);
+        H264Sps sps = new H264Sps();
+        boolean haveSps = false;
+        boolean havePps = false;
+        while (scanner.next()) {
+            if (scanner.getNalType() == NalScanner.TYPE_SPS) {
+                haveSps = sps.parse(config, scanner.getNalOffset(), scanner.getNalSize());
+            } else if (scanner.getNalType() == NalScanner.TYPE_PPS) {
+                havePps = true;
+            }
+        }
+        assertTrue("no SPS in codec config", haveSps);
+        assertTrue("no PPS in codec config", havePps);
+        if (VERBOSE) {
+            Log.d(TAG, "SPS profile " + sps.getProfileIdc() + " level " + sps.getLevelIdc()
+                    + " " + sps.getWidth() + "x" + sps.getHeight());
+        }
+        assertEquals(mEncWidth, sps.getWidth());
+        assertEquals(mEncHeight, sps.getHeight());
+    }
 
     /**
      * Holds state associated with a Surface used for MediaCodec encoder input.
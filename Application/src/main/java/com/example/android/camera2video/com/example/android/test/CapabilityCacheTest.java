@@ -0,0 +1,91 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CapabilityCache;
+import com.example.android.camera2video.StreamConfigSolver;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Runs on a plain JVM: capability cache round trip, and that anything written for another
+ * device or build, or damaged, reads as absent.
+ */
+public class CapabilityCacheTest extends TestCase {
+    private static final String KEY = "google/hammerhead/hammerhead:5.1/LMY47I/1767468:user/release-keys|1767468|22";
+
+    private static CapabilityCache sample() {
+        CapabilityCache cache = new CapabilityCache(KEY);
+        cache.putCamera("0", StreamConfigSolver.fromDump(
+                "video: 1920x1080@33333333 1440x1080@33333333 1280x720@16666666\n"
+                + "preview: 1280x960@33333333 1280x720@16666666 640x480@16666666\n"));
+        cache.putCamera("1", StreamConfigSolver.fromDump("video: 1280x720@33333333\npreview: 640x480@33333333\n"));
+        cache.putEncoder("video/avc", "OMX.qcom.video.encoder.avc");
+        cache.putEncoder("audio/mp4a-latm", "OMX.google.aac.encoder");
+        return cache;
+    }
+
+    public void testRoundTrip() {
+        CapabilityCache original = sample();
+        CapabilityCache read = CapabilityCache.fromByteArray(original.toByteArray(), KEY);
+        assertNotNull(read);
+        assertEquals(Arrays.asList("0", "1"), read.getCameraIds());
+        for (String id : original.getCameraIds()) {
+            assertEquals(original.getCamera(id).toDump(), read.getCamera(id).toDump());
+        }
+        assertEquals("OMX.qcom.video.encoder.avc", read.getEncoder("video/avc"));
+        assertEquals("OMX.google.aac.encoder", read.getEncoder("audio/mp4a-latm"));
+        assertNull(read.getEncoder("video/hevc"));
+        // solving from the cache gives what solving from the query did
+        assertEquals(original.getCamera("0").solve(1440, 1080, 30, 1080, 1920).toString(),
+                read.getCamera("0").solve(1440, 1080, 30, 1080, 1920).toString());
+    }
+
+    public void testOtherBuildIsAbsent() {
+        byte[] data = sample().toByteArray();
+        assertNull(CapabilityCache.fromByteArray(data, KEY.replace("LMY47I", "LMY48B")));
+        assertNull(CapabilityCache.fromByteArray(data, ""));
+    }
+
+    public void testDamagedIsAbsent() {
+        byte[] data = sample().toByteArray();
+        for (int i = 0; i < data.length; i += 7) {
+            byte[] damaged = data.clone();
+            damaged[i] ^= 0x10;
+            assertNull("flipped byte " + i, CapabilityCache.fromByteArray(damaged, KEY));
+        }
+        for (int length = 0; length < data.length; length += 5) {
+            assertNull("truncated to " + length, CapabilityCache.fromByteArray(Arrays.copyOf(data, length), KEY));
+        }
+    }
+
+    public void testFile() throws IOException {
+        File file = File.createTempFile("capabilities", ".bin");
+        try {
+            file.delete();
+            assertNull(CapabilityCache.load(file, KEY));
+            sample().save(file);
+            CapabilityCache read = CapabilityCache.load(file, KEY);
+            assertNotNull(read);
+            assertEquals(2, read.getCameraIds().size());
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+            // overwriting replaces the old cache
+            CapabilityCache other = new CapabilityCache(KEY);
+            other.putEncoder("video/avc", "c2.android.avc.encoder");
+            other.save(file);
+            read = CapabilityCache.load(file, KEY);
+            assertTrue(read.getCameraIds().isEmpty());
+            assertEquals("c2.android.avc.encoder", read.getEncoder("video/avc"));
+
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[]{1, 2, 3});
+            out.close();
+            assertNull(CapabilityCache.load(file, KEY));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CaptureAnalyzer;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: replays timestamp sequences as the camera and codec threads would
+ * report them and checks the derived rate and drop counters.
+ */
+public class CaptureAnalyzerTest extends TestCase {
+    private static final long FRAME_NS = 33333333L;
+    // the sensor clock of a device that has been up for a while
+    private static final long BASE_NS = 123456789000000L;
+
+    public void testSteadyStreamHasNoDrops() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        for (int i = 0; i < 300; i++) {
+            capture(analyzer, i, i);
+            analyzer.onEncoded(ptsUs(i));
+        }
+        assertEquals(30f, analyzer.getFrameRate(), 0.1f);
+        assertEquals(0, analyzer.getSensorDropCount());
+        assertEquals(0, analyzer.getEncoderDropCount());
+        assertEquals(300, analyzer.getMatchedCount());
+        long[] latest = new long[4];
+        assertTrue(analyzer.getLatest(latest));
+        assertEquals(299, latest[0]);
+        assertEquals(BASE_NS + 299 * FRAME_NS, latest[1]);
+    }
+
+    public void testSensorGapCountsMissingFrames() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        // frame slots 10 and 11 never come off the sensor; frame numbers stay contiguous
+        int frame = 0;
+        for (int slot = 0; slot < 30; slot++) {
+            if (slot == 10 || slot == 11) {
+                continue;
+            }
+            capture(analyzer, frame++, slot);
+        }
+        assertEquals(2, analyzer.getSensorDropCount());
+        assertEquals(0, analyzer.getMissingResultCount());
+    }
+
+    public void testFailedCaptureCountsMissingResult() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        for (int i = 0; i < 10; i++) {
+            if (i != 4) {
+                capture(analyzer, i, i);
+            }
+        }
+        assertEquals(1, analyzer.getMissingResultCount());
+        assertEquals(1, analyzer.getSensorDropCount());
+    }
+
+    public void testEncoderDropsWithEncoderLagging() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        // the encoder runs four frames behind the capture results and loses frames 20 and 21
+        for (int i = 0; i < 100; i++) {
+            capture(analyzer, i, i);
+            int e = i - 4;
+            if (e >= 0 && e != 20 && e != 21) {
+                analyzer.onEncoded(ptsUs(e));
+            }
+        }
+        assertEquals(2, analyzer.getEncoderDropCount());
+        assertEquals(94, analyzer.getMatchedCount());
+        assertEquals(0, analyzer.getUnmatchedEncodedCount());
+    }
+
+    public void testResultsLaggingEncoderAreNotDrops() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        // capture results arrive six frames after the encoded samples
+        for (int i = 0; i < 100; i++) {
+            analyzer.onEncoded(ptsUs(i));
+            if (i >= 6) {
+                capture(analyzer, i - 6, i - 6);
+            }
+        }
+        assertEquals(0, analyzer.getEncoderDropCount());
+        assertEquals(0, analyzer.getUnmatchedEncodedCount());
+        assertEquals(94, analyzer.getMatchedCount());
+    }
+
+    public void testPreviewOnlyFramesAreNotEncoderDrops() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        for (int i = 0; i < 60; i++) {
+            boolean recording = i >= 30;
+            analyzer.onCaptureResult(i, BASE_NS + i * FRAME_NS, FRAME_NS, FRAME_NS / 2, recording);
+            if (recording) {
+                analyzer.onEncoded(ptsUs(i));
+            }
+        }
+        assertEquals(0, analyzer.getEncoderDropCount());
+        assertEquals(30, analyzer.getMatchedCount());
+    }
+
+    public void testStalledEncoderResynchronizes() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer(64);
+        for (int i = 0; i < 200; i++) {
+            capture(analyzer, i, i);
+        }
+        // nothing encoded for longer than the rings hold
+        assertTrue(analyzer.getOverrunCount() > 0);
+        analyzer.onEncoded(ptsUs(199));
+        long matched = analyzer.getMatchedCount();
+        long dropped = analyzer.getEncoderDropCount();
+        for (int i = 200; i < 220; i++) {
+            capture(analyzer, i, i);
+            analyzer.onEncoded(ptsUs(i));
+        }
+        // back in step once the encoder recovers
+        assertEquals(matched + 20, analyzer.getMatchedCount());
+        assertEquals(dropped, analyzer.getEncoderDropCount());
+    }
+
+    public void testHighSpeedBurstsAverageToConfiguredRate() {
+        CaptureAnalyzer analyzer = new CaptureAnalyzer();
+        long frameNs = 1000000000L / 240;
+        // results come in bursts of eight, but sensor timestamps stay one 240 fps frame apart
+        for (int i = 0; i < 480; i++) {
+            analyzer.onCaptureResult(i, BASE_NS + i * frameNs, frameNs, frameNs / 2, true);
+        }
+        assertEquals(240f, analyzer.getAverageFrameRate(), 0.5f);
+        assertTrue(analyzer.deliversFrameRate(240, 0.02f));
+        assertFalse(analyzer.deliversFrameRate(120, 0.02f));
+
+        // after a reset the average covers only the new frames, here at half the rate
+        analyzer.reset();
+        long start = BASE_NS + 480 * frameNs;
+        for (int i = 0; i < 120; i++) {
+            analyzer.onCaptureResult(480 + i, start + i * 2 * frameNs, 2 * frameNs, frameNs / 2, true);
+        }
+        assertEquals(120f, analyzer.getAverageFrameRate(), 0.5f);
+        assertFalse(analyzer.deliversFrameRate(240, 0.05f));
+    }
+
+    private static void capture(CaptureAnalyzer analyzer, int frameNumber, int slot) {
+        analyzer.onCaptureResult(frameNumber, BASE_NS + slot * FRAME_NS, FRAME_NS, FRAME_NS / 2, true);
+    }
+
+    private static long ptsUs(int slot) {
+        return (BASE_NS + slot * FRAME_NS) / 1000;
+    }
+}
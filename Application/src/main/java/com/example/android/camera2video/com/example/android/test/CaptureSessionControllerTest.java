@@ -0,0 +1,131 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CaptureSessionController;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM against a fake camera: record toggles in persistent mode must only swap
+ * the repeating request, never rebuild the session.
+ */
+public class CaptureSessionControllerTest extends TestCase {
+
+    /** Configures sessions synchronously and delivers one frame per repeating request. */
+    private static class FakeCamera implements CaptureSessionController.Host<String> {
+        CaptureSessionController<String> controller;
+        final List<List<String>> sessions = new ArrayList<>();
+        List<String> targets;
+        boolean recordingRequest;
+        int aborts;
+        long clockNs;
+
+        @Override
+        public void createSession(List<String> outputs) {
+            sessions.add(outputs);
+            targets = null;
+            controller.onSessionConfigured();
+        }
+
+        @Override
+        public void setRepeating(List<String> targets, boolean recording) {
+            assertTrue("target outside the session", sessions.get(sessions.size() - 1).containsAll(targets));
+            this.targets = targets;
+            recordingRequest = recording;
+        }
+
+        @Override
+        public void abortCaptures() {
+            aborts++;
+        }
+
+        /** Advances the clock by one frame and completes a capture of the current request. */
+        boolean frame() {
+            clockNs += 33000000L;
+            return controller.onCaptureCompleted(recordingRequest, clockNs);
+        }
+    }
+
+    private FakeCamera _Camera;
+    private CaptureSessionController<String> _Controller;
+
+    @Override
+    protected void setUp() {
+        _Camera = new FakeCamera();
+        _Controller = new CaptureSessionController<>(_Camera);
+        _Camera.controller = _Controller;
+        _Controller.setPreviewSurface("preview");
+        _Controller.setRecordSurface("encoder");
+    }
+
+    public void testPersistentSessionOnlySwapsTargets() {
+        _Controller.setPersistent(true);
+        _Controller.open();
+        assertEquals(Arrays.asList("preview", "encoder"), _Camera.sessions.get(0));
+        assertEquals(Arrays.asList("preview"), _Camera.targets);
+
+        for (int i = 0; i < 5; i++) {
+            _Controller.startRecord(_Camera.clockNs);
+            assertEquals(Arrays.asList("preview", "encoder"), _Camera.targets);
+            assertTrue(_Camera.frame());
+            assertFalse(_Camera.frame());
+            _Controller.stopRecord();
+            assertEquals(Arrays.asList("preview"), _Camera.targets);
+            assertFalse(_Camera.frame());
+        }
+        assertEquals(1, _Controller.getSessionCount());
+        assertEquals(1, _Camera.sessions.size());
+        assertEquals(0, _Camera.aborts);
+        assertEquals(11, _Controller.getRequestCount());
+        // the first frame after the swap already carries the encoder target
+        assertEquals(33000000L, _Controller.getLastRecordStartLatencyNs());
+        assertEquals(5, _Controller.getRecordStartLatency().snapshot().getCount());
+    }
+
+    public void testLegacyModeRebuildsOnEveryToggle() {
+        _Controller.open();
+        assertEquals(Arrays.asList("preview"), _Camera.sessions.get(0));
+        _Controller.startRecord(0);
+        _Controller.stopRecord();
+        assertEquals(3, _Controller.getSessionCount());
+        assertEquals(Arrays.asList("preview", "encoder"), _Camera.sessions.get(1));
+        assertEquals(2, _Camera.aborts);
+    }
+
+    public void testNewRecordSurfaceRebuildsOnce() {
+        _Controller.setPersistent(true);
+        _Controller.open();
+        _Controller.setRecordSurface("encoder2");
+        _Controller.startRecord(0);
+        assertEquals(2, _Controller.getSessionCount());
+        assertEquals(Arrays.asList("preview", "encoder2"), _Camera.targets);
+        _Controller.stopRecord();
+        _Controller.startRecord(0);
+        assertEquals(2, _Controller.getSessionCount());
+    }
+
+    public void testAnalysisSurfaceIsAlwaysTargeted() {
+        _Controller.setPersistent(true);
+        _Controller.setAnalysisSurface("analysis");
+        _Controller.open();
+        assertEquals(Arrays.asList("preview", "encoder", "analysis"), _Camera.sessions.get(0));
+        assertEquals(Arrays.asList("preview", "analysis"), _Camera.targets);
+        _Controller.startRecord(0);
+        assertEquals(Arrays.asList("preview", "encoder", "analysis"), _Camera.targets);
+        _Controller.stopRecord();
+        assertEquals(Arrays.asList("preview", "analysis"), _Camera.targets);
+        assertEquals(1, _Controller.getSessionCount());
+    }
+
+    public void testNothingSentWhileClosed() {
+        _Controller.setPersistent(true);
+        _Controller.open();
+        _Controller.close();
+        _Controller.startRecord(0);
+        assertEquals(1, _Camera.sessions.size());
+        assertEquals(1, _Controller.getRequestCount());
+    }
+}
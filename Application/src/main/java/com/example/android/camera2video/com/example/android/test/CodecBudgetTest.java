@@ -0,0 +1,66 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CodecBudget;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: admission of concurrent encoders against instance, throughput and
+ * bitrate budgets.
+ */
+public class CodecBudgetTest extends TestCase {
+    // AVCLevel41 and AVCLevel51 in MediaCodecInfo.CodecProfileLevel
+    private static final int AVC_LEVEL_41 = 0x1000;
+    private static final int AVC_LEVEL_51 = 0x8000;
+
+    public void testLevelTable() {
+        assertEquals(245760, CodecBudget.avcLevelMacroblocksPerSecond(AVC_LEVEL_41));
+        // the highest bit wins when several levels are reported together
+        assertEquals(983040, CodecBudget.avcLevelMacroblocksPerSecond(AVC_LEVEL_51 | AVC_LEVEL_41));
+        assertEquals(1485, CodecBudget.avcLevelMacroblocksPerSecond(1));
+        assertEquals(0, CodecBudget.avcLevelMacroblocksPerSecond(0));
+        // 1080 rows are 68 macroblocks
+        assertEquals(120 * 68 * 30, CodecBudget.macroblocksPerSecond(1920, 1080, 30));
+    }
+
+    public void testThroughputBudget() {
+        // level 4.1 fits one 1080p30 stream (244800 MB/s) and nothing next to it
+        CodecBudget budget = new CodecBudget(4, CodecBudget.avcLevelMacroblocksPerSecond(AVC_LEVEL_41), 0);
+        assertTrue(budget.tryAdmit("0", 1920, 1080, 30, 8000000));
+        assertNull(budget.getRefusal());
+        assertFalse(budget.tryAdmit("1", 640, 480, 30, 1000000));
+        assertTrue(budget.getRefusal().startsWith("1: "));
+        assertEquals(1, budget.getInstanceCount());
+
+        // the back camera drops to 720p: now the front one fits
+        assertTrue(budget.tryAdmit("0", 1280, 720, 30, 5000000));
+        assertTrue(budget.tryAdmit("1", 640, 480, 30, 1000000));
+        assertEquals(2, budget.getInstanceCount());
+        assertEquals(CodecBudget.macroblocksPerSecond(1280, 720, 30) + CodecBudget.macroblocksPerSecond(640, 480, 30),
+                budget.getMacroblocksPerSecond());
+    }
+
+    public void testInstanceBudget() {
+        CodecBudget budget = new CodecBudget(2, 0, 0);
+        assertTrue(budget.tryAdmit("0", 320, 240, 30, 100000));
+        assertTrue(budget.tryAdmit("1", 320, 240, 30, 100000));
+        assertFalse(budget.tryAdmit("2", 320, 240, 30, 100000));
+        budget.release("1");
+        assertTrue(budget.tryAdmit("2", 320, 240, 30, 100000));
+        // releasing an unknown name is harmless
+        budget.release("9");
+        assertEquals(2, budget.getInstanceCount());
+    }
+
+    public void testBitrateBudget() {
+        CodecBudget budget = new CodecBudget(4, 0, 10000000);
+        assertTrue(budget.tryAdmit("0", 1280, 720, 30, 6000000));
+        assertFalse(budget.tryAdmit("1", 1280, 720, 30, 6000000));
+        assertTrue(budget.tryAdmit("1", 1280, 720, 30, 4000000));
+        assertEquals(10000000, budget.getBitsPerSecond());
+        budget.release("0");
+        budget.release("1");
+        assertEquals(0, budget.getBitsPerSecond());
+        assertEquals(0, budget.getMacroblocksPerSecond());
+    }
+}
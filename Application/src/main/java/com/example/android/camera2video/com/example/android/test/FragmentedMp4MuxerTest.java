@@ -0,0 +1,112 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.FragmentedMp4Muxer;
+import com.example.android.camera2video.SampleMuxer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * Runs on a plain JVM: feeds synthetic Annex-B H.264 access units through
+ * {@link FragmentedMp4Muxer} and walks the resulting box structure.
+ */
+public class FragmentedMp4MuxerTest extends TestCase {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, 0x11};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final int FRAME_US = 33333;
+
+    public void testFragmentPerGop() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(Channels.newChannel(out));
+        muxer.addVideoTrack(640, 480, ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS));
+        muxer.start();
+
+        int gops = 4;
+        int gopLength = 15;
+        for (int i = 0; i < gops * gopLength; i++) {
+            boolean key = i % gopLength == 0;
+            muxer.writeSampleData(frame(key, 100 + i), 1000000L + i * FRAME_US,
+                    key ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        muxer.stop();
+        muxer.release();
+
+        ByteBuffer file = ByteBuffer.wrap(out.toByteArray());
+        assertEquals(file.capacity(), muxer.getBytesWritten());
+        assertEquals(gops, muxer.getFragmentCount());
+        assertEquals("ftyp", nextBox(file));
+        assertEquals("moov", nextBox(file));
+        for (int g = 0; g < gops; g++) {
+            int moofStart = file.position();
+            assertEquals("moof", nextBox(file));
+            int mdatStart = file.position();
+            assertEquals("mdat", nextBox(file));
+            ByteBuffer moof = slice(file, moofStart, mdatStart);
+            assertEquals(gopLength, trunSampleCount(moof));
+            // first NAL of every sample is a 4 byte length followed by the NAL header
+            assertEquals(100 + g * gopLength, file.getInt(mdatStart + 8));
+            assertEquals(0x65, file.get(mdatStart + 12));
+        }
+        assertFalse(file.hasRemaining());
+    }
+
+    public void testThreeByteStartCodesConverted() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(Channels.newChannel(out));
+        muxer.addVideoTrack(320, 240, ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS));
+        muxer.start();
+        byte[] au = {0, 0, 1, 0x06, 0x05, 0x01, 0, 0, 1, 0x65, 0x11, 0x22, 0x33};
+        muxer.writeSampleData(ByteBuffer.wrap(au), 0, SampleMuxer.FLAG_KEY_FRAME);
+        muxer.stop();
+
+        ByteBuffer file = ByteBuffer.wrap(out.toByteArray());
+        nextBox(file);
+        nextBox(file);
+        nextBox(file);
+        int mdat = file.position();
+        assertEquals("mdat", nextBox(file));
+        assertEquals(8 + 4 + 3 + 4 + 4, file.position() - mdat);
+        assertEquals(3, file.getInt(mdat + 8));
+        assertEquals(4, file.getInt(mdat + 15));
+        assertEquals(0x65, file.get(mdat + 19));
+    }
+
+    private static ByteBuffer frame(boolean key, int size) {
+        ByteBuffer b = ByteBuffer.allocateDirect(4 + size);
+        b.putInt(1);
+        b.put((byte) (key ? 0x65 : 0x41));
+        for (int i = 1; i < size; i++) {
+            b.put((byte) (0x80 | i));
+        }
+        b.flip();
+        return b;
+    }
+
+    private static String nextBox(ByteBuffer file) {
+        int start = file.position();
+        int size = file.getInt(start);
+        String type = "" + (char) file.get(start + 4) + (char) file.get(start + 5)
+                + (char) file.get(start + 6) + (char) file.get(start + 7);
+        file.position(start + size);
+        return type;
+    }
+
+    private static ByteBuffer slice(ByteBuffer file, int from, int to) {
+        ByteBuffer b = file.duplicate();
+        b.position(from).limit(to);
+        return b.slice();
+    }
+
+    private static int trunSampleCount(ByteBuffer moof) {
+        for (int i = 0; i + 8 <= moof.limit(); i++) {
+            if (moof.get(i) == 't' && moof.get(i + 1) == 'r' && moof.get(i + 2) == 'u'
+                    && moof.get(i + 3) == 'n') {
+                return moof.getInt(i + 8);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.HighSpeedConfig;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: high-speed mode selection against range dumps in the format
+ * Camera2Wrapper logs.
+ */
+public class HighSpeedConfigTest extends TestCase {
+
+    /** 2015 flagship: 120 fps at 1080p, 240 at 720p. */
+    private static final String FLAGSHIP =
+            "highspeed: 1920x1080@30-120 1920x1080@120-120 1280x720@30-120 1280x720@120-120"
+            + " 1280x720@30-240 1280x720@240-240\n";
+
+    /** 120 fps only, at 720p. */
+    private static final String SLOW_MO_120 = "highspeed: 1280x720@120-120 1280x720@30-120\n";
+
+    public void testExactRate() {
+        HighSpeedConfig.Result r = HighSpeedConfig.fromDump(FLAGSHIP).choose(1920, 1080, 120);
+        assertEquals(1920, r.getWidth());
+        assertEquals(120, r.getFrameRate());
+        assertEquals(30, r.getPreviewMinFps());
+        assertEquals(120, r.getPreviewMaxFps());
+        assertEquals(4, r.getBurstSize());
+        assertEquals(30, r.getPreviewFrameRate());
+    }
+
+    public void testRateDecidesSize() {
+        // 240 only exists at 720p, so the size gives way to the rate
+        HighSpeedConfig.Result r = HighSpeedConfig.fromDump(FLAGSHIP).choose(1920, 1080, 240);
+        assertEquals(1280, r.getWidth());
+        assertEquals(720, r.getHeight());
+        assertEquals(240, r.getFrameRate());
+        assertEquals(8, r.getBurstSize());
+        assertEquals(30, r.getPreviewFrameRate());
+        assertEquals(30, r.getPreviewMinFps());
+    }
+
+    public void testFallsBackToFastestBelowRequest() {
+        HighSpeedConfig.Result r = HighSpeedConfig.fromDump(SLOW_MO_120).choose(1920, 1080, 240);
+        assertEquals(120, r.getFrameRate());
+        assertEquals(1280, r.getWidth());
+        // below every fixed range: the slowest one
+        assertEquals(120, HighSpeedConfig.fromDump(FLAGSHIP).choose(1280, 720, 60).getFrameRate());
+    }
+
+    public void testNoFixedRange() {
+        assertNull(HighSpeedConfig.fromDump("highspeed: 1280x720@30-120\n").choose(1280, 720, 120));
+        assertTrue(HighSpeedConfig.fromDump("highspeed:").isEmpty());
+    }
+
+    public void testDumpRoundTrip() {
+        HighSpeedConfig config = HighSpeedConfig.fromDump(FLAGSHIP);
+        assertEquals(FLAGSHIP, config.toDump());
+        try {
+            HighSpeedConfig.fromDump("video: 1280x720@33333333");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
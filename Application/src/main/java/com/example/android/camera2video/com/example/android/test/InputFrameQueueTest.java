@@ -0,0 +1,282 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.InputFrameQueue;
+import com.example.android.camera2video.YuvFrame;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs on a plain JVM: a producer thread against a fake codec that hands input buffers back
+ * from its own thread, checking order, exact timestamps, pixels and frame recycling, plus back
+ * pressure, flush and the layout copies the encoder relies on.
+ */
+public class InputFrameQueueTest extends TestCase {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 36;
+    private static final long FRAME_NS = 33333333L;
+
+    /**
+     * Stands in for MediaCodec: NV12 input buffers with a padded stride, returned from a codec
+     * thread once "encoded".
+     */
+    private static class FakeCodec implements InputFrameQueue.Host {
+        static final int STRIDE = WIDTH + 16;
+        static final int SLICE_HEIGHT = HEIGHT + 4;
+
+        final ByteBuffer[] buffers;
+        final YuvFrame target = new YuvFrame();
+        final ExecutorService thread = Executors.newSingleThreadExecutor();
+        final List<Long> timestampsUs = Collections.synchronizedList(new ArrayList<Long>());
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final Map<YuvFrame, Boolean> framesSeen = Collections.synchronizedMap(new IdentityHashMap<YuvFrame, Boolean>());
+        final CountDownLatch endOfStream = new CountDownLatch(1);
+        volatile int endOfStreamCount;
+        volatile boolean filling;
+        InputFrameQueue queue;
+
+        FakeCodec(int bufferCount) {
+            buffers = new ByteBuffer[bufferCount];
+            for (int i = 0; i < bufferCount; i++) {
+                buffers[i] = ByteBuffer.allocate(YuvFrame.packedSize(WIDTH, HEIGHT, STRIDE, SLICE_HEIGHT));
+            }
+        }
+
+        void start() {
+            for (int i = 0; i < buffers.length; i++) {
+                release(i);
+            }
+        }
+
+        void release(final int index) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    queue.onInputBufferAvailable(index);
+                }
+            });
+        }
+
+        /**
+         * Runs task on the codec thread, or drops it once the test has shut the codec down:
+         * buffers still being "encoded" then have nowhere to go back to.
+         */
+        void post(Runnable task) {
+            try {
+                thread.execute(task);
+            } catch (RejectedExecutionException e) {
+                // stopped
+            }
+        }
+
+        @Override
+        public void fill(final int index, YuvFrame frame) {
+            if (filling) {
+                errors.add("fills overlap");
+            }
+            filling = true;
+            framesSeen.put(frame, true);
+            YuvFrame.wrapPacked(target, buffers[index], WIDTH, HEIGHT, STRIDE, SLICE_HEIGHT, true);
+            YuvFrame.copy(frame, target);
+            target.clear();
+            final long timestampUs = frame.getTimestampNs() / 1000;
+            timestampsUs.add(timestampUs);
+            filling = false;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    YuvFrame encoded = new YuvFrame();
+                    YuvFrame.wrapPacked(encoded, buffers[index], WIDTH, HEIGHT, STRIDE, SLICE_HEIGHT, true);
+                    int number = (int) ((timestampUs * 1000 + FRAME_NS / 2) / FRAME_NS);
+                    if (!matches(encoded, number)) {
+                        errors.add("wrong pixels in frame " + number);
+                    }
+                    release(index);
+                }
+            });
+        }
+
+        @Override
+        public void queueEndOfStream(int index) {
+            endOfStreamCount++;
+            endOfStream.countDown();
+        }
+    }
+
+    public void testProducerAgainstFakeCodec() throws Exception {
+        final FakeCodec codec = new FakeCodec(4);
+        final InputFrameQueue queue = new InputFrameQueue(codec, WIDTH, HEIGHT, 3, false);
+        codec.queue = queue;
+        codec.start();
+        final int frames = 1000;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < frames; i++) {
+                        YuvFrame frame = queue.obtain(5000);
+                        draw(frame, i);
+                        frame.set(WIDTH, HEIGHT, i * FRAME_NS + 1);
+                        queue.queue(frame);
+                    }
+                    queue.queueEndOfStream();
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        });
+        producer.start();
+        producer.join(10000);
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(codec.endOfStream.await(5, TimeUnit.SECONDS));
+        codec.thread.shutdown();
+        assertTrue(codec.thread.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertTrue(codec.errors.toString(), codec.errors.isEmpty());
+        assertEquals(frames, codec.timestampsUs.size());
+        for (int i = 0; i < frames; i++) {
+            assertEquals((i * FRAME_NS + 1) / 1000, (long) codec.timestampsUs.get(i));
+        }
+        assertEquals(1, codec.endOfStreamCount);
+        // only the pool's frames ever went by
+        assertEquals(3, codec.framesSeen.size());
+        assertEquals(frames, queue.getQueuedCount());
+        assertEquals(frames, queue.getFilledCount());
+        assertEquals(0, queue.getDepth());
+        assertNull(queue.obtain(0));
+    }
+
+    public void testProducerWaitsForTheCodec() throws Exception {
+        List<Integer> filled = new ArrayList<>();
+        InputFrameQueue queue = new InputFrameQueue(recorder(filled), WIDTH, HEIGHT, 2, true);
+        for (int i = 0; i < 2; i++) {
+            YuvFrame frame = queue.obtain(0);
+            frame.set(WIDTH, HEIGHT, (i + 1) * FRAME_NS);
+            queue.queue(frame);
+        }
+        assertEquals(2, queue.getDepth());
+        // no input buffer yet: the pool is empty and the producer has to wait
+        assertNull(queue.obtain(20));
+        assertEquals(1, queue.getWaitCount());
+
+        queue.onInputBufferAvailable(7);
+        assertEquals(Collections.singletonList(7), filled);
+        assertNotNull(queue.obtain(0));
+        queue.onInputBufferAvailable(3);
+        queue.onInputBufferAvailable(5);
+        assertEquals(2, filled.size());
+        assertEquals(1, queue.getIdleBufferCount());
+    }
+
+    public void testTimestampsMustIncrease() throws Exception {
+        InputFrameQueue queue = new InputFrameQueue(recorder(new ArrayList<Integer>()), WIDTH, HEIGHT, 1, true);
+        YuvFrame frame = queue.obtain(0);
+        frame.set(WIDTH, HEIGHT, FRAME_NS);
+        queue.queue(frame);
+        queue.onInputBufferAvailable(0);
+        frame = queue.obtain(0);
+        frame.set(WIDTH, HEIGHT, FRAME_NS);
+        try {
+            queue.queue(frame);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        // the rejected frame is back in the pool
+        assertNotNull(queue.obtain(0));
+    }
+
+    public void testFlushForgetsBuffersAndKeepsFrames() throws Exception {
+        List<Integer> filled = new ArrayList<>();
+        InputFrameQueue queue = new InputFrameQueue(recorder(filled), WIDTH, HEIGHT, 2, true);
+        queue.onInputBufferAvailable(0);
+        queue.onInputBufferAvailable(1);
+        queue.flush();
+        assertEquals(0, queue.getIdleBufferCount());
+        YuvFrame frame = queue.obtain(0);
+        frame.set(WIDTH, HEIGHT, FRAME_NS);
+        queue.queue(frame);
+        assertTrue(filled.isEmpty());
+        // the restarted codec's first buffer takes the frame queued meanwhile
+        queue.onInputBufferAvailable(4);
+        assertEquals(Collections.singletonList(4), filled);
+
+        queue.close();
+        assertNull(queue.obtain(1000));
+    }
+
+    public void testCopyBetweenLayouts() {
+        YuvFrame i420 = YuvFrame.allocatePacked(WIDTH, HEIGHT, false, false);
+        draw(i420, 5);
+        // camera-like: padded rows, interleaved chroma in NV21 order
+        YuvFrame camera = YuvFrame.allocate(WIDTH, HEIGHT, 8, true, true);
+        YuvFrame.copy(i420, camera);
+        assertTrue(matches(camera, 5));
+        YuvFrame nv12 = YuvFrame.allocatePacked(WIDTH, HEIGHT, true, true);
+        YuvFrame.copy(camera, nv12);
+        assertTrue(matches(nv12, 5));
+        assertEquals(chroma(5, YuvFrame.U, 3, 2), nv12.getPlane(YuvFrame.U).get(2 * WIDTH + 6) & 0xff);
+        assertEquals(chroma(5, YuvFrame.V, 3, 2), nv12.getPlane(YuvFrame.U).get(2 * WIDTH + 7) & 0xff);
+    }
+
+    private static InputFrameQueue.Host recorder(final List<Integer> filled) {
+        return new InputFrameQueue.Host() {
+            @Override
+            public void fill(int index, YuvFrame frame) {
+                filled.add(index);
+            }
+
+            @Override
+            public void queueEndOfStream(int index) {
+            }
+        };
+    }
+
+    private static void draw(YuvFrame frame, int number) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame.getPlane(YuvFrame.Y).put(y * frame.getRowStride(YuvFrame.Y) + x, (byte) luma(number, x, y));
+            }
+        }
+        for (int plane = YuvFrame.U; plane <= YuvFrame.V; plane++) {
+            for (int y = 0; y < HEIGHT / 2; y++) {
+                for (int x = 0; x < WIDTH / 2; x++) {
+                    frame.getPlane(plane).put(y * frame.getRowStride(plane) + x * frame.getPixelStride(plane),
+                            (byte) chroma(number, plane, x, y));
+                }
+            }
+        }
+    }
+
+    private static boolean matches(YuvFrame frame, int number) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (frame.getLuma(x, y) != luma(number, x, y)
+                        || frame.getChroma(YuvFrame.U, x, y) != chroma(number, YuvFrame.U, x / 2, y / 2)
+                        || frame.getChroma(YuvFrame.V, x, y) != chroma(number, YuvFrame.V, x / 2, y / 2)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int luma(int number, int x, int y) {
+        return (number * 7 + x + y * 3) & 0xff;
+    }
+
+    private static int chroma(int number, int plane, int x, int y) {
+        return (number * 11 + plane * 50 + x * 5 + y) & 0xff;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.LatencyHistogram;
+import com.example.android.camera2video.LatencyTracker;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: percentile accuracy of the log-linear buckets and concurrent recording.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testPercentilesWithinBucketError() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 1; v <= 100000; v++) {
+            h.record(v);
+        }
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(100000, s.getCount());
+        assertEquals(100000, s.getMax());
+        assertWithin(50000, s.getPercentile(50));
+        assertWithin(99000, s.getPercentile(99));
+        assertEquals(100000, s.getPercentile(100));
+        assertEquals(1, s.getPercentile(0));
+    }
+
+    public void testSmallValuesExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 0; v < 32; v++) {
+            h.record(v);
+        }
+        h.record(-5);
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(0, s.getPercentile(1));
+        assertEquals(15, s.getPercentile(50));
+        assertEquals(31, s.getMax());
+    }
+
+    public void testHugeValuesClampToLastBucket() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.snapshot().getPercentile(50));
+        h.reset();
+        assertEquals(0, h.snapshot().getCount());
+        assertEquals(0, h.snapshot().getPercentile(50));
+    }
+
+    public void testConcurrentRecordingWhileSnapshotting() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        final int perThread = 200000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        h.record(base * 1000 + i % 1000);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        long last = 0;
+        while (threads[threads.length - 1].isAlive()) {
+            long count = h.snapshot().getCount();
+            assertTrue(count >= last);
+            last = count;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(perThread * threads.length, s.getCount());
+        assertEquals(3999, s.getMax());
+    }
+
+    public void testTrackerStages() {
+        LatencyTracker tracker = new LatencyTracker();
+        // sensor clock runs 5 s ahead of nanoTime
+        tracker.setCaptureClockOffsetUs(5000000);
+        for (int i = 0; i < 100; i++) {
+            long ptsUs = 5000000 + i * 33333;
+            long captureNs = i * 33333000L;
+            tracker.onEncoded(ptsUs, captureNs + 20000000L);
+            tracker.onMuxed(ptsUs, captureNs + 20000000L, captureNs + 23000000L);
+        }
+        assertWithin(20000, tracker.getHistogram(LatencyTracker.STAGE_CAPTURE_TO_ENCODE).snapshot().getPercentile(50));
+        assertWithin(3000, tracker.getHistogram(LatencyTracker.STAGE_ENCODE_TO_MUX).snapshot().getPercentile(99));
+        assertWithin(23000, tracker.getHistogram(LatencyTracker.STAGE_CAPTURE_TO_MUX).snapshot().getMax());
+        assertTrue(tracker.summary().startsWith("capture->encode count=100 "));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.MotionDetector;
+import com.example.android.camera2video.MotionScorer;
+import com.example.android.camera2video.YuvFrame;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs on a plain JVM: block differencing of the scorer on synthetic luma planes, serial and
+ * striped, and the detector's hysteresis and post-roll on scripted scores.
+ */
+public class MotionDetectorTest extends TestCase {
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+    private static final long FRAME_NS = 33333333L;
+
+    private static class RecordingListener implements MotionDetector.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onMotionStart(long timestampNs) {
+            events.add("start " + timestampNs / FRAME_NS);
+        }
+
+        @Override
+        public void onMotionStop(long timestampNs) {
+            events.add("stop " + timestampNs / FRAME_NS);
+        }
+    }
+
+    public void testStillSceneScoresZero() {
+        MotionScorer scorer = new MotionScorer(WIDTH, HEIGHT, 4, 8);
+        // 32x24 decimated, 4x3 blocks
+        assertEquals(12, scorer.getBlockCount());
+        YuvFrame frame = frame(16, 0, 0, 0);
+        assertEquals(0f, scorer.score(frame));
+        // sensor noise below the noise level doesn't count
+        assertEquals(0f, scorer.score(noisy(frame(16, 0, 0, 0), 3)));
+        assertEquals(0f, scorer.score(frame(16, 0, 0, 0)));
+    }
+
+    public void testMovingSquareMarksItsBlocks() {
+        MotionScorer scorer = new MotionScorer(WIDTH, HEIGHT, 4, 8);
+        // a 32x32 bright square, exactly one block once decimated
+        scorer.score(frame(16, 32, 0, 0));
+        // moves one block to the right: the block it left and the one it entered changed
+        assertEquals(2f / 12, scorer.score(frame(16, 32, 32, 0)), 1e-6f);
+        // moves down a block and a half: the block it left and the two it covers now
+        assertEquals(3f / 12, scorer.score(frame(16, 32, 32, 48)), 1e-6f);
+    }
+
+    public void testStripesScoreLikeOneThread() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            MotionScorer serial = new MotionScorer(WIDTH, HEIGHT, 2, 4);
+            MotionScorer striped = new MotionScorer(WIDTH, HEIGHT, 2, 4);
+            striped.setParallelism(workers, 4);
+            for (int i = 0; i < 20; i++) {
+                YuvFrame frame = frame(8, 24, i * 5, i * 3);
+                assertEquals(serial.score(frame), striped.score(frame));
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    public void testRejectsOtherFrameSizes() {
+        MotionScorer scorer = new MotionScorer(WIDTH, HEIGHT, 4, 8);
+        try {
+            scorer.score(YuvFrame.allocate(WIDTH / 2, HEIGHT, 0, true, false));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testHysteresisAndPostRoll() {
+        RecordingListener listener = new RecordingListener();
+        MotionDetector detector = new MotionDetector(new MotionScorer(WIDTH, HEIGHT, 4, 8), listener);
+        detector.setThresholds(0.2f, 0.05f);
+        detector.setStartFrames(2);
+        detector.setPostRollNs(5 * FRAME_NS);
+        float[] scores = {
+                0.3f, 0, 0.3f, 0.1f, // single frames above start don't start it
+                0.3f, 0.3f, // two in a row do, at frame 5
+                0.1f, 0.1f, 0.1f, 0.1f, 0.1f, 0.1f, 0.1f, // above stop keeps it going
+                0, 0, 0, 0, // a pause shorter than the post-roll
+                0.1f,
+                0, 0, 0, 0, 0, // post-roll runs out at frame 22
+                0, 0.1f, 0.1f, 0.1f,
+        };
+        for (int i = 0; i < scores.length; i++) {
+            detector.onScore(scores[i], i * FRAME_NS);
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add("start 5");
+        expected.add("stop 22");
+        assertEquals(expected, listener.events);
+        assertFalse(detector.isMotion());
+        assertEquals(1, detector.getEventCount());
+    }
+
+    public void testAnalyzeStartsOnMovementAndSkipsStaleFrames() {
+        RecordingListener listener = new RecordingListener();
+        MotionDetector detector = new MotionDetector(new MotionScorer(WIDTH, HEIGHT, 4, 8), listener);
+        detector.setThresholds(0.1f, 0.05f);
+        detector.setStartFrames(1);
+        YuvFrame still = frame(16, 32, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            still.set(WIDTH, HEIGHT, i * FRAME_NS);
+            detector.analyze(still);
+        }
+        assertTrue(listener.events.isEmpty());
+        YuvFrame moved = frame(16, 32, 64, 32);
+        moved.set(WIDTH, HEIGHT, 3 * FRAME_NS);
+        detector.analyze(moved);
+        assertEquals(1, listener.events.size());
+        assertEquals("start 3", listener.events.get(0));
+        assertTrue(detector.isMotion());
+
+        // an older frame handed over late by another worker
+        still.set(WIDTH, HEIGHT, 2 * FRAME_NS);
+        detector.analyze(still);
+        assertEquals(1, detector.getStaleCount());
+    }
+
+    /**
+     * A frame of background luma with a size x size square of 220 at (x, y), and padded rows.
+     */
+    private static YuvFrame frame(int background, int size, int x, int y) {
+        YuvFrame frame = YuvFrame.allocate(WIDTH, HEIGHT, 16, true, false);
+        ByteBuffer luma = frame.getPlane(YuvFrame.Y);
+        int stride = frame.getRowStride(YuvFrame.Y);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = 0; column < stride; column++) {
+                boolean inSquare = column >= x && column < x + size && row >= y && row < y + size;
+                luma.put(row * stride + column, (byte) (inSquare ? 220 : background));
+            }
+        }
+        return frame;
+    }
+
+    private static YuvFrame noisy(YuvFrame frame, int amplitude) {
+        ByteBuffer luma = frame.getPlane(YuvFrame.Y);
+        int stride = frame.getRowStride(YuvFrame.Y);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = 0; column < WIDTH; column++) {
+                int value = (luma.get(row * stride + column) & 0xff) + ((row * 31 + column * 17) % (2 * amplitude + 1))
+                        - amplitude;
+                luma.put(row * stride + column, (byte) value);
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.H264Sps;
+import com.example.android.camera2video.NalScanner;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Runs on a plain JVM: NAL boundary detection for both framings and SPS parsing.
+ */
+public class NalScannerTest extends TestCase {
+
+    public void testAnnexBBoundariesAndTypes() {
+        byte[] stream = {
+                0, 0, 0, 1, 0x67, 0x11, 0x22,          // SPS, 4 byte start code
+                0, 0, 1, 0x68, 0x33,                    // PPS, 3 byte start code
+                0, 0, 1, 0x06, 0x05, 0x00,             // SEI ending in a trailing zero
+                0, 0, 0, 1, 0x65, 0x44, 0x00, 0x00, 0x03, 0x01, 0x55, // IDR with emulation prevention
+        };
+        ByteBuffer direct = ByteBuffer.allocateDirect(stream.length + 8);
+        direct.position(8);
+        direct.put(stream);
+        direct.position(8);
+
+        NalScanner scanner = new NalScanner().reset(direct);
+        int[] types = {NalScanner.TYPE_SPS, NalScanner.TYPE_PPS, NalScanner.TYPE_SEI, NalScanner.TYPE_IDR};
+        int[] sizes = {3, 2, 2, 7};
+        int[] offsets = {12, 18, 23, 30};
+        for (int i = 0; i < types.length; i++) {
+            assertTrue(scanner.next());
+            assertEquals(types[i], scanner.getNalType());
+            assertEquals(sizes[i], scanner.getNalSize());
+            assertEquals(offsets[i], scanner.getNalOffset());
+        }
+        assertFalse(scanner.next());
+        // the scanned buffer is left untouched
+        assertEquals(8, direct.position());
+        assertTrue(scanner.containsIdr(direct));
+    }
+
+    public void testAvcc() {
+        ByteBuffer b = ByteBuffer.allocate(32);
+        b.putInt(3).put((byte) 0x41).put((byte) 1).put((byte) 2);
+        b.putInt(2).put((byte) 0x06).put((byte) 9);
+        b.flip();
+        NalScanner scanner = new NalScanner().resetAvcc(b, 4);
+        assertTrue(scanner.next());
+        assertEquals(NalScanner.TYPE_SLICE, scanner.getNalType());
+        assertEquals(4, scanner.getNalOffset());
+        assertTrue(scanner.next());
+        assertEquals(NalScanner.TYPE_SEI, scanner.getNalType());
+        assertEquals(2, scanner.getNalSize());
+        assertFalse(scanner.next());
+    }
+
+    public void testNoStartCode() {
+        ByteBuffer b = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 0, 0, 2});
+        assertFalse(NalScanner.isAnnexB(b));
+        assertFalse(new NalScanner().reset(b).next());
+    }
+
+    public void testBaselineSps() {
+        // 1440x1080: 90x68 macroblocks, cropped by 8 rows
+        byte[] sps = sps(66, 40, 90, 68, 4);
+        H264Sps parsed = new H264Sps();
+        assertTrue(parsed.parse(ByteBuffer.wrap(sps), 0, sps.length));
+        assertEquals(66, parsed.getProfileIdc());
+        assertEquals(40, parsed.getLevelIdc());
+        assertEquals(1440, parsed.getWidth());
+        assertEquals(1080, parsed.getHeight());
+        assertTrue(parsed.isFrameMbsOnly());
+    }
+
+    public void testHighProfileSpsWithEmulationPrevention() {
+        // a 16x16 picture gives ue(0) runs that force 00 00 0x sequences in the RBSP
+        byte[] sps = sps(100, 0, 1, 1, 0);
+        boolean escaped = false;
+        for (int i = 2; i < sps.length; i++) {
+            escaped |= sps[i - 2] == 0 && sps[i - 1] == 0 && sps[i] == 3;
+        }
+        assertTrue(escaped);
+        H264Sps parsed = new H264Sps();
+        assertTrue(parsed.parse(ByteBuffer.wrap(sps), 0, sps.length));
+        assertEquals(100, parsed.getProfileIdc());
+        assertEquals(1, parsed.getChromaFormatIdc());
+        assertEquals(16, parsed.getWidth());
+        assertEquals(16, parsed.getHeight());
+    }
+
+    public void testRejectsNonSps() {
+        assertFalse(new H264Sps().parse(ByteBuffer.wrap(new byte[]{0x68, 1, 2, 3}), 0, 4));
+    }
+
+    /**
+     * Builds an SPS NAL (header included, emulation prevention applied).
+     */
+    private static byte[] sps(int profile, int level, int widthMbs, int heightMbs, int cropBottom) {
+        BitWriter w = new BitWriter();
+        w.bits(profile, 8);
+        w.bits(0, 8);
+        w.bits(level, 8);
+        w.ue(0);                    // seq_parameter_set_id
+        if (profile == 100) {
+            w.ue(1);                // chroma_format_idc
+            w.ue(0);
+            w.ue(0);
+            w.bits(0, 1);
+            w.bits(0, 1);           // no scaling matrix
+        }
+        w.ue(0);                    // log2_max_frame_num_minus4
+        w.ue(2);                    // pic_order_cnt_type
+        w.ue(1);                    // max_num_ref_frames
+        w.bits(0, 1);
+        w.ue(widthMbs - 1);
+        w.ue(heightMbs - 1);
+        w.bits(1, 1);               // frame_mbs_only_flag
+        w.bits(1, 1);               // direct_8x8_inference_flag
+        if (cropBottom > 0) {
+            w.bits(1, 1);
+            w.ue(0);
+            w.ue(0);
+            w.ue(0);
+            w.ue(cropBottom);
+        } else {
+            w.bits(0, 1);
+        }
+        w.bits(0, 1);               // vui_parameters_present_flag
+        // pad with zero words ahead of the stop bit to provoke emulation prevention
+        if (profile == 100) {
+            w.bits(0, 24);
+        }
+        w.bits(1, 1);               // rbsp_stop_one_bit
+        byte[] rbsp = w.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x67);
+        int zeros = 0;
+        for (byte b : rbsp) {
+            if (zeros >= 2 && (b & 0xff) <= 3) {
+                out.write(3);
+                zeros = 0;
+            }
+            out.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return out.toByteArray();
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream _Out = new ByteArrayOutputStream();
+        private int _Current;
+        private int _Count;
+
+        void bits(int value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                _Current = (_Current << 1) | ((value >> i) & 1);
+                if (++_Count == 8) {
+                    _Out.write(_Current);
+                    _Current = 0;
+                    _Count = 0;
+                }
+            }
+        }
+
+        void ue(int value) {
+            int v = value + 1;
+            int len = 32 - Integer.numberOfLeadingZeros(v);
+            bits(0, len - 1);
+            bits(v, len);
+        }
+
+        byte[] toByteArray() {
+            while (_Count != 0) {
+                bits(0, 1);
+            }
+            return _Out.toByteArray();
+        }
+    }
+}
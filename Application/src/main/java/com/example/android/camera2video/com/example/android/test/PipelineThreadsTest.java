@@ -0,0 +1,211 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.ManualExecutor;
+import com.example.android.camera2video.PipelineThreads;
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SampleRing;
+import com.example.android.camera2video.SampleSink;
+import com.example.android.camera2video.SampleWriter;
+import com.example.android.camera2video.ThreadExecutor;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs on a plain JVM: the writer stepped one batch at a time on a {@link ManualExecutor},
+ * {@link PipelineThreads#runAndWait} across real threads, and a quit racing new tasks.
+ */
+public class PipelineThreadsTest extends TestCase {
+
+    private static class ListSink implements SampleSink {
+        final List<Long> times = new ArrayList<>();
+        final List<String> threads = new ArrayList<>();
+
+        @Override
+        public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+            times.add(presentationTimeUs);
+            threads.add(Thread.currentThread().getName());
+        }
+    }
+
+    public void testWriterStepsDeterministically() {
+        SampleRing ring = new SampleRing(64, 256);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(ring.offer(ByteBuffer.allocate(100), i, i == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0));
+        }
+        ManualExecutor executor = new ManualExecutor();
+        ListSink sink = new ListSink();
+        SampleWriter writer = new SampleWriter(ring, sink);
+        writer.start(executor);
+        assertEquals(0, sink.times.size());
+
+        // one batch of 16 per step, each step queueing the next
+        assertEquals(1, executor.runPending());
+        assertEquals(16, sink.times.size());
+        assertEquals(1, executor.runPending());
+        assertEquals(32, sink.times.size());
+        assertFalse(writer.isStopped());
+
+        writer.requestStop();
+        executor.runAll(10);
+        assertEquals(40, sink.times.size());
+        assertEquals(0, executor.getPendingCount());
+        assertTrue(writer.isStopped());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, (long) sink.times.get(i));
+        }
+    }
+
+    public void testIdleWriterLeavesTheExecutorFree() {
+        SampleRing ring = new SampleRing(8, 256);
+        ManualExecutor executor = new ManualExecutor();
+        ListSink sink = new ListSink();
+        SampleWriter writer = new SampleWriter(ring, sink);
+        writer.start(executor);
+        assertEquals(1, executor.runPending());
+        // nothing to write, nothing queued
+        assertEquals(0, executor.getPendingCount());
+
+        // the first sample queues one run, the second joins it
+        ring.offer(ByteBuffer.allocate(10), 0, SampleMuxer.FLAG_KEY_FRAME);
+        ring.offer(ByteBuffer.allocate(10), 1, 0);
+        assertEquals(1, executor.getPendingCount());
+        assertEquals(1, executor.runPending());
+        assertEquals(2, sink.times.size());
+        assertEquals(0, executor.getPendingCount());
+
+        writer.requestStop();
+        assertEquals(1, executor.runPending());
+        assertTrue(writer.isStopped());
+        ring.offer(ByteBuffer.allocate(10), 2, 0);
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    public void testStopMidDrainThenRestartOnTheSameRing() {
+        SampleRing ring = new SampleRing(16, 256);
+        ManualExecutor executor = new ManualExecutor();
+        final SampleWriter[] first = new SampleWriter[1];
+        final List<Long> old = new ArrayList<>();
+        first[0] = new SampleWriter(ring, new SampleSink() {
+            @Override
+            public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+                old.add(presentationTimeUs);
+                // the stop request queues another run while this one drains
+                first[0].requestStop();
+            }
+        });
+        first[0].start(executor);
+        for (int i = 0; i < 8; i++) {
+            ring.offer(ByteBuffer.allocate(10), i, i == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        assertEquals(1, executor.runPending());
+        assertTrue(first[0].isStopped());
+        assertEquals(8, old.size());
+        assertEquals(1, executor.getPendingCount());
+
+        // the next file's writer, with the stale run still queued ahead of it
+        ListSink sink = new ListSink();
+        SampleWriter second = new SampleWriter(ring, sink);
+        second.start(executor);
+        for (int i = 0; i < 20; i++) {
+            ring.offer(ByteBuffer.allocate(10), 100 + i, i == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+            executor.runPending();
+        }
+        assertEquals(8, old.size());
+        assertEquals(20, sink.times.size());
+        assertEquals(0, ring.getDepth());
+        assertEquals(0, ring.getDroppedCount());
+        second.requestStop();
+        executor.runAll(10);
+        assertTrue(second.isStopped());
+    }
+
+    public void testWriterOnIoThread() throws Exception {
+        ThreadExecutor io = new ThreadExecutor("IoThread");
+        SampleRing ring = new SampleRing(8, 256);
+        ListSink sink = new ListSink();
+        SampleWriter writer = new SampleWriter(ring, sink);
+        writer.start(io);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(ByteBuffer.allocate(10), i, SampleMuxer.FLAG_KEY_FRAME);
+        }
+        writer.stop();
+        assertEquals(5, sink.times.size());
+        assertEquals("IoThread", sink.threads.get(0));
+        io.quit();
+        io.join();
+    }
+
+    public void testRunAndWait() throws Exception {
+        final ThreadExecutor codec = new ThreadExecutor("CodecThread");
+        final String[] ranOn = new String[2];
+        PipelineThreads.runAndWait(codec, new Runnable() {
+            @Override
+            public void run() {
+                ranOn[0] = Thread.currentThread().getName();
+                // nested calls from the executor's own thread run inline instead of deadlocking
+                PipelineThreads.runAndWait(codec, new Runnable() {
+                    @Override
+                    public void run() {
+                        ranOn[1] = Thread.currentThread().getName();
+                    }
+                });
+            }
+        });
+        assertEquals("CodecThread", ranOn[0]);
+        assertEquals("CodecThread", ranOn[1]);
+
+        try {
+            PipelineThreads.runAndWait(codec, new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("codec");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("codec", e.getMessage());
+        }
+        codec.quit();
+        codec.join();
+    }
+
+    public void testQuitRacingExecuteLosesNothing() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final ThreadExecutor io = new ThreadExecutor("IoThread");
+            final AtomicInteger accepted = new AtomicInteger();
+            final AtomicInteger ran = new AtomicInteger();
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            };
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            io.execute(task);
+                            accepted.incrementAndGet();
+                        }
+                    } catch (RejectedExecutionException e) {
+                        // quit
+                    }
+                }
+            });
+            producer.start();
+            Thread.yield();
+            io.quit();
+            producer.join();
+            io.join();
+            // every task was either rejected or run, none dropped in between
+            assertEquals(accepted.get(), ran.get());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.PreRollBuffer;
+import com.example.android.camera2video.PreRollSink;
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SampleSink;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM: byte-bounded eviction and key frame aligned flushing of the pre-roll.
+ */
+public class PreRollBufferTest extends TestCase {
+    private static final long FRAME_US = 33333;
+
+    private static class ListSink implements SampleSink {
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+
+        @Override
+        public void writeSampleData(ByteBuffer data, long presentationTimeUs, int f) {
+            // every synthetic sample is filled with the low byte of its index
+            byte expected = data.get(data.position());
+            for (int i = data.position(); i < data.limit(); i++) {
+                assertEquals(expected, data.get(i));
+            }
+            times.add(presentationTimeUs);
+            flags.add(f);
+        }
+    }
+
+    public void testMemoryCappedInBytes() {
+        PreRollBuffer buffer = new PreRollBuffer(10000, 1000);
+        for (int i = 0; i < 500; i++) {
+            buffer.add(sample(i, 300), i * FRAME_US, i % 30 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+            assertTrue(buffer.getSampleCount() * 300 <= 10000);
+        }
+        // 33 samples of 300 bytes fit, minus what the wrap at the end of the buffer wastes
+        assertTrue(buffer.getSampleCount() >= 32);
+        assertEquals(500 - buffer.getSampleCount(), buffer.getEvictedCount());
+    }
+
+    public void testFlushStartsAtPrecedingKeyFrame() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1 << 20, 1000);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(sample(i, 100), i * FRAME_US, i % 30 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        ListSink sink = new ListSink();
+        // frame 75 is wanted; the nearest key frame before it is frame 60
+        assertEquals(40, buffer.drainTo(sink, 75 * FRAME_US));
+        assertEquals(60 * FRAME_US, (long) sink.times.get(0));
+        assertEquals(SampleMuxer.FLAG_KEY_FRAME, (int) sink.flags.get(0));
+        assertEquals(99 * FRAME_US, (long) sink.times.get(39));
+        assertEquals(0, buffer.getSampleCount());
+    }
+
+    public void testEvictedKeyFrameFallsBackToOldestRetained() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(50 * 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(sample(i, 100), i * FRAME_US, i % 30 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        // only frames 50..99 fit, the oldest key frame left is 60
+        assertEquals(2, buffer.getKeyFrameCount());
+        ListSink sink = new ListSink();
+        assertEquals(40, buffer.drainTo(sink, 0));
+        assertEquals(60 * FRAME_US, (long) sink.times.get(0));
+    }
+
+    public void testSinkFlushesThenGoesLive() throws Exception {
+        ListSink muxer = new ListSink();
+        PreRollSink gate = new PreRollSink(muxer, 990000, 1 << 20, 1000);
+        int i = 0;
+        for (; i < 90; i++) {
+            gate.writeSampleData(sample(i, 50), i * FRAME_US, i % 30 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        assertEquals(0, muxer.times.size());
+        gate.setRecording(true);
+        for (; i < 120; i++) {
+            gate.writeSampleData(sample(i, 50), i * FRAME_US, i % 30 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        // just under one second back from frame 90 is frame 60, itself a key frame
+        assertEquals(30, gate.getLastFlushCount());
+        assertEquals(60, muxer.times.size());
+        for (int k = 0; k < 60; k++) {
+            assertEquals((60 + k) * FRAME_US, (long) muxer.times.get(k));
+        }
+    }
+
+    private static ByteBuffer sample(int index, int size) {
+        ByteBuffer b = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            b.put((byte) index);
+        }
+        b.flip();
+        return b;
+    }
+}
@@ -0,0 +1,336 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CameraRecovery;
+import com.example.android.camera2video.FakeCamera;
+import com.example.android.camera2video.FakeVideoCodec;
+import com.example.android.camera2video.LatencyTracker;
+import com.example.android.camera2video.PtsContinuity;
+import com.example.android.camera2video.RecordPath;
+import com.example.android.camera2video.RecordSimulation;
+import com.example.android.camera2video.SampleRing;
+import com.example.android.camera2video.SyntheticFrameSource;
+import com.example.android.camera2video.VirtualClock;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: the fake camera, the camera driver, the record path and the fake codec
+ * on a virtual clock, with start-up and record-start times that follow from the fake delays,
+ * recovery from a disconnect in the middle of a file, pre-roll recordings with the idle time
+ * between them kept out of the files, and camera, codec and I/O stalls showing up as drops
+ * where each would on a device.
+ */
+public class RecordSimulationTest extends TestCase {
+    private static final long MS = 1000000L;
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static RecordSimulation newSimulation() {
+        RecordSimulation simulation = new RecordSimulation(WIDTH, HEIGHT, 30);
+        simulation.getRecordPath().setBitrate(2000000, 2000000, 2000000);
+        return simulation;
+    }
+
+    public void testStartupAndRecordStartFollowTheDelays() {
+        RecordSimulation simulation = newSimulation();
+        simulation.start();
+        simulation.runFor(500 * MS);
+        // open, session, then the first capture result
+        assertEquals(FakeCamera.DEFAULT_OPEN_NS + FakeCamera.DEFAULT_SESSION_NS + FakeCamera.DEFAULT_RESULT_NS,
+                simulation.getStartupNs());
+        assertTrue(simulation.getPreviewFrameCount() > 0);
+        // nothing targets the codec until recording
+        assertEquals(0, simulation.getCodec().getInputCount());
+
+        simulation.startRecording();
+        simulation.runFor(2000 * MS);
+        // a new session with the record surface, then the first capture in it
+        assertEquals(FakeCamera.DEFAULT_SESSION_NS + FakeCamera.DEFAULT_RESULT_NS,
+                simulation.getDriver().getSessionController().getLastRecordStartLatencyNs());
+        simulation.stopRecording();
+        simulation.runFor(200 * MS);
+        simulation.stop();
+
+        assertEquals(1, simulation.getFiles().size());
+        RecordSimulation.MemoryMuxer file = simulation.getFiles().get(0);
+        assertTrue(file.isStopped());
+        FakeVideoCodec codec = simulation.getCodec();
+        assertEquals(codec.getOutputCount(), file.getSampleCount());
+        assertEquals(codec.getInputCount(), codec.getOutputCount());
+        assertEquals(1, file.getKeyFrameCount());
+        // about two seconds at 30 fps, less the time to build the session
+        assertTrue(String.valueOf(file.getSampleCount()), file.getSampleCount() >= 55 && file.getSampleCount() <= 62);
+        assertEquals(0, codec.getInputDropCount());
+        assertEquals(0, simulation.getRecordPath().getSampleRing().getDroppedCount());
+        assertEquals(0, simulation.getErrorCount());
+        assertEquals(1, simulation.getRecordingCount());
+    }
+
+    public void testArmWithoutRecordingMakesNoFile() {
+        RecordSimulation simulation = newSimulation();
+        simulation.start();
+        simulation.runFor(1000 * MS);
+        simulation.stop();
+        assertEquals(0, simulation.getFiles().size());
+
+        // nor does the rollover after a pre-roll recording
+        simulation = newSimulation();
+        simulation.getRecordPath().setPreRoll(1000000, 4 << 20);
+        simulation.start();
+        simulation.runFor(2000 * MS);
+        simulation.startRecording();
+        simulation.runFor(1000 * MS);
+        simulation.stopRecording();
+        simulation.runFor(2000 * MS);
+        simulation.stop();
+        assertEquals(1, simulation.getFiles().size());
+        assertEquals(1, simulation.getRecordingCount());
+        assertEquals(0, simulation.getErrorCount());
+    }
+
+    public void testRunsAreReproducible() {
+        String first = null;
+        long checksum = 0;
+        for (int run = 0; run < 2; run++) {
+            RecordSimulation simulation = faultyRun();
+            RecordSimulation.MemoryMuxer file = simulation.getFiles().get(0);
+            if (first == null) {
+                first = simulation.summary();
+                checksum = file.getChecksum();
+            } else {
+                assertEquals(first, simulation.summary());
+                assertEquals(checksum, file.getChecksum());
+            }
+        }
+    }
+
+    private static RecordSimulation faultyRun() {
+        RecordSimulation simulation = newSimulation();
+        long t0 = simulation.getClock().nowNs();
+        simulation.getCamera().stall(t0 + 1500 * MS, 300 * MS);
+        simulation.getCodec().stall(t0 + 2500 * MS, 250 * MS);
+        simulation.stallWriter(t0 + 3000 * MS, 500 * MS);
+        simulation.start();
+        simulation.runFor(400 * MS);
+        simulation.startRecording();
+        simulation.runFor(4000 * MS);
+        simulation.stop();
+        return simulation;
+    }
+
+    public void testRecoversFromDisconnectInTheSameFile() {
+        final RecordSimulation simulation = newSimulation();
+        simulation.getRecordPath().setMaxPtsGap(100000);
+        simulation.start();
+        simulation.runFor(400 * MS);
+        simulation.startRecording();
+        VirtualClock clock = simulation.getClock();
+        clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                simulation.getCamera().disconnect();
+            }
+        }, 1000 * MS);
+        simulation.runFor(3000 * MS);
+        simulation.stop();
+
+        CameraRecovery recovery = simulation.getDriver().getRecovery();
+        assertEquals(1, recovery.getFaultCount());
+        assertEquals(1, recovery.getRecoveryCount());
+        assertEquals(1, simulation.getDeviceLostCount());
+        // backoff, open, session, first result
+        assertEquals(CameraRecovery.DEFAULT_INITIAL_BACKOFF_MS * MS + FakeCamera.DEFAULT_OPEN_NS
+                + FakeCamera.DEFAULT_SESSION_NS + FakeCamera.DEFAULT_RESULT_NS, recovery.getLastRecoveryNs());
+        assertEquals(2, simulation.getCamera().getOpenCount());
+
+        // one file straight through, the hole closed down to a frame
+        assertEquals(1, simulation.getFiles().size());
+        RecordSimulation.MemoryMuxer file = simulation.getFiles().get(0);
+        assertEquals(simulation.getCodec().getOutputCount(), file.getSampleCount());
+        PtsContinuity continuity = simulation.getRecordPath().getPtsContinuity();
+        assertEquals(1, continuity.getAdjustCount());
+        assertEquals(recovery.getLastGapNs() / 1000 - 1000000 / 30, continuity.getClosedGapUs(), 2);
+    }
+
+    public void testCameraStallIsAGapNotADrop() {
+        RecordSimulation simulation = newSimulation();
+        long t0 = simulation.getClock().nowNs();
+        simulation.getCamera().stall(t0 + 1000 * MS, 500 * MS);
+        simulation.start();
+        simulation.runFor(400 * MS);
+        simulation.startRecording();
+        simulation.runFor(2000 * MS);
+        simulation.stop();
+
+        assertEquals(15, simulation.getCamera().getStalledCount());
+        assertEquals(0, simulation.getCodec().getInputDropCount());
+        assertEquals(0, simulation.getRecordPath().getSampleRing().getDroppedCount());
+        assertEquals(simulation.getCodec().getOutputCount(), simulation.getFiles().get(0).getSampleCount());
+    }
+
+    public void testCodecStallDropsAtTheSurface() {
+        RecordSimulation simulation = newSimulation();
+        long t0 = simulation.getClock().nowNs();
+        simulation.getCodec().stall(t0 + 1000 * MS, 300 * MS);
+        simulation.start();
+        simulation.runFor(400 * MS);
+        simulation.startRecording();
+        simulation.runFor(2000 * MS);
+        simulation.stop();
+
+        FakeVideoCodec codec = simulation.getCodec();
+        // nine frames arrive during the stall, three of them fit
+        assertEquals(9 - FakeVideoCodec.DEFAULT_PENDING_FRAMES, codec.getInputDropCount());
+        assertEquals(0, simulation.getRecordPath().getSampleRing().getDroppedCount());
+        assertEquals(codec.getOutputCount(), simulation.getFiles().get(0).getSampleCount());
+    }
+
+    public void testWriterStallDropsInTheRing() {
+        RecordSimulation simulation = newSimulation();
+        long t0 = simulation.getClock().nowNs();
+        simulation.stallWriter(t0 + 1000 * MS, 4000 * MS);
+        simulation.start();
+        simulation.runFor(400 * MS);
+        simulation.startRecording();
+        simulation.runFor(6000 * MS);
+        LatencyTracker latency = simulation.getRecordPath().getLatencyTracker();
+        long worstUs = latency.getHistogram(LatencyTracker.STAGE_CAPTURE_TO_MUX).snapshot().getMax();
+        simulation.stop();
+
+        SampleRing ring = simulation.getRecordPath().getSampleRing();
+        assertEquals(ring.getCapacity(), ring.getHighWaterMark());
+        assertTrue(ring.getDroppedCount() > 0);
+        assertEquals(0, simulation.getCodec().getInputDropCount());
+        RecordSimulation.MemoryMuxer file = simulation.getFiles().get(0);
+        assertEquals(simulation.getRecordPath().getOutputCount(), file.getSampleCount() + ring.getDroppedCount());
+        // what waited in the ring came out after the stall
+        assertTrue(String.valueOf(worstUs), worstUs >= 3000000);
+    }
+
+    public void testPreRollRecordingsEachGetAFile() {
+        RecordSimulation simulation = newSimulation();
+        simulation.getRecordPath().setPreRoll(1000000, 4 << 20);
+        simulation.start();
+        simulation.runFor(3000 * MS);
+        long firstStartUs = simulation.getClock().nowNs() / 1000;
+        simulation.startRecording();
+        simulation.runFor(1000 * MS);
+        long firstStopUs = simulation.getClock().nowNs() / 1000;
+        simulation.stopRecording();
+
+        // finalized as soon as the recording stops; the next file opens with the next recording
+        assertEquals(1, simulation.getFiles().size());
+        RecordSimulation.MemoryMuxer first = simulation.getFiles().get(0);
+        assertTrue(first.isStopped());
+        assertEquals(1, simulation.getRecordingCount());
+        // the pre-roll starts at a key frame up to a GOP before it was asked for
+        assertTrue(first.getFirstPtsUs() <= firstStartUs - 1000000);
+        assertTrue(first.getLastPtsUs() <= firstStopUs);
+
+        simulation.runFor(5000 * MS);
+        long secondStartUs = simulation.getClock().nowNs() / 1000;
+        simulation.startRecording();
+        simulation.runFor(1000 * MS);
+        simulation.stopRecording();
+        simulation.runFor(200 * MS);
+        simulation.stop();
+
+        assertEquals(2, simulation.getFiles().size());
+        RecordSimulation.MemoryMuxer second = simulation.getFiles().get(1);
+        assertTrue(second.isStopped());
+        assertEquals(2, simulation.getRecordingCount());
+        assertTrue(second.getFirstPtsUs() > first.getLastPtsUs());
+        assertTrue(second.getFirstPtsUs() <= secondStartUs - 1000000);
+        assertTrue(second.getFirstPtsUs() > firstStopUs);
+        // the pre-roll after the last recording never made a file
+        assertEquals(0, simulation.getErrorCount());
+        assertTrue(first.getMaxPtsStepUs() < 2 * 1000000 / 30);
+        assertTrue(second.getMaxPtsStepUs() < 2 * 1000000 / 30);
+    }
+
+    public void testMotionEventsInOneFilePlayStraightThrough() {
+        RecordSimulation simulation = newSimulation();
+        RecordPath<FakeCamera.Output> path = simulation.getRecordPath();
+        path.setPreRoll(1000000, 4 << 20);
+        path.setMaxPtsGap(100000);
+        simulation.start();
+        simulation.runFor(3000 * MS);
+        // two motion events five seconds apart, straight on the path so both go into one file
+        for (int event = 0; event < 2; event++) {
+            path.startRecording();
+            simulation.runFor(1000 * MS);
+            path.stopRecording();
+            simulation.runFor(5000 * MS);
+        }
+        simulation.stop();
+
+        assertEquals(1, simulation.getFiles().size());
+        RecordSimulation.MemoryMuxer file = simulation.getFiles().get(0);
+        // each event with its pre-roll, no less than two seconds
+        assertTrue(String.valueOf(file.getSampleCount()), file.getSampleCount() >= 2 * 60);
+        // the idle time between the events is gone, not a frame shown for seconds
+        assertTrue(String.valueOf(file.getMaxPtsStepUs()), file.getMaxPtsStepUs() < 2 * 1000000 / 30);
+        PtsContinuity continuity = path.getPtsContinuity();
+        assertEquals(1, continuity.getAdjustCount());
+        assertTrue(continuity.getClosedGapUs() > 3000000);
+        assertEquals(file.getSampleCount(), (file.getLastPtsUs() - file.getFirstPtsUs()) * 30 / 1000000 + 1, 2);
+    }
+
+    public void testBufferInputFromASyntheticSource() throws Exception {
+        RecordSimulation simulation = newSimulation();
+        VirtualClock clock = simulation.getClock();
+        simulation.getRecordPath().setBufferInput(3, true);
+        simulation.start();
+        simulation.runFor(400 * MS);
+        assertNull(simulation.getRecordPath().getInputSurface());
+
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        source.setClock(clock);
+        source.setStartNs(clock.nowNs());
+        // sleeping between frames runs the clock, and with it the codec
+        long produced = source.run(SyntheticFrameSource.toQueue(simulation.getRecordPath().getInputQueue(), 0),
+                45, true);
+        simulation.runFor(100 * MS);
+        simulation.stop();
+
+        assertEquals(45, produced);
+        assertEquals(0, source.getLateness().snapshot().getMax());
+        assertEquals(45, simulation.getCodec().getOutputCount());
+        RecordSimulation.MemoryMuxer file = simulation.getFiles().get(0);
+        assertEquals(45, file.getSampleCount());
+        assertEquals(source.getTimestampNs(0) / 1000, file.getFirstPtsUs());
+        assertEquals(source.getTimestampNs(44) / 1000, file.getLastPtsUs());
+    }
+
+    public void testPaddedInputBuffersAreQueuedWhole() throws Exception {
+        // a 64-byte aligned stride and a 16-row aligned slice, like many hardware encoders
+        recordPadded(64, 16, false);
+    }
+
+    public void testPaddedInputImagesAreQueuedWhole() throws Exception {
+        // only the luma slice padded, which an image's row strides don't show
+        recordPadded(0, 32, true);
+    }
+
+    private static void recordPadded(int stridePadding, int sliceHeightPadding, boolean flexible) throws Exception {
+        RecordSimulation simulation = newSimulation();
+        VirtualClock clock = simulation.getClock();
+        FakeVideoCodec codec = simulation.getCodec();
+        codec.setInputPadding(stridePadding, sliceHeightPadding);
+        codec.setFlexibleInput(flexible);
+        simulation.getRecordPath().setBufferInput(3, true);
+        simulation.start();
+        simulation.runFor(400 * MS);
+
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        source.setClock(clock);
+        source.setStartNs(clock.nowNs());
+        source.run(SyntheticFrameSource.toQueue(simulation.getRecordPath().getInputQueue(), 0), 10, true);
+        simulation.runFor(100 * MS);
+        simulation.stop();
+
+        assertEquals(10, codec.getOutputCount());
+        // queued up to the end of the chroma plane, which starts after the padded slice
+        assertEquals(0, codec.getShortInputCount());
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.CpuRenderBackend;
+import com.example.android.camera2video.ManualExecutor;
+import com.example.android.camera2video.RenderStage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM: the render stage on the CPU reference backend, stepped on a
+ * {@link ManualExecutor}; which frames reach which output, with which timestamps.
+ */
+public class RenderStageTest extends TestCase {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+    private static final long FRAME_NS = 33333333L;
+
+    private ManualExecutor _Executor;
+    private CpuRenderBackend _Backend;
+    private RenderStage<CpuRenderBackend.Output> _Stage;
+
+    @Override
+    protected void setUp() {
+        _Executor = new ManualExecutor();
+        _Backend = new CpuRenderBackend();
+        _Stage = new RenderStage<>(_Backend, _Executor);
+    }
+
+    public void testFansOutOneFrameToEveryEnabledOutput() {
+        CpuRenderBackend.Output preview = new CpuRenderBackend.Output(WIDTH / 2, HEIGHT / 2);
+        CpuRenderBackend.Output encoder = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        _Stage.addOutput(preview, 0, true);
+        _Stage.addOutput(encoder, 0, false);
+        List<Long> recorded = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            if (i == 4) {
+                _Stage.setEnabled(encoder, true);
+            }
+            long timestampNs = 1000000000L + i * FRAME_NS;
+            frame(i, timestampNs);
+            if (i >= 4) {
+                recorded.add(timestampNs);
+            }
+        }
+        assertEquals(10, preview.getPresentationTimesNs().size());
+        // the encoder gets the camera timestamps of exactly the frames after it was enabled
+        assertEquals(recorded, encoder.getPresentationTimesNs());
+        assertEquals(10, _Stage.getLatchedCount());
+        assertEquals(0, _Stage.getSkippedCount());
+
+        // both show the last frame, the preview scaled down
+        assertEquals(pixel(9, 6, 4), encoder.getPixel(6, 4));
+        assertEquals(pixel(9, 6, 4), preview.getPixel(3, 2));
+        assertEquals(pixel(9, 0, 0), preview.getPixel(0, 0));
+    }
+
+    public void testFramesArrivingFasterThanTheRenderThreadAreCoalesced() {
+        CpuRenderBackend.Output encoder = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        _Stage.addOutput(encoder, 0, true);
+        _Executor.runAll(10);
+        for (int i = 0; i < 3; i++) {
+            _Backend.queueFrame(image(i), WIDTH, HEIGHT, (i + 1) * FRAME_NS);
+            _Stage.onFrameAvailable();
+        }
+        // one drain for the whole burst
+        assertEquals(1, _Executor.getPendingCount());
+        _Executor.runAll(10);
+        assertEquals(Arrays.asList(3 * FRAME_NS), encoder.getPresentationTimesNs());
+        assertEquals(3, _Stage.getAvailableCount());
+        assertEquals(1, _Stage.getLatchedCount());
+        assertEquals(2, _Stage.getSkippedCount());
+        assertEquals(pixel(2, 1, 1), encoder.getPixel(1, 1));
+    }
+
+    public void testMinimumIntervalDecimatesOneOutput() {
+        // a 120 fps stream with some jitter; the preview runs at 30
+        CpuRenderBackend.Output preview = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        CpuRenderBackend.Output encoder = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        _Stage.addOutput(preview, 1000000000L / 30, true);
+        _Stage.addOutput(encoder, 0, true);
+        long frameNs = 1000000000L / 120;
+        for (int i = 0; i < 40; i++) {
+            long jitter = (i % 3 - 1) * 300000L;
+            frame(i, 5000000000L + i * frameNs + jitter);
+        }
+        assertEquals(40, encoder.getPresentationTimesNs().size());
+        assertEquals(10, preview.getPresentationTimesNs().size());
+        assertEquals(10, _Stage.getDrawnCount(preview));
+        assertEquals(30, _Stage.getDecimatedCount(preview));
+    }
+
+    public void testStaleFramesAreNotDrawnAgain() {
+        CpuRenderBackend.Output encoder = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        _Stage.addOutput(encoder, 0, true);
+        long[] timestamps = {FRAME_NS, 2 * FRAME_NS, 2 * FRAME_NS, FRAME_NS, 3 * FRAME_NS};
+        for (int i = 0; i < timestamps.length; i++) {
+            frame(i, timestamps[i]);
+        }
+        // an encoder surface would drop anything not moving forward
+        assertEquals(Arrays.asList(FRAME_NS, 2 * FRAME_NS, 3 * FRAME_NS), encoder.getPresentationTimesNs());
+        assertEquals(2, _Stage.getStaleCount());
+    }
+
+    public void testOutputsComeAndGo() {
+        CpuRenderBackend.Output preview = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        _Stage.addOutput(preview, 0, true);
+        _Stage.addOutput(preview, 0, true);
+        frame(0, FRAME_NS);
+        assertTrue(preview.isAttached());
+        assertEquals(1, preview.getPresentationTimesNs().size());
+
+        _Stage.removeOutput(preview);
+        frame(1, 2 * FRAME_NS);
+        assertFalse(preview.isAttached());
+        assertEquals(1, preview.getPresentationTimesNs().size());
+        assertEquals(-1, _Stage.getDrawnCount(preview));
+
+        CpuRenderBackend.Output encoder = new CpuRenderBackend.Output(WIDTH, HEIGHT);
+        _Stage.addOutput(encoder, 0, true);
+        _Stage.release();
+        frame(2, 3 * FRAME_NS);
+        assertTrue(_Backend.isReleased());
+        assertFalse(encoder.isAttached());
+        assertEquals(0, encoder.getPresentationTimesNs().size());
+    }
+
+    private void frame(int index, long timestampNs) {
+        _Backend.queueFrame(image(index), WIDTH, HEIGHT, timestampNs);
+        _Stage.onFrameAvailable();
+        _Executor.runAll(100);
+    }
+
+    private static int[] image(int index) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                pixels[y * WIDTH + x] = pixel(index, x, y);
+            }
+        }
+        return pixels;
+    }
+
+    private static int pixel(int index, int x, int y) {
+        return 0xff000000 | index << 16 | x << 8 | y;
+    }
+}
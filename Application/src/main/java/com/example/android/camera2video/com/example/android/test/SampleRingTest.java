@@ -0,0 +1,104 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SampleRing;
+import com.example.android.camera2video.SampleSink;
+import com.example.android.camera2video.SampleWriter;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM: replays bursty codec output against a sink that is slower than the
+ * burst rate and checks that the ring absorbs it without reordering.
+ */
+public class SampleRingTest extends TestCase {
+
+    /** Sink that stalls like slow flash storage and records what it was given. */
+    private static class SlowSink implements SampleSink {
+        final List<Long> times = new ArrayList<>();
+        final long stallMs;
+
+        SlowSink(long stallMs) {
+            this.stallMs = stallMs;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+            assertEquals((int) (presentationTimeUs % 251), data.remaining());
+            try {
+                Thread.sleep(stallMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (times) {
+                times.add(presentationTimeUs);
+            }
+        }
+    }
+
+    public void testBurstAbsorbedInOrder() throws Exception {
+        SampleRing ring = new SampleRing(32, 256);
+        SlowSink sink = new SlowSink(2);
+        SampleWriter writer = new SampleWriter(ring, sink);
+        writer.start();
+
+        int total = 0;
+        for (int burst = 0; burst < 5; burst++) {
+            for (int i = 0; i < 20; i++, total++) {
+                assertTrue(ring.offer(sample(total), total, i == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0));
+            }
+            Thread.sleep(80);
+        }
+        writer.stop();
+
+        assertEquals(0, ring.getDroppedCount());
+        assertEquals(total, ring.getWrittenCount());
+        assertEquals(0, ring.getDepth());
+        assertTrue(ring.getHighWaterMark() > 1);
+        assertTrue(ring.getHighWaterMark() <= ring.getCapacity());
+        assertEquals(total, sink.times.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals((long) i, (long) sink.times.get(i));
+        }
+    }
+
+    public void testOverflowDropsUntilNextKeyFrame() throws Exception {
+        SampleRing ring = new SampleRing(4, 16);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(sample(i), i, i == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0));
+        }
+        assertEquals(4, ring.getHighWaterMark());
+        assertFalse(ring.offer(sample(4), 4, 0));
+
+        SlowSink sink = new SlowSink(0);
+        assertEquals(4, ring.drainTo(sink, 16));
+        // room again, but a delta frame after a drop can't be decoded
+        assertFalse(ring.offer(sample(5), 5, 0));
+        assertTrue(ring.offer(sample(6), 6, SampleMuxer.FLAG_KEY_FRAME));
+        assertTrue(ring.offer(sample(7), 7, 0));
+        assertEquals(2, ring.drainTo(sink, 16));
+
+        assertEquals(2, ring.getDroppedCount());
+        assertEquals(6, ring.getWrittenCount());
+        // samples are pts % 251 bytes long
+        assertEquals(0 + 1 + 2 + 3 + 6 + 7, ring.getWrittenBytes());
+        assertEquals(6L, (long) sink.times.get(4));
+    }
+
+    public void testOversizedSampleGrowsSlot() throws Exception {
+        SampleRing ring = new SampleRing(2, 8);
+        assertTrue(ring.offer(sample(200), 200, SampleMuxer.FLAG_KEY_FRAME));
+        assertEquals(1, ring.getGrowCount());
+        assertEquals(1, ring.drainTo(new SlowSink(0), 1));
+    }
+
+    private static ByteBuffer sample(long pts) {
+        ByteBuffer b = ByteBuffer.allocateDirect(256);
+        b.limit((int) (pts % 251));
+        return b;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SegmentingMuxer;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM: checks that segments are cut on key frames only and that no sample is
+ * lost or written twice across a cut.
+ */
+public class SegmentingMuxerTest extends TestCase {
+
+    /** In-memory muxer that records the sample times and flags it was given. */
+    private static class RecordingMuxer implements SampleMuxer {
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+        boolean started;
+        boolean stopped;
+        boolean released;
+
+        @Override
+        public void addVideoTrack(int width, int height, ByteBuffer sps, ByteBuffer pps) {
+            assertEquals(3, sps.remaining());
+            assertEquals(2, pps.remaining());
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, long presentationTimeUs, int f) {
+            assertTrue(started && !stopped);
+            times.add(presentationTimeUs);
+            flags.add(f);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
+    private final List<RecordingMuxer> _Segments = new ArrayList<>();
+
+    private SegmentingMuxer create(long durationUs, long bytes) {
+        return new SegmentingMuxer(new SegmentingMuxer.Factory() {
+            @Override
+            public SampleMuxer create(int segmentIndex) {
+                assertEquals(_Segments.size(), segmentIndex);
+                RecordingMuxer m = new RecordingMuxer();
+                _Segments.add(m);
+                return m;
+            }
+        }, durationUs, bytes);
+    }
+
+    public void testDurationSplitsOnKeyFrames() throws Exception {
+        SegmentingMuxer muxer = create(1000000, 0);
+        muxer.addVideoTrack(640, 480, ByteBuffer.wrap(new byte[3]), ByteBuffer.wrap(new byte[2]));
+        muxer.start();
+        // 30fps with a key frame every 20 frames: cuts can only happen at 0, 20, 40, ...
+        int frames = 200;
+        for (int i = 0; i < frames; i++) {
+            muxer.writeSampleData(ByteBuffer.allocate(100), i * 33333L,
+                    i % 20 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        muxer.stop();
+        muxer.release();
+
+        long expected = 0;
+        for (RecordingMuxer segment : _Segments) {
+            assertTrue(segment.stopped && segment.released);
+            assertEquals(SampleMuxer.FLAG_KEY_FRAME, (int) segment.flags.get(0));
+            for (long t : segment.times) {
+                assertEquals(expected * 33333L, t);
+                expected++;
+            }
+        }
+        assertEquals(frames, expected);
+        // 1s limit rounds up to the next GOP: 40 frames (1.33s) per segment
+        assertEquals(5, _Segments.size());
+        assertEquals(40, _Segments.get(0).times.size());
+    }
+
+    public void testSizeLimit() throws Exception {
+        SegmentingMuxer muxer = create(0, 1000);
+        muxer.addVideoTrack(640, 480, ByteBuffer.wrap(new byte[3]), ByteBuffer.wrap(new byte[2]));
+        muxer.start();
+        for (int i = 0; i < 30; i++) {
+            muxer.writeSampleData(ByteBuffer.allocate(100), i, i % 5 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        muxer.stop();
+        assertEquals(3, _Segments.size());
+        assertEquals(10, _Segments.get(0).times.size());
+        assertEquals(10, _Segments.get(2).times.size());
+    }
+}
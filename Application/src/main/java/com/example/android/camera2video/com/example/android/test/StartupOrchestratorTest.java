@@ -0,0 +1,188 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.ManualExecutor;
+import com.example.android.camera2video.StartupOrchestrator;
+import com.example.android.camera2video.StartupStep;
+import com.example.android.camera2video.StartupTimeline;
+import com.example.android.camera2video.ThreadExecutor;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs on a plain JVM: startup steps joined in every completion order on
+ * {@link ManualExecutor}s standing in for the camera and codec threads, and the timeline they
+ * leave behind.
+ */
+public class StartupOrchestratorTest extends TestCase {
+
+    public void testSessionStartsOnlyAfterAllStepsInAnyOrder() throws Exception {
+        for (int order = 0; order < 6; order++) {
+            ManualExecutor camera = new ManualExecutor();
+            ManualExecutor codec = new ManualExecutor();
+            final List<String> events = new ArrayList<>();
+            StartupOrchestrator startup = new StartupOrchestrator(new StartupTimeline());
+            final StartupStep<String> opened = startup.expect(StartupTimeline.CAMERA_OPEN);
+            final StartupStep<String> surface = startup.expect(StartupTimeline.SURFACE_READY);
+            StartupStep<String> encoder = startup.submit(StartupTimeline.ENCODER_READY, codec,
+                    new Callable<String>() {
+                        @Override
+                        public String call() {
+                            events.add("prepare");
+                            return "encoder surface";
+                        }
+                    });
+            StartupStep<Void> session = startup.whenAll(StartupTimeline.SESSION_START, camera, new Runnable() {
+                @Override
+                public void run() {
+                    events.add("session");
+                }
+            }, opened, surface, encoder);
+
+            Runnable[] completions = {
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            opened.set("device");
+                        }
+                    },
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            surface.set("preview");
+                        }
+                    },
+                    null,   // the codec thread
+            };
+            int[][] permutations = {{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}};
+            for (int i : permutations[order]) {
+                assertFalse(session.isDone());
+                assertEquals(0, camera.getPendingCount());
+                if (completions[i] != null) {
+                    completions[i].run();
+                } else {
+                    assertEquals(1, codec.runPending());
+                }
+            }
+            // the action runs on the camera thread, not on whichever thread completed last
+            assertEquals(Arrays.asList("prepare"), events);
+            assertEquals(1, camera.runPending());
+            assertEquals(Arrays.asList("prepare", "session"), events);
+            assertTrue(session.isSucceeded());
+            assertEquals("encoder surface", encoder.get());
+            assertEquals("encoder surface", encoder.getNow());
+
+            StartupTimeline timeline = startup.getTimeline();
+            assertEquals(StartupTimeline.SESSION_START, timeline.getMilestones().get(3));
+            assertTrue(timeline.getElapsedNs(StartupTimeline.CAMERA_OPEN) >= 0);
+        }
+    }
+
+    public void testFailedStepFailsTheJoin() throws Exception {
+        ManualExecutor camera = new ManualExecutor();
+        ManualExecutor codec = new ManualExecutor();
+        StartupTimeline timeline = new StartupTimeline();
+        StartupOrchestrator startup = new StartupOrchestrator(timeline);
+        StartupStep<Object> opened = startup.expect(StartupTimeline.CAMERA_OPEN);
+        StartupStep<Object> encoder = startup.submit(StartupTimeline.ENCODER_READY, codec, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                throw new IOException("no codec");
+            }
+        });
+        final boolean[] ran = new boolean[1];
+        StartupStep<Void> session = startup.whenAll(StartupTimeline.SESSION_START, camera, new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = true;
+            }
+        }, opened, encoder);
+
+        codec.runPending();
+        assertTrue(session.isDone());
+        assertFalse(session.isSucceeded());
+        assertEquals("no codec", session.getFailure().getMessage());
+        opened.set(null);
+        assertEquals(0, camera.runPending());
+        assertFalse(ran[0]);
+        try {
+            encoder.get();
+            fail();
+        } catch (ExecutionException expected) {
+        }
+        try {
+            encoder.getNow();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        // only what succeeded is on the timeline
+        assertEquals(Arrays.asList(StartupTimeline.CAMERA_OPEN), timeline.getMilestones());
+    }
+
+    public void testStepsAcrossRealThreads() throws Exception {
+        ThreadExecutor camera = new ThreadExecutor("camera");
+        ThreadExecutor codec = new ThreadExecutor("codec");
+        try {
+            StartupOrchestrator startup = new StartupOrchestrator(new StartupTimeline());
+            final StartupStep<Object> opened = startup.expect(StartupTimeline.CAMERA_OPEN);
+            StartupStep<String> encoder = startup.submit(StartupTimeline.ENCODER_READY, codec, new Callable<String>() {
+                @Override
+                public String call() throws InterruptedException {
+                    Thread.sleep(20);
+                    return Thread.currentThread().getName();
+                }
+            });
+            final String[] sessionThread = new String[1];
+            StartupStep<Void> session = startup.whenAll(StartupTimeline.SESSION_START, camera, new Runnable() {
+                @Override
+                public void run() {
+                    sessionThread[0] = Thread.currentThread().getName();
+                }
+            }, opened, encoder);
+            camera.execute(new Runnable() {
+                @Override
+                public void run() {
+                    opened.set(null);
+                }
+            });
+            session.get(5, TimeUnit.SECONDS);
+            assertEquals("codec", encoder.get());
+            assertEquals("camera", sessionThread[0]);
+        } finally {
+            camera.quit();
+            codec.quit();
+        }
+    }
+
+    public void testTimelineKeepsFirstMarkAndAppends() throws IOException {
+        StartupTimeline timeline = new StartupTimeline(1000000000L);
+        assertTrue(timeline.mark(StartupTimeline.ACTIVITY_CREATE, 1000000000L));
+        assertTrue(timeline.mark(StartupTimeline.FIRST_PREVIEW_FRAME, 1350000000L));
+        assertTrue(timeline.mark(StartupTimeline.CAMERA_OPEN, 1120500000L));
+        assertFalse(timeline.mark(StartupTimeline.FIRST_PREVIEW_FRAME, 1400000000L));
+        assertEquals(350000000L, timeline.getElapsedNs(StartupTimeline.FIRST_PREVIEW_FRAME));
+        assertEquals(-1, timeline.getElapsedNs(StartupTimeline.ENCODER_READY));
+        assertEquals("activity-create=0.0 camera-open=120.5 first-preview-frame=350.0", timeline.toString());
+
+        File file = File.createTempFile("startup", ".txt");
+        try {
+            timeline.appendTo(file, "1.0");
+            timeline.appendTo(file, "1.1");
+            List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+            assertEquals(2, lines.size());
+            assertEquals("1.1 " + timeline, lines.get(1));
+        } finally {
+            file.delete();
+        }
+    }
+}
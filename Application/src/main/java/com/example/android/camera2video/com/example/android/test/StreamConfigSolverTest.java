@@ -0,0 +1,90 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.StreamConfigSolver;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs on a plain JVM: table-driven checks of the stream configuration solver against
+ * capability dumps in the format Camera2Wrapper logs.
+ */
+public class StreamConfigSolverTest extends TestCase {
+
+    /** 2013 phone: 30 fps everywhere, no 1440x1080. */
+    private static final String PHONE_2013 =
+            "video: 1920x1080@33333333 1280x960@33333333 1280x720@33333333 800x480@33333333"
+            + " 720x480@33333333 768x432@33333333 640x480@33333333 576x432@33333333"
+            + " 384x288@33333333 352x288@33333333 320x240@33333333 176x144@33333333\n"
+            + "preview: 1920x1080@33333333 1280x960@33333333 1280x720@33333333 800x480@33333333"
+            + " 768x432@33333333 720x480@33333333 640x480@33333333 576x432@33333333"
+            + " 384x288@33333333 352x288@33333333 320x240@33333333 176x144@33333333\n";
+
+    /** 4K phone: 60 fps at 1080p and below, 4K and 4:3 full HD at 30. */
+    private static final String PHONE_4K =
+            "video: 3840x2160@33333333 1920x1440@33333333 1920x1080@16666666 1440x1080@33333333"
+            + " 1280x720@8333333 640x480@16666666\n"
+            + "preview: 1920x1440@33333333 1920x1080@16666666 1440x1080@33333333 1280x960@16666666"
+            + " 1280x720@16666666 960x720@16666666 640x480@16666666\n";
+
+    /** Budget device whose 720p preview can't keep up with 30 fps. */
+    private static final String LIMITED =
+            "video: 1280x720@33333333 640x480@33333333\n"
+            + "preview: 1280x720@50000000 960x540@33333333 640x480@33333333 352x288@33333333\n";
+
+    private static final Object[][] CASES = {
+            // device, request w, h, fps, view w, h -> video w, h, preview w, h, fps, meets
+            {PHONE_2013, 1440, 1080, 30, 1080, 1776, 1280, 960, 1280, 960, 30, true},
+            {PHONE_2013, 1280, 720, 30, 1080, 1776, 1280, 720, 1280, 720, 30, true},
+            {PHONE_2013, 1280, 720, 30, 432, 768, 1280, 720, 768, 432, 30, true},
+            {PHONE_2013, 1920, 1080, 60, 1080, 1776, 1920, 1080, 1920, 1080, 30, false},
+            {PHONE_4K, 1440, 1080, 30, 1440, 2560, 1440, 1080, 1440, 1080, 30, true},
+            {PHONE_4K, 1440, 1080, 30, 720, 1280, 1440, 1080, 1280, 960, 30, true},
+            {PHONE_4K, 1440, 1080, 30, 720, 960, 1440, 1080, 960, 720, 30, true},
+            {PHONE_4K, 1920, 1080, 60, 1080, 1920, 1920, 1080, 1920, 1080, 60, true},
+            // 4K can't do 60, the best 16:9 size that can wins over a slower exact match
+            {PHONE_4K, 3840, 2160, 60, 1080, 1920, 1920, 1080, 1920, 1080, 60, true},
+            {PHONE_4K, 3840, 2160, 30, 1080, 1920, 3840, 2160, 1920, 1080, 30, true},
+            {LIMITED, 1280, 720, 30, 1080, 1920, 1280, 720, 960, 540, 30, true},
+            // no 4:3 video at all: nearest ratio, then size
+            {LIMITED, 1440, 1080, 30, 0, 0, 640, 480, 640, 480, 30, true},
+    };
+
+    public void testDeviceTable() {
+        for (Object[] c : CASES) {
+            StreamConfigSolver.Result r = StreamConfigSolver.fromDump((String) c[0])
+                    .solve((Integer) c[1], (Integer) c[2], (Integer) c[3], (Integer) c[4], (Integer) c[5]);
+            String name = c[1] + "x" + c[2] + "@" + c[3] + " in " + c[4] + "x" + c[5] + ": " + r;
+            assertEquals(name, c[6], r.getVideoWidth());
+            assertEquals(name, c[7], r.getVideoHeight());
+            assertEquals(name, c[8], r.getPreviewWidth());
+            assertEquals(name, c[9], r.getPreviewHeight());
+            assertEquals(name, c[10], r.getFrameRate());
+            assertEquals(name, c[11], r.meetsFrameRate());
+        }
+    }
+
+    public void testVideoNeverNeedsScaling() {
+        // whatever is asked for, the encoder size is one the camera outputs directly
+        String[] devices = {PHONE_2013, PHONE_4K, LIMITED};
+        int[][] requests = {{640, 360}, {1000, 1000}, {4000, 3000}, {176, 144}, {1080, 1920}};
+        for (String device : devices) {
+            for (int[] request : requests) {
+                StreamConfigSolver.Result r = StreamConfigSolver.fromDump(device).solve(request[0], request[1], 30, 0, 0);
+                assertTrue(device.contains(" " + r.getVideoWidth() + "x" + r.getVideoHeight() + "@"));
+            }
+        }
+    }
+
+    public void testDumpRoundTrip() {
+        StreamConfigSolver solver = StreamConfigSolver.fromDump(PHONE_4K);
+        assertEquals(PHONE_4K, solver.toDump());
+    }
+
+    public void testRejectsUntaggedDump() {
+        try {
+            StreamConfigSolver.fromDump("1920x1080@33333333");
+            fail("size without a tag");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
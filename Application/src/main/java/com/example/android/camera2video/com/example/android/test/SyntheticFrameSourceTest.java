@@ -0,0 +1,247 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.AnalysisTap;
+import com.example.android.camera2video.FrameAnalyzer;
+import com.example.android.camera2video.InputFrameQueue;
+import com.example.android.camera2video.LumaHistogramAnalyzer;
+import com.example.android.camera2video.PipelineClock;
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SampleSink;
+import com.example.android.camera2video.SyntheticFrameSource;
+import com.example.android.camera2video.YuvFrame;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs on a plain JVM: the pictures and timestamps are a function of the frame number, pacing
+ * follows a fake clock, and the source drives the encoder input queue, the analysis tap and a
+ * sample sink.
+ */
+public class SyntheticFrameSourceTest extends TestCase {
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 72;
+
+    /**
+     * Time only moves when the source sleeps or a slow target says so.
+     */
+    private static class FakeClock implements PipelineClock {
+        long nowNs = 5000;
+        final List<Long> sleeps = new ArrayList<>();
+
+        @Override
+        public long nowNs() {
+            return nowNs;
+        }
+
+        @Override
+        public void sleepUntilNs(long deadlineNs) {
+            sleeps.add(deadlineNs);
+            nowNs = Math.max(nowNs, deadlineNs);
+        }
+    }
+
+    public void testPicturesAreAFunctionOfTheFrameNumber() {
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        YuvFrame nv12 = YuvFrame.allocatePacked(WIDTH, HEIGHT, true, true);
+        YuvFrame padded = YuvFrame.allocate(WIDTH, HEIGHT, 16, true, false);
+        YuvFrame i420 = YuvFrame.allocatePacked(WIDTH, HEIGHT, false, false);
+        for (long index : new long[]{0, 1, 77, 0xfedcba98L}) {
+            source.draw(nv12, index);
+            source.draw(padded, index);
+            source.draw(i420, index);
+            assertSamePicture(nv12, padded);
+            assertSamePicture(nv12, i420);
+            assertEquals(index, SyntheticFrameSource.readCounter(nv12));
+            assertEquals(index, SyntheticFrameSource.readCounter(padded));
+        }
+        // the bars move, so consecutive frames differ below the counter too
+        YuvFrame next = YuvFrame.allocatePacked(WIDTH, HEIGHT, true, false);
+        source.draw(nv12, 10);
+        source.draw(next, 11);
+        int changed = 0;
+        for (int x = 0; x < WIDTH; x++) {
+            if (nv12.getChroma(YuvFrame.U, x, HEIGHT / 2) != next.getChroma(YuvFrame.U, x, HEIGHT / 2)) {
+                changed++;
+            }
+        }
+        assertTrue(changed > 0);
+        try {
+            source.draw(YuvFrame.allocatePacked(WIDTH / 2, HEIGHT, true, false), 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTimestampsDoNotDrift() {
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        source.setStartNs(1000);
+        assertEquals(1000, source.getTimestampNs(0));
+        assertEquals(1000 + 33333333, source.getTimestampNs(1));
+        // a second is exactly 30 frames however long the run
+        assertEquals(1000 + 1000000000L, source.getTimestampNs(30));
+        assertEquals(1000 + 3600L * 1000000000L, source.getTimestampNs(30 * 3600));
+    }
+
+    public void testRealTimeFollowsAbsoluteDeadlines() throws Exception {
+        final FakeClock clock = new FakeClock();
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 25);
+        source.setClock(clock);
+        final YuvFrame frame = YuvFrame.allocatePacked(WIDTH, HEIGHT, true, false);
+        final List<Long> submittedAtNs = new ArrayList<>();
+        assertEquals(10, source.run(new SyntheticFrameSource.Target() {
+            @Override
+            public YuvFrame obtain() {
+                return frame;
+            }
+
+            @Override
+            public void submit(YuvFrame frame) {
+                submittedAtNs.add(clock.nowNs);
+                // frame 3 takes two frame times; the later deadlines stay where they were
+                clock.nowNs += submittedAtNs.size() == 4 ? 80000000 : 1000000;
+            }
+        }, 10, true));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5000 + i * 40000000L, (long) clock.sleeps.get(i));
+        }
+        assertEquals(5000 + 120000000L, (long) submittedAtNs.get(3));
+        assertEquals(5000 + 200000000L, (long) submittedAtNs.get(4));
+        assertEquals(5000 + 201000000L, (long) submittedAtNs.get(5));
+        assertEquals(5000 + 240000000L, (long) submittedAtNs.get(6));
+        assertEquals(5000 + 360000000L, (long) submittedAtNs.get(9));
+        assertEquals(10, source.getLateness().snapshot().getCount());
+        assertEquals(40000, source.getLateness().snapshot().getMax());
+        assertEquals(0, source.getLateness().snapshot().getPercentile(50));
+    }
+
+    public void testFullSpeedStopsWhenTheTargetDoes() throws Exception {
+        final FakeClock clock = new FakeClock();
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        source.setClock(clock);
+        final YuvFrame frame = YuvFrame.allocatePacked(WIDTH, HEIGHT, true, false);
+        assertEquals(4, source.run(new SyntheticFrameSource.Target() {
+            int _Obtained;
+
+            @Override
+            public YuvFrame obtain() {
+                return _Obtained++ < 4 ? frame : null;
+            }
+
+            @Override
+            public void submit(YuvFrame frame) {
+                clock.nowNs += 1000000;
+            }
+        }, 100, false));
+        assertTrue(clock.sleeps.isEmpty());
+        assertEquals(4, source.getProducedCount());
+        assertEquals(1000.0, source.getAchievedFrameRate(4), 1e-9);
+    }
+
+    public void testDrivesTheEncoderInputQueue() throws Exception {
+        final List<Long> counters = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        final InputFrameQueue[] queue = new InputFrameQueue[1];
+        queue[0] = new InputFrameQueue(new InputFrameQueue.Host() {
+            @Override
+            public void fill(int index, YuvFrame frame) {
+                counters.add(SyntheticFrameSource.readCounter(frame));
+                timestamps.add(frame.getTimestampNs());
+                // encoded at once, the buffer comes straight back
+                queue[0].onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void queueEndOfStream(int index) {
+            }
+        }, WIDTH, HEIGHT, 3, true);
+        queue[0].onInputBufferAvailable(0);
+        queue[0].onInputBufferAvailable(1);
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 60);
+        assertEquals(120, source.run(SyntheticFrameSource.toQueue(queue[0], 1000), 120, false));
+        assertEquals(120, counters.size());
+        for (int i = 0; i < 120; i++) {
+            assertEquals(i, (long) counters.get(i));
+            assertEquals(source.getTimestampNs(i), (long) timestamps.get(i));
+        }
+        queue[0].close();
+    }
+
+    public void testDrivesTheAnalysisTap() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        SyntheticFrameSource.FramePool pool = new SyntheticFrameSource.FramePool(WIDTH, HEIGHT, 4, true);
+        AnalysisTap<YuvFrame> tap = new AnalysisTap<>(pool, workers, 2, 2);
+        pool.setTap(tap);
+        final List<Long> counters = Collections.synchronizedList(new ArrayList<Long>());
+        tap.addAnalyzer(new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                counters.add(SyntheticFrameSource.readCounter(frame));
+            }
+        });
+        LumaHistogramAnalyzer histogram = new LumaHistogramAnalyzer(1);
+        tap.addAnalyzer(histogram);
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        assertEquals(200, source.run(pool, 200, false));
+        tap.close();
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+        // frames may be dropped under load but every analyzed one is intact
+        assertEquals(200, tap.getOfferedCount());
+        assertEquals(tap.getAnalyzedCount(), counters.size());
+        assertEquals(tap.getAnalyzedCount(), histogram.getFrameCount());
+        for (long counter : counters) {
+            assertTrue(counter < 200);
+        }
+        // every frame went back to the pool
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(pool.obtain());
+        }
+    }
+
+    public void testDrivesASampleSink() throws Exception {
+        final List<long[]> samples = new ArrayList<>();
+        SampleSink sink = new SampleSink() {
+            @Override
+            public void writeSampleData(ByteBuffer buffer, long presentationTimeUs, int flags) {
+                samples.add(new long[]{buffer.remaining(), presentationTimeUs, flags, buffer.getInt(buffer.position()),
+                        buffer.get(buffer.position() + 4)});
+                for (int i = buffer.position() + 5; i < buffer.limit(); i++) {
+                    assertTrue(buffer.get(i) != 0);
+                }
+                buffer.position(buffer.limit());
+            }
+        };
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        // heavy noise would reach 0 unclamped, and padded rows are skipped
+        source.setNoise(64);
+        YuvFrame frame = YuvFrame.allocate(WIDTH, HEIGHT, 16, true, true);
+        assertEquals(61, source.run(SyntheticFrameSource.toSamples(frame, sink, 1000, 30), 61, false));
+        assertEquals(61, samples.size());
+        for (int i = 0; i < 61; i++) {
+            assertEquals(1000, samples.get(i)[0]);
+            assertEquals(source.getTimestampNs(i) / 1000, samples.get(i)[1]);
+            assertEquals(i % 30 == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0, samples.get(i)[2]);
+            assertEquals(1, samples.get(i)[3]);
+            assertEquals(i % 30 == 0 ? 0x65 : 0x41, samples.get(i)[4]);
+        }
+    }
+
+    private static void assertSamePicture(YuvFrame expected, YuvFrame actual) {
+        assertEquals(expected.getTimestampNs(), actual.getTimestampNs());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getLuma(x, y), actual.getLuma(x, y));
+                assertEquals(expected.getChroma(YuvFrame.U, x, y), actual.getChroma(YuvFrame.U, x, y));
+                assertEquals(expected.getChroma(YuvFrame.V, x, y), actual.getChroma(YuvFrame.V, x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.VirtualClock;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs on a plain JVM: tasks fire in time order with ties in scheduling order, time jumps
+ * between them, and sleeping runs the clock.
+ */
+public class VirtualClockTest extends TestCase {
+
+    private static Runnable log(final List<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                log.add(name);
+            }
+        };
+    }
+
+    public void testRunsInTimeThenSchedulingOrder() {
+        VirtualClock clock = new VirtualClock(1000);
+        List<String> log = new ArrayList<>();
+        clock.schedule(log(log, "c"), 30);
+        clock.schedule(log(log, "a"), 10);
+        clock.schedule(log(log, "b1"), 20);
+        clock.scheduleAt(log(log, "b2"), 1020);
+        clock.execute(log(log, "now"));
+
+        assertEquals(4, clock.runUntil(1020));
+        assertEquals(Arrays.asList("now", "a", "b1", "b2"), log);
+        assertEquals(1020, clock.nowNs());
+        assertEquals(1030, clock.getNextTaskNs());
+
+        assertEquals(1, clock.runFor(100));
+        assertEquals(1120, clock.nowNs());
+        assertEquals(-1, clock.getNextTaskNs());
+        assertEquals(5, clock.getRunCount());
+    }
+
+    public void testTasksScheduleTasksAndSeeTheirOwnTime() {
+        final VirtualClock clock = new VirtualClock(0);
+        final List<Long> ticks = new ArrayList<>();
+        clock.schedule(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(clock.isCurrentThread());
+                ticks.add(clock.nowNs());
+                if (ticks.size() < 4) {
+                    clock.schedule(this, 100);
+                }
+            }
+        }, 100);
+
+        clock.runUntil(250);
+        assertEquals(Arrays.asList(100L, 200L), ticks);
+        assertFalse(clock.isCurrentThread());
+
+        // the past is now
+        clock.scheduleAt(new Runnable() {
+            @Override
+            public void run() {
+                ticks.add(-clock.nowNs());
+            }
+        }, 10);
+        while (clock.runNext()) {
+        }
+        assertEquals(Arrays.asList(100L, 200L, -250L, 300L), ticks);
+    }
+
+    public void testSleepRunsTheClock() {
+        final VirtualClock clock = new VirtualClock(0);
+        final List<String> log = new ArrayList<>();
+        clock.schedule(log(log, "due"), 500);
+        clock.sleepUntilNs(1000);
+        assertEquals(1000, clock.nowNs());
+        assertEquals(Arrays.asList("due"), log);
+
+        clock.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    clock.sleepUntilNs(2000);
+                    fail();
+                } catch (IllegalStateException e) {
+                    log.add("refused");
+                }
+            }
+        });
+        clock.runNext();
+        assertEquals(Arrays.asList("due", "refused"), log);
+        assertEquals(1000, clock.nowNs());
+    }
+
+    public void testQuitDropsNewTasks() {
+        VirtualClock clock = new VirtualClock(0);
+        List<String> log = new ArrayList<>();
+        clock.schedule(log(log, "queued"), 10);
+        clock.quit();
+        clock.schedule(log(log, "late"), 5);
+        assertEquals(1, clock.getPendingCount());
+        clock.runFor(100);
+        assertEquals(Arrays.asList("queued"), log);
+    }
+}
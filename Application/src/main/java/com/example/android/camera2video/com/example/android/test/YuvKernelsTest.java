@@ -0,0 +1,180 @@
+package com.example.android.camera2video.com.example.android.test;
+
+import com.example.android.camera2video.YuvFrame;
+import com.example.android.camera2video.YuvKernels;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs on a plain JVM: every kernel against a per-pixel reference, across NV12, NV21, I420 and
+ * padded layouts, and fork-join runs against the calling thread.
+ */
+public class YuvKernelsTest extends TestCase {
+    private static final int WIDTH = 48;
+    private static final int HEIGHT = 32;
+
+    private ForkJoinPool _Pool;
+    private YuvKernels _Serial;
+    private YuvKernels _Parallel;
+
+    @Override
+    protected void setUp() {
+        _Pool = new ForkJoinPool(4);
+        _Serial = new YuvKernels(null);
+        // small ranges so even these frames are split
+        _Parallel = new YuvKernels(_Pool, 2);
+    }
+
+    @Override
+    protected void tearDown() {
+        _Pool.shutdown();
+    }
+
+    public void testConvertBetweenLayouts() {
+        YuvFrame camera = cameraFrame(WIDTH, HEIGHT);
+        for (YuvKernels kernels : new YuvKernels[]{_Serial, _Parallel}) {
+            YuvFrame i420 = YuvFrame.allocatePacked(WIDTH, HEIGHT, false, false);
+            kernels.convert(camera, i420);
+            assertSamePicture(camera, i420);
+            YuvFrame nv12 = YuvFrame.allocatePacked(WIDTH, HEIGHT, true, true);
+            kernels.convert(i420, nv12);
+            assertSamePicture(camera, nv12);
+            // NV12 puts U first in the interleaved plane
+            assertEquals(camera.getChroma(YuvFrame.U, 0, 0), nv12.getPlane(YuvFrame.U).get(0) & 0xff);
+        }
+    }
+
+    public void testRotateFollowsTheClock() {
+        YuvFrame src = cameraFrame(WIDTH, HEIGHT);
+        for (YuvKernels kernels : new YuvKernels[]{_Serial, _Parallel}) {
+            for (int degrees = 0; degrees < 360; degrees += 90) {
+                boolean swap = degrees % 180 != 0;
+                YuvFrame dst = YuvFrame.allocatePacked(swap ? HEIGHT : WIDTH, swap ? WIDTH : HEIGHT, degrees == 90,
+                        false);
+                kernels.rotate(src, dst, degrees);
+                for (int y = 0; y < dst.getHeight(); y++) {
+                    for (int x = 0; x < dst.getWidth(); x++) {
+                        int sx;
+                        int sy;
+                        if (degrees == 0) {
+                            sx = x;
+                            sy = y;
+                        } else if (degrees == 90) {
+                            sx = y;
+                            sy = HEIGHT - 1 - x;
+                        } else if (degrees == 180) {
+                            sx = WIDTH - 1 - x;
+                            sy = HEIGHT - 1 - y;
+                        } else {
+                            sx = WIDTH - 1 - y;
+                            sy = x;
+                        }
+                        assertEquals(degrees + " at " + x + "," + y, src.getLuma(sx, sy), dst.getLuma(x, y));
+                    }
+                }
+                // chroma too: back through another layout and the opposite rotation gives the source
+                YuvFrame back = YuvFrame.allocate(WIDTH, HEIGHT, 4, false, false);
+                YuvFrame turned = YuvFrame.allocate(dst.getWidth(), dst.getHeight(), 0, true, false);
+                kernels.convert(dst, turned);
+                kernels.rotate(turned, back, (360 - degrees) % 360);
+                assertSamePicture(src, back);
+            }
+        }
+    }
+
+    public void testDownscaleAveragesBoxes() {
+        YuvFrame src = cameraFrame(WIDTH, HEIGHT);
+        for (int factor = 2; factor <= 4; factor += 2) {
+            YuvFrame serial = YuvFrame.allocatePacked(WIDTH / factor, HEIGHT / factor, true, false);
+            YuvFrame parallel = YuvFrame.allocatePacked(WIDTH / factor, HEIGHT / factor, false, true);
+            _Serial.downscale(src, serial, factor);
+            _Parallel.downscale(src, parallel, factor);
+            for (int y = 0; y < HEIGHT / factor; y++) {
+                for (int x = 0; x < WIDTH / factor; x++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < factor; dy++) {
+                        for (int dx = 0; dx < factor; dx++) {
+                            sum += src.getLuma(x * factor + dx, y * factor + dy);
+                        }
+                    }
+                    int area = factor * factor;
+                    assertEquals((sum + area / 2) / area, serial.getLuma(x, y));
+                }
+            }
+            assertSamePicture(serial, parallel);
+        }
+        try {
+            _Serial.downscale(src, YuvFrame.allocatePacked(WIDTH / 3, HEIGHT / 3, true, false), 3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCropCopiesTheWindow() {
+        YuvFrame src = cameraFrame(WIDTH, HEIGHT);
+        YuvFrame dst = YuvFrame.allocate(20, 14, 6, true, false);
+        _Parallel.crop(src, dst, 10, 8);
+        for (int y = 0; y < 14; y++) {
+            for (int x = 0; x < 20; x++) {
+                assertEquals(src.getLuma(x + 10, y + 8), dst.getLuma(x, y));
+                assertEquals(src.getChroma(YuvFrame.U, x + 10, y + 8), dst.getChroma(YuvFrame.U, x, y));
+                assertEquals(src.getChroma(YuvFrame.V, x + 10, y + 8), dst.getChroma(YuvFrame.V, x, y));
+            }
+        }
+        try {
+            // odd offsets would split chroma samples
+            _Serial.crop(src, dst, 9, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            _Serial.crop(src, dst, 30, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testLargeFrameMatchesSerial() {
+        YuvFrame src = cameraFrame(1280, 720);
+        YuvFrame serial = YuvFrame.allocatePacked(720, 1280, true, true);
+        YuvFrame parallel = YuvFrame.allocatePacked(720, 1280, true, true);
+        _Serial.rotate(src, serial, 90);
+        new YuvKernels(_Pool).rotate(src, parallel, 90);
+        assertSamePicture(serial, parallel);
+    }
+
+    /**
+     * A frame laid out like a camera image: padded rows, NV21 chroma, distinct values everywhere.
+     */
+    private static YuvFrame cameraFrame(int width, int height) {
+        YuvFrame frame = YuvFrame.allocate(width, height, 16, true, true);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame.getPlane(YuvFrame.Y).put(y * frame.getRowStride(YuvFrame.Y) + x, (byte) (x * 3 + y * 7));
+            }
+        }
+        for (int plane = YuvFrame.U; plane <= YuvFrame.V; plane++) {
+            for (int y = 0; y < height / 2; y++) {
+                for (int x = 0; x < width / 2; x++) {
+                    frame.getPlane(plane).put(y * frame.getRowStride(plane) + x * frame.getPixelStride(plane),
+                            (byte) (plane * 40 + x * 5 + y * 11));
+                }
+            }
+        }
+        return frame;
+    }
+
+    private static void assertSamePicture(YuvFrame expected, YuvFrame actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getLuma(x, y), actual.getLuma(x, y));
+                assertEquals(expected.getChroma(YuvFrame.U, x, y), actual.getChroma(YuvFrame.U, x, y));
+                assertEquals(expected.getChroma(YuvFrame.V, x, y), actual.getChroma(YuvFrame.V, x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.CapabilityCache;
+import com.example.android.camera2video.StreamConfigSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup configuration with and without the capability cache, up to the solved stream config.
+ * <p>
+ * cold builds the capabilities from the raw size tables (what DeviceCapabilities does with the
+ * query results), writes the cache and solves; cached loads the file and solves.  The camera
+ * service round trips that dominate the cold path on a device can't be reproduced here, so
+ * cold is a lower bound; DeviceCapabilities logs both paths on the device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CapabilityCacheBenchmark {
+    private static final String KEY = "vendor/device/device:6.0/MRA58K/2256973:user/release-keys|2256973|23";
+
+    private int[][] _Sizes;
+    private File _File;
+    private byte[] _Data;
+
+    @Setup
+    public void setUp() throws IOException {
+        _Sizes = new int[][]{{4032, 3024}, {3840, 2160}, {3264, 2448}, {2560, 1440}, {1920, 1440},
+                {1920, 1080}, {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720}, {1024, 768},
+                {960, 720}, {800, 600}, {720, 480}, {640, 480}, {640, 360}, {352, 288},
+                {320, 240}, {176, 144}};
+        _File = File.createTempFile("capabilities", ".bin");
+        query().save(_File);
+        _Data = query().toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        _File.delete();
+    }
+
+    private CapabilityCache query() {
+        CapabilityCache cache = new CapabilityCache(KEY);
+        for (String id : new String[]{"0", "1"}) {
+            List<StreamConfigSolver.StreamSize> sizes = new ArrayList<>(_Sizes.length);
+            for (int[] size : _Sizes) {
+                long duration = (long) size[0] * size[1] > 1920 * 1080 ? 33333333 : 16666666;
+                sizes.add(new StreamConfigSolver.StreamSize(size[0], size[1], duration));
+            }
+            cache.putCamera(id, new StreamConfigSolver(sizes, sizes));
+        }
+        cache.putEncoder("video/avc", "OMX.vendor.video.encoder.avc");
+        cache.putEncoder("video/hevc", "OMX.vendor.video.encoder.hevc");
+        cache.putEncoder("audio/mp4a-latm", "OMX.google.aac.encoder");
+        return cache;
+    }
+
+    @Benchmark
+    public StreamConfigSolver.Result cold() throws IOException {
+        CapabilityCache cache = query();
+        cache.save(_File);
+        return cache.getCamera("0").solve(1440, 1080, 30, 1080, 2160);
+    }
+
+    @Benchmark
+    public StreamConfigSolver.Result cached() {
+        CapabilityCache cache = CapabilityCache.load(_File, KEY);
+        return cache.getCamera("0").solve(1440, 1080, 30, 1080, 2160);
+    }
+
+    /**
+     * The cached path without the file system.
+     */
+    @Benchmark
+    public CapabilityCache decode() {
+        return CapabilityCache.fromByteArray(_Data, KEY);
+    }
+}
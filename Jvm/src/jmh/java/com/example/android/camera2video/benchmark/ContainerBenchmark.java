@@ -0,0 +1,88 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.FragmentedMp4Muxer;
+import com.example.android.camera2video.SampleMuxer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Container writing cost of {@link FragmentedMp4Muxer}: start code to length prefix rewriting
+ * and moof/mdat building for a synthetic 10 second stream, written to a channel that discards
+ * everything so storage speed does not count.  Scores are samples per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContainerBenchmark {
+    private static final int SAMPLES = 300;
+    private static final int GOP = 30;
+    private static final long FRAME_US = 33333;
+
+    @Param({"8000", "50000"})
+    public int sampleSize;
+
+    private ByteBuffer[] _Samples;
+    private ByteBuffer _Sps;
+    private ByteBuffer _Pps;
+    private final NullChannel _Channel = new NullChannel();
+
+    private static class NullChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            bytes += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        _Samples = SyntheticStream.accessUnits(SAMPLES, sampleSize, GOP, 42);
+        _Sps = ByteBuffer.wrap(SyntheticStream.SPS);
+        _Pps = ByteBuffer.wrap(SyntheticStream.PPS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public long fragmentedMp4() throws Exception {
+        FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(_Channel);
+        muxer.addVideoTrack(0, 0, _Sps.duplicate(), _Pps.duplicate());
+        muxer.start();
+        for (int i = 0; i < SAMPLES; i++) {
+            muxer.writeSampleData(_Samples[i].duplicate(), i * FRAME_US,
+                    i % GOP == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0);
+        }
+        muxer.stop();
+        return muxer.getBytesWritten();
+    }
+}
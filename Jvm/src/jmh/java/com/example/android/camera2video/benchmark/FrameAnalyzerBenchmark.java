@@ -0,0 +1,67 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.LumaHistogramAnalyzer;
+import com.example.android.camera2video.SharpnessAnalyzer;
+import com.example.android.camera2video.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per frame of the analysis tap's analyzers on a direct, row-padded, interleaved-chroma
+ * frame like an ImageReader delivers.  At 30 fps one worker has 33 ms per frame for everything.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameAnalyzerBenchmark {
+    /** Analysis stream size, width x height. */
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    /** Sampling distance of the analyzers. */
+    @Param({"1", "4"})
+    public int step;
+
+    private YuvFrame _Frame;
+    private final int[] _Counts = new int[LumaHistogramAnalyzer.BINS];
+
+    @Setup
+    public void setUp() {
+        int x = size.indexOf('x');
+        int width = Integer.parseInt(size.substring(0, x));
+        int height = Integer.parseInt(size.substring(x + 1));
+        _Frame = YuvFrame.allocate(width, height, 64, true, true);
+        ByteBuffer luma = _Frame.getPlane(YuvFrame.Y);
+        Random random = new Random(42);
+        for (int i = 0; i < luma.capacity(); i++) {
+            luma.put(i, (byte) random.nextInt(256));
+        }
+    }
+
+    @Benchmark
+    public int lumaHistogram() {
+        return LumaHistogramAnalyzer.count(_Frame, step, _Counts);
+    }
+
+    @Benchmark
+    public double sharpness() {
+        return SharpnessAnalyzer.measure(_Frame, step);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link LatencyHistogram#record} on the frame path, alone and with the codec and
+ * writer threads recording into the same histogram.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+    private final LatencyHistogram _Histogram = new LatencyHistogram();
+
+    @State(Scope.Thread)
+    public static class Values {
+        long next = 12345;
+    }
+
+    @Benchmark
+    public void record(Values values) {
+        _Histogram.record(nextValue(values));
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void recordContended(Values values) {
+        _Histogram.record(nextValue(values));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long snapshotP99() {
+        return _Histogram.snapshot().getPercentile(99);
+    }
+
+    private static long nextValue(Values values) {
+        // cheap LCG spread over 0..64 ms
+        values.next = values.next * 6364136223846793005L + 1442695040888963407L;
+        return (values.next >>> 40) & 0xffff;
+    }
+}
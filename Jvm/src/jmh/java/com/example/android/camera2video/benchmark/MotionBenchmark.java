@@ -0,0 +1,85 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.MotionScorer;
+import com.example.android.camera2video.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per frame of motion scoring, alternating between two noisy frames so every block is
+ * decimated and differenced, on one thread and split into stripes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MotionBenchmark {
+    /** Analysis stream size, width x height. */
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    /** Decimation factor; blocks are 8 decimated pixels. */
+    @Param({"2", "4"})
+    public int factor;
+
+    /** Stripes per frame, the calling thread running one. */
+    @Param({"1", "4"})
+    public int stripes;
+
+    private final YuvFrame[] _Frames = new YuvFrame[2];
+    private MotionScorer _Scorer;
+    private ExecutorService _Workers;
+    private int _Next;
+
+    @Setup
+    public void setUp() {
+        int x = size.indexOf('x');
+        int width = Integer.parseInt(size.substring(0, x));
+        int height = Integer.parseInt(size.substring(x + 1));
+        Random random = new Random(42);
+        for (int f = 0; f < _Frames.length; f++) {
+            _Frames[f] = YuvFrame.allocate(width, height, 64, true, true);
+            ByteBuffer luma = _Frames[f].getPlane(YuvFrame.Y);
+            for (int i = 0; i < luma.capacity(); i++) {
+                luma.put(i, (byte) random.nextInt(256));
+            }
+        }
+        _Scorer = new MotionScorer(width, height, factor, 8);
+        if (stripes > 1) {
+            _Workers = Executors.newFixedThreadPool(stripes - 1);
+            _Scorer.setParallelism(_Workers, stripes);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (_Workers != null) {
+            _Workers.shutdown();
+        }
+    }
+
+    @Benchmark
+    public float score() {
+        _Next ^= 1;
+        return _Scorer.score(_Frames[_Next]);
+    }
+}
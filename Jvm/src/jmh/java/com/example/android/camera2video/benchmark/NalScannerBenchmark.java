@@ -0,0 +1,86 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.H264Sps;
+import com.example.android.camera2video.NalScanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning throughput of {@link NalScanner}.  Each invocation scans a 64 MiB buffer and counts
+ * as 64 operations, so the score reads directly as MiB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NalScannerBenchmark {
+    private static final int MIB = 1024 * 1024;
+    private static final int BUFFER_MIB = 64;
+
+    /** Mean slice size: small P slices at low bitrate up to large I slices. */
+    @Param({"1500", "65536"})
+    public int nalSize;
+
+    private ByteBuffer _AnnexB;
+    private ByteBuffer _Avcc;
+    private ByteBuffer _Sps;
+    private final NalScanner _Scanner = new NalScanner();
+    private final H264Sps _Parsed = new H264Sps();
+
+    @Setup
+    public void setUp() {
+        _AnnexB = SyntheticStream.create(BUFFER_MIB * MIB, nalSize, 30, 0, 42);
+        _Avcc = SyntheticStream.create(BUFFER_MIB * MIB, nalSize, 30, 4, 42);
+        _Sps = ByteBuffer.allocateDirect(SyntheticStream.SPS.length);
+        _Sps.put(SyntheticStream.SPS).flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BUFFER_MIB)
+    public int scanAnnexB() {
+        NalScanner scanner = _Scanner.reset(_AnnexB);
+        int idr = 0;
+        while (scanner.next()) {
+            if (scanner.getNalType() == NalScanner.TYPE_IDR) {
+                idr++;
+            }
+        }
+        return idr;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BUFFER_MIB)
+    public int scanAvcc() {
+        NalScanner scanner = _Scanner.resetAvcc(_Avcc, 4);
+        int idr = 0;
+        while (scanner.next()) {
+            if (scanner.getNalType() == NalScanner.TYPE_IDR) {
+                idr++;
+            }
+        }
+        return idr;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int parseSps() {
+        _Parsed.parse(_Sps, 0, _Sps.limit());
+        return _Parsed.getWidth();
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.FragmentedMp4Muxer;
+import com.example.android.camera2video.RecordSimulation;
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SegmentingMuxer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host CPU cost of the record path: ten simulated seconds of 1080p30 at 8 Mbit/s through the
+ * fake camera, the driver, the record path and the fake codec on a virtual clock, into the
+ * fragmented MP4 muxer.  Scores are simulated frame periods per second of wall time, the fakes
+ * and the clock included; the simulated latencies and drops don't depend on the host and are
+ * checked by RecordSimulationTest instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordSimulationBenchmark {
+    private static final long MS = 1000000L;
+    private static final int FRAME_RATE = 30;
+    private static final int SECONDS = 10;
+
+    /** clean, or a camera disconnect plus codec and writer stalls along the way. */
+    @Param({"clean", "faults"})
+    public String scenario;
+
+    private static class NullChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SECONDS * FRAME_RATE)
+    public long record() {
+        final RecordSimulation simulation = new RecordSimulation(1920, 1080, FRAME_RATE);
+        simulation.getRecordPath().setBitrate(8000000, 8000000, 8000000);
+        simulation.setMuxerFactory(new SegmentingMuxer.Factory() {
+            @Override
+            public SampleMuxer create(int segmentIndex) {
+                return new FragmentedMp4Muxer(new NullChannel());
+            }
+        });
+        long t0 = simulation.getClock().nowNs();
+        if (scenario.equals("faults")) {
+            simulation.getClock().scheduleAt(new Runnable() {
+                @Override
+                public void run() {
+                    simulation.getCamera().disconnect();
+                }
+            }, t0 + 3000 * MS);
+            simulation.getCodec().stall(t0 + 6000 * MS, 300 * MS);
+            simulation.stallWriter(t0 + 8000 * MS, 1000 * MS);
+        }
+        simulation.start();
+        simulation.runFor(300 * MS);
+        simulation.startRecording();
+        simulation.runFor(SECONDS * 1000 * MS);
+        simulation.release();
+        return simulation.getCodec().getOutputCount();
+    }
+}
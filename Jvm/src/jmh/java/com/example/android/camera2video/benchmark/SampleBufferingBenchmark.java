@@ -0,0 +1,93 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.PreRollBuffer;
+import com.example.android.camera2video.SampleMuxer;
+import com.example.android.camera2video.SampleRing;
+import com.example.android.camera2video.SampleSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample cost of the buffers between the codec callback and the muxer: a
+ * {@link SampleRing} offer/drain round trip and a {@link PreRollBuffer} add with eviction.
+ * Each invocation pushes one synthetic 10 second stream, scores are samples per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleBufferingBenchmark {
+    private static final int SAMPLES = 300;
+    private static final int GOP = 30;
+    private static final long FRAME_US = 33333;
+
+    /** Mean P frame size: about 2 Mbps and 12 Mbps at 30 fps. */
+    @Param({"8000", "50000"})
+    public int sampleSize;
+
+    private ByteBuffer[] _Samples;
+    private SampleRing _Ring;
+    private PreRollBuffer _PreRoll;
+    private final CountingSink _Sink = new CountingSink();
+
+    private static class CountingSink implements SampleSink {
+        long bytes;
+
+        @Override
+        public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) {
+            bytes += data.remaining();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        _Samples = SyntheticStream.accessUnits(SAMPLES, sampleSize, GOP, 42);
+        _Ring = new SampleRing(90, 64 * 1024);
+        // holds about three seconds, so steady state evicts one sample per add
+        _PreRoll = new PreRollBuffer(sampleSize * 3 * GOP * 2, 1000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public long ringOfferDrain() throws Exception {
+        for (int i = 0; i < SAMPLES; i++) {
+            _Ring.offer(_Samples[i], i * FRAME_US, flags(i));
+            if (i % 16 == 15) {
+                _Ring.drainTo(_Sink, 16);
+            }
+        }
+        while (_Ring.drainTo(_Sink, 16) > 0) {
+            // empty it for the next invocation
+        }
+        return _Sink.bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int preRollAdd() {
+        for (int i = 0; i < SAMPLES; i++) {
+            _PreRoll.add(_Samples[i], i * FRAME_US, flags(i));
+        }
+        return _PreRoll.getSampleCount();
+    }
+
+    private static int flags(int i) {
+        return i % GOP == 0 ? SampleMuxer.FLAG_KEY_FRAME : 0;
+    }
+}
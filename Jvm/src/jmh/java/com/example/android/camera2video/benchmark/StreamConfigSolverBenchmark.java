@@ -0,0 +1,66 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.StreamConfigSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size selection cost on camera open: solving against a full-sized capability table, and
+ * reading such a table back from a dump.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamConfigSolverBenchmark {
+    private String _Dump;
+    private StreamConfigSolver _Solver;
+
+    @Setup
+    public void setUp() {
+        // every common size at 30 and 60 fps, about as many as a current phone lists
+        StringBuilder dump = new StringBuilder();
+        int[][] sizes = {{4032, 3024}, {3840, 2160}, {3264, 2448}, {2560, 1440}, {1920, 1440},
+                {1920, 1080}, {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720}, {1024, 768},
+                {960, 720}, {800, 600}, {720, 480}, {640, 480}, {640, 360}, {352, 288},
+                {320, 240}, {176, 144}};
+        for (String tag : new String[]{"video:", "preview:"}) {
+            dump.append(tag);
+            for (int[] size : sizes) {
+                long duration = (long) size[0] * size[1] > 1920 * 1080 ? 33333333 : 16666666;
+                dump.append(' ').append(size[0]).append('x').append(size[1]).append('@').append(duration);
+            }
+            dump.append('\n');
+        }
+        _Dump = dump.toString();
+        _Solver = StreamConfigSolver.fromDump(_Dump);
+    }
+
+    @Benchmark
+    public StreamConfigSolver.Result solve() {
+        return _Solver.solve(1440, 1080, 30, 1080, 2160);
+    }
+
+    @Benchmark
+    public StreamConfigSolver.Result solveUnmet() {
+        return _Solver.solve(3840, 2160, 120, 1080, 2160);
+    }
+
+    @Benchmark
+    public StreamConfigSolver parseDump() {
+        return StreamConfigSolver.fromDump(_Dump);
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.FragmentedMp4Muxer;
+import com.example.android.camera2video.InputFrameQueue;
+import com.example.android.camera2video.LumaHistogramAnalyzer;
+import com.example.android.camera2video.SampleRing;
+import com.example.android.camera2video.SampleSink;
+import com.example.android.camera2video.SharpnessAnalyzer;
+import com.example.android.camera2video.SyntheticFrameSource;
+import com.example.android.camera2video.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput ceilings of the pipeline stages behind the camera, fed at full speed from a
+ * {@link SyntheticFrameSource}: drawing alone, the encoder input queue copying into codec-like
+ * buffers, the analyzers, and encoder-sized samples through the sample ring into the fragmented
+ * MP4 muxer.  Scores are frames per second, drawing included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SyntheticPipelineBenchmark {
+    private static final int FRAMES = 30;
+    private static final int GOP = 30;
+
+    /** Frame size, width x height. */
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    private SyntheticFrameSource _Source;
+    private YuvFrame _Frame;
+    private SyntheticFrameSource.Target _Draw;
+    private InputFrameQueue _Queue;
+    private SyntheticFrameSource.Target _Analyze;
+    private SyntheticFrameSource.Target _Mux;
+    private FragmentedMp4Muxer _Muxer;
+
+    private static class NullChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        int x = size.indexOf('x');
+        final int width = Integer.parseInt(size.substring(0, x));
+        final int height = Integer.parseInt(size.substring(x + 1));
+        _Source = new SyntheticFrameSource(width, height, 30);
+        _Frame = YuvFrame.allocatePacked(width, height, true, true);
+        _Draw = SyntheticFrameSource.toAnalyzers(_Frame);
+
+        // a codec that takes every buffer at once, into padded NV12 like real encoders want
+        final int stride = (width + 63) & ~63;
+        final int sliceHeight = (height + 15) & ~15;
+        final ByteBuffer codecBuffer = ByteBuffer.allocateDirect(YuvFrame.packedSize(width, height, stride,
+                sliceHeight));
+        final YuvFrame codecFrame = new YuvFrame();
+        final InputFrameQueue[] queue = new InputFrameQueue[1];
+        _Queue = queue[0] = new InputFrameQueue(new InputFrameQueue.Host() {
+            @Override
+            public void fill(int index, YuvFrame frame) {
+                YuvFrame.wrapPacked(codecFrame, codecBuffer, width, height, stride, sliceHeight, true);
+                YuvFrame.copy(frame, codecFrame);
+                queue[0].onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void queueEndOfStream(int index) {
+            }
+        }, width, height, 3, true);
+        _Queue.onInputBufferAvailable(0);
+
+        _Analyze = SyntheticFrameSource.toAnalyzers(_Frame, new LumaHistogramAnalyzer(4), new SharpnessAnalyzer(4));
+
+        // about 4 Mbit/s at 30 fps, through the ring the writer thread would drain
+        final SampleRing ring = new SampleRing(8, 32 * 1024);
+        _Muxer = new FragmentedMp4Muxer(new NullChannel());
+        _Muxer.addVideoTrack(width, height, ByteBuffer.wrap(SyntheticStream.SPS), ByteBuffer.wrap(SyntheticStream.PPS));
+        _Muxer.start();
+        _Mux = SyntheticFrameSource.toSamples(_Frame, new SampleSink() {
+            @Override
+            public void writeSampleData(ByteBuffer data, long presentationTimeUs, int flags) throws IOException {
+                ring.offer(data, presentationTimeUs, flags);
+                ring.drainTo(_Muxer, 8);
+            }
+        }, 16 * 1024, GOP);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        _Queue.close();
+        _Muxer.stop();
+    }
+
+    /**
+     * The queue and the muxer want timestamps that keep increasing, so every run carries on
+     * where the last one stopped.
+     */
+    private long run(SyntheticFrameSource.Target target) throws Exception {
+        _Source.setStartNs(_Source.getTimestampNs(FRAMES));
+        return _Source.run(target, FRAMES, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long draw() throws Exception {
+        return run(_Draw);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long encoderQueue() throws Exception {
+        return run(SyntheticFrameSource.toQueue(_Queue, 1000));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long analyze() throws Exception {
+        return run(_Analyze);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long mux() throws Exception {
+        return run(_Mux);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.camera2video.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Builds H.264-shaped byte streams for the benchmarks: an SPS/PPS/IDR group followed by
+ * non-IDR slices, with payload bytes that never form a start code (as emulation prevention
+ * guarantees for real streams).
+ */
+final class SyntheticStream {
+    static final byte[] SPS = {0x67, 0x42, (byte) 0xc0, 0x28, (byte) 0xda, 0x01, 0x68, 0x08,
+            0x7b, 0x01, 0x6a, 0x02, 0x02, 0x02, (byte) 0x80};
+    static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private SyntheticStream() {
+    }
+
+    /**
+     * @param totalBytes size of the returned (direct) buffer
+     * @param meanNalSize average slice size
+     * @param gopLength slices per IDR
+     * @param lengthSize 0 for Annex-B start codes, otherwise the AVCC length field size
+     */
+    static ByteBuffer create(int totalBytes, int meanNalSize, int gopLength, int lengthSize, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer out = ByteBuffer.allocateDirect(totalBytes);
+        int slice = 0;
+        while (true) {
+            boolean idr = slice % gopLength == 0;
+            if (idr && !put(out, SPS.length, lengthSize)) {
+                break;
+            }
+            if (idr) {
+                out.put(SPS);
+                if (!put(out, PPS.length, lengthSize)) {
+                    break;
+                }
+                out.put(PPS);
+            }
+            int size = meanNalSize / 2 + random.nextInt(meanNalSize);
+            if (!put(out, size, lengthSize)) {
+                break;
+            }
+            out.put((byte) (idr ? 0x65 : 0x41));
+            for (int i = 1; i < size; i++) {
+                // 0x04..0xff, so no 00 00 0x sequence can form
+                out.put((byte) (4 + random.nextInt(252)));
+            }
+            slice++;
+        }
+        // zero fill the tail so every byte of the buffer is scanned
+        while (out.hasRemaining()) {
+            out.put((byte) 0);
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Encoder-output shaped access units: an Annex-B IDR (with SPS/PPS) every gopLength samples
+     * and a single non-IDR slice otherwise.  I frames are four times the mean size.
+     */
+    static ByteBuffer[] accessUnits(int count, int meanSize, int gopLength, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer[] units = new ByteBuffer[count];
+        for (int n = 0; n < count; n++) {
+            boolean idr = n % gopLength == 0;
+            int size = (idr ? meanSize * 4 : meanSize / 2 + random.nextInt(meanSize));
+            ByteBuffer out = ByteBuffer.allocateDirect(size + (idr ? 8 + SPS.length + PPS.length + 4 : 4));
+            if (idr) {
+                put(out, SPS.length, 0);
+                out.put(SPS);
+                put(out, PPS.length, 0);
+                out.put(PPS);
+            }
+            put(out, size, 0);
+            out.put((byte) (idr ? 0x65 : 0x41));
+            for (int i = 1; i < size; i++) {
+                out.put((byte) (4 + random.nextInt(252)));
+            }
+            out.flip();
+            units[n] = out;
+        }
+        return units;
+    }
+
+    private static boolean put(ByteBuffer out, int size, int lengthSize) {
+        int header = lengthSize == 0 ? 4 : lengthSize;
+        if (out.remaining() < header + size) {
+            return false;
+        }
+        if (lengthSize == 0) {
+            out.putInt(1);
+        } else {
+            for (int i = lengthSize - 1; i >= 0; i--) {
+                out.put((byte) (size >> (i * 8)));
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.camera2video.benchmark;
+
+import com.example.android.camera2video.YuvFrame;
+import com.example.android.camera2video.YuvKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per frame of each YUV kernel from a padded NV21 camera-like frame into packed NV12
+ * destinations allocated once, on the calling thread and on a fork-join pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YuvKernelsBenchmark {
+    /** Source size, width x height. */
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    /** Fork-join parallelism; 1 runs on the calling thread. */
+    @Param({"1", "4"})
+    public int threads;
+
+    private ForkJoinPool _Pool;
+    private YuvKernels _Kernels;
+    private YuvFrame _Source;
+    private YuvFrame _Converted;
+    private YuvFrame _Rotated;
+    private YuvFrame _Half;
+    private YuvFrame _Quarter;
+    private YuvFrame _Cropped;
+
+    @Setup
+    public void setUp() {
+        int x = size.indexOf('x');
+        int width = Integer.parseInt(size.substring(0, x));
+        int height = Integer.parseInt(size.substring(x + 1));
+        _Source = YuvFrame.allocate(width, height, 64, true, true);
+        Random random = new Random(42);
+        for (int plane = YuvFrame.Y; plane <= YuvFrame.V; plane++) {
+            ByteBuffer buffer = _Source.getPlane(plane);
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) random.nextInt(256));
+            }
+        }
+        if (threads > 1) {
+            _Pool = new ForkJoinPool(threads);
+        }
+        _Kernels = new YuvKernels(_Pool);
+        _Converted = YuvFrame.allocatePacked(width, height, true, true);
+        _Rotated = YuvFrame.allocatePacked(height, width, true, true);
+        _Half = YuvFrame.allocatePacked(width / 2, height / 2, true, true);
+        _Quarter = YuvFrame.allocatePacked(width / 4, height / 4, true, true);
+        _Cropped = YuvFrame.allocatePacked(width / 2, height / 2, true, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (_Pool != null) {
+            _Pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public YuvFrame convert() {
+        _Kernels.convert(_Source, _Converted);
+        return _Converted;
+    }
+
+    @Benchmark
+    public YuvFrame rotate90() {
+        _Kernels.rotate(_Source, _Rotated, 90);
+        return _Rotated;
+    }
+
+    @Benchmark
+    public YuvFrame downscale2() {
+        _Kernels.downscale(_Source, _Half, 2);
+        return _Half;
+    }
+
+    @Benchmark
+    public YuvFrame downscale4() {
+        _Kernels.downscale(_Source, _Quarter, 4);
+        return _Quarter;
+    }
+
+    @Benchmark
+    public YuvFrame crop() {
+        _Kernels.crop(_Source, _Cropped, _Source.getWidth() / 4 & ~1, _Source.getHeight() / 4 & ~1);
+        return _Cropped;
+    }
+}